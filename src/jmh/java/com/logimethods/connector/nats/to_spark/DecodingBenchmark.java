@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.nats.to_spark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.spark.storage.StorageLevel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.logimethods.connector.nats_spark.NatsSparkUtilities;
+
+import io.nats.client.Message;
+import scala.Tuple2;
+
+/**
+ * The per message cost of the receivers, when decoding the NATS Messages into records, as well as into Key (the NATS Subject) / Value records
+ * (whose subjects are interned, unless disabled), through the very same methods as the receivers.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DecodingBenchmark {
+
+	protected StandardNatsToSparkConnectorImpl<?> connector;
+	protected StandardNatsToKeyValueSparkConnectorImpl<?> keyValueConnector;
+	protected StandardNatsToKeyValueSparkConnectorImpl<?> notInternedConnector;
+	protected Message message;
+
+	@Setup
+	public void setup() {
+		connector = NatsToSparkConnector.receiveFromNats(Float.class, StorageLevel.MEMORY_ONLY()).withSubjects("benchmark.subject");
+		keyValueConnector = connector.storedAsKeyValue();
+		notInternedConnector = connector.storedAsKeyValue().withInternedSubjects(0);
+		message = new Message("benchmark.subject", null, NatsSparkUtilities.encodeData(1234.5678f));
+	}
+
+	@Benchmark
+	public Object decodeRecord() {
+		return connector.decodeRecord(message.getSubject(), message.getData());
+	}
+
+	@Benchmark
+	public Tuple2<String, ?> decodeKeyValueRecord() {
+		return keyValueConnector.decodeRecord(message.getSubject(), message.getData());
+	}
+
+	@Benchmark
+	public Tuple2<String, ?> decodeNotInternedKeyValueRecord() {
+		return notInternedConnector.decodeRecord(message.getSubject(), message.getData());
+	}
+
+	@Benchmark
+	public void decodeKeyValuePayload(Blackhole blackhole) {
+		keyValueConnector.decodePayload(message.getSubject(), message.getData(), blackhole::consume);
+	}
+}
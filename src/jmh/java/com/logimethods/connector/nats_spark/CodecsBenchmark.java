@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.nats_spark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The per record cost of {@link NatsSparkUtilities#encodeData(Object)} &amp; {@link NatsSparkUtilities#decodeData(Class, byte[])},
+ * for each of the supported types.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CodecsBenchmark {
+
+	@Param({"Double", "Float", "Integer", "Long", "Short", "Byte", "Character", "String", "byte[]"})
+	public String type;
+
+	protected Object value;
+	protected Class<?> valueClass;
+	protected byte[] bytes;
+
+	@Setup
+	public void setup() {
+		switch (type) {
+			case "Double": value = 1234.5678d; break;
+			case "Float": value = 1234.5678f; break;
+			case "Integer": value = 12345678; break;
+			case "Long": value = 1234567890123L; break;
+			case "Short": value = (short) 1234; break;
+			case "Byte": value = (byte) 12; break;
+			case "Character": value = 'N'; break;
+			case "String": value = "A small piece of Text!"; break;
+			case "byte[]": value = new byte[64]; break;
+			default: throw new IllegalArgumentException("Unsupported type: " + type);
+		}
+		valueClass = value.getClass();
+		bytes = NatsSparkUtilities.encodeData(value);
+	}
+
+	@Benchmark
+	public byte[] encodeData() {
+		return NatsSparkUtilities.encodeData(value);
+	}
+
+	@Benchmark
+	public Object decodeData() {
+		return NatsSparkUtilities.decodeData(valueClass, bytes);
+	}
+}
@@ -0,0 +1,61 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.spark.to_nats;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The cost of {@link SparkToNatsConnector#combineSubjects(String, String)}, 
+ * with a simple Global Subject (a prefix) as well as with Subject Patterns,
+ * on a few Keys (always resolved from the cache) and on many Keys (mostly missing the cache).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CombineSubjectsBenchmark {
+
+	@Param({"main-subject.", "*.C => A.B", "^A.> => X."})
+	public String preSubject;
+
+	@Param({"16", "100000"})
+	public int keysCount;
+
+	protected String[] postSubjects;
+	protected int index = 0;
+
+	@Setup
+	public void setup() {
+		postSubjects = new String[keysCount];
+		for (int i = 0; i < keysCount; i++) {
+			postSubjects[i] = "A.C." + i;
+		}
+	}
+
+	@Benchmark
+	public String combineSubjects() {
+		if (++index == keysCount) {
+			index = 0;
+		}
+		return SparkToNatsConnector.combineSubjects(preSubject, postSubjects[index]);
+	}
+}
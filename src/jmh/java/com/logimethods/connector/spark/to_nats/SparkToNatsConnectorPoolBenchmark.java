@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.spark.to_nats;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The cost of borrowing a connector from the pool and returning it (as done by each Spark partition), 
+ * from 1 to 64 concurrent tasks.
+ * No NATS server is required, since the connectors only connect when they first publish.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SparkToNatsConnectorPoolBenchmark {
+
+	protected SparkToNatsConnectorPool<?> pool;
+
+	@Setup
+	public void setup() {
+		pool = SparkToNatsConnectorPool.newPool()
+					.withSubjects("benchmark-subject")
+					.withNatsURL("nats://localhost:4222")
+					.withMaxIdleConnectors(64);
+	}
+
+	protected SparkToNatsConnector<?> getAndReturnConnector() throws Exception {
+		final SparkToNatsConnector<?> connector = pool.getConnector();
+		pool.returnConnector(connector);
+		return connector;
+	}
+
+	@Benchmark
+	@Threads(1)
+	public SparkToNatsConnector<?> getAndReturnConnector_1() throws Exception {
+		return getAndReturnConnector();
+	}
+
+	@Benchmark
+	@Threads(4)
+	public SparkToNatsConnector<?> getAndReturnConnector_4() throws Exception {
+		return getAndReturnConnector();
+	}
+
+	@Benchmark
+	@Threads(16)
+	public SparkToNatsConnector<?> getAndReturnConnector_16() throws Exception {
+		return getAndReturnConnector();
+	}
+
+	@Benchmark
+	@Threads(64)
+	public SparkToNatsConnector<?> getAndReturnConnector_64() throws Exception {
+		return getAndReturnConnector();
+	}
+}
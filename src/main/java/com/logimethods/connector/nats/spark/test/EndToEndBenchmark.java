@@ -0,0 +1,271 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.nats.spark.test;
+
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Level;
+import org.apache.spark.SparkConf;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.function.VoidFunction;
+import org.apache.spark.storage.StorageLevel;
+import org.apache.spark.streaming.Durations;
+import org.apache.spark.streaming.api.java.JavaDStream;
+import org.apache.spark.streaming.api.java.JavaStreamingContext;
+import org.apache.spark.streaming.receiver.Receiver;
+
+import com.logimethods.connector.nats.to_spark.NatsToSparkConnector;
+import com.logimethods.connector.nats_spark.LatencyHistogram;
+import com.logimethods.connector.spark.to_nats.SparkToNatsConnectorPool;
+
+/**
+ * A runnable (Spark <code>local</code> mode) benchmark of the connectors, end to end:
+ * records are generated by a Spark receiver at a given rate &amp; payload size, published to NATS through a <code>SparkToNatsConnectorPool</code>,
+ * received back into Spark through a <code>NatsToSparkConnector</code>, and counted.
+ * <p>
+ * Every second, the sustained rates (msgs/s &amp; bytes/s) and the percentiles of the end to end latency are reported (as CSV or JSON lines),
+ * then a summary of the whole run, including the number of dropped records (the generated records that have not been received back).
+ * Since everything runs in the same JVM, the latencies are measured by a <code>System.nanoTime()</code> stamped into each payload.
+ * <p>
+ * By default, the NATS server is an {@link InProcessNatsServer}, which also reports the number of messages it did receive.
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.logimethods.connector.nats.spark.test.EndToEndBenchmark \
+ *     -Dexec.args="rate=20000 payload=256 duration=60 format=json"
+ * </pre>
+ * The options (given as <code>key=value</code>) are:
+ * <code>rate</code> (records/s, default 10000), <code>payload</code> (bytes, at least 16, default 128), <code>duration</code> (seconds, default 30),
+ * <code>batch</code> (Spark batch interval in ms, default 500), <code>url</code> (of an external NATS server),
+ * <code>master</code> (at least 3 cores, default <code>local[4]</code>) &amp; <code>format</code> (<code>csv</code> or <code>json</code>).
+ */
+public class EndToEndBenchmark {
+
+	protected static final int HEADER_SIZE = 16;
+	protected static final String SUBJECT = "end-to-end-benchmark";
+
+	// Shared by the Spark tasks, which run in the same JVM
+	protected static final LongAdder generated = new LongAdder();
+	protected static final LongAdder received = new LongAdder();
+	protected static final LongAdder receivedBytes = new LongAdder();
+	protected static final LatencyHistogram latencies = new LatencyHistogram();
+	protected static final LatencyHistogram intervalLatencies = new LatencyHistogram();
+
+	protected final int rate;
+	protected final int payloadSize;
+	protected final long duration;
+	protected final long batchInterval;
+	protected final String natsURL;
+	protected final String master;
+	protected final boolean json;
+	protected final PrintStream out;
+
+	/**
+	 * @param options, the options of the benchmark (see above)
+	 * @param out, the stream to report to
+	 */
+	public EndToEndBenchmark(Map<String, String> options, PrintStream out) {
+		this.rate = Integer.parseInt(options.getOrDefault("rate", "10000"));
+		this.payloadSize = Math.max(HEADER_SIZE, Integer.parseInt(options.getOrDefault("payload", "128")));
+		this.duration = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("duration", "30")));
+		this.batchInterval = Long.parseLong(options.getOrDefault("batch", "500"));
+		this.natsURL = options.get("url");
+		this.master = options.getOrDefault("master", "local[4]");
+		// Both receivers permanently hold a core, the batches need the others
+		final Matcher matcher = Pattern.compile("local\\[(\\d+)\\]").matcher(master);
+		if (matcher.matches() && (Integer.parseInt(matcher.group(1)) < 3)) {
+			throw new IllegalArgumentException("The master should provide at least 3 cores (2 of them being used by the receivers): " + master);
+		}
+		this.json = "json".equalsIgnoreCase(options.getOrDefault("format", "csv"));
+		this.out = out;
+	}
+
+	public static void main(String[] args) throws Exception {
+		final Map<String, String> options = new HashMap<String, String>();
+		for (String arg : args) {
+			final int pos = arg.indexOf('=');
+			if (pos < 0) {
+				throw new IllegalArgumentException("The options should be provided as key=value: " + arg);
+			}
+			options.put(arg.substring(0, pos).trim(), arg.substring(pos + 1).trim());
+		}
+		UnitTestUtilities.setLogLevel("org.apache.spark", Level.WARN);
+		UnitTestUtilities.setLogLevel("org.spark_project", Level.WARN);
+		UnitTestUtilities.setLogLevel("com.logimethods", Level.WARN);
+		new EndToEndBenchmark(options, System.out).run();
+		// The NATS connections still pooled by the executors would otherwise keep the JVM alive
+		System.exit(0);
+	}
+
+	/**
+	 * Run the benchmark, then report its summary.
+	 * @throws Exception if the benchmark could not be run
+	 */
+	public void run() throws Exception {
+		try (InProcessNatsServer server = (natsURL == null) ? new InProcessNatsServer() : null) {
+			final String url = (server != null) ? server.getURL() : natsURL;
+			final SparkConf sparkConf = new SparkConf()
+												.setAppName("NATS Connectors End to End Benchmark")
+												.setMaster(master)
+												.set("spark.ui.enabled", "false")
+												// Stopping the receivers blocks RPC dispatcher threads (there are as many as cores by default)
+												.set("spark.rpc.netty.dispatcher.numThreads", "8");
+			final JavaStreamingContext ssc = new JavaStreamingContext(sparkConf, Durations.milliseconds(batchInterval));
+
+			final JavaDStream<byte[]> records = ssc.receiverStream(new RateReceiver(rate, payloadSize, duration));
+			SparkToNatsConnectorPool.newPool()
+				.withNatsURL(url)
+				.withSubjects(SUBJECT)
+				.publishToNats(records);
+
+			final JavaDStream<byte[]> messages =
+					NatsToSparkConnector
+						.receiveFromNats(byte[].class, StorageLevel.MEMORY_ONLY())
+						.withNatsURL(url)
+						.withSubjects(SUBJECT)
+						.asStreamOf(ssc);
+			messages.foreachRDD((VoidFunction<JavaRDD<byte[]>>) rdd -> rdd.foreach(EndToEndBenchmark::receive));
+
+			printHeader();
+			ssc.start();
+			final long start = System.nanoTime();
+			long lastReport = start;
+			long lastCount = 0;
+			long lastBytes = 0;
+			// Wait for the end of the generation, then for the last records to be received
+			final long end = start + duration + TimeUnit.MILLISECONDS.toNanos(Math.max(2000, 4 * batchInterval));
+			while (System.nanoTime() < end) {
+				TimeUnit.SECONDS.sleep(1);
+				final long now = System.nanoTime();
+				final long count = received.sum();
+				final long bytes = receivedBytes.sum();
+				final double elapsed = (now - lastReport) / (double) TimeUnit.SECONDS.toNanos(1);
+				printLine((now - start) / TimeUnit.SECONDS.toNanos(1), generated.sum(), count,
+						  (count - lastCount) / elapsed, (bytes - lastBytes) / elapsed, intervalLatencies);
+				intervalLatencies.reset();
+				lastReport = now;
+				lastCount = count;
+				lastBytes = bytes;
+			}
+			final double seconds = duration / (double) TimeUnit.SECONDS.toNanos(1);
+			printSummary(generated.sum(), received.sum(), received.sum() / seconds, receivedBytes.sum() / seconds,
+						 (server != null) ? server.getInMsgs() : -1);
+			ssc.stop(true, false);
+		}
+	}
+
+	/**
+	 * @param bytes, a record received back into Spark
+	 */
+	protected static void receive(byte[] bytes) {
+		final long latency = System.nanoTime() - ByteBuffer.wrap(bytes).getLong(0);
+		latencies.record(latency);
+		intervalLatencies.record(latency);
+		received.increment();
+		receivedBytes.add(bytes.length);
+	}
+
+	protected void printHeader() {
+		if (! json) {
+			out.println("elapsed_s,generated,received,msgs_per_s,bytes_per_s,latency_p50_us,latency_p99_us,latency_p999_us,latency_max_us");
+		}
+	}
+
+	protected void printLine(long elapsed, long generatedCount, long receivedCount, double msgsPerSecond, double bytesPerSecond, LatencyHistogram histogram) {
+		if (json) {
+			out.println(String.format(Locale.ROOT,
+					"{\"elapsed_s\":%d,\"generated\":%d,\"received\":%d,\"msgs_per_s\":%.0f,\"bytes_per_s\":%.0f,%s}",
+					elapsed, generatedCount, receivedCount, msgsPerSecond, bytesPerSecond, jsonLatencies(histogram)));
+		} else {
+			out.println(String.format(Locale.ROOT, "%d,%d,%d,%.0f,%.0f,%s",
+					elapsed, generatedCount, receivedCount, msgsPerSecond, bytesPerSecond, csvLatencies(histogram)));
+		}
+	}
+
+	protected void printSummary(long generatedCount, long receivedCount, double msgsPerSecond, double bytesPerSecond, long natsCount) {
+		final long dropped = generatedCount - receivedCount;
+		if (json) {
+			out.println(String.format(Locale.ROOT,
+					"{\"summary\":true,\"rate\":%d,\"payload\":%d,\"generated\":%d,\"published_to_nats\":%d,\"received\":%d,\"dropped\":%d,"
+					+ "\"msgs_per_s\":%.0f,\"bytes_per_s\":%.0f,%s,\"latency_mean_us\":%.1f}",
+					rate, payloadSize, generatedCount, natsCount, receivedCount, dropped, msgsPerSecond, bytesPerSecond,
+					jsonLatencies(latencies), latencies.getMean() / 1000));
+		} else {
+			out.println("# rate,payload,generated,published_to_nats,received,dropped,msgs_per_s,bytes_per_s,latency_p50_us,latency_p99_us,latency_p999_us,latency_max_us");
+			out.println(String.format(Locale.ROOT, "# %d,%d,%d,%d,%d,%d,%.0f,%.0f,%s",
+					rate, payloadSize, generatedCount, natsCount, receivedCount, dropped, msgsPerSecond, bytesPerSecond, csvLatencies(latencies)));
+		}
+	}
+
+	protected static String csvLatencies(LatencyHistogram histogram) {
+		return String.format(Locale.ROOT, "%d,%d,%d,%d",
+				histogram.getValueAtPercentile(50) / 1000, histogram.getValueAtPercentile(99) / 1000,
+				histogram.getValueAtPercentile(99.9) / 1000, histogram.getMax() / 1000);
+	}
+
+	protected static String jsonLatencies(LatencyHistogram histogram) {
+		return String.format(Locale.ROOT, "\"latency_p50_us\":%d,\"latency_p99_us\":%d,\"latency_p999_us\":%d,\"latency_max_us\":%d",
+				histogram.getValueAtPercentile(50) / 1000, histogram.getValueAtPercentile(99) / 1000,
+				histogram.getValueAtPercentile(99.9) / 1000, histogram.getMax() / 1000);
+	}
+
+	/**
+	 * Generates records at a given rate (during a given duration), each of them starting with its generation time &amp; its sequence number.
+	 */
+	@SuppressWarnings("serial")
+	static class RateReceiver extends Receiver<byte[]> {
+		protected final int rate;
+		protected final int payloadSize;
+		protected final long duration;
+
+		RateReceiver(int rate, int payloadSize, long duration) {
+			super(StorageLevel.MEMORY_ONLY());
+			this.rate = rate;
+			this.payloadSize = payloadSize;
+			this.duration = duration;
+		}
+
+		@Override
+		public void onStart() {
+			new Thread(this::generate, "RateReceiver").start();
+		}
+
+		@Override
+		public void onStop() {
+		}
+
+		protected void generate() {
+			final long start = System.nanoTime();
+			long sequence = 0;
+			while (! isStopped()) {
+				final long elapsed = System.nanoTime() - start;
+				if (elapsed >= duration) {
+					return;
+				}
+				final long due = (long) (elapsed * (double) rate / TimeUnit.SECONDS.toNanos(1));
+				while (sequence < due) {
+					final byte[] payload = new byte[payloadSize];
+					ByteBuffer.wrap(payload).putLong(System.nanoTime()).putLong(sequence++);
+					store(payload);
+					generated.increment();
+				}
+				try {
+					TimeUnit.MILLISECONDS.sleep(1);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+	}
+}
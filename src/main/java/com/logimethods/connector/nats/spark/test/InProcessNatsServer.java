@@ -0,0 +1,634 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.nats.spark.test;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.nats.client.NUID;
+
+/**
+ * A pure Java, in-process, stand-in for gnatsd, implementing the core NATS text protocol
+ * (<code>CONNECT</code>, <code>PUB</code>, <code>SUB</code> with queue groups &amp; wildcards, <code>UNSUB</code> with auto-unsubscribe,
+ * <code>MSG</code>, <code>PING</code> &amp; <code>PONG</code>),
+ * to run the tests and the benchmarks without any NATS binary nor fixed port (by default, the server listens on an ephemeral port).
+ * <p>
+ * All the connections are served by a single (NIO based) thread,
+ * the payloads being copied from the buffer of the publisher to the buffers of the subscribers without any intermediate allocation.
+ * The messages &amp; bytes going through the server are counted, for the end-to-end throughput tests to check what has been transferred.
+ * <p>
+ * Neither authorization, TLS, clustering nor NATS Streaming are supported.
+ */
+public class InProcessNatsServer implements AutoCloseable {
+
+	static final Logger logger = LoggerFactory.getLogger(InProcessNatsServer.class);
+
+	public static final int MAX_PAYLOAD = 1024 * 1024;
+	protected static final int MAX_CONTROL_LINE = 4096;
+	protected static final int BUFFER_SIZE = 64 * 1024;
+	protected static final int MAX_PENDING_BYTES = 64 * 1024 * 1024;
+	protected static final int MAX_ROUTES = 10000;
+
+	protected static final byte[] PONG = "PONG\r\n".getBytes(US_ASCII);
+	protected static final byte[] OK = "+OK\r\n".getBytes(US_ASCII);
+	protected static final byte[] CRLF = "\r\n".getBytes(US_ASCII);
+
+	protected final String serverId = NUID.nextGlobal();
+	protected final ServerSocketChannel serverChannel;
+	protected final Selector selector;
+	protected final int port;
+	protected final Thread thread;
+	protected volatile boolean running = true;
+
+	protected final List<Client> clients = new ArrayList<Client>();
+	protected final List<Client> dirtyClients = new ArrayList<Client>();
+	protected final List<Subscription> subscriptions = new ArrayList<Subscription>();
+	protected final HashMap<String, Route> routes = new HashMap<String, Route>();
+	protected int queueCounter = 0;
+
+	protected final LongAdder inMsgs = new LongAdder();
+	protected final LongAdder inBytes = new LongAdder();
+	protected final LongAdder outMsgs = new LongAdder();
+	protected final LongAdder outBytes = new LongAdder();
+	protected final LongAdder totalConnections = new LongAdder();
+	protected final AtomicInteger connectionsCount = new AtomicInteger();
+	protected final AtomicInteger subscriptionsCount = new AtomicInteger();
+
+	/**
+	 * Start a server on an ephemeral port.
+	 * @throws IOException if the server could not be started
+	 */
+	public InProcessNatsServer() throws IOException {
+		this(0);
+	}
+
+	/**
+	 * @param port, the port to listen to (0 for an ephemeral port)
+	 * @throws IOException if the server could not be started
+	 */
+	public InProcessNatsServer(int port) throws IOException {
+		selector = Selector.open();
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(new InetSocketAddress("localhost", port));
+		serverChannel.configureBlocking(false);
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		this.port = ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+
+		thread = new Thread(this::run, "InProcessNatsServer-" + this.port);
+		thread.setDaemon(true);
+		thread.start();
+		logger.debug("{} started", this);
+	}
+
+	/**
+	 * @return the port the server is listening to
+	 */
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * @return the URL to connect to that server
+	 */
+	public String getURL() {
+		return "nats://localhost:" + port;
+	}
+
+	/**
+	 * @return the number of messages published to the server
+	 */
+	public long getInMsgs() {
+		return inMsgs.sum();
+	}
+
+	/**
+	 * @return the number of payload bytes published to the server
+	 */
+	public long getInBytes() {
+		return inBytes.sum();
+	}
+
+	/**
+	 * @return the number of messages delivered by the server
+	 */
+	public long getOutMsgs() {
+		return outMsgs.sum();
+	}
+
+	/**
+	 * @return the number of payload bytes delivered by the server
+	 */
+	public long getOutBytes() {
+		return outBytes.sum();
+	}
+
+	/**
+	 * @return the number of connections accepted since the start of the server
+	 */
+	public long getTotalConnections() {
+		return totalConnections.sum();
+	}
+
+	/**
+	 * @return the number of currently open connections
+	 */
+	public int getConnectionsCount() {
+		return connectionsCount.get();
+	}
+
+	/**
+	 * @return the number of active subscriptions
+	 */
+	public int getSubscriptionsCount() {
+		return subscriptionsCount.get();
+	}
+
+	/**
+	 * Reset the messages &amp; bytes counters.
+	 */
+	public void resetStatistics() {
+		inMsgs.reset();
+		inBytes.reset();
+		outMsgs.reset();
+		outBytes.reset();
+	}
+
+	@Override
+	public void close() {
+		running = false;
+		selector.wakeup();
+		try {
+			thread.join(5000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		logger.debug("{} stopped", this);
+	}
+
+	@Override
+	public String toString() {
+		return "InProcessNatsServer [" + getURL() + ", connections=" + getConnectionsCount() + ", subscriptions=" + getSubscriptionsCount()
+				+ ", inMsgs=" + getInMsgs() + ", outMsgs=" + getOutMsgs() + "]";
+	}
+
+	/* **************** EVENT LOOP **************** */
+
+	protected void run() {
+		try {
+			while (running) {
+				selector.select();
+				for (SelectionKey key : selector.selectedKeys()) {
+					if (! key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						accept();
+					} else {
+						final Client client = (Client) key.attachment();
+						if (key.isReadable()) {
+							read(client);
+						}
+						if (key.isValid() && key.isWritable()) {
+							flush(client);
+						}
+					}
+				}
+				selector.selectedKeys().clear();
+				for (Client client : dirtyClients) {
+					client.dirty = false;
+					flush(client);
+				}
+				dirtyClients.clear();
+			}
+		} catch (IOException e) {
+			logger.error("{} has failed: {}", this, e.toString());
+		} finally {
+			for (Client client : new ArrayList<Client>(clients)) {
+				closeClient(client);
+			}
+			try {
+				serverChannel.close();
+				selector.close();
+			} catch (IOException e) {
+				logger.debug("Exception while closing {}: {}", this, e.toString());
+			}
+		}
+	}
+
+	protected void accept() throws IOException {
+		final SocketChannel channel = serverChannel.accept();
+		if (channel == null) {
+			return;
+		}
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		final Client client = new Client(channel);
+		client.key = channel.register(selector, SelectionKey.OP_READ, client);
+		clients.add(client);
+		totalConnections.increment();
+		connectionsCount.incrementAndGet();
+		send(client, ("INFO {\"server_id\":\"" + serverId + "\",\"version\":\"0.9.6\",\"go\":\"java\",\"host\":\"localhost\",\"port\":" + port
+				+ ",\"auth_required\":false,\"ssl_required\":false,\"tls_required\":false,\"tls_verify\":false,\"max_payload\":" + MAX_PAYLOAD + "}\r\n")
+				.getBytes(US_ASCII));
+	}
+
+	protected void read(Client client) {
+		final int count;
+		try {
+			count = client.channel.read(client.in);
+		} catch (IOException e) {
+			closeClient(client);
+			return;
+		}
+		if (count < 0) {
+			closeClient(client);
+			return;
+		}
+		client.in.flip();
+		try {
+			parse(client);
+		} catch (IllegalArgumentException e) {
+			send(client, ("-ERR '" + e.getMessage() + "'\r\n").getBytes(US_ASCII));
+			flush(client);
+			closeClient(client);
+			return;
+		}
+		client.in.compact();
+		final int needed = (client.pubSize >= 0) ? client.pubSize + CRLF.length + MAX_CONTROL_LINE : 0;
+		if ((! client.in.hasRemaining()) || (client.in.capacity() < needed)) {
+			client.in = grow(client.in, Math.max(client.in.capacity() * 2, needed));
+		}
+	}
+
+	protected void flush(Client client) {
+		final ByteBuffer out = client.out;
+		if (out.position() == 0 || ! client.channel.isOpen()) {
+			return;
+		}
+		out.flip();
+		try {
+			client.channel.write(out);
+		} catch (IOException e) {
+			closeClient(client);
+			return;
+		}
+		out.compact();
+		client.key.interestOps(out.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+	}
+
+	protected void closeClient(Client client) {
+		if (! clients.remove(client)) {
+			return;
+		}
+		connectionsCount.decrementAndGet();
+		for (Subscription subscription : new ArrayList<Subscription>(client.subscriptions.values())) {
+			removeSubscription(subscription);
+		}
+		client.key.cancel();
+		try {
+			client.channel.close();
+		} catch (IOException e) {
+			logger.debug("Exception while closing {}: {}", client.channel, e.toString());
+		}
+	}
+
+	/* **************** PROTOCOL **************** */
+
+	protected void parse(Client client) {
+		final ByteBuffer in = client.in;
+		while (true) {
+			if (client.pubSize >= 0) {
+				if (in.remaining() < client.pubSize + CRLF.length) {
+					return;
+				}
+				publish(client.pubSubject, client.pubReply, in.array(), in.arrayOffset() + in.position(), client.pubSize);
+				in.position(in.position() + client.pubSize + CRLF.length);
+				client.pubSize = -1;
+				if (client.verbose) {
+					send(client, OK);
+				}
+				continue;
+			}
+			final int start = in.position();
+			int end = -1;
+			for (int i = start; i < in.limit(); i++) {
+				if (in.get(i) == '\n') {
+					end = i;
+					break;
+				}
+			}
+			if (end < 0) {
+				if (in.remaining() > MAX_CONTROL_LINE) {
+					throw new IllegalArgumentException("Maximum Control Line Exceeded");
+				}
+				return;
+			}
+			final int length = ((end > start) && (in.get(end - 1) == '\r')) ? end - start - 1 : end - start;
+			final String line = new String(in.array(), in.arrayOffset() + start, length, US_ASCII);
+			in.position(end + 1);
+			processLine(client, line);
+		}
+	}
+
+	protected void processLine(Client client, String line) {
+		final String[] args = tokenize(line);
+		if (args.length == 0) {
+			return;
+		}
+		switch (args[0].toUpperCase()) {
+			case "PUB":
+				if ((args.length < 3) || (args.length > 4)) {
+					throw new IllegalArgumentException("Invalid PUB: " + line);
+				}
+				client.pubSubject = args[1];
+				client.pubReply = (args.length == 4) ? args[2] : null;
+				client.pubSize = Integer.parseInt(args[args.length - 1]);
+				if ((client.pubSize < 0) || (client.pubSize > MAX_PAYLOAD)) {
+					throw new IllegalArgumentException("Maximum Payload Violation");
+				}
+				inMsgs.increment();
+				inBytes.add(client.pubSize);
+				return;
+			case "SUB":
+				if ((args.length < 3) || (args.length > 4)) {
+					throw new IllegalArgumentException("Invalid SUB: " + line);
+				}
+				addSubscription(client, args[1], (args.length == 4) ? args[2] : null, args[args.length - 1]);
+				break;
+			case "UNSUB":
+				if ((args.length < 2) || (args.length > 3)) {
+					throw new IllegalArgumentException("Invalid UNSUB: " + line);
+				}
+				final Subscription subscription = client.subscriptions.get(args[1]);
+				if (subscription != null) {
+					if (args.length == 3) {
+						subscription.max = Long.parseLong(args[2]);
+						if (subscription.delivered >= subscription.max) {
+							removeSubscription(subscription);
+						}
+					} else {
+						removeSubscription(subscription);
+					}
+				}
+				break;
+			case "PING":
+				send(client, PONG);
+				return;
+			case "PONG":
+				return;
+			case "CONNECT":
+				client.verbose = line.replace(" ", "").contains("\"verbose\":true");
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown Protocol Operation");
+		}
+		if (client.verbose) {
+			send(client, OK);
+		}
+	}
+
+	protected void addSubscription(Client client, String subject, String queue, String sid) {
+		final Subscription subscription = new Subscription(client, subject, queue, sid);
+		final Subscription previous = client.subscriptions.put(sid, subscription);
+		if (previous != null) {
+			removeSubscription(previous);
+			client.subscriptions.put(sid, subscription);
+		}
+		subscriptions.add(subscription);
+		subscriptionsCount.incrementAndGet();
+		routes.clear();
+	}
+
+	protected void removeSubscription(Subscription subscription) {
+		if (subscriptions.remove(subscription)) {
+			subscription.client.subscriptions.remove(subscription.sid, subscription);
+			subscriptionsCount.decrementAndGet();
+			routes.clear();
+		}
+	}
+
+	protected void publish(String subject, String reply, byte[] payload, int offset, int size) {
+		Route route = routes.get(subject);
+		if (route == null) {
+			if (routes.size() >= MAX_ROUTES) {
+				routes.clear();
+			}
+			route = new Route(subject, subscriptions);
+			routes.put(subject, route);
+		}
+		for (Subscription subscription : route.subscribers) {
+			deliver(subscription, subject, reply, payload, offset, size);
+		}
+		for (Subscription[] group : route.queueGroups) {
+			deliver(group[(queueCounter++ & Integer.MAX_VALUE) % group.length], subject, reply, payload, offset, size);
+		}
+	}
+
+	protected void deliver(Subscription subscription, String subject, String reply, byte[] payload, int offset, int size) {
+		if ((subscription.max >= 0) && (subscription.delivered >= subscription.max)) {
+			return;
+		}
+		final Client client = subscription.client;
+		if (! ensureCapacity(client, MAX_CONTROL_LINE + size)) {
+			return;
+		}
+		final ByteBuffer out = client.out;
+		putAscii(out, "MSG ");
+		putAscii(out, subject);
+		out.put((byte) ' ');
+		out.put(subscription.sidBytes);
+		out.put((byte) ' ');
+		if (reply != null) {
+			putAscii(out, reply);
+			out.put((byte) ' ');
+		}
+		putAscii(out, Integer.toString(size));
+		out.put(CRLF);
+		out.put(payload, offset, size);
+		out.put(CRLF);
+		markDirty(client);
+		outMsgs.increment();
+		outBytes.add(size);
+		if ((subscription.max >= 0) && (++subscription.delivered >= subscription.max)) {
+			removeSubscription(subscription);
+		}
+	}
+
+	protected void send(Client client, byte[] bytes) {
+		if (ensureCapacity(client, bytes.length)) {
+			client.out.put(bytes);
+			markDirty(client);
+		}
+	}
+
+	/**
+	 * @param client, the client to write to
+	 * @param size, the number of bytes to write
+	 * @return false if the client has been closed (as a Slow Consumer), true if there is enough room in its buffer
+	 */
+	protected boolean ensureCapacity(Client client, int size) {
+		if (! client.channel.isOpen()) {
+			return false;
+		}
+		if (client.out.remaining() < size) {
+			flush(client);
+			if (client.out.remaining() < size) {
+				if (client.out.position() + size > MAX_PENDING_BYTES) {
+					logger.warn("Slow Consumer detected by {}: {} will be closed", this, client.channel);
+					closeClient(client);
+					return false;
+				}
+				client.out = grow(client.out, Math.max(client.out.capacity() * 2, client.out.position() + size));
+			}
+		}
+		return true;
+	}
+
+	protected void markDirty(Client client) {
+		if (! client.dirty) {
+			client.dirty = true;
+			dirtyClients.add(client);
+		}
+	}
+
+	protected static ByteBuffer grow(ByteBuffer buffer, int capacity) {
+		final ByteBuffer bigger = ByteBuffer.allocate(capacity);
+		buffer.flip();
+		bigger.put(buffer);
+		return bigger;
+	}
+
+	protected static void putAscii(ByteBuffer buffer, String str) {
+		for (int i = 0; i < str.length(); i++) {
+			buffer.put((byte) str.charAt(i));
+		}
+	}
+
+	protected static String[] tokenize(String line) {
+		final List<String> tokens = new ArrayList<String>(4);
+		int start = -1;
+		for (int i = 0; i <= line.length(); i++) {
+			final boolean separator = (i == line.length()) || (line.charAt(i) == ' ') || (line.charAt(i) == '\t');
+			if (separator) {
+				if (start >= 0) {
+					tokens.add(line.substring(start, i));
+					start = -1;
+				}
+			} else if (start < 0) {
+				start = i;
+			}
+		}
+		return tokens.toArray(new String[tokens.size()]);
+	}
+
+	/**
+	 * @param pattern, a subject which might contain wildcards (<code>*</code> &amp; <code>&gt;</code>)
+	 * @param subject, a literal subject
+	 * @return true if the subject matches the pattern
+	 */
+	protected static boolean matches(String[] pattern, String[] subject) {
+		for (int i = 0; i < pattern.length; i++) {
+			if (">".equals(pattern[i])) {
+				return subject.length > i;
+			}
+			if ((i >= subject.length) || ! ("*".equals(pattern[i]) || pattern[i].equals(subject[i]))) {
+				return false;
+			}
+		}
+		return pattern.length == subject.length;
+	}
+
+	/* **************** STATE **************** */
+
+	/**
+	 * A connection to the server.
+	 */
+	static final class Client {
+		final SocketChannel channel;
+		SelectionKey key;
+		ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+		ByteBuffer out = ByteBuffer.allocate(BUFFER_SIZE);
+		final Map<String, Subscription> subscriptions = new HashMap<String, Subscription>();
+		boolean verbose = false;
+		boolean dirty = false;
+		String pubSubject;
+		String pubReply;
+		int pubSize = -1;
+
+		Client(SocketChannel channel) {
+			this.channel = channel;
+		}
+	}
+
+	/**
+	 * A subscription of a client.
+	 */
+	static final class Subscription {
+		final Client client;
+		final String[] tokens;
+		final String queue;
+		final String sid;
+		final byte[] sidBytes;
+		long max = -1;
+		long delivered = 0;
+
+		Subscription(Client client, String subject, String queue, String sid) {
+			this.client = client;
+			this.tokens = subject.split("\\.");
+			this.queue = queue;
+			this.sid = sid;
+			this.sidBytes = sid.getBytes(US_ASCII);
+		}
+	}
+
+	/**
+	 * The subscriptions matching a (literal) subject, which is cached until the subscriptions change.
+	 */
+	static final class Route {
+		final Subscription[] subscribers;
+		final Subscription[][] queueGroups;
+
+		Route(String subject, List<Subscription> subscriptions) {
+			final String[] tokens = subject.split("\\.");
+			final List<Subscription> plain = new ArrayList<Subscription>();
+			final Map<String, List<Subscription>> groups = new LinkedHashMap<String, List<Subscription>>();
+			for (Subscription subscription : subscriptions) {
+				if (matches(subscription.tokens, tokens)) {
+					if (subscription.queue == null) {
+						plain.add(subscription);
+					} else {
+						groups.computeIfAbsent(subscription.queue, queue -> new ArrayList<Subscription>()).add(subscription);
+					}
+				}
+			}
+			subscribers = plain.toArray(new Subscription[plain.size()]);
+			queueGroups = new Subscription[groups.size()][];
+			int i = 0;
+			for (List<Subscription> group : groups.values()) {
+				queueGroups[i++] = group.toArray(new Subscription[group.size()]);
+			}
+		}
+	}
+}
@@ -0,0 +1,198 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.nats.to_spark;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decouples the reception of the NATS Messages from their decoding.
+ * <p>
+ * The NATS Message Handler only enqueues the raw messages into a bounded ring buffer (preallocated when the pipeline is created),
+ * from which a pool of worker threads dequeues them to be decoded and stored into Spark.
+ * When the ring buffer is full, the {@link OverflowPolicy} defines whether the handler waits, or which message gets dropped.
+ * <p>
+ * Since the messages are decoded concurrently, the records are not stored into Spark in their order of reception.
+ */
+class DecodingPipeline {
+
+	static final Logger logger = LoggerFactory.getLogger(DecodingPipeline.class);
+
+	protected final int capacity;
+	protected final String[] subjects;
+	protected final byte[][] payloads;
+	protected int head = 0;
+	protected int tail = 0;
+	protected int count = 0;
+
+	protected final ReentrantLock lock = new ReentrantLock();
+	protected final Condition notEmpty = lock.newCondition();
+	protected final Condition notFull = lock.newCondition();
+
+	protected final OverflowPolicy overflowPolicy;
+	protected final BiConsumer<String, byte[]> consumer;
+	protected final Thread[] workers;
+	protected volatile boolean running = false;
+
+	protected final DecodingStatistics statistics = new DecodingStatistics(this);
+
+	/**
+	 * @param capacity, the maximum number of messages waiting to be decoded
+	 * @param workersNb, the number of threads decoding the messages
+	 * @param overflowPolicy, what to do with a new message when the queue is full (BLOCK by default)
+	 * @param consumer, decodes and stores the NATS Subject &amp; Payload of each message
+	 * @param name, the name of the pipeline (used to name its threads)
+	 */
+	protected DecodingPipeline(int capacity, int workersNb, OverflowPolicy overflowPolicy, BiConsumer<String, byte[]> consumer, String name) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("The capacity of the decoding queue should be positive: " + capacity);
+		}
+		if (workersNb < 1) {
+			throw new IllegalArgumentException("The number of decoding threads should be positive: " + workersNb);
+		}
+		this.capacity = capacity;
+		this.subjects = new String[capacity];
+		this.payloads = new byte[capacity][];
+		this.overflowPolicy = (overflowPolicy != null) ? overflowPolicy : OverflowPolicy.BLOCK;
+		this.consumer = consumer;
+		this.workers = new Thread[workersNb];
+		for (int i = 0; i < workersNb; i++) {
+			workers[i] = new Thread(this::work, name + "-Decoder-" + i);
+			workers[i].setDaemon(true);
+		}
+	}
+
+	protected void start() {
+		running = true;
+		for (Thread worker : workers) {
+			worker.start();
+		}
+	}
+
+	/**
+	 * Stop the pipeline, once the remaining messages have been decoded.
+	 * @param timeout, the maximum time (in milliseconds) to wait for each worker thread to terminate
+	 * @throws InterruptedException is thrown when the current thread is interrupted while waiting
+	 */
+	protected void stop(long timeout) throws InterruptedException {
+		running = false;
+		lock.lock();
+		try {
+			notEmpty.signalAll();
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		for (Thread worker : workers) {
+			worker.join(timeout);
+		}
+	}
+
+	/**
+	 * @param subject, the NATS Subject of the message
+	 * @param payload, the NATS Payload of the message
+	 * @return false if that message has been dropped
+	 */
+	protected boolean offer(String subject, byte[] payload) {
+		statistics.received.increment();
+		lock.lock();
+		try {
+			if (count == capacity) {
+				switch (overflowPolicy) {
+					case DROP_NEWEST:
+						statistics.dropped.increment();
+						return false;
+					case DROP_OLDEST:
+						subjects[head] = null;
+						payloads[head] = null;
+						head = next(head);
+						count--;
+						statistics.dropped.increment();
+						break;
+					default:
+						while ((count == capacity) && running) {
+							notFull.await();
+						}
+						if (count == capacity) {
+							statistics.dropped.increment();
+							return false;
+						}
+				}
+			}
+			subjects[tail] = subject;
+			payloads[tail] = payload;
+			tail = next(tail);
+			count++;
+			notEmpty.signal();
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			statistics.dropped.increment();
+			return false;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	protected void work() {
+		while (true) {
+			final String subject;
+			final byte[] payload;
+			lock.lock();
+			try {
+				while (count == 0) {
+					if (! running) {
+						return;
+					}
+					notEmpty.await();
+				}
+				subject = subjects[head];
+				payload = payloads[head];
+				subjects[head] = null;
+				payloads[head] = null;
+				head = next(head);
+				count--;
+				notFull.signal();
+			} catch (InterruptedException e) {
+				return;
+			} finally {
+				lock.unlock();
+			}
+
+			final long start = System.nanoTime();
+			try {
+				consumer.accept(subject, payload);
+				statistics.decoded.increment();
+			} catch (Exception e) {
+				statistics.failures.increment();
+				logger.error("A message received on '{}' could not be decoded nor stored: {}", subject, e.toString());
+			}
+			statistics.decodingLatencies.record(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * @return the number of messages waiting to be decoded
+	 */
+	protected int size() {
+		lock.lock();
+		try {
+			return count;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	protected int next(int index) {
+		return (index + 1 == capacity) ? 0 : index + 1;
+	}
+}
@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.nats.to_spark;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import com.logimethods.connector.nats_spark.LatencyHistogram;
+
+/**
+ * The statistics of the decoding pool of a receiver.
+ *
+ * @see NatsToSparkConnector#getDecodingStatistics()
+ */
+public final class DecodingStatistics {
+
+	protected final DecodingPipeline pipeline;
+	protected final LatencyHistogram decodingLatencies = new LatencyHistogram();
+	protected final LongAdder received = new LongAdder();
+	protected final LongAdder dropped = new LongAdder();
+	protected final LongAdder decoded = new LongAdder();
+	protected final LongAdder failures = new LongAdder();
+
+	DecodingStatistics(DecodingPipeline pipeline) {
+		this.pipeline = pipeline;
+	}
+
+	/**
+	 * @return the maximum number of messages waiting to be decoded
+	 */
+	public int getCapacity() {
+		return pipeline.capacity;
+	}
+
+	/**
+	 * @return the number of messages currently waiting to be decoded
+	 */
+	public int getQueueDepth() {
+		return pipeline.size();
+	}
+
+	/**
+	 * @return the number of messages received from NATS
+	 */
+	public long getReceived() {
+		return received.sum();
+	}
+
+	/**
+	 * @return the number of messages dropped because of a full queue
+	 */
+	public long getDropped() {
+		return dropped.sum();
+	}
+
+	/**
+	 * @return the number of messages decoded and stored into Spark
+	 */
+	public long getDecoded() {
+		return decoded.sum();
+	}
+
+	/**
+	 * @return the number of messages that could not be decoded or stored
+	 */
+	public long getFailures() {
+		return failures.sum();
+	}
+
+	/**
+	 * @return the histogram of the time spent to decode and store each message, in nanoseconds
+	 */
+	public LatencyHistogram getDecodingLatencies() {
+		return decodingLatencies;
+	}
+
+	/**
+	 * Reset all the counters (but the queue depth gauge).
+	 */
+	public void reset() {
+		decodingLatencies.reset();
+		received.reset();
+		dropped.reset();
+		decoded.reset();
+		failures.reset();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "DecodingStatistics [capacity=" + getCapacity() + ", queueDepth=" + getQueueDepth() + ", received=" + getReceived()
+				+ ", dropped=" + getDropped() + ", decoded=" + getDecoded() + ", failures=" + getFailures() 
+				+ ", decodingLatencies=" + decodingLatencies + "]";
+	}
+}
@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.nats.to_spark;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+import com.logimethods.connector.nats_spark.PayloadEnvelope;
+
+/**
+ * A decoded record, along with the metadata stamped into the envelope of its NATS Payload (see {@link PayloadEnvelope}).
+ * <p>
+ * The times are expressed as epoch nanoseconds, except the time of the Spark Streaming batch (as epoch milliseconds, like a Spark <code>Time</code>).
+ *
+ * @param <V> the type of the decoded value
+ */
+public class EnvelopedRecord<V> implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	protected final V value;
+	protected final long publishTime;
+	protected final long batchTime;
+	protected final int partition;
+	protected final long receiveTime;
+
+	/**
+	 * @param value, the decoded value
+	 * @param publishTime, the time of its publication (-1 if its payload has not been enveloped)
+	 * @param batchTime, the time of the Spark Streaming batch it has been published by (-1 if unknown)
+	 * @param partition, the index of the Spark partition it has been published by (-1 if unknown)
+	 * @param receiveTime, the time of its reception
+	 */
+	public EnvelopedRecord(V value, long publishTime, long batchTime, int partition, long receiveTime) {
+		this.value = value;
+		this.publishTime = publishTime;
+		this.batchTime = batchTime;
+		this.partition = partition;
+		this.receiveTime = receiveTime;
+	}
+
+	/**
+	 * @return the decoded value
+	 */
+	public V getValue() {
+		return value;
+	}
+
+	/**
+	 * @return the time of its publication, as epoch nanoseconds (-1 if its payload has not been enveloped)
+	 */
+	public long getPublishTime() {
+		return publishTime;
+	}
+
+	/**
+	 * @return the time of the Spark Streaming batch it has been published by, as epoch milliseconds (-1 if unknown)
+	 */
+	public long getBatchTime() {
+		return batchTime;
+	}
+
+	/**
+	 * @return the index of the Spark partition it has been published by (-1 if unknown)
+	 */
+	public int getPartition() {
+		return partition;
+	}
+
+	/**
+	 * @return the time of its reception, as epoch nanoseconds
+	 */
+	public long getReceiveTime() {
+		return receiveTime;
+	}
+
+	/**
+	 * @return the latency (in nanoseconds) between its publication and its reception (-1 if its payload has not been enveloped)
+	 */
+	public long getLatency() {
+		return (publishTime < 0) ? -1 : receiveTime - publishTime;
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hashCode(value) * 31 + Long.hashCode(publishTime) * 17 + Long.hashCode(batchTime) + partition;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (! (obj instanceof EnvelopedRecord)) {
+			return false;
+		}
+		final EnvelopedRecord<?> other = (EnvelopedRecord<?>) obj;
+		return Objects.equals(value, other.value) && (publishTime == other.publishTime) && (batchTime == other.batchTime)
+				&& (partition == other.partition) && (receiveTime == other.receiveTime);
+	}
+
+	@Override
+	public String toString() {
+		return "EnvelopedRecord [value=" + value + ", publishTime=" + publishTime + ", batchTime=" + batchTime
+				+ ", partition=" + partition + ", latency=" + getLatency() + "]";
+	}
+}
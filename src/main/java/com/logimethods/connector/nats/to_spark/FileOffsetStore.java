@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.nats.to_spark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * An {@link OffsetStore} keeping the sequence numbers as a Properties file (<code>channel=sequence</code>),
+ * which is replaced (atomically when possible) each time it is updated.
+ * <p>
+ * That file should be located on a file system shared by all the Spark executors that could host the receivers
+ * (or the receivers pinned to a host, see <code>withPreferredLocations(...)</code>).
+ */
+public class FileOffsetStore implements OffsetStore {
+
+	private static final long serialVersionUID = 1L;
+
+	protected final String path;
+
+	/**
+	 * @param path, the path of the Properties file
+	 */
+	public FileOffsetStore(String path) {
+		this.path = path;
+	}
+
+	@Override
+	public synchronized Long getLastSequence(String channel) throws IOException {
+		final String sequence = load().getProperty(channel);
+		return (sequence != null) ? Long.valueOf(sequence) : null;
+	}
+
+	@Override
+	public synchronized void storeLastSequences(Map<String, Long> lastSequences) throws IOException {
+		final Properties sequences = load();
+		for (Map.Entry<String, Long> entry : lastSequences.entrySet()) {
+			final String previous = sequences.getProperty(entry.getKey());
+			if ((previous == null) || (Long.parseLong(previous) < entry.getValue())) {
+				sequences.setProperty(entry.getKey(), entry.getValue().toString());
+			}
+		}
+		final Path file = Paths.get(path).toAbsolutePath();
+		final Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+		try (OutputStream out = Files.newOutputStream(temp)) {
+			sequences.store(out, "Last sequence numbers stored into Spark, per NATS Streaming channel");
+		}
+		try {
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	protected Properties load() throws IOException {
+		final Properties sequences = new Properties();
+		final Path file = Paths.get(path);
+		if (Files.exists(file)) {
+			try (InputStream in = Files.newInputStream(file)) {
+				sequences.load(in);
+			}
+		}
+		return sequences;
+	}
+
+	@Override
+	public String toString() {
+		return "FileOffsetStore [" + path + "]";
+	}
+}
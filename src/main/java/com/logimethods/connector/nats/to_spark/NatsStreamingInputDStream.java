@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.nats.to_spark;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.spark.streaming.StreamingContext;
+import org.apache.spark.streaming.Time;
+import org.apache.spark.streaming.dstream.InputDStream;
+import org.apache.spark.streaming.scheduler.StreamInputInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.nats.stan.Connection;
+import io.nats.stan.Message;
+import io.nats.stan.SubscriptionOptions;
+import scala.Option;
+import scala.reflect.ClassTag;
+
+/**
+ * A direct (receiver-less) Spark Stream of the messages of NATS Streaming channels.
+ * <p>
+ * For each batch, the Driver plans the sequence ranges to read per channel (from the last planned one to the last stored one, 
+ * up to a maximum number of messages), which are split into several {@link NatsStreamingRDD} partitions, fetched in parallel by the Spark tasks.
+ * The planned ranges (and the next sequence number of each channel) belong to the state of that stream, which is saved by the Spark checkpoints:
+ * when recovering from a checkpoint, the pending batches are computed again on the very same ranges.
+ * <p>
+ * The last stored sequence number of a channel is obtained by a short-lived <code>startWithLastReceived()</code> subscription,
+ * which has to wait for the probe timeout when the channel is empty 
+ * (a channel whose last message is not delivered within that timeout is then considered as empty until the next batch).
+ * A start position relative to the last message of a channel is therefore only resolved by a batch whose probe did deliver that message.
+ */
+public class NatsStreamingInputDStream<R> extends InputDStream<R> {
+
+	private static final long serialVersionUID = 1L;
+
+	static final Logger logger = LoggerFactory.getLogger(NatsStreamingInputDStream.class);
+
+	protected static final long DEFAULT_PROBE_TIMEOUT = 500;
+
+	protected final OmnipotentNatsStreamingToSparkConnector<?, R, ?> connector;
+	protected final int partitionsPerChannel;
+	protected final long maxMessagesPerBatch;
+	protected final long fetchTimeout;
+	protected final HashMap<String, Long> nextSequences = new HashMap<String, Long>();
+	protected final TreeMap<Long, SequenceRange[]> plannedRanges = new TreeMap<Long, SequenceRange[]>();
+	protected transient Connection connection;
+
+	/**
+	 * @param ssc, the (Scala based) Spark Streaming Context
+	 * @param connector, the connector providing the NATS Streaming settings &amp; the decoding of the messages
+	 * @param partitionsPerChannel, the number of partitions (ie. of parallel subscriptions) per channel and per batch
+	 * @param maxMessagesPerBatch, the maximum number of messages read per channel and per batch
+	 * @param fetchTimeout, the maximum time (in milliseconds) a task waits for a message
+	 */
+	protected NatsStreamingInputDStream(StreamingContext ssc, OmnipotentNatsStreamingToSparkConnector<?, R, ?> connector, 
+										int partitionsPerChannel, long maxMessagesPerBatch, long fetchTimeout) {
+		super(ssc, NatsStreamingInputDStream.<R>anyRefClassTag());
+		if (partitionsPerChannel < 1) {
+			throw new IllegalArgumentException("The number of partitions per channel should be positive: " + partitionsPerChannel);
+		}
+		this.connector = connector;
+		this.partitionsPerChannel = partitionsPerChannel;
+		this.maxMessagesPerBatch = maxMessagesPerBatch;
+		this.fetchTimeout = fetchTimeout;
+	}
+
+	@Override
+	public void start() {
+	}
+
+	@Override
+	public void stop() {
+		if (connection != null) {
+			try {
+				connection.close();
+			} catch (Exception e) {
+				logger.debug("Exception while closing the connection of {}: {}", this, e.toString());
+			}
+			connection = null;
+		}
+	}
+
+	@Override
+	public Option<org.apache.spark.rdd.RDD<R>> compute(Time validTime) {
+		SequenceRange[] ranges = plannedRanges.get(validTime.milliseconds());
+		if (ranges == null) {
+			try {
+				ranges = planRanges();
+			} catch (Exception e) {
+				stop();
+				throw new IllegalStateException("The sequence ranges of the batch " + validTime + " could not be planned", e);
+			}
+			plannedRanges.put(validTime.milliseconds(), ranges);
+		} else {
+			logger.info("Recovering the sequence ranges of the batch {}: {}", validTime, ranges);
+		}
+
+		final NatsStreamingRDD<R> rdd = new NatsStreamingRDD<R>(context().sparkContext(), connector, ranges, fetchTimeout);
+		ssc().scheduler().inputInfoTracker().reportInfo(validTime, 
+				new StreamInputInfo(id(), rdd.countSequences(), StreamInputInfo.$lessinit$greater$default$3()));
+		return Option.apply(rdd);
+	}
+
+	@Override
+	public void clearMetadata(Time time) {
+		super.clearMetadata(time);
+		plannedRanges.headMap(time.milliseconds() - rememberDuration().milliseconds(), true).clear();
+	}
+
+	/**
+	 * @return the sequence ranges of the next batch (the next sequence numbers being moved accordingly)
+	 * @throws Exception is thrown when the NATS Streaming server could not be reached
+	 */
+	protected SequenceRange[] planRanges() throws Exception {
+		final Collection<String> channels = connector.getSubjects();
+		final Map<String, Message> lastMessages = NatsStreamingRDD.probeMessages(getConnection(), channels, 
+																new SubscriptionOptions.Builder().startWithLastReceived().build(), connector.probeTimeout);
+		final List<SequenceRange> ranges = new ArrayList<SequenceRange>();
+		for (String channel : channels) {
+			final Message lastMessage = lastMessages.get(channel);
+			final long last = (lastMessage != null) ? lastMessage.getSequence() : 0;
+			Long next = nextSequences.get(channel);
+			if (next == null) {
+				next = connector.getStartSequence(getConnection(), channel, lastMessage);
+				if (next == null) {
+					// The start sequence will be resolved by a next batch, once a last message has been delivered by the probe
+					logger.debug("{} does not know the last message of '{}' yet", this, channel);
+					continue;
+				}
+				logger.info("{} will start reading '{}' at sequence {}", this, channel, next);
+			}
+			final long until = (last + 1 - next > maxMessagesPerBatch) ? next + maxMessagesPerBatch : Math.max(next, last + 1);
+			if (until > next) {
+				ranges.addAll(new SequenceRange(channel, next, until).split(partitionsPerChannel));
+			}
+			nextSequences.put(channel, until);
+		}
+		return ranges.toArray(new SequenceRange[ranges.size()]);
+	}
+
+	@SuppressWarnings("unchecked")
+	protected static <T> ClassTag<T> anyRefClassTag() {
+		return (ClassTag<T>) scala.reflect.ClassTag$.MODULE$.AnyRef();
+	}
+
+	protected Connection getConnection() throws Exception {
+		if (connection == null) {
+			connection = connector.createConnection(NatsToSparkConnector.getUniqueClientName());
+		}
+		return connection;
+	}
+}
@@ -0,0 +1,217 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.nats.to_spark;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.spark.Dependency;
+import org.apache.spark.Partition;
+import org.apache.spark.SparkContext;
+import org.apache.spark.TaskContext;
+import org.apache.spark.rdd.RDD;
+import org.apache.spark.util.TaskCompletionListener;
+
+import io.nats.stan.Connection;
+import io.nats.stan.Message;
+import io.nats.stan.Subscription;
+import io.nats.stan.SubscriptionOptions;
+import scala.collection.JavaConverters;
+
+/**
+ * A Spark RDD made of the messages of NATS Streaming channels, each of its partitions being defined by a {@link SequenceRange}.
+ * <p>
+ * Each partition is read by its own subscription, starting at the first sequence number of its range and stopped at the last one:
+ * the partitions are then fetched in parallel by the Spark tasks, and can be computed again to replay the very same messages
+ * (as long as they are retained by the NATS Streaming server).
+ */
+public class NatsStreamingRDD<R> extends RDD<R> {
+
+	private static final long serialVersionUID = 1L;
+
+	protected static final long DEFAULT_FETCH_TIMEOUT = 30000;
+
+	protected final OmnipotentNatsStreamingToSparkConnector<?, R, ?> connector;
+	protected final SequenceRange[] ranges;
+	protected final long fetchTimeout;
+
+	/**
+	 * @param sc, the Spark Context
+	 * @param connector, the connector providing the connection settings &amp; the decoding of the messages
+	 * @param ranges, the sequence numbers to read, one partition per range
+	 * @param fetchTimeout, the maximum time (in milliseconds) to wait for a message
+	 */
+	protected NatsStreamingRDD(SparkContext sc, OmnipotentNatsStreamingToSparkConnector<?, R, ?> connector, SequenceRange[] ranges, long fetchTimeout) {
+		super(sc, JavaConverters.asScalaBufferConverter(Collections.<Dependency<?>>emptyList()).asScala(), 
+				NatsStreamingInputDStream.<R>anyRefClassTag());
+		this.connector = connector;
+		this.ranges = ranges;
+		this.fetchTimeout = fetchTimeout;
+	}
+
+	/**
+	 * @return the sequence ranges of the partitions of that RDD
+	 */
+	public SequenceRange[] getRanges() {
+		return ranges.clone();
+	}
+
+	/**
+	 * @return the number of sequence numbers covered by that RDD (which is the number of messages, if none of them has been discarded by the server)
+	 */
+	public long countSequences() {
+		long count = 0;
+		for (SequenceRange range : ranges) {
+			count += range.count();
+		}
+		return count;
+	}
+
+	@Override
+	public Partition[] getPartitions() {
+		final Partition[] partitions = new Partition[ranges.length];
+		for (int i = 0; i < ranges.length; i++) {
+			partitions[i] = new SequenceRangePartition(i, ranges[i]);
+		}
+		return partitions;
+	}
+
+	@Override
+	public scala.collection.Iterator<R> compute(Partition split, TaskContext context) {
+		final SequenceRangeReader<R> reader = new SequenceRangeReader<R>(connector, ((SequenceRangePartition) split).range, fetchTimeout);
+		context.addTaskCompletionListener(new TaskCompletionListener() {
+			@Override
+			public void onTaskCompletion(TaskContext context) {
+				reader.close();
+			}
+		});
+		return JavaConverters.asScalaIteratorConverter(reader).asScala();
+	}
+
+	/**
+	 * Translate a time into the sequence number of the first message stored at (or after) that time, per channel.
+	 * <p>
+	 * Since a subscription starting at a time where there is no message delivers nothing, the last message of each channel
+	 * tells whether a message has to be delivered: when it is the case, a probe that times out is a failure, not an empty result.
+	 * @param connection, the NATS Streaming connection
+	 * @param lasts, the last message of each channel (as probed through <code>startWithLastReceived()</code>, null if none)
+	 * @param time, the time to translate
+	 * @param timeout, the maximum time (in milliseconds) to wait for the messages, shared by all the channels
+	 * @return the sequence number of the first message stored at (or after) that time, or 0 when there is none, per channel
+	 * @throws TimeoutException is thrown when a channel storing messages after that time did not deliver the first of them within the timeout
+	 * @throws Exception is thrown when a subscription could not be done
+	 */
+	protected static Map<String, Long> probeSequencesAt(Connection connection, Map<String, Message> lasts, Instant time, long timeout) 
+			throws Exception {
+		final Map<String, Long> sequences = new HashMap<String, Long>();
+		final List<String> channels = new ArrayList<String>();
+		for (Map.Entry<String, Message> entry : lasts.entrySet()) {
+			if ((entry.getValue() != null) && ! entry.getValue().getInstant().isBefore(time)) {
+				channels.add(entry.getKey());
+			} else {
+				sequences.put(entry.getKey(), 0L);
+			}
+		}
+		if (channels.isEmpty()) {
+			return sequences;
+		}
+		final Map<String, Message> firsts = probeMessages(connection, channels, new SubscriptionOptions.Builder().startAtTime(time).build(), timeout);
+		for (String channel : channels) {
+			final Message first = firsts.get(channel);
+			if (first == null) {
+				throw new TimeoutException("The first message of '" + channel + "' stored at " + time + " has not been delivered within " + timeout 
+											+ " ms, while its last message is of " + lasts.get(channel).getInstant());
+			}
+			sequences.put(channel, first.getSequence());
+		}
+		return sequences;
+	}
+
+	/**
+	 * Subscribe to each channel with the provided options, to collect the first delivered message.
+	 * @param connection, the NATS Streaming connection
+	 * @param channels, the NATS Streaming channels
+	 * @param options, the options of the subscriptions (typically, startWithLastReceived() or startAtTime(...))
+	 * @param timeout, the maximum time (in milliseconds) to wait for the messages, shared by all the channels
+	 * @return the first delivered message, or null when no message has been delivered within the timeout, per channel
+	 * @throws Exception is thrown when a subscription could not be done
+	 */
+	protected static Map<String, Message> probeMessages(Connection connection, Collection<String> channels, SubscriptionOptions options, long timeout) 
+			throws Exception {
+		final Map<String, CompletableFuture<Message>> futures = new HashMap<String, CompletableFuture<Message>>();
+		final List<Subscription> subscriptions = new ArrayList<Subscription>(channels.size());
+		try {
+			for (String channel : channels) {
+				final CompletableFuture<Message> future = new CompletableFuture<Message>();
+				futures.put(channel, future);
+				subscriptions.add(connection.subscribe(channel, message -> future.complete(message), options));
+			}
+			final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+			final Map<String, Message> messages = new HashMap<String, Message>();
+			for (Map.Entry<String, CompletableFuture<Message>> entry : futures.entrySet()) {
+				Message message;
+				try {
+					message = entry.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+				} catch (TimeoutException e) {
+					message = null;
+				}
+				messages.put(entry.getKey(), message);
+			}
+			return messages;
+		} finally {
+			for (Subscription subscription : subscriptions) {
+				try {
+					subscription.unsubscribe();
+				} catch (Exception e) {
+					NatsToSparkConnector.logger.debug("Exception while unsubscribing from {}: {}", subscription.getSubject(), e.toString());
+				}
+			}
+		}
+	}
+
+	static class SequenceRangePartition implements Partition {
+
+		private static final long serialVersionUID = 1L;
+
+		protected final int index;
+		protected final SequenceRange range;
+
+		SequenceRangePartition(int index, SequenceRange range) {
+			this.index = index;
+			this.range = range;
+		}
+
+		@Override
+		public int index() {
+			return index;
+		}
+
+		@Override
+		public int hashCode() {
+			return index;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return (obj instanceof SequenceRangePartition) && (((SequenceRangePartition) obj).index == index);
+		}
+
+		@Override
+		public String toString() {
+			return "SequenceRangePartition [index=" + index + ", range=" + range + "]";
+		}
+	}
+}
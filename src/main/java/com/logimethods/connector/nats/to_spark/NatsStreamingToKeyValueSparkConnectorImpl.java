@@ -48,19 +48,25 @@ public class NatsStreamingToKeyValueSparkConnectorImpl<V>
 		this.scalaDataDecoder = scalaDataDecoder;
 	}
 
+	@Override
+	protected Tuple2<String, V> decodeRecord(String subject, byte[] bytes) {
+		return new Tuple2<String, V>(internSubject(subject), decodeData(bytes));
+	}
+
+	@Override
+	protected boolean keepsSubjects() {
+		return true;
+	}
+
 	@Override
 	protected MessageHandler getMessageHandler() {
 		return new MessageHandler() {
 			@Override
 			public void onMessage(Message m) {
-				final Tuple2<String, V> s = decodeTuple(m);
-
 				if (logger.isTraceEnabled()) {
-					logger.trace("Received by {} on Subject '{}': {}.", NatsStreamingToKeyValueSparkConnectorImpl.this,
-							m.getSubject(), s);
+					logger.trace("Received by {} on Subject '{}': {}.", NatsStreamingToKeyValueSparkConnectorImpl.this, m.getSubject(), m);
 				}
-				
-				store(s);
+				receiveMessage(m);
 			}
 		};
 	}
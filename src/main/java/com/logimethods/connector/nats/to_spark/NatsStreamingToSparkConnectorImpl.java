@@ -7,11 +7,19 @@
  *******************************************************************************/
 package com.logimethods.connector.nats.to_spark;
 
+import java.time.Instant;
+
+import org.apache.spark.SparkContext;
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.JavaSparkContext;
 import org.apache.spark.storage.StorageLevel;
 import org.apache.spark.streaming.StreamingContext;
+import org.apache.spark.streaming.api.java.JavaDStream;
 import org.apache.spark.streaming.api.java.JavaPairDStream;
 import org.apache.spark.streaming.api.java.JavaReceiverInputDStream;
 import org.apache.spark.streaming.api.java.JavaStreamingContext;
+import org.apache.spark.streaming.dstream.DStream;
 import org.apache.spark.streaming.dstream.ReceiverInputDStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -76,17 +84,243 @@ public class NatsStreamingToSparkConnectorImpl<R> extends OmnipotentNatsStreamin
 		return ssc.receiverStream(this.storedAsKeyValue(), scala.reflect.ClassTag$.MODULE$.apply(Tuple2.class));
 	}
 
+	/**
+	 * @param ssc, the (Java based) Spark Streaming Context
+	 * @param receivers, the number of receivers, sharing the same NATS Queue Group
+	 * @return a Spark Stream, belonging to the provided Context, that will collect NATS Messages through several receivers
+	 */
+	public JavaDStream<R> asParallelStreamOf(JavaStreamingContext ssc, int receivers) {
+		return parallelStreamOf(ssc, receivers);
+	}
+	
+	/**
+	 * @param ssc, the (Scala based) Spark Streaming Context
+	 * @param receivers, the number of receivers, sharing the same NATS Queue Group
+	 * @return a Spark Stream, belonging to the provided Context, that will collect NATS Messages through several receivers
+	 */
+	public DStream<R> asParallelStreamOf(StreamingContext ssc, int receivers) {
+		return parallelStreamOf(new JavaStreamingContext(ssc), receivers).dstream();
+	}
+	
+	/**
+	 * @param ssc, the (Java based) Spark Streaming Context
+	 * @param receivers, the number of receivers, sharing the same NATS Queue Group
+	 * @return a Spark Stream, belonging to the provided Context, 
+	 * that will collect NATS Messages as Key (the NATS Subject) / Value (the NATS Payload) through several receivers
+	 */
+	public JavaPairDStream<String, R> asParallelStreamOfKeyValue(JavaStreamingContext ssc, int receivers) {
+		return this.storedAsKeyValue().parallelStreamOf(ssc, receivers).mapToPair(tuple -> tuple);
+	}
+	
+	/**
+	 * @param ssc, the (Scala based) Spark Streaming Context
+	 * @param receivers, the number of receivers, sharing the same NATS Queue Group
+	 * @return a Spark Stream, belonging to the provided Context, 
+	 * that will collect NATS Messages as Tuples of (the NATS Subject) / (the NATS Payload) through several receivers
+	 */
+	public DStream<Tuple2<String, R>> asParallelStreamOfKeyValue(StreamingContext ssc, int receivers) {
+		return this.storedAsKeyValue().parallelStreamOf(new JavaStreamingContext(ssc), receivers).dstream();
+	}
+
+	/**
+	 * @param ssc, the (Java based) Spark Streaming Context
+	 * @return a Spark Stream, belonging to the provided Context, that will collect NATS Messages
+	 * stored as blocks of raw bytes, to be decoded inside the Spark tasks
+	 */
+	public JavaDStream<R> asRawStreamOf(JavaStreamingContext ssc) {
+		return decodeRawBlocks(ssc.receiverStream(this.storedAsRawBlocks()));
+	}
+	
+	/**
+	 * @param ssc, the (Scala based) Spark Streaming Context
+	 * @return a Spark Stream, belonging to the provided Context, that will collect NATS Messages
+	 * stored as blocks of raw bytes, to be decoded inside the Spark tasks
+	 */
+	public DStream<R> asRawStreamOf(StreamingContext ssc) {
+		return asRawStreamOf(new JavaStreamingContext(ssc)).dstream();
+	}
+	
+	/**
+	 * @param ssc, the (Java based) Spark Streaming Context
+	 * @return a Spark Stream, belonging to the provided Context, 
+	 * that will collect NATS Messages as Key (the NATS Subject) / Value (the NATS Payload), 
+	 * stored as blocks of raw bytes, to be decoded inside the Spark tasks
+	 */
+	public JavaPairDStream<String, R> asRawStreamOfKeyValue(JavaStreamingContext ssc) {
+		return rawStreamOfKeyValue(ssc).mapToPair(tuple -> tuple);
+	}
+	
+	/**
+	 * @param ssc, the (Scala based) Spark Streaming Context
+	 * @return a Spark Stream, belonging to the provided Context, 
+	 * that will collect NATS Messages as Tuples of (the NATS Subject) / (the NATS Payload), 
+	 * stored as blocks of raw bytes, to be decoded inside the Spark tasks
+	 */
+	public DStream<Tuple2<String, R>> asRawStreamOfKeyValue(StreamingContext ssc) {
+		return rawStreamOfKeyValue(new JavaStreamingContext(ssc)).dstream();
+	}
+
+	protected JavaDStream<Tuple2<String, R>> rawStreamOfKeyValue(JavaStreamingContext ssc) {
+		final NatsStreamingToKeyValueSparkConnectorImpl<R> connector = this.storedAsKeyValue().storedAsRawBlocks();
+		return connector.decodeRawBlocks(ssc.receiverStream(connector));
+	}
+
+	/**
+	 * @param ssc, the (Java based) Spark Streaming Context
+	 * @param partitionsPerChannel, the number of partitions (ie. of parallel subscriptions) per channel and per batch
+	 * @return a direct (receiver-less) Spark Stream, belonging to the provided Context, 
+	 * that will read the NATS Streaming Messages through sequence ranges, fetched in parallel by the Spark tasks
+	 * @see NatsStreamingInputDStream
+	 */
+	public JavaDStream<R> asDirectStreamOf(JavaStreamingContext ssc, int partitionsPerChannel) {
+		return JavaDStream.fromDStream(asDirectStreamOf(ssc.ssc(), partitionsPerChannel), NatsStreamingInputDStream.<R>anyRefClassTag());
+	}
+	
+	/**
+	 * @param ssc, the (Scala based) Spark Streaming Context
+	 * @param partitionsPerChannel, the number of partitions (ie. of parallel subscriptions) per channel and per batch
+	 * @return a direct (receiver-less) Spark Stream, belonging to the provided Context, 
+	 * that will read the NATS Streaming Messages through sequence ranges, fetched in parallel by the Spark tasks
+	 * @see NatsStreamingInputDStream
+	 */
+	public NatsStreamingInputDStream<R> asDirectStreamOf(StreamingContext ssc, int partitionsPerChannel) {
+		return new NatsStreamingInputDStream<R>(ssc, this, partitionsPerChannel, maxMessagesPerBatch, NatsStreamingRDD.DEFAULT_FETCH_TIMEOUT);
+	}
+	
+	/**
+	 * @param ssc, the (Java based) Spark Streaming Context
+	 * @param partitionsPerChannel, the number of partitions (ie. of parallel subscriptions) per channel and per batch
+	 * @return a direct (receiver-less) Spark Stream, belonging to the provided Context, 
+	 * that will read the NATS Streaming Messages as Key (the NATS Subject) / Value (the NATS Payload) through sequence ranges
+	 * @see NatsStreamingInputDStream
+	 */
+	public JavaPairDStream<String, R> asDirectStreamOfKeyValue(JavaStreamingContext ssc, int partitionsPerChannel) {
+		return JavaDStream.fromDStream(asDirectStreamOfKeyValue(ssc.ssc(), partitionsPerChannel), NatsStreamingInputDStream.<Tuple2<String, R>>anyRefClassTag())
+					.mapToPair(tuple -> tuple);
+	}
+	
+	/**
+	 * @param ssc, the (Scala based) Spark Streaming Context
+	 * @param partitionsPerChannel, the number of partitions (ie. of parallel subscriptions) per channel and per batch
+	 * @return a direct (receiver-less) Spark Stream, belonging to the provided Context, 
+	 * that will read the NATS Streaming Messages as Tuples of (the NATS Subject) / (the NATS Payload) through sequence ranges
+	 * @see NatsStreamingInputDStream
+	 */
+	public NatsStreamingInputDStream<Tuple2<String, R>> asDirectStreamOfKeyValue(StreamingContext ssc, int partitionsPerChannel) {
+		return new NatsStreamingInputDStream<Tuple2<String, R>>(ssc, this.storedAsKeyValue(), partitionsPerChannel, maxMessagesPerBatch, 
+																NatsStreamingRDD.DEFAULT_FETCH_TIMEOUT);
+	}
+
+	/**
+	 * @param sc, the (Java based) Spark Context
+	 * @param partitionsPerChannel, the number of partitions (ie. of parallel subscriptions) per channel
+	 * @param fromSequence, the first sequence number to read (inclusive)
+	 * @param untilSequence, the last sequence number to read (exclusive), limited to the last stored message
+	 * @return a Spark RDD made of the NATS Streaming Messages of that range, read in parallel
+	 * @throws Exception is thrown when the NATS Streaming server could not be reached
+	 * @see NatsStreamingRDD
+	 */
+	public JavaRDD<R> asRDDOf(JavaSparkContext sc, int partitionsPerChannel, long fromSequence, long untilSequence) throws Exception {
+		return asRDDOf(sc.sc(), partitionsPerChannel, fromSequence, untilSequence).toJavaRDD();
+	}
+
+	/**
+	 * @param sc, the (Scala based) Spark Context
+	 * @param partitionsPerChannel, the number of partitions (ie. of parallel subscriptions) per channel
+	 * @param fromSequence, the first sequence number to read (inclusive)
+	 * @param untilSequence, the last sequence number to read (exclusive), limited to the last stored message
+	 * @return a Spark RDD made of the NATS Streaming Messages of that range, read in parallel
+	 * @throws Exception is thrown when the NATS Streaming server could not be reached
+	 * @see NatsStreamingRDD
+	 */
+	public NatsStreamingRDD<R> asRDDOf(SparkContext sc, int partitionsPerChannel, long fromSequence, long untilSequence) throws Exception {
+		return createRDD(sc, partitionsPerChannel, fromSequence, untilSequence, null, null);
+	}
+
+	/**
+	 * @param sc, the (Java based) Spark Context
+	 * @param partitionsPerChannel, the number of partitions (ie. of parallel subscriptions) per channel
+	 * @param from, the time of the first message to read (inclusive)
+	 * @param until, the time of the last message to read (exclusive)
+	 * @return a Spark RDD made of the NATS Streaming Messages of that period, read in parallel
+	 * @throws Exception is thrown when the NATS Streaming server could not be reached
+	 * @see NatsStreamingRDD
+	 */
+	public JavaRDD<R> asRDDOf(JavaSparkContext sc, int partitionsPerChannel, Instant from, Instant until) throws Exception {
+		return asRDDOf(sc.sc(), partitionsPerChannel, from, until).toJavaRDD();
+	}
+
+	/**
+	 * @param sc, the (Scala based) Spark Context
+	 * @param partitionsPerChannel, the number of partitions (ie. of parallel subscriptions) per channel
+	 * @param from, the time of the first message to read (inclusive)
+	 * @param until, the time of the last message to read (exclusive)
+	 * @return a Spark RDD made of the NATS Streaming Messages of that period, read in parallel
+	 * @throws Exception is thrown when the NATS Streaming server could not be reached
+	 * @see NatsStreamingRDD
+	 */
+	public NatsStreamingRDD<R> asRDDOf(SparkContext sc, int partitionsPerChannel, Instant from, Instant until) throws Exception {
+		return createRDD(sc, partitionsPerChannel, 0, Long.MAX_VALUE, from, until);
+	}
+
+	/**
+	 * @param sc, the (Java based) Spark Context
+	 * @param partitionsPerChannel, the number of partitions (ie. of parallel subscriptions) per channel
+	 * @param fromSequence, the first sequence number to read (inclusive)
+	 * @param untilSequence, the last sequence number to read (exclusive), limited to the last stored message
+	 * @return a Spark RDD made of the NATS Streaming Messages of that range as Key (the NATS Subject) / Value (the NATS Payload)
+	 * @throws Exception is thrown when the NATS Streaming server could not be reached
+	 */
+	public JavaPairRDD<String, R> asRDDOfKeyValue(JavaSparkContext sc, int partitionsPerChannel, long fromSequence, long untilSequence) throws Exception {
+		return JavaPairRDD.fromJavaRDD(asRDDOfKeyValue(sc.sc(), partitionsPerChannel, fromSequence, untilSequence).toJavaRDD());
+	}
+
+	/**
+	 * @param sc, the (Scala based) Spark Context
+	 * @param partitionsPerChannel, the number of partitions (ie. of parallel subscriptions) per channel
+	 * @param fromSequence, the first sequence number to read (inclusive)
+	 * @param untilSequence, the last sequence number to read (exclusive), limited to the last stored message
+	 * @return a Spark RDD made of the NATS Streaming Messages of that range as Tuples of (the NATS Subject) / (the NATS Payload)
+	 * @throws Exception is thrown when the NATS Streaming server could not be reached
+	 */
+	public NatsStreamingRDD<Tuple2<String, R>> asRDDOfKeyValue(SparkContext sc, int partitionsPerChannel, long fromSequence, long untilSequence) 
+			throws Exception {
+		return this.storedAsKeyValue().createRDD(sc, partitionsPerChannel, fromSequence, untilSequence, null, null);
+	}
+
+	/**
+	 * @param sc, the (Java based) Spark Context
+	 * @param partitionsPerChannel, the number of partitions (ie. of parallel subscriptions) per channel
+	 * @param from, the time of the first message to read (inclusive)
+	 * @param until, the time of the last message to read (exclusive)
+	 * @return a Spark RDD made of the NATS Streaming Messages of that period as Key (the NATS Subject) / Value (the NATS Payload)
+	 * @throws Exception is thrown when the NATS Streaming server could not be reached
+	 */
+	public JavaPairRDD<String, R> asRDDOfKeyValue(JavaSparkContext sc, int partitionsPerChannel, Instant from, Instant until) throws Exception {
+		return JavaPairRDD.fromJavaRDD(asRDDOfKeyValue(sc.sc(), partitionsPerChannel, from, until).toJavaRDD());
+	}
+
+	/**
+	 * @param sc, the (Scala based) Spark Context
+	 * @param partitionsPerChannel, the number of partitions (ie. of parallel subscriptions) per channel
+	 * @param from, the time of the first message to read (inclusive)
+	 * @param until, the time of the last message to read (exclusive)
+	 * @return a Spark RDD made of the NATS Streaming Messages of that period as Tuples of (the NATS Subject) / (the NATS Payload)
+	 * @throws Exception is thrown when the NATS Streaming server could not be reached
+	 */
+	public NatsStreamingRDD<Tuple2<String, R>> asRDDOfKeyValue(SparkContext sc, int partitionsPerChannel, Instant from, Instant until) throws Exception {
+		return this.storedAsKeyValue().createRDD(sc, partitionsPerChannel, 0, Long.MAX_VALUE, from, until);
+	}
+
 	@Override
 	protected MessageHandler getMessageHandler() {
 		return new MessageHandler() {
 			@Override
 			public void onMessage(Message m) {
-				R s = decodeData(m);
 				if (logger.isTraceEnabled()) {
-					logger.trace("Received by {} on Subject '{}': {}.", NatsStreamingToSparkConnectorImpl.this,
-							m.getSubject(), s);
+					logger.trace("Received by {} on Subject '{}': {}.", NatsStreamingToSparkConnectorImpl.this, m.getSubject(), m);
 				}
-				store(s);
+				receiveMessage(m);
 			}
 		};
 	}
@@ -10,20 +10,45 @@ package com.logimethods.connector.nats.to_spark;
 import static com.logimethods.connector.nats_spark.Constants.PROP_SUBJECTS;
 import static io.nats.client.Constants.PROP_URL;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
+import org.apache.spark.SparkEnv;
+import org.apache.spark.serializer.SerializerInstance;
 import org.apache.spark.storage.StorageLevel;
+import org.apache.spark.streaming.api.java.JavaDStream;
+import org.apache.spark.streaming.api.java.JavaStreamingContext;
 import org.apache.spark.streaming.receiver.Receiver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.logimethods.connector.nats_spark.Codec;
+import com.logimethods.connector.nats_spark.Codecs;
+import com.logimethods.connector.nats_spark.ConnectorMetrics;
+import com.logimethods.connector.nats_spark.Frames;
 import com.logimethods.connector.nats_spark.IncompleteException;
 import com.logimethods.connector.nats_spark.NatsSparkUtilities;
+import com.logimethods.connector.nats_spark.PayloadCompressor;
+import com.logimethods.connector.nats_spark.PayloadEnvelope;
 
 import io.nats.client.Message;
+import scala.Option;
 import scala.Tuple2;
+import scala.collection.mutable.ArrayBuffer;
 
 /**
  * A NATS to Spark Connector.
@@ -55,17 +80,48 @@ public abstract class NatsToSparkConnector<T,R,V> extends Receiver<R> {
 	protected String 			 natsUrl;
 	protected Function<byte[], V> dataDecoder = null;
 	protected scala.Function1<byte[], V> scalaDataDecoder = null;
+	protected Codec<V>			 codec;
+	protected Integer			 maxDecompressedSize;
+	protected boolean			 envelopesEnabled = false;
+	protected boolean			 framesEnabled = false;
+	protected Integer			 storeMaxRecords;
+	protected long				 storeMaxBytes;
+	protected long				 storeMaxDelay;
+	protected transient StoreBatch<R> storeBatch;
+	protected transient ScheduledFuture<?> storeFlushing;
+	protected transient ScheduledExecutorService flusher;
+	protected boolean			 storedAsRawBlocks = false;
+	protected transient RawBlockBatch rawBlockBatch;
+	protected Integer			 decodingQueueCapacity;
+	protected int				 decodingWorkers;
+	protected OverflowPolicy	 overflowPolicy;
+	protected transient DecodingPipeline decodingPipeline;
+	protected int				 maxInternedSubjects = DEFAULT_MAX_INTERNED_SUBJECTS;
+	protected transient volatile SubjectInterner subjectInterner;
+	protected Integer			 minInFlight;
+	protected int				 maxInFlight;
+	protected transient RateController rateController;
+	protected boolean			 metricsEnabled = false;
+	protected String[]			 preferredLocations;
+	protected String			 preferredLocation;
 
 	protected final static String CLIENT_ID = "NatsToSparkConnector_";
+	protected final static long DECODING_POOL_STOP_TIMEOUT = 5000;
+	protected final static int DEFAULT_MAX_INTERNED_SUBJECTS = 10000;
+	protected final static long RATE_REFRESH_INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+	/** The number of milliseconds of messages (at the current rate limit) allowed to be in flight. */
+	protected final static long IN_FLIGHT_WINDOW = 500;
 
 	protected NatsToSparkConnector(Class<V> type, StorageLevel storageLevel) {
 		super(storageLevel);
 		this.type = type;
+		this.codec = Codecs.forType(type);
 	}
 
 	protected NatsToSparkConnector(Class<V> type, StorageLevel storageLevel, String... subjects) {
 		super(storageLevel);
 		this.type = type;
+		this.codec = Codecs.forType(type);
 		this.subjects = NatsSparkUtilities.transformIntoAList(subjects);
 	}
 	
@@ -79,6 +135,7 @@ public abstract class NatsToSparkConnector<T,R,V> extends Receiver<R> {
 	protected NatsToSparkConnector(Class<V> type, StorageLevel storageLevel, Collection<String> subjects, Properties properties, String queue, String natsUrl) {
 		super(storageLevel);
 		this.type = type;
+		this.codec = Codecs.forType(type);
 		this.subjects = subjects;
 		this.properties = properties;
 		this.queue = queue;
@@ -137,6 +194,355 @@ public abstract class NatsToSparkConnector<T,R,V> extends Receiver<R> {
 		return (T)this;
 	}
 
+	/**
+	 * @param codec, the Codec used to decode the NATS Payloads (by default, the one registered for the expected type)
+	 * @return the connector itself
+	 * @see com.logimethods.connector.nats_spark.Codecs#forType(Class)
+	 */
+	@SuppressWarnings("unchecked")
+	public T withCodec(Codec<V> codec) {
+		this.codec = codec;
+		return (T)this;
+	}
+
+	/**
+	 * Decompress the NATS Payloads compressed by the Spark to NATS connectors (the other ones being decoded as they are),
+	 * up to {@link com.logimethods.connector.nats_spark.PayloadCompressor#DEFAULT_MAX_DECOMPRESSED_SIZE} bytes.
+	 * @return the connector itself
+	 * @see com.logimethods.connector.nats_spark.PayloadCompressor
+	 */
+	public T withCompression() {
+		return withCompression(PayloadCompressor.DEFAULT_MAX_DECOMPRESSED_SIZE);
+	}
+
+	/**
+	 * Decompress the NATS Payloads compressed by the Spark to NATS connectors (the other ones being decoded as they are).
+	 * @param maxDecompressedSize, the maximum size (in bytes) of a decompressed payload, 
+	 * a compressed payload claiming to be larger being decoded as it is
+	 * @return the connector itself
+	 * @see com.logimethods.connector.nats_spark.PayloadCompressor
+	 */
+	@SuppressWarnings("unchecked")
+	public T withCompression(int maxDecompressedSize) {
+		if (maxDecompressedSize < 1) {
+			throw new IllegalArgumentException("The maximum size of a decompressed payload should be positive: " + maxDecompressedSize);
+		}
+		this.maxDecompressedSize = maxDecompressedSize;
+		return (T)this;
+	}
+
+	/**
+	 * Remove the envelopes of the NATS Payloads stamped by the Spark to NATS connectors (the other payloads being decoded as they are),
+	 * recording the latencies between the publication &amp; the reception of the payloads.
+	 * @return the connector itself
+	 * @see com.logimethods.connector.nats_spark.PayloadEnvelope#getLatencies()
+	 */
+	@SuppressWarnings("unchecked")
+	public T withEnvelopes() {
+		this.envelopesEnabled = true;
+		return (T)this;
+	}
+
+	/**
+	 * Unpack the frames packing several records, as published by the Spark to NATS connectors defined <code>withFraming(...)</code>
+	 * (the other payloads being decoded as single records).
+	 * @return the connector itself
+	 * @see com.logimethods.connector.nats_spark.Frames
+	 */
+	@SuppressWarnings("unchecked")
+	public T withFrames() {
+		this.framesEnabled = true;
+		return (T)this;
+	}
+
+	/**
+	 * Accumulate the received records, to store them into Spark as multi-records blocks
+	 * (instead of pushing them one by one through the Spark Block Generator).
+	 * A block is stored as soon as one of the limits is reached.
+	 * @param maxRecords, the maximum number of records of a block
+	 * @param maxBytes, the maximum number of bytes (of NATS Payloads) of a block
+	 * @param maxDelay, the maximum delay a record can wait for its block to be stored
+	 * @return the connector itself
+	 */
+	@SuppressWarnings("unchecked")
+	public T withStoreBatching(int maxRecords, long maxBytes, Duration maxDelay) {
+		if (maxRecords < 1) {
+			throw new IllegalArgumentException("The maximum number of records of a block should be positive: " + maxRecords);
+		}
+		this.storeMaxRecords = maxRecords;
+		this.storeMaxBytes = maxBytes;
+		this.storeMaxDelay = maxDelay.toNanos();
+		return (T)this;
+	}
+
+	/**
+	 * Decouple the reception of the NATS Messages from their decoding: the NATS Message Handler will only enqueue the raw messages, 
+	 * to be decoded and stored into Spark by a pool of threads (which does not keep the order of the messages).
+	 * @param queueCapacity, the maximum number of messages waiting to be decoded
+	 * @param workers, the number of threads decoding the messages
+	 * @param overflowPolicy, what to do with a new message when the queue is full
+	 * @return the connector itself
+	 * @see #getDecodingStatistics()
+	 */
+	@SuppressWarnings("unchecked")
+	public T withDecodingPool(int queueCapacity, int workers, OverflowPolicy overflowPolicy) {
+		if (queueCapacity < 1) {
+			throw new IllegalArgumentException("The capacity of the decoding queue should be positive: " + queueCapacity);
+		}
+		if (workers < 1) {
+			throw new IllegalArgumentException("The number of decoding threads should be positive: " + workers);
+		}
+		this.decodingQueueCapacity = queueCapacity;
+		this.decodingWorkers = workers;
+		this.overflowPolicy = overflowPolicy;
+		return (T)this;
+	}
+
+	/**
+	 * @return the statistics of the decoding pool of that (started) receiver, null if there is none
+	 * @see #withDecodingPool(int, int, OverflowPolicy)
+	 */
+	public DecodingStatistics getDecodingStatistics() {
+		final DecodingPipeline pipeline = decodingPipeline;
+		return (pipeline != null) ? pipeline.statistics : null;
+	}
+
+	/**
+	 * The records stored as Key (the NATS Subject) / Value share a single instance of each subject, 
+	 * cached in a bounded (by default, to 10000 subjects) intern cache, which saves memory as well as serialization size.
+	 * @param maxSubjects, the maximum number of cached subjects (0 to disable that cache)
+	 * @return the connector itself
+	 */
+	@SuppressWarnings("unchecked")
+	public T withInternedSubjects(int maxSubjects) {
+		if (maxSubjects < 0) {
+			throw new IllegalArgumentException("The maximum number of interned subjects should not be negative: " + maxSubjects);
+		}
+		this.maxInternedSubjects = maxSubjects;
+		return (T)this;
+	}
+
+	/**
+	 * @param subject, a NATS Subject
+	 * @return the shared instance of that subject (or the subject itself when the intern cache is disabled or full)
+	 */
+	protected String internSubject(String subject) {
+		if (maxInternedSubjects == 0) {
+			return subject;
+		}
+		SubjectInterner interner = subjectInterner;
+		if (interner == null) {
+			synchronized (this) {
+				if (subjectInterner == null) {
+					subjectInterner = new SubjectInterner(maxInternedSubjects);
+				}
+				interner = subjectInterner;
+			}
+		}
+		return interner.intern(subject);
+	}
+
+	/**
+	 * Report the throughput &amp; the decoding time of the receiver into the Spark metrics system
+	 * (as the <code>NatsConnector</code> Source of the Executor running that receiver).
+	 * @return the connector itself
+	 * @see com.logimethods.connector.nats_spark.ConnectorMetrics
+	 */
+	@SuppressWarnings("unchecked")
+	public T withMetrics() {
+		this.metricsEnabled = true;
+		return (T)this;
+	}
+
+	/**
+	 * @return the metrics to record into (null if they have not been requested)
+	 */
+	protected ConnectorMetrics metrics() {
+		return metricsEnabled ? ConnectorMetrics.get() : null;
+	}
+
+	/**
+	 * Pace the handling of the NATS Messages according to the rate limit provided by Spark 
+	 * (see <code>spark.streaming.backpressure.enabled</code> &amp; <code>spark.streaming.receiver.maxRate</code>).
+	 * <p>
+	 * The NATS Streaming receivers then manually acknowledge the messages at that rate, 
+	 * their maximum number of in-flight messages being derived from the rate limit when subscribing,
+	 * while the standard NATS receivers keep their pending messages limit in line with it.
+	 * @param minInFlight, the minimum number of (in-flight or pending) messages
+	 * @param maxInFlight, the maximum number of (in-flight or pending) messages
+	 * @return the connector itself
+	 * @see #getRateLimit()
+	 * @see #getEffectiveRate()
+	 */
+	@SuppressWarnings("unchecked")
+	public T withAdaptiveRate(int minInFlight, int maxInFlight) {
+		if ((minInFlight < 1) || (maxInFlight < minInFlight)) {
+			throw new IllegalArgumentException("The numbers of in-flight messages should be positive and ordered: " + minInFlight + ", " + maxInFlight);
+		}
+		this.minInFlight = minInFlight;
+		this.maxInFlight = maxInFlight;
+		return (T)this;
+	}
+
+	/**
+	 * @return the current rate limit (in messages per second) of that (started) receiver, 
+	 * 0 if there is no adaptive rate or Long.MAX_VALUE if there is no limit
+	 * @see #withAdaptiveRate(int, int)
+	 */
+	public long getRateLimit() {
+		final RateController controller = rateController;
+		return (controller != null) ? controller.getRateLimit() : 0;
+	}
+
+	/**
+	 * @return the rate (in messages per second) of the messages handled by that (started) receiver, 0 if there is no adaptive rate
+	 * @see #withAdaptiveRate(int, int)
+	 */
+	public double getEffectiveRate() {
+		final RateController controller = rateController;
+		return (controller != null) ? controller.getEffectiveRate() : 0;
+	}
+
+	/**
+	 * @param hosts, the hosts where the receiver(s) should preferably be started, 
+	 * the parallel receivers (see <code>asParallelStreamOf(...)</code>) being assigned to them in a round-robin way
+	 * @return the connector itself
+	 */
+	@SuppressWarnings("unchecked")
+	public T withPreferredLocations(String... hosts) {
+		this.preferredLocations = hosts;
+		this.preferredLocation = ((hosts != null) && (hosts.length > 0)) ? hosts[0] : null;
+		return (T)this;
+	}
+
+	@Override
+	public Option<String> preferredLocation() {
+		return Option.apply(preferredLocation);
+	}
+
+	/**
+	 * Create several receivers, sharing the same NATS Queue Group (then splitting the messages between them), 
+	 * and union their streams into a single one.
+	 * <p>
+	 * The receivers are evenly spread by Spark over the executors, unless preferred locations are provided.
+	 * @param ssc, the (Java based) Spark Streaming Context
+	 * @param receivers, the number of receivers
+	 * @return a Spark Stream, belonging to the provided Context, made of the NATS Messages collected by all the receivers
+	 */
+	protected JavaDStream<R> parallelStreamOf(JavaStreamingContext ssc, int receivers) {
+		if (receivers < 1) {
+			throw new IllegalArgumentException("The number of receivers should be positive: " + receivers);
+		}
+		final List<JavaDStream<R>> streams = new ArrayList<JavaDStream<R>>(receivers - 1);
+		for (int i = 1; i < receivers; i++) {
+			streams.add(ssc.receiverStream(replicate(i)));
+		}
+		return ssc.union(ssc.receiverStream(replicate(0)), streams);
+	}
+
+	/**
+	 * @param index, the index of the replica
+	 * @return a copy of that connector, to be used as one of the parallel receivers
+	 */
+	@SuppressWarnings("unchecked")
+	protected NatsToSparkConnector<T,R,V> replicate(int index) {
+		final NatsToSparkConnector<T,R,V> replica;
+		try {
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+				out.writeObject(this);
+			}
+			try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+				replica = (NatsToSparkConnector<T,R,V>) in.readObject();
+			}
+		} catch (IOException | ClassNotFoundException e) {
+			throw new IllegalStateException("The connector " + this + " could not be replicated", e);
+		}
+		if ((preferredLocations != null) && (preferredLocations.length > 0)) {
+			replica.preferredLocation = preferredLocations[index % preferredLocations.length];
+		}
+		replica.initReplica(index);
+		logger.debug("Replica {} of {} created as {}", index, this, replica);
+		return replica;
+	}
+
+	/**
+	 * Initialize a copy of that connector, to be used as one of the parallel receivers.
+	 * @param index, the index of the replica
+	 */
+	protected void initReplica(int index) {
+	}
+
+	/**
+	 * Copy the settings of that connector (which are not provided through the constructors) to another one.
+	 * @param connector, the connector to set
+	 */
+	protected void copySettingsTo(NatsToSparkConnector<?, ?, V> connector) {
+		connector.codec = codec;
+		connector.maxDecompressedSize = maxDecompressedSize;
+		connector.envelopesEnabled = envelopesEnabled;
+		connector.framesEnabled = framesEnabled;
+		connector.storeMaxRecords = storeMaxRecords;
+		connector.storeMaxBytes = storeMaxBytes;
+		connector.storeMaxDelay = storeMaxDelay;
+		connector.storedAsRawBlocks = storedAsRawBlocks;
+		connector.decodingQueueCapacity = decodingQueueCapacity;
+		connector.decodingWorkers = decodingWorkers;
+		connector.overflowPolicy = overflowPolicy;
+		connector.maxInternedSubjects = maxInternedSubjects;
+		connector.minInFlight = minInFlight;
+		connector.maxInFlight = maxInFlight;
+		connector.metricsEnabled = metricsEnabled;
+		connector.preferredLocations = preferredLocations;
+		connector.preferredLocation = preferredLocation;
+	}
+
+	/**
+	 * Store the NATS Payloads into Spark as serialized blocks of raw bytes,
+	 * to be decoded inside the Spark tasks (see {@link #decodeRawBlocks(JavaDStream)}) instead of by the receiver.
+	 * @return the connector itself
+	 */
+	@SuppressWarnings("unchecked")
+	protected T storedAsRawBlocks() {
+		this.storedAsRawBlocks = true;
+		return (T)this;
+	}
+
+	/**
+	 * @param blocks, the Spark Stream provided by that connector when stored as raw blocks
+	 * @return the Spark Stream of the decoded records
+	 */
+	@SuppressWarnings("unchecked")
+	protected JavaDStream<R> decodeRawBlocks(JavaDStream<?> blocks) {
+		return ((JavaDStream<RawBlock>) blocks).flatMap(this::decodeRawBlock);
+	}
+
+	/**
+	 * Decode the record(s) carried by the NATS Payloads of a raw block, which could be enveloped, compressed, and/or be frames packing several records.
+	 * @param block, the raw block stored by that connector
+	 * @return the decoded records
+	 */
+	protected Iterator<R> decodeRawBlock(RawBlock block) {
+		final List<R> records = new ArrayList<R>(block.count());
+		block.forEach((subject, rawPayload) -> decodePayload(subject, rawPayload, records::add));
+		return records.iterator();
+	}
+
+	/**
+	 * Decode the record(s) carried by a NATS Payload, which could be enveloped, compressed, and/or be a frame packing several records.
+	 * @param subject, the NATS Subject of the message
+	 * @param rawPayload, the NATS Payload of the message
+	 * @param consumer, the consumer of the decoded records
+	 */
+	protected void decodePayload(String subject, byte[] rawPayload, Consumer<R> consumer) {
+		final byte[] payload = decompress(openEnvelope(rawPayload));
+		if (framesEnabled) {
+			Frames.unpack(payload, bytes -> consumer.accept(decodeRecord(subject, rawPayload, bytes)));
+		} else {
+			consumer.accept(decodeRecord(subject, rawPayload, payload));
+		}
+	}
+
 	/* **************** STANDARD NATS **************** */
 	
 	/**
@@ -165,6 +571,9 @@ public abstract class NatsToSparkConnector<T,R,V> extends Receiver<R> {
 	
 	@Override
 	public void onStart() {
+		startStoreBatching();
+		startDecodingPool();
+		startRateControl();
 		//Start the thread that receives data over a connection
 		new Thread()  {
 			@Override public void run() {
@@ -181,6 +590,187 @@ public abstract class NatsToSparkConnector<T,R,V> extends Receiver<R> {
 	public void onStop() {
 		// There is nothing much to do as the thread calling receive()
 		// is designed to stop by itself if CTRL-C is Caught.
+		stopDecodingPool();
+		stopStoreBatching();
+		stopFlusher();
+		rateController = null;
+	}
+
+	/**
+	 * @return the scheduler running the periodic tasks of that receiver (created if needed),
+	 * which could be blocked while a block is stored into Spark without holding up the other receivers
+	 */
+	protected synchronized ScheduledExecutorService flusher() {
+		if (flusher == null) {
+			flusher = StoreBatch.newFlusher(getClass().getSimpleName() + "-" + Integer.toHexString(hashCode()));
+		}
+		return flusher;
+	}
+
+	/**
+	 * Stop the scheduler of that receiver, which cancels its periodic tasks.
+	 */
+	protected synchronized void stopFlusher() {
+		if (flusher != null) {
+			flusher.shutdown();
+			flusher = null;
+		}
+	}
+
+	protected void startRateControl() {
+		if (minInFlight != null) {
+			rateController = new RateController(this::currentRateLimit, RATE_REFRESH_INTERVAL);
+			logger.info("The rate of {} is adapted to the Spark rate limit, currently of {} messages/s", this, rateController.getRateLimit());
+		}
+	}
+
+	/**
+	 * @return the rate limit (in messages per second) currently applied by Spark to that receiver
+	 */
+	protected long currentRateLimit() {
+		return supervisor().getCurrentRateLimit();
+	}
+
+	/**
+	 * @param rateLimit, a rate limit (in messages per second)
+	 * @return the number of messages allowed to be in flight (or pending) at that rate
+	 */
+	protected int inFlightWindow(long rateLimit) {
+		if (RateController.isUnlimited(rateLimit)) {
+			return maxInFlight;
+		}
+		final long window = Math.min(rateLimit, Integer.MAX_VALUE) * IN_FLIGHT_WINDOW / 1000;
+		return (int) Math.max(minInFlight, Math.min(maxInFlight, window));
+	}
+
+	/**
+	 * Wait (if needed) until the next message can be handled without exceeding the rate limit.
+	 */
+	protected void throttle() {
+		final RateController controller = rateController;
+		if (controller != null) {
+			try {
+				controller.acquire();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	protected void startDecodingPool() {
+		if (decodingQueueCapacity != null) {
+			decodingPipeline = new DecodingPipeline(decodingQueueCapacity, decodingWorkers, overflowPolicy, this::storePayload, 
+													getClass().getSimpleName());
+			decodingPipeline.start();
+		}
+	}
+
+	protected void stopDecodingPool() {
+		final DecodingPipeline pipeline = decodingPipeline;
+		if (pipeline != null) {
+			try {
+				pipeline.stop(DECODING_POOL_STOP_TIMEOUT);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			logger.info("The decoding pool of {} has been stopped: {}", this, pipeline.statistics);
+		}
+	}
+
+	protected void startStoreBatching() {
+		if (storedAsRawBlocks) {
+			rawBlockBatch = (storeMaxRecords != null) 
+								? new RawBlockBatch(storeMaxRecords, storeMaxBytes, storeMaxDelay, keepsSubjects())
+								: new RawBlockBatch(RawBlockBatch.DEFAULT_MAX_RECORDS, RawBlockBatch.DEFAULT_MAX_BYTES, RawBlockBatch.DEFAULT_MAX_DELAY, keepsSubjects());
+			storeFlushing = StoreBatch.scheduleFlushing(flusher(), this::storeLingeringRecords, rawBlockBatch.maxDelay);
+		} else if (storeMaxRecords != null) {
+			storeBatch = new StoreBatch<R>(storeMaxRecords, storeMaxBytes, storeMaxDelay);
+			storeFlushing = StoreBatch.scheduleFlushing(flusher(), this::storeLingeringRecords, storeMaxDelay);
+		}
+	}
+
+	protected void stopStoreBatching() {
+		if (storeFlushing != null) {
+			storeFlushing.cancel(false);
+			storeFlushing = null;
+		}
+		if (rawBlockBatch != null) {
+			final RawBlock block = rawBlockBatch.drain();
+			if (block != null) {
+				try {
+					storeRawBlock(block);
+				} catch (Exception e) {
+					logger.warn("{} payloads received by {} could not be stored while stopping: {}", block.count(), this, e.toString());
+				}
+			}
+		}
+		if (storeBatch != null) {
+			final ArrayBuffer<R> records = storeBatch.drain();
+			if (records != null) {
+				try {
+					store(records);
+				} catch (Exception e) {
+					logger.warn("{} records received by {} could not be stored while stopping: {}", records.size(), this, e.toString());
+				}
+			}
+		}
+	}
+
+	protected void storeLingeringRecords() {
+		try {
+			if (rawBlockBatch != null) {
+				final RawBlock block = rawBlockBatch.drainIfLingering(System.nanoTime());
+				if (block != null) {
+					storeRawBlock(block);
+				}
+				return;
+			}
+			final ArrayBuffer<R> records = storeBatch.drainIfLingering(System.nanoTime());
+			if (records != null) {
+				store(records);
+			}
+		} catch (Exception e) {
+			logger.error("The records received by {} could not be stored: {}", this, e);
+		}
+	}
+
+	/**
+	 * Store a record into Spark, either directly or through the current block.
+	 * @param record, the decoded record
+	 * @param size, the size of the encoded record
+	 */
+	protected void storeRecord(R record, int size) {
+		final StoreBatch<R> batch = storeBatch;
+		if (batch == null) {
+			store(record);
+		} else {
+			final ArrayBuffer<R> records = batch.add(record, size);
+			if (records != null) {
+				store(records);
+			}
+		}
+	}
+
+	/**
+	 * Store a raw block into Spark, serialized as the Spark Block Manager would do.
+	 * @param block, the raw block to store
+	 */
+	protected void storeRawBlock(RawBlock block) {
+		store(rawBlockSerializer().serialize(block, scala.reflect.ClassTag$.MODULE$.apply(RawBlock.class)));
+	}
+
+	/**
+	 * @return a new instance of the serializer used by Spark to read the stored blocks
+	 */
+	protected SerializerInstance rawBlockSerializer() {
+		return SparkEnv.get().serializer().newInstance();
+	}
+
+	/**
+	 * @return true if the NATS Subjects are required to decode the records
+	 */
+	protected boolean keepsSubjects() {
+		return false;
 	}
 
 	/** Create a socket connection and receive data until receiver is stopped 
@@ -233,27 +823,138 @@ public abstract class NatsToSparkConnector<T,R,V> extends Receiver<R> {
 		return s;
 	}
 	
+	/**
+	 * @param m, a NATS Message
+	 * @return a Key (the interned NATS Subject) / Value (the decoded NATS Payload) Tuple
+	 * @deprecated the receivers decode their records through {@link #decodeRecord(String, byte[])}
+	 */
+	@Deprecated
 	@SuppressWarnings("unchecked")
 	protected R decodeTuple(Message m) {
-		final String subject = m.getSubject();		
-		V s = decodeData(m.getData());
-		return (R) new Tuple2<String,V>(subject, s);
+		return (R) new Tuple2<String,V>(internSubject(m.getSubject()), decodeData(m.getData()));
 	}
 		
+	/**
+	 * @param m, a NATS Streaming Message
+	 * @return a Key (the interned NATS Subject) / Value (the decoded NATS Payload) Tuple
+	 * @deprecated the receivers decode their records through {@link #decodeRecord(String, byte[])}
+	 */
+	@Deprecated
 	@SuppressWarnings("unchecked")
 	protected R decodeTuple(io.nats.stan.Message m) {
-		final String subject = m.getSubject();		
-		V s = decodeData(m.getData());
-		return (R) new Tuple2<String,V>(subject, s);
+		return (R) new Tuple2<String,V>(internSubject(m.getSubject()), decodeData(m.getData()));
+	}
+	
+	/**
+	 * Hand a received NATS Message to the decoding pool, or directly store it into Spark when there is none.
+	 * @param subject, the NATS Subject of the message
+	 * @param rawPayload, the NATS Payload of the message
+	 */
+	protected void receivePayload(String subject, byte[] rawPayload) {
+		final ConnectorMetrics metrics = metrics();
+		if (metrics != null) {
+			metrics.received(rawPayload.length);
+		}
+		final DecodingPipeline pipeline = decodingPipeline;
+		if (pipeline != null) {
+			pipeline.offer(subject, rawPayload);
+		} else {
+			storePayload(subject, rawPayload);
+		}
+	}
+
+	/**
+	 * Store into Spark the record(s) carried by a NATS Payload, which could be enveloped, compressed, and/or be a frame packing several records.
+	 * When stored as raw blocks, the NATS Payload is only added (as it is) to the current block.
+	 * @param subject, the NATS Subject of the message
+	 * @param rawPayload, the NATS Payload of the message
+	 * @see com.logimethods.connector.nats_spark.Frames
+	 * @see com.logimethods.connector.nats_spark.PayloadCompressor
+	 * @see com.logimethods.connector.nats_spark.PayloadEnvelope
+	 */
+	protected void storePayload(String subject, byte[] rawPayload) {
+		final RawBlockBatch blocks = rawBlockBatch;
+		if (blocks != null) {
+			final RawBlock block = blocks.add(subject, rawPayload);
+			if (block != null) {
+				storeRawBlock(block);
+			}
+			return;
+		}
+		final byte[] payload = decompress(openEnvelope(rawPayload));
+		if (framesEnabled && Frames.isFrame(payload)) {
+			Frames.unpack(payload, bytes -> storeRecord(decodeRecord(subject, rawPayload, bytes), bytes.length));
+		} else {
+			storeRecord(decodeRecord(subject, rawPayload, payload), payload.length);
+		}
+	}
+
+	/**
+	 * @param payload, a NATS Payload (without its envelope)
+	 * @return the decompressed payload, or the payload itself if the decompression has not been requested
+	 * @see #withCompression(int)
+	 */
+	protected byte[] decompress(byte[] payload) {
+		return (maxDecompressedSize != null) ? PayloadCompressor.decompress(payload, maxDecompressedSize) : payload;
+	}
+
+	/**
+	 * Record the latency of an enveloped NATS Payload (into the metrics too, if they have been requested), then remove its envelope.
+	 * Since the records are decoded from whole arrays, the payload carried by the envelope is copied.
+	 * @param rawPayload, the NATS Payload of the message
+	 * @return the payload carried by the envelope, or the NATS Payload itself if it has not been enveloped (or if the envelopes have not been requested)
+	 * @see #withEnvelopes()
+	 */
+	protected byte[] openEnvelope(byte[] rawPayload) {
+		if (! envelopesEnabled || ! PayloadEnvelope.isEnveloped(rawPayload)) {
+			return rawPayload;
+		}
+		final long latency = PayloadEnvelope.recordLatency(rawPayload, PayloadEnvelope.currentTimeNanos());
+		final ConnectorMetrics metrics = metrics();
+		if (metrics != null) {
+			metrics.transmitted(latency);
+		}
+		return PayloadEnvelope.strip(rawPayload);
+	}
+
+	/**
+	 * @param subject, the NATS Subject of the message
+	 * @param rawPayload, the NATS Payload of the message (including its envelope, if any)
+	 * @param bytes, the encoded record
+	 * @return the record to store into Spark
+	 */
+	protected R decodeRecord(String subject, byte[] rawPayload, byte[] bytes) {
+		return decodeRecord(subject, bytes);
+	}
+
+	/**
+	 * @param subject, the NATS Subject of the message
+	 * @param bytes, the encoded record
+	 * @return the record to store into Spark
+	 */
+	@SuppressWarnings("unchecked")
+	protected R decodeRecord(String subject, byte[] bytes) {
+		return (R) decodeData(bytes);
 	}
 	
 	protected V decodeData(byte[] bytes) {
+		final ConnectorMetrics metrics = metrics();
+		if (metrics == null) {
+			return decodeBytes(bytes);
+		}
+		final long start = System.nanoTime();
+		final V data = decodeBytes(bytes);
+		metrics.decoded(System.nanoTime() - start);
+		return data;
+	}
+
+	protected V decodeBytes(byte[] bytes) {
 		if (dataDecoder != null) {
 			return dataDecoder.apply(bytes);
 		} else if (scalaDataDecoder != null) {
 			return scalaDataDecoder.apply(bytes);
 		} else {
-			return NatsSparkUtilities.decodeData(type, bytes);
+			return codec.decode(bytes);
 		}
 	}
 }
@@ -0,0 +1,39 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.nats.to_spark;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * Keeps, per NATS Streaming channel, the sequence number of the last message stored into Spark by the receivers,
+ * for them to resume from the next one when restarted.
+ * <p>
+ * Since the receivers are serialized to be started on the Spark executors, the implementations have to be serializable,
+ * and to reach a storage shared by all the executors that could host those receivers.
+ *
+ * @see FileOffsetStore
+ * @see OmnipotentNatsStreamingToSparkConnector#withOffsetStore(OffsetStore)
+ */
+public interface OffsetStore extends Serializable {
+
+	/**
+	 * @param channel, the NATS Streaming channel
+	 * @return the sequence number of the last message stored from that channel, null if none
+	 * @throws IOException is thrown when the storage could not be read
+	 */
+	Long getLastSequence(String channel) throws IOException;
+
+	/**
+	 * Record the sequence numbers of the last stored messages (which could only move forward).
+	 * @param lastSequences, the sequence numbers of the last stored messages, per channel
+	 * @throws IOException is thrown when the storage could not be written
+	 */
+	void storeLastSequences(Map<String, Long> lastSequences) throws IOException;
+}
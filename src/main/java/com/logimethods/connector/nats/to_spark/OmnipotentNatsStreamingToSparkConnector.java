@@ -10,13 +10,22 @@ package com.logimethods.connector.nats.to_spark;
 import java.io.IOException;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
+import org.apache.spark.SparkContext;
 import org.apache.spark.storage.StorageLevel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.logimethods.connector.nats_spark.ConnectorMetrics;
+
 import io.nats.stan.Connection;
 import io.nats.stan.ConnectionFactory;
 import io.nats.stan.Message;
@@ -44,6 +53,18 @@ public abstract class OmnipotentNatsStreamingToSparkConnector<T,R,V> extends Nat
 	protected SubscriptionOptions opts;
 	protected SubscriptionOptions.Builder optsBuilder;
 	protected SubOptionBuilder subOptsBuilder;
+	protected long maxMessagesPerBatch = Long.MAX_VALUE;
+	protected long probeTimeout = NatsStreamingInputDStream.DEFAULT_PROBE_TIMEOUT;
+	protected Integer reliableMaxMessages;
+	protected long reliableMaxDelay;
+	protected transient ReliableBatch<R> reliableBatch;
+	protected transient ScheduledFuture<?> reliableFlushing;
+	protected transient boolean acknowledging = false;
+	protected OffsetStore offsetStore;
+	protected transient StoredSequences storedSequences;
+	protected transient ScheduledFuture<?> sequencesCommitting;
+
+	protected final static long SEQUENCES_COMMIT_INTERVAL = TimeUnit.SECONDS.toNanos(1);
 
 	/* Constructors with subjects provided by the environment */
 	
@@ -55,6 +76,79 @@ public abstract class OmnipotentNatsStreamingToSparkConnector<T,R,V> extends Nat
 //		logger.debug("CREATE NatsToSparkConnector {} with Properties '{}', Storage Level {} and NATS Subjects '{}'.", this, properties, storageLevel, subjects);
 	}
 
+	/**
+	 * @param maxMessagesPerBatch, the maximum number of messages read per channel and per batch by a direct stream 
+	 * (see {@link NatsStreamingToSparkConnectorImpl#asDirectStreamOf(org.apache.spark.streaming.api.java.JavaStreamingContext, int)})
+	 * @return the connector itself
+	 */
+	@SuppressWarnings("unchecked")
+	public T withMaxMessagesPerBatch(long maxMessagesPerBatch) {
+		if (maxMessagesPerBatch < 1) {
+			throw new IllegalArgumentException("The maximum number of messages per batch should be positive: " + maxMessagesPerBatch);
+		}
+		this.maxMessagesPerBatch = maxMessagesPerBatch;
+		return (T)this;
+	}
+
+	/**
+	 * The direct streams and the RDDs locate the messages of the channels through short-lived subscriptions (the probes),
+	 * waiting for the last message of each channel (an empty channel delivering nothing), then for the first message stored at a given time.
+	 * Since the last message of a channel tells whether a message stored at (or after) a given time exists, 
+	 * a time probe that does not deliver it within that timeout fails the planning instead of being taken for an empty result.
+	 * @param probeTimeout, the maximum time to wait for the messages of the probes (500 ms by default)
+	 * @return the connector itself
+	 */
+	@SuppressWarnings("unchecked")
+	public T withProbeTimeout(Duration probeTimeout) {
+		if (probeTimeout.isNegative() || probeTimeout.isZero()) {
+			throw new IllegalArgumentException("The probe timeout should be positive: " + probeTimeout);
+		}
+		this.probeTimeout = probeTimeout.toMillis();
+		return (T)this;
+	}
+
+	/**
+	 * Make that receiver reliable: the messages are manually acknowledged, but only once their records have been stored 
+	 * (and replicated, or written ahead, as required by Spark) as multi-records blocks, the messages of a block being acknowledged together.
+	 * In case of failure, the messages that have not been acknowledged are then redelivered by the NATS Streaming server.
+	 * <p>
+	 * Unless defined, the maximum number of in-flight messages is set to twice the number of messages of a block, 
+	 * to keep receiving messages while a block is stored. 
+	 * The decoding pool and the raw blocks (if any) are bypassed by such a receiver.
+	 * @param maxMessages, the maximum number of messages of a block (a block can't get larger than the maximum number of in-flight messages)
+	 * @param maxDelay, the maximum delay a message can wait for its block to be stored (which should be well below the Ack Wait)
+	 * @return the connector itself
+	 */
+	@SuppressWarnings("unchecked")
+	public T withReliableAcks(int maxMessages, Duration maxDelay) {
+		if (maxMessages < 1) {
+			throw new IllegalArgumentException("The maximum number of messages of a block should be positive: " + maxMessages);
+		}
+		this.reliableMaxMessages = maxMessages;
+		this.reliableMaxDelay = maxDelay.toNanos();
+		return (T)this;
+	}
+
+	/**
+	 * Keep track of the sequence number of the last message stored per channel into an {@link OffsetStore} (every second, and when stopping),
+	 * for the receivers to resume from the next message when restarted, whatever the start position of the subscription options.
+	 * That start position (or a stored sequence number) is also used by the direct streams when not recovered from a checkpoint.
+	 * <p>
+	 * Since a message is only considered as stored once its block has been stored by Spark, the receivers need reliable acks 
+	 * (see {@link #withReliableAcks(int, Duration)}), otherwise they fail to start. The tracked sequence number is the last one 
+	 * up to which all the received messages have been stored: the messages of a block that could not be stored hold it back until redelivered and stored.
+	 * <p>
+	 * Since the offsets are tracked per channel, an offset store can't be shared by parallel receivers (see {@link #asParallelStreamOf(int)}).
+	 * @param offsetStore, the store of the sequence numbers
+	 * @return the connector itself
+	 * @see FileOffsetStore
+	 */
+	@SuppressWarnings("unchecked")
+	public T withOffsetStore(OffsetStore offsetStore) {
+		this.offsetStore = offsetStore;
+		return (T)this;
+	}
+
 	/**
 	 * @param optsBuilder, the NATS Streaming options used to set the connection to NATS
 	 * @return a NATS Streaming to Spark Connector
@@ -214,24 +308,164 @@ public abstract class OmnipotentNatsStreamingToSparkConnector<T,R,V> extends Nat
 	 * @return a NATS Streaming to Spark Connector where the NATS Messages are stored in Spark as Key (the NATS Subject) / Value (the NATS Payload)
 	 */
 	public NatsStreamingToKeyValueSparkConnectorImpl<V> storedAsKeyValue() {
-		return new NatsStreamingToKeyValueSparkConnectorImpl<V>(type, storageLevel(), subjects, properties, queue, natsUrl, clusterID, clientID, 
+		final NatsStreamingToKeyValueSparkConnectorImpl<V> connector = new NatsStreamingToKeyValueSparkConnectorImpl<V>(type, storageLevel(), subjects, properties, queue, natsUrl, clusterID, clientID, 
 																opts, optsBuilder, dataDecoder, scalaDataDecoder);
+		copySettingsTo(connector);
+		connector.subOptsBuilder = subOptsBuilder;
+		connector.maxMessagesPerBatch = maxMessagesPerBatch;
+		connector.probeTimeout = probeTimeout;
+		connector.reliableMaxMessages = reliableMaxMessages;
+		connector.reliableMaxDelay = reliableMaxDelay;
+		connector.offsetStore = offsetStore;
+		return connector;
+	}
+
+	/**
+	 * Each receiver needs its own NATS Streaming client ID (while the Queue Group is shared).
+	 */
+	@Override
+	protected void initReplica(int index) {
+		if (offsetStore != null) {
+			throw new IllegalStateException(this + " can't share its offset store " + offsetStore + " between parallel receivers");
+		}
+		clientID = getUniqueClientName();
+	}
+
+	/**
+	 * @param clientID, the NATS Streaming client ID of the connection
+	 * @return a new connection to the NATS Streaming server
+	 * @throws Exception is thrown when the connection could not be established
+	 */
+	protected Connection createConnection(String clientID) throws Exception {
+		final ConnectionFactory connectionFactory = new ConnectionFactory(clusterID, clientID);
+		if (getNatsUrl() != null) {
+			connectionFactory.setNatsUrl(getNatsUrl());
+		}
+		return connectionFactory.createConnection();
+	}
+
+	/**
+	 * Translate the start position of the subscription options into a sequence number (as required by a direct stream).
+	 * <p>
+	 * Since an empty channel can't be told apart from a last message that has not been delivered within the probe timeout,
+	 * a start position relative to the last message (the new messages only, the last received one, or a start time) is only translated once that message is known.
+	 * @param connection, the NATS Streaming connection
+	 * @param channel, the NATS Streaming channel
+	 * @param lastMessage, the last message stored by the channel (null if none has been delivered by the probe)
+	 * @return the first sequence number to read, or null when it depends on the last message of the channel, which is unknown
+	 * @throws Exception is thrown when a start time could not be translated (see {@link #withProbeTimeout(Duration)})
+	 */
+	protected Long getStartSequence(Connection connection, String channel, Message lastMessage) throws Exception {
+		if (offsetStore != null) {
+			final Long storedSequence = offsetStore.getLastSequence(channel);
+			if (storedSequence != null) {
+				return storedSequence + 1;
+			}
+		}
+		final SubOptionBuilder options = subOptsBuilder;
+		if ((options != null) && options.isDeliverAllAvailable()) {
+			return 1L;
+		}
+		if ((options != null) && (options.getStartSequence() != null)) {
+			return options.getStartSequence();
+		}
+		if (lastMessage == null) {
+			return null;
+		}
+		final long lastSequence = lastMessage.getSequence();
+		if (options != null) {
+			if (options.isStartWithLastReceived()) {
+				return lastSequence;
+			}
+			if (options.getStartTime() != null) {
+				final long first = NatsStreamingRDD.probeSequencesAt(connection, Collections.singletonMap(channel, lastMessage), 
+																	options.getStartTime(), probeTimeout).get(channel);
+				return (first > 0) ? first : lastSequence + 1;
+			}
+		}
+		return lastSequence + 1;
+	}
+
+	/**
+	 * Plan the (bulk) replay of the channels, between two sequence numbers or two timestamps.
+	 * The upper bound is limited to the last stored message, and each channel is split into several ranges, read in parallel.
+	 * @param sc, the Spark Context
+	 * @param partitionsPerChannel, the number of partitions (ie. of parallel subscriptions) per channel
+	 * @param fromSequence, the first sequence number to read (inclusive), ignored when fromTime is provided
+	 * @param untilSequence, the last sequence number to read (exclusive), ignored when untilTime is provided
+	 * @param fromTime, the time of the first message to read (inclusive), could be null
+	 * @param untilTime, the time of the last message to read (exclusive), could be null
+	 * @return the RDD made of the messages of those ranges
+	 * @throws TimeoutException is thrown when the last message of a channel (or its first message stored at a given time) 
+	 * has not been delivered within the probe timeout (see {@link #withProbeTimeout(Duration)}), an empty channel included
+	 * @throws Exception is thrown when the ranges could not be resolved through the NATS Streaming server
+	 */
+	protected NatsStreamingRDD<R> createRDD(SparkContext sc, int partitionsPerChannel, long fromSequence, long untilSequence, 
+											Instant fromTime, Instant untilTime) throws Exception {
+		if (partitionsPerChannel < 1) {
+			throw new IllegalArgumentException("The number of partitions per channel should be positive: " + partitionsPerChannel);
+		}
+		final Collection<String> channels = getSubjects();
+		final List<SequenceRange> ranges = new ArrayList<SequenceRange>();
+		try (Connection connection = createConnection(getUniqueClientName())) {
+			final Map<String, Message> lasts = 
+					NatsStreamingRDD.probeMessages(connection, channels, new SubscriptionOptions.Builder().startWithLastReceived().build(), probeTimeout);
+			for (String channel : channels) {
+				if (lasts.get(channel) == null) {
+					throw new TimeoutException("The last message of '" + channel + "' has not been delivered within " + probeTimeout 
+												+ " ms (an empty channel can't be replayed)");
+				}
+			}
+			final Map<String, Long> froms = (fromTime == null) ? null : NatsStreamingRDD.probeSequencesAt(connection, lasts, fromTime, probeTimeout);
+			final Map<String, Long> untils = (untilTime == null) ? null : NatsStreamingRDD.probeSequencesAt(connection, lasts, untilTime, probeTimeout);
+			for (String channel : channels) {
+				final long end = lasts.get(channel).getSequence() + 1;
+				long from = (froms == null) ? fromSequence : (froms.get(channel) > 0 ? froms.get(channel) : end);
+				long until = (untils == null) ? untilSequence : (untils.get(channel) > 0 ? untils.get(channel) : end);
+				until = Math.min(until, end);
+				from = Math.max(1, from);
+				if (until > from) {
+					ranges.addAll(new SequenceRange(channel, from, until).split(partitionsPerChannel));
+				}
+			}
+		}
+		logger.info("Replay of {} planned through {}", channels, ranges);
+		return new NatsStreamingRDD<R>(sc, this, ranges.toArray(new SequenceRange[ranges.size()]), NatsStreamingRDD.DEFAULT_FETCH_TIMEOUT);
 	}
 
 	/** Create a socket connection and receive data until receiver is stopped 
 	 * @throws Exception **/
 	protected void receive() throws Exception {
+		checkOffsetTracking();
 
 		// Make connection and initialize streams			  
-		final ConnectionFactory connectionFactory = new ConnectionFactory(clusterID, clientID);
-		if (getNatsUrl() != null) {
-			connectionFactory.setNatsUrl(getNatsUrl());
+		final Connection connection = createConnection(clientID);
+		if (rateController != null) {
+			final int inFlight = inFlightWindow(rateController.getRateLimit());
+			getOptsBuilder().setManualAcks(true);
+			getOptsBuilder().setMaxInFlight(inFlight);
+			logger.info("{} subscribes with manual acks and at most {} messages in flight.", this, inFlight);
+		}
+		if (reliableMaxMessages != null) {
+			getOptsBuilder().setManualAcks(true);
+			Integer inFlight = getOptsBuilder().getMaxInFlight();
+			if (inFlight == null) {
+				inFlight = (int) Math.min(Integer.MAX_VALUE, 2L * reliableMaxMessages);
+				getOptsBuilder().setMaxInFlight(inFlight);
+			}
+			reliableBatch = new ReliableBatch<R>(Math.min(reliableMaxMessages, inFlight), reliableMaxDelay);
+			reliableFlushing = StoreBatch.scheduleFlushing(flusher(), this::storeLingeringMessages, reliableMaxDelay);
+			logger.info("{} stores blocks of at most {} messages before acknowledging them.", this, reliableBatch.maxMessages);
+		}
+		acknowledging = getOptsBuilder().isManualAcks();
+		if (offsetStore != null) {
+			storedSequences = new StoredSequences();
+			sequencesCommitting = StoreBatch.schedulePeriodically(flusher(), this::commitSequences, SEQUENCES_COMMIT_INTERVAL);
 		}
-		final Connection connection = connectionFactory.createConnection();
 //		logger.info("A NATS from '{}' to Spark Connection has been created for '{}', sharing Queue '{}'.", connection.getConnectedUrl(), this, queue);
 		
 		for (String subject: getSubjects()) {
-			final Subscription sub = connection.subscribe(subject, queue, getMessageHandler(), getSubscriptionOptions());
+			final Subscription sub = connection.subscribe(subject, queue, getMessageHandler(), getSubscriptionOptions(subject));
 			logger.info("Listening on {}.", subject);
 			
 			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable(){
@@ -257,6 +491,147 @@ public abstract class OmnipotentNatsStreamingToSparkConnector<T,R,V> extends Nat
 		}
 	}
 
+	/**
+	 * @throws IllegalStateException is thrown when the sequence numbers would be tracked without knowing whether their messages are stored
+	 * @see #withOffsetStore(OffsetStore)
+	 */
+	protected void checkOffsetTracking() {
+		if ((offsetStore != null) && (reliableMaxMessages == null)) {
+			throw new IllegalStateException(this + " can't keep track of its sequence numbers into " + offsetStore 
+					+ " unless its acks are reliable (see withReliableAcks)");
+		}
+	}
+
+	/**
+	 * @param channel, the NATS Streaming channel to subscribe to
+	 * @return the subscription options, resuming from the message following the last stored one (if known by the offset store)
+	 * @throws IOException is thrown when the offset store could not be read
+	 */
+	protected SubscriptionOptions getSubscriptionOptions(String channel) throws IOException {
+		final Long storedSequence = (offsetStore != null) ? offsetStore.getLastSequence(channel) : null;
+		if (storedSequence == null) {
+			return getOptsBuilder().build();
+		}
+		logger.info("{} resumes the channel '{}' from the sequence {}.", this, channel, storedSequence + 1);
+		return getOptsBuilder().build(storedSequence + 1);
+	}
+
+	@Override
+	public void onStop() {
+		super.onStop();
+		if (reliableFlushing != null) {
+			reliableFlushing.cancel(false);
+			reliableFlushing = null;
+		}
+		final ReliableBatch<R> batch = reliableBatch;
+		if (batch != null) {
+			final ReliableBatch.Block<R> block = batch.drain();
+			if (block != null) {
+				storeAndAcknowledge(block);
+			}
+		}
+		if (sequencesCommitting != null) {
+			sequencesCommitting.cancel(false);
+			sequencesCommitting = null;
+		}
+		commitSequences();
+	}
+
+	/**
+	 * Save the sequence numbers up to which all the received messages have been stored into the offset store (if they have changed).
+	 */
+	protected void commitSequences() {
+		final StoredSequences tracker = storedSequences;
+		final Map<String, Long> sequences = (tracker != null) ? tracker.drainChanges() : null;
+		if ((sequences != null) && !sequences.isEmpty()) {
+			try {
+				offsetStore.storeLastSequences(sequences);
+			} catch (Exception e) {
+				tracker.unchanged();
+				logger.warn("The sequences {} of {} could not be stored into {}: {}", sequences, this, offsetStore, e.toString());
+			}
+		}
+	}
+
+	/**
+	 * Store into Spark the record(s) carried by a NATS Streaming Message, then acknowledge it if required 
+	 * (on a reliable receiver, only once the block of that message has been stored).
+	 * @param message, the received NATS Streaming Message
+	 */
+	protected void receiveMessage(Message message) {
+		final ReliableBatch<R> batch = reliableBatch;
+		if (batch == null) {
+			receivePayload(message.getSubject(), message.getData());
+			acknowledge(message);
+			return;
+		}
+		final ConnectorMetrics metrics = metrics();
+		if (metrics != null) {
+			metrics.received(message.getData().length);
+		}
+		final List<R> records = new ArrayList<R>(1);
+		decodePayload(message.getSubject(), message.getData(), records::add);
+		final StoredSequences tracker = storedSequences;
+		if (tracker != null) {
+			tracker.received(message.getSubject(), message.getSequence());
+		}
+		final ReliableBatch.Block<R> block = batch.add(message, records);
+		if (block != null) {
+			storeAndAcknowledge(block);
+		}
+		throttle();
+	}
+
+	protected void storeLingeringMessages() {
+		final ReliableBatch<R> batch = reliableBatch;
+		if (batch != null) {
+			final ReliableBatch.Block<R> block = batch.drainIfLingering(System.nanoTime());
+			if (block != null) {
+				storeAndAcknowledge(block);
+			}
+		}
+	}
+
+	/**
+	 * Store a block into Spark (waiting until it has been stored), then acknowledge all its messages.
+	 * If the block could not be stored, its messages are not acknowledged, to be redelivered.
+	 * @param block, the block to store
+	 */
+	protected void storeAndAcknowledge(ReliableBatch.Block<R> block) {
+		try {
+			store(block.records);
+		} catch (Exception e) {
+			logger.error("{} messages received by {} could not be stored, they will be redelivered: {}", block.messages.size(), this, e.toString());
+			return;
+		}
+		final StoredSequences tracker = storedSequences;
+		for (Message message : block.messages) {
+			ack(message);
+			if (tracker != null) {
+				tracker.stored(message.getSubject(), message.getSequence());
+			}
+		}
+	}
+
+	/**
+	 * Wait (if needed) until the message can be handled without exceeding the rate limit, then acknowledge it if the acks are manual.
+	 * @param message, the handled NATS Streaming Message
+	 */
+	protected void acknowledge(Message message) {
+		throttle();
+		if (acknowledging) {
+			ack(message);
+		}
+	}
+
+	protected void ack(Message message) {
+		try {
+			message.ack();
+		} catch (IOException | TimeoutException e) {
+			logger.warn("The message {} received by {} could not be acknowledged: {}", message, this, e.toString());
+		}
+	}
+
 	abstract protected MessageHandler getMessageHandler();
 }
 
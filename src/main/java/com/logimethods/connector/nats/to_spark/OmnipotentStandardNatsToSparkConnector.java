@@ -16,6 +16,7 @@ import java.util.concurrent.TimeoutException;
 
 import org.apache.spark.storage.StorageLevel;
 
+import com.logimethods.connector.nats_spark.ConnectorMetrics;
 import com.logimethods.connector.nats_spark.IncompleteException;
 
 import io.nats.client.Connection;
@@ -62,7 +63,19 @@ public abstract class OmnipotentStandardNatsToSparkConnector<T,R,V> extends Nats
 	/**
 	 */
 	protected StandardNatsToKeyValueSparkConnectorImpl<V> storedAsKeyValue() {
-		return new StandardNatsToKeyValueSparkConnectorImpl<V>(type, storageLevel(), subjects, properties, queue, natsUrl, dataDecoder, scalaDataDecoder);
+		final StandardNatsToKeyValueSparkConnectorImpl<V> connector = new StandardNatsToKeyValueSparkConnectorImpl<V>(type, storageLevel(), subjects, properties, queue, natsUrl, dataDecoder, scalaDataDecoder);
+		copySettingsTo(connector);
+		return connector;
+	}
+
+	/**
+	 * @return a copy of that connector, storing the records along with the metadata of the envelopes of their NATS Payloads
+	 */
+	protected StandardNatsToEnvelopedSparkConnectorImpl<V> storedWithEnvelopes() {
+		final StandardNatsToEnvelopedSparkConnectorImpl<V> connector = new StandardNatsToEnvelopedSparkConnectorImpl<V>(type, storageLevel(), subjects, properties, queue, natsUrl, dataDecoder, scalaDataDecoder);
+		copySettingsTo(connector);
+		connector.envelopesEnabled = true;
+		return connector;
 	}
 
 	protected Properties enrichedProperties;
@@ -76,12 +89,20 @@ public abstract class OmnipotentStandardNatsToSparkConnector<T,R,V> extends Nats
 
 		// Make connection and initialize streams			  
 		final ConnectionFactory connectionFactory = new ConnectionFactory(getEnrichedProperties());
+		final ConnectorMetrics metrics = metrics();
+		if (metrics != null) {
+			connectionFactory.setReconnectedCallback(event -> metrics.reconnected());
+		}
 		final Connection connection = connectionFactory.createConnection();
 		logger.info("A NATS from '{}' to Spark Connection has been created for '{}', sharing Queue '{}'.", connection.getConnectedUrl(), this, queue);
 		
 		for (String subject: getSubjects()) {
 			final Subscription sub = connection.subscribe(subject, queue, getMessageHandler());
 			logger.info("Listening on {}.", subject);
+			if (rateController != null) {
+				setPendingLimits(sub, rateController.getRateLimit());
+				rateController.addListener(rateLimit -> setPendingLimits(sub, rateLimit));
+			}
 			
 			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable(){
 				@Override
@@ -100,6 +121,18 @@ public abstract class OmnipotentStandardNatsToSparkConnector<T,R,V> extends Nats
 		}
 	}
 
+	/**
+	 * Keep the pending messages limit of a subscription in line with the rate limit, 
+	 * the messages exceeding it being dropped by the NATS client (as a slow consumer).
+	 * @param sub, the NATS subscription
+	 * @param rateLimit, the rate limit (in messages per second)
+	 */
+	protected void setPendingLimits(Subscription sub, long rateLimit) {
+		final int pending = inFlightWindow(rateLimit);
+		sub.setPendingLimits(pending, sub.getPendingBytesLimit());
+		logger.debug("The pending messages limit of {} on {} is set to {}.", this, sub.getSubject(), pending);
+	}
+
 	protected Properties getEnrichedProperties() throws IncompleteException {
 		if (enrichedProperties == null) {
 			enrichedProperties = getProperties();
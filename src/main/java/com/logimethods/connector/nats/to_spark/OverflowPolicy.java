@@ -0,0 +1,27 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.nats.to_spark;
+
+/**
+ * What to do with a received NATS Message when the decoding queue of a receiver is full.
+ * @see NatsToSparkConnector#withDecodingPool(int, int, OverflowPolicy)
+ */
+public enum OverflowPolicy {
+	/**
+	 * Wait for the queue to have room for the message (which slows down the NATS subscription).
+	 */
+	BLOCK,
+	/**
+	 * Drop the oldest message of the queue to make room for the new one.
+	 */
+	DROP_OLDEST,
+	/**
+	 * Drop the new message.
+	 */
+	DROP_NEWEST
+}
@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.nats.to_spark;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Paces the NATS Messages handled by a receiver according to the rate limit (in messages per second) provided by Spark,
+ * which is updated by the Spark Streaming backpressure mechanism (see <code>spark.streaming.backpressure.enabled</code>).
+ * <p>
+ * The rate limit is read again (and the listeners notified of its changes) at most once per refresh interval,
+ * when a message is handled, to avoid any dedicated thread.
+ * A limit that is not positive, or equal to <code>Long.MAX_VALUE</code>, means that there is no limit.
+ * <p>
+ * That class is thread-safe.
+ */
+class RateController {
+
+	protected static final long RATE_WINDOW = TimeUnit.SECONDS.toNanos(1);
+
+	protected final LongSupplier rateLimitSupplier;
+	protected final long refreshInterval;
+	protected final List<LongConsumer> listeners = new CopyOnWriteArrayList<LongConsumer>();
+
+	protected volatile long rateLimit;
+	protected volatile double effectiveRate = 0;
+	protected long lastRefresh;
+	protected long nextPermitTime;
+	protected long windowStart;
+	protected long windowCount = 0;
+
+	/**
+	 * @param rateLimitSupplier, the provider of the current rate limit
+	 * @param refreshInterval, the minimum delay (in nanoseconds) between two reads of the rate limit
+	 */
+	protected RateController(LongSupplier rateLimitSupplier, long refreshInterval) {
+		this.rateLimitSupplier = rateLimitSupplier;
+		this.refreshInterval = refreshInterval;
+		this.rateLimit = rateLimitSupplier.getAsLong();
+		this.lastRefresh = this.nextPermitTime = this.windowStart = System.nanoTime();
+	}
+
+	/**
+	 * @param listener, notified of the new rate limit each time it changes
+	 */
+	protected void addListener(LongConsumer listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Wait (if needed) until the next message can be handled without exceeding the rate limit.
+	 * @throws InterruptedException if the thread has been interrupted while waiting
+	 */
+	protected void acquire() throws InterruptedException {
+		final long now = System.nanoTime();
+		final long wait;
+		final long newRateLimit;
+		synchronized (this) {
+			newRateLimit = refresh(now);
+			windowCount++;
+			if (now - windowStart >= RATE_WINDOW) {
+				effectiveRate = windowCount * (double) RATE_WINDOW / (now - windowStart);
+				windowStart = now;
+				windowCount = 0;
+			}
+			if (isUnlimited(rateLimit)) {
+				wait = 0;
+			} else {
+				if (nextPermitTime - now < 0) {
+					nextPermitTime = now;
+				}
+				wait = nextPermitTime - now;
+				nextPermitTime += RATE_WINDOW / rateLimit;
+			}
+		}
+		if (newRateLimit != 0) {
+			for (LongConsumer listener : listeners) {
+				listener.accept(newRateLimit);
+			}
+		}
+		if (wait > 0) {
+			TimeUnit.NANOSECONDS.sleep(wait);
+		}
+	}
+
+	/**
+	 * @param now, the current time, as provided by System.nanoTime()
+	 * @return the new rate limit if it has changed, 0 otherwise
+	 */
+	private long refresh(long now) {
+		if (now - lastRefresh < refreshInterval) {
+			return 0;
+		}
+		lastRefresh = now;
+		final long limit = rateLimitSupplier.getAsLong();
+		if (limit == rateLimit) {
+			return 0;
+		}
+		rateLimit = limit;
+		return isUnlimited(limit) ? Long.MAX_VALUE : limit;
+	}
+
+	/**
+	 * @return the current rate limit (in messages per second)
+	 */
+	protected long getRateLimit() {
+		return rateLimit;
+	}
+
+	/**
+	 * @return the rate (in messages per second) measured over the last complete window of one second
+	 */
+	protected double getEffectiveRate() {
+		return effectiveRate;
+	}
+
+	/**
+	 * @param rateLimit, a rate limit
+	 * @return true if that rate limit does not limit anything
+	 */
+	protected static boolean isUnlimited(long rateLimit) {
+		return (rateLimit <= 0) || (rateLimit == Long.MAX_VALUE);
+	}
+}
@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.nats.to_spark;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+import com.logimethods.connector.nats_spark.Codecs;
+import com.logimethods.connector.nats_spark.Frames;
+
+/**
+ * A block of raw (not yet decoded) NATS Payloads, as stored into Spark by a receiver producing a raw stream.
+ * <p>
+ * The payloads are concatenated, each of them being preceded by its length (as a big-endian int).
+ * When required, the NATS Subjects are kept through a dictionary of the distinct subjects of the block.
+ * @see NatsToSparkConnector#decodeRawBlock(RawBlock)
+ */
+public class RawBlock implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	protected final int count;
+	protected final byte[] data;
+	protected final String[] subjects;
+	protected final int[] subjectIndexes;
+
+	/**
+	 * @param count, the number of payloads
+	 * @param data, the length-prefixed payloads
+	 * @param subjects, the distinct NATS Subjects of the block (null if not kept)
+	 * @param subjectIndexes, the index (in subjects) of the NATS Subject of each payload (null if not kept)
+	 */
+	protected RawBlock(int count, byte[] data, String[] subjects, int[] subjectIndexes) {
+		this.count = count;
+		this.data = data;
+		this.subjects = subjects;
+		this.subjectIndexes = subjectIndexes;
+	}
+
+	/**
+	 * @return the number of NATS Payloads of that block
+	 */
+	public int count() {
+		return count;
+	}
+
+	/**
+	 * @param consumer, the consumer of the NATS Subject (null if not kept) and of the NATS Payload of each message
+	 */
+	public void forEach(BiConsumer<String, byte[]> consumer) {
+		int position = 0;
+		for (int i = 0; i < count; i++) {
+			final int length = Codecs.decodeInt(data, position);
+			position += Frames.RECORD_HEADER_SIZE;
+			final String subject = (subjectIndexes != null) ? subjects[subjectIndexes[i]] : null;
+			consumer.accept(subject, Arrays.copyOfRange(data, position, position + length));
+			position += length;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "RawBlock [count=" + count + ", bytes=" + data.length + ", subjects=" + Arrays.toString(subjects) + "]";
+	}
+}
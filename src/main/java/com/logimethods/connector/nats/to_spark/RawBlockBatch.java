@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.nats.to_spark;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.logimethods.connector.nats_spark.Codecs;
+import com.logimethods.connector.nats_spark.Frames;
+
+/**
+ * Accumulates the raw NATS Payloads of a receiver into a {@link RawBlock}, without decoding them.
+ * <p>
+ * The block is released with the same limits as a {@link StoreBatch}: a maximum number of payloads, a maximum number of bytes,
+ * and a maximum delay (which has to be periodically checked through {@link StoreBatch#scheduleFlushing(java.util.concurrent.ScheduledExecutorService, Runnable, long)}).
+ * <p>
+ * That class is thread-safe.
+ */
+class RawBlockBatch {
+
+	protected static final int DEFAULT_MAX_RECORDS = 10000;
+	protected static final long DEFAULT_MAX_BYTES = 2 * 1024 * 1024;
+	protected static final long DEFAULT_MAX_DELAY = TimeUnit.MILLISECONDS.toNanos(200);
+
+	protected static final int INITIAL_CAPACITY = 4096;
+
+	protected final int maxRecords;
+	protected final long maxBytes;
+	protected final long maxDelay;
+
+	protected byte[] buffer = new byte[INITIAL_CAPACITY];
+	protected int position = 0;
+	protected int count = 0;
+	protected long firstRecordTime;
+	protected final HashMap<String, Integer> subjectIds;
+	protected int[] subjectIndexes;
+
+	/**
+	 * @param maxRecords, the maximum number of payloads of a block
+	 * @param maxBytes, the maximum number of bytes of a block
+	 * @param maxDelay, the maximum delay (in nanoseconds) a payload can wait for its block to be stored
+	 * @param keepSubjects, true if the NATS Subjects have to be kept
+	 */
+	protected RawBlockBatch(int maxRecords, long maxBytes, long maxDelay, boolean keepSubjects) {
+		this.maxRecords = maxRecords;
+		this.maxBytes = maxBytes;
+		this.maxDelay = maxDelay;
+		if (keepSubjects) {
+			subjectIds = new HashMap<String, Integer>();
+			subjectIndexes = new int[Math.min(maxRecords, INITIAL_CAPACITY)];
+		} else {
+			subjectIds = null;
+		}
+	}
+
+	/**
+	 * @param subject, the NATS Subject of the message
+	 * @param payload, the NATS Payload of the message
+	 * @return the block to store if one of the limits has been reached, null otherwise
+	 */
+	protected synchronized RawBlock add(String subject, byte[] payload) {
+		if (count == 0) {
+			firstRecordTime = System.nanoTime();
+		}
+		ensureCapacity(position + Frames.RECORD_HEADER_SIZE + payload.length);
+		Codecs.encodeInt(payload.length, buffer, position);
+		position += Frames.RECORD_HEADER_SIZE;
+		System.arraycopy(payload, 0, buffer, position, payload.length);
+		position += payload.length;
+
+		if (subjectIds != null) {
+			Integer id = subjectIds.get(subject);
+			if (id == null) {
+				id = subjectIds.size();
+				subjectIds.put(subject, id);
+			}
+			if (count == subjectIndexes.length) {
+				subjectIndexes = Arrays.copyOf(subjectIndexes, Math.min(maxRecords, 2 * count));
+			}
+			subjectIndexes[count] = id;
+		}
+		count++;
+
+		if ((count >= maxRecords) || (position >= maxBytes) || (System.nanoTime() - firstRecordTime >= maxDelay)) {
+			return drain();
+		}
+		return null;
+	}
+
+	/**
+	 * @param now, the current time, as provided by System.nanoTime()
+	 * @return the block if its first payload has been waiting for longer than the maximum delay, null otherwise
+	 */
+	protected synchronized RawBlock drainIfLingering(long now) {
+		return ((count > 0) && (now - firstRecordTime >= maxDelay)) ? drain() : null;
+	}
+
+	/**
+	 * @return the accumulated payloads as a block (null if none)
+	 */
+	protected synchronized RawBlock drain() {
+		if (count == 0) {
+			return null;
+		}
+		String[] subjects = null;
+		int[] indexes = null;
+		if (subjectIds != null) {
+			subjects = new String[subjectIds.size()];
+			for (Map.Entry<String, Integer> entry : subjectIds.entrySet()) {
+				subjects[entry.getValue()] = entry.getKey();
+			}
+			indexes = Arrays.copyOf(subjectIndexes, count);
+			subjectIds.clear();
+		}
+		final RawBlock block = new RawBlock(count, Arrays.copyOf(buffer, position), subjects, indexes);
+		position = 0;
+		count = 0;
+		return block;
+	}
+
+	/**
+	 * @return the number of payloads waiting to be stored
+	 */
+	protected synchronized int size() {
+		return count;
+	}
+
+	protected void ensureCapacity(int capacity) {
+		if (capacity > buffer.length) {
+			buffer = Arrays.copyOf(buffer, Math.max(capacity, 2 * buffer.length));
+		}
+	}
+}
@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.nats.to_spark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.nats.stan.Message;
+import scala.collection.mutable.ArrayBuffer;
+
+/**
+ * Accumulates the decoded records of a reliable NATS Streaming receiver, together with the (not yet acknowledged) messages carrying them,
+ * for those messages to be acknowledged only once their records have been stored by Spark.
+ * <p>
+ * A block is released as soon as its number of messages reaches the maximum number of messages,
+ * or when its first message has been waiting for longer than the maximum delay (which should then stay well below the Ack Wait of the subscription).
+ * <p>
+ * That class is thread-safe.
+ */
+class ReliableBatch<R> {
+
+	/**
+	 * The records to store into Spark, and the messages to acknowledge once done.
+	 */
+	static final class Block<R> {
+		protected final ArrayBuffer<R> records;
+		protected final List<Message> messages;
+
+		protected Block(ArrayBuffer<R> records, List<Message> messages) {
+			this.records = records;
+			this.messages = messages;
+		}
+	}
+
+	protected final int maxMessages;
+	protected final long maxDelay;
+
+	protected ArrayBuffer<R> records;
+	protected List<Message> messages;
+	protected long firstMessageTime;
+
+	/**
+	 * @param maxMessages, the maximum number of messages of a block
+	 * @param maxDelay, the maximum delay (in nanoseconds) a message can wait for its block to be stored
+	 */
+	protected ReliableBatch(int maxMessages, long maxDelay) {
+		this.maxMessages = maxMessages;
+		this.maxDelay = maxDelay;
+	}
+
+	/**
+	 * @param message, the received message, to be acknowledged once its records are stored
+	 * @param decodedRecords, the records carried by that message
+	 * @return the block to store if one of the limits has been reached, null otherwise
+	 */
+	protected synchronized Block<R> add(Message message, List<R> decodedRecords) {
+		if (messages == null) {
+			records = new ArrayBuffer<R>(Math.min(maxMessages, StoreBatch.MAX_INITIAL_CAPACITY));
+			messages = new ArrayList<Message>(Math.min(maxMessages, StoreBatch.MAX_INITIAL_CAPACITY));
+			firstMessageTime = System.nanoTime();
+		}
+		for (R record : decodedRecords) {
+			records.$plus$eq(record);
+		}
+		messages.add(message);
+		if ((messages.size() >= maxMessages) || (System.nanoTime() - firstMessageTime >= maxDelay)) {
+			return drain();
+		}
+		return null;
+	}
+
+	/**
+	 * @param now, the current time, as provided by System.nanoTime()
+	 * @return the accumulated block if its first message has been waiting for longer than the maximum delay, null otherwise
+	 */
+	protected synchronized Block<R> drainIfLingering(long now) {
+		return ((messages != null) && (now - firstMessageTime >= maxDelay)) ? drain() : null;
+	}
+
+	/**
+	 * @return the accumulated block (null if none)
+	 */
+	protected synchronized Block<R> drain() {
+		if (messages == null) {
+			return null;
+		}
+		final Block<R> block = new Block<R>(records, messages);
+		records = null;
+		messages = null;
+		return block;
+	}
+
+	/**
+	 * @return the number of messages waiting to be stored
+	 */
+	protected synchronized int size() {
+		return (messages != null) ? messages.size() : 0;
+	}
+}
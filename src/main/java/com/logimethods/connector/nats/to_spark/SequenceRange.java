@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.nats.to_spark;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A range of sequence numbers of a NATS Streaming channel, from (inclusive) until (exclusive).
+ */
+public class SequenceRange implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	protected final String channel;
+	protected final long from;
+	protected final long until;
+
+	/**
+	 * @param channel, the NATS Streaming channel (ie. the subject)
+	 * @param from, the first sequence number of the range (inclusive)
+	 * @param until, the last sequence number of the range (exclusive)
+	 */
+	public SequenceRange(String channel, long from, long until) {
+		if (until < from) {
+			throw new IllegalArgumentException("The sequence range of '" + channel + "' should not end (" + until + ") before its start (" + from + ")");
+		}
+		this.channel = channel;
+		this.from = from;
+		this.until = until;
+	}
+
+	/**
+	 * @return the NATS Streaming channel
+	 */
+	public String getChannel() {
+		return channel;
+	}
+
+	/**
+	 * @return the first sequence number of the range (inclusive)
+	 */
+	public long getFrom() {
+		return from;
+	}
+
+	/**
+	 * @return the last sequence number of the range (exclusive)
+	 */
+	public long getUntil() {
+		return until;
+	}
+
+	/**
+	 * @return the number of sequence numbers of the range
+	 */
+	public long count() {
+		return until - from;
+	}
+
+	/**
+	 * @param parts, the maximum number of sub-ranges
+	 * @return contiguous sub-ranges of (almost) equal sizes, covering that range (there are less of them when the range is too small)
+	 */
+	public List<SequenceRange> split(int parts) {
+		final List<SequenceRange> ranges = new ArrayList<SequenceRange>(parts);
+		final long count = count();
+		final int nb = (int) Math.max(1, Math.min(parts, count));
+		long start = from;
+		for (int i = 0; i < nb; i++) {
+			final long end = from + (count * (i + 1)) / nb;
+			ranges.add(new SequenceRange(channel, start, end));
+			start = end;
+		}
+		return ranges;
+	}
+
+	@Override
+	public int hashCode() {
+		return channel.hashCode() * 31 + Long.hashCode(from) * 17 + Long.hashCode(until);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (! (obj instanceof SequenceRange)) {
+			return false;
+		}
+		final SequenceRange other = (SequenceRange) obj;
+		return channel.equals(other.channel) && (from == other.from) && (until == other.until);
+	}
+
+	@Override
+	public String toString() {
+		return channel + "[" + from + ", " + until + ")";
+	}
+}
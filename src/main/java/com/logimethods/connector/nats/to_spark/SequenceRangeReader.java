@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.nats.to_spark;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.nats.stan.Connection;
+import io.nats.stan.Message;
+import io.nats.stan.Subscription;
+import io.nats.stan.SubscriptionOptions;
+
+/**
+ * Reads (and decodes) the messages of a {@link SequenceRange}, through its own NATS Streaming subscription 
+ * starting at the first sequence number of the range, and closed as soon as the last one has been received.
+ * <p>
+ * The NATS Streaming server does not push more messages than the maximum number of in-flight messages,
+ * since they are only acknowledged once handed over to the reader.
+ * When no message is received within the fetch timeout, the reading fails (for Spark to retry its task), instead of silently truncating the range.
+ * The range is only shortened when the server reports that some of its messages are gone (ie. discarded because of the limits of the channel),
+ * by delivering a first message beyond the start of the range.
+ */
+class SequenceRangeReader<R> implements Iterator<R>, AutoCloseable {
+
+	static final Logger logger = LoggerFactory.getLogger(SequenceRangeReader.class);
+
+	protected static final int MAX_IN_FLIGHT = 1024;
+
+	protected final OmnipotentNatsStreamingToSparkConnector<?, R, ?> connector;
+	protected final SequenceRange range;
+	protected final long fetchTimeout;
+
+	protected final BlockingQueue<Message> messages = new ArrayBlockingQueue<Message>(MAX_IN_FLIGHT);
+	protected final ArrayDeque<R> records = new ArrayDeque<R>();
+	protected Connection connection;
+	protected Subscription subscription;
+	protected volatile boolean closed = false;
+	protected boolean complete;
+	protected boolean started = false;
+	protected long received = 0;
+
+	/**
+	 * @param connector, the connector providing the connection settings &amp; the decoding of the messages
+	 * @param range, the sequence numbers to read
+	 * @param fetchTimeout, the maximum time (in milliseconds) to wait for a message
+	 */
+	protected SequenceRangeReader(OmnipotentNatsStreamingToSparkConnector<?, R, ?> connector, SequenceRange range, long fetchTimeout) {
+		this.connector = connector;
+		this.range = range;
+		this.fetchTimeout = fetchTimeout;
+		this.complete = (range.count() == 0);
+	}
+
+	@Override
+	public boolean hasNext() {
+		while (records.isEmpty() && ! complete) {
+			fetch();
+		}
+		return ! records.isEmpty();
+	}
+
+	@Override
+	public R next() {
+		if (! hasNext()) {
+			throw new NoSuchElementException();
+		}
+		return records.poll();
+	}
+
+	protected void fetch() {
+		try {
+			if (connection == null) {
+				subscribe();
+			}
+			final Message message = messages.poll(fetchTimeout, TimeUnit.MILLISECONDS);
+			if (message == null) {
+				throw new TimeoutException("No message received within " + fetchTimeout + " ms while reading " + range + " (after " + received + " messages)");
+			}
+			if (! started) {
+				started = true;
+				if (message.getSequence() > range.from) {
+					logger.warn("The sequences from {} to {} of '{}' are no longer available on the NATS Streaming server, they will be skipped", 
+									range.from, Math.min(message.getSequence(), range.until) - 1, range.channel);
+				}
+			}
+			if (message.getSequence() >= range.until) {
+				complete();
+			} else {
+				if (message.getSequence() >= range.from) {
+					received++;
+					connector.decodePayload(message.getSubject(), message.getData(), records::add);
+				}
+				if (message.getSequence() >= range.until - 1) {
+					complete();
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			close();
+			throw new IllegalStateException("Interrupted while reading " + range, e);
+		} catch (Exception e) {
+			close();
+			throw new IllegalStateException("Cannot read " + range + " from NATS Streaming", e);
+		}
+	}
+
+	protected void subscribe() throws Exception {
+		connection = connector.createConnection(NatsToSparkConnector.getUniqueClientName());
+		final SubscriptionOptions options = 
+				new SubscriptionOptions.Builder().startAtSequence(range.from).setMaxInFlight(MAX_IN_FLIGHT).build();
+		subscription = connection.subscribe(range.channel, message -> {
+			try {
+				while (! closed && ! messages.offer(message, 100, TimeUnit.MILLISECONDS)) {
+					// Wait for the reader to consume the previous messages
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}, options);
+		logger.debug("Reading {} from NATS Streaming.", range);
+	}
+
+	protected void complete() {
+		complete = true;
+		close();
+	}
+
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		if (subscription != null) {
+			try {
+				subscription.unsubscribe();
+			} catch (Exception e) {
+				logger.debug("Exception while unsubscribing from {}: {}", range, e.toString());
+			}
+		}
+		if (connection != null) {
+			try {
+				connection.close();
+			} catch (Exception e) {
+				logger.debug("Exception while closing the connection used to read {}: {}", range, e.toString());
+			}
+		}
+		messages.clear();
+	}
+}
@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.nats.to_spark;
+
+import java.util.Collection;
+import java.util.Properties;
+import java.util.function.Function;
+
+import org.apache.spark.storage.StorageLevel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.logimethods.connector.nats_spark.PayloadEnvelope;
+
+import io.nats.client.Message;
+import io.nats.client.MessageHandler;
+
+/**
+ * A NATS to Spark Connector, storing the records along with the metadata of the envelopes of their NATS Payloads.
+ * <p>
+ * It will transfer messages received from NATS into Spark data.
+ * <p>
+ * That class extends {@link com.logimethods.connector.nats.to_spark.NatsToSparkConnector}&lt;T,R,V&gt;.
+ */
+public class StandardNatsToEnvelopedSparkConnectorImpl<V>
+				extends OmnipotentStandardNatsToSparkConnector<StandardNatsToEnvelopedSparkConnectorImpl<V>, EnvelopedRecord<V>, V> {
+
+	/**
+	 *
+	 */
+	private static final long serialVersionUID = 1L;
+
+	static final Logger logger = LoggerFactory.getLogger(StandardNatsToEnvelopedSparkConnectorImpl.class);
+
+	protected StandardNatsToEnvelopedSparkConnectorImpl(Class<V> type, StorageLevel storageLevel, Collection<String> subjects, Properties properties,
+														String queue, String natsUrl, Function<byte[], V> dataDecoder, scala.Function1<byte[], V> scalaDataDecoder) {
+		super(type, storageLevel, subjects, properties, queue, natsUrl);
+		this.dataDecoder = dataDecoder;
+		this.scalaDataDecoder = scalaDataDecoder;
+		this.envelopesEnabled = true;
+	}
+
+	@Override
+	protected EnvelopedRecord<V> decodeRecord(String subject, byte[] bytes) {
+		return new EnvelopedRecord<V>(decodeData(bytes), -1, -1, -1, PayloadEnvelope.currentTimeNanos());
+	}
+
+	@Override
+	protected EnvelopedRecord<V> decodeRecord(String subject, byte[] rawPayload, byte[] bytes) {
+		if (! PayloadEnvelope.isEnveloped(rawPayload)) {
+			return decodeRecord(subject, bytes);
+		}
+		return new EnvelopedRecord<V>(decodeData(bytes), PayloadEnvelope.publishTime(rawPayload), PayloadEnvelope.batchTime(rawPayload),
+									  PayloadEnvelope.partition(rawPayload), PayloadEnvelope.currentTimeNanos());
+	}
+
+	protected MessageHandler getMessageHandler() {
+		return new MessageHandler() {
+			@Override
+			public void onMessage(Message m) {
+				if (logger.isTraceEnabled()) {
+					logger.trace("Received by {} on Subject '{}': {}.", StandardNatsToEnvelopedSparkConnectorImpl.this, m.getSubject(), m);
+				}
+				receivePayload(m.getSubject(), m.getData());
+				throttle();
+			}
+		};
+	}
+}
@@ -45,17 +45,25 @@ public class StandardNatsToKeyValueSparkConnectorImpl<V>
 		this.scalaDataDecoder = scalaDataDecoder;
 	}
 
+	@Override
+	protected Tuple2<String, V> decodeRecord(String subject, byte[] bytes) {
+		return new Tuple2<String, V>(internSubject(subject), decodeData(bytes));
+	}
+
+	@Override
+	protected boolean keepsSubjects() {
+		return true;
+	}
+
 	protected MessageHandler getMessageHandler() {
 		return new MessageHandler() {
 			@Override
 			public void onMessage(Message m) {
-				final Tuple2<String, V> s = decodeTuple(m);
-				
 				if (logger.isTraceEnabled()) {
-					logger.trace("Received by {} on Subject '{}': {}.", StandardNatsToKeyValueSparkConnectorImpl.this, m.getSubject(), s);
+					logger.trace("Received by {} on Subject '{}': {}.", StandardNatsToKeyValueSparkConnectorImpl.this, m.getSubject(), m);
 				}
-										
-				store(s);
+				receivePayload(m.getSubject(), m.getData());
+				throttle();
 			}
 		};
 	}
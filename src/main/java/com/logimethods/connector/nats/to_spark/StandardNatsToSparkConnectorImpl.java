@@ -11,9 +11,11 @@ import java.util.Properties;
 
 import org.apache.spark.storage.StorageLevel;
 import org.apache.spark.streaming.StreamingContext;
+import org.apache.spark.streaming.api.java.JavaDStream;
 import org.apache.spark.streaming.api.java.JavaPairDStream;
 import org.apache.spark.streaming.api.java.JavaReceiverInputDStream;
 import org.apache.spark.streaming.api.java.JavaStreamingContext;
+import org.apache.spark.streaming.dstream.DStream;
 import org.apache.spark.streaming.dstream.ReceiverInputDStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -92,15 +94,116 @@ public class StandardNatsToSparkConnectorImpl<R> extends OmnipotentStandardNatsT
 		return ssc.receiverStream(this.storedAsKeyValue(), scala.reflect.ClassTag$.MODULE$.apply(Tuple2.class));
 	}
 
+	/**
+	 * @param ssc, the (Java based) Spark Streaming Context
+	 * @return a Spark Stream, belonging to the provided Context, 
+	 * that will collect NATS Messages along with the metadata (such as their publication time) of their envelopes
+	 * @see com.logimethods.connector.nats_spark.PayloadEnvelope
+	 */
+	public JavaReceiverInputDStream<EnvelopedRecord<R>> asStreamOfEnveloped(JavaStreamingContext ssc) {
+		return ssc.receiverStream(this.storedWithEnvelopes());
+	}
+	
+	/**
+	 * @param ssc, the (Scala based) Spark Streaming Context
+	 * @return a Spark Stream, belonging to the provided Context, 
+	 * that will collect NATS Messages along with the metadata (such as their publication time) of their envelopes
+	 * @see com.logimethods.connector.nats_spark.PayloadEnvelope
+	 */
+	public ReceiverInputDStream<EnvelopedRecord<R>> asStreamOfEnveloped(StreamingContext ssc) {
+		return ssc.receiverStream(this.storedWithEnvelopes(), scala.reflect.ClassTag$.MODULE$.apply(EnvelopedRecord.class));
+	}
+
+	/**
+	 * @param ssc, the (Java based) Spark Streaming Context
+	 * @param receivers, the number of receivers, sharing the same NATS Queue Group
+	 * @return a Spark Stream, belonging to the provided Context, that will collect NATS Messages through several receivers
+	 */
+	public JavaDStream<R> asParallelStreamOf(JavaStreamingContext ssc, int receivers) {
+		return parallelStreamOf(ssc, receivers);
+	}
+	
+	/**
+	 * @param ssc, the (Scala based) Spark Streaming Context
+	 * @param receivers, the number of receivers, sharing the same NATS Queue Group
+	 * @return a Spark Stream, belonging to the provided Context, that will collect NATS Messages through several receivers
+	 */
+	public DStream<R> asParallelStreamOf(StreamingContext ssc, int receivers) {
+		return parallelStreamOf(new JavaStreamingContext(ssc), receivers).dstream();
+	}
+	
+	/**
+	 * @param ssc, the (Java based) Spark Streaming Context
+	 * @param receivers, the number of receivers, sharing the same NATS Queue Group
+	 * @return a Spark Stream, belonging to the provided Context, 
+	 * that will collect NATS Messages as Key (the NATS Subject) / Value (the NATS Payload) through several receivers
+	 */
+	public JavaPairDStream<String, R> asParallelStreamOfKeyValue(JavaStreamingContext ssc, int receivers) {
+		return this.storedAsKeyValue().parallelStreamOf(ssc, receivers).mapToPair(tuple -> tuple);
+	}
+	
+	/**
+	 * @param ssc, the (Scala based) Spark Streaming Context
+	 * @param receivers, the number of receivers, sharing the same NATS Queue Group
+	 * @return a Spark Stream, belonging to the provided Context, 
+	 * that will collect NATS Messages as Tuples of (the NATS Subject) / (the NATS Payload) through several receivers
+	 */
+	public DStream<Tuple2<String, R>> asParallelStreamOfKeyValue(StreamingContext ssc, int receivers) {
+		return this.storedAsKeyValue().parallelStreamOf(new JavaStreamingContext(ssc), receivers).dstream();
+	}
+
+	/**
+	 * @param ssc, the (Java based) Spark Streaming Context
+	 * @return a Spark Stream, belonging to the provided Context, that will collect NATS Messages
+	 * stored as blocks of raw bytes, to be decoded inside the Spark tasks
+	 */
+	public JavaDStream<R> asRawStreamOf(JavaStreamingContext ssc) {
+		return decodeRawBlocks(ssc.receiverStream(this.storedAsRawBlocks()));
+	}
+	
+	/**
+	 * @param ssc, the (Scala based) Spark Streaming Context
+	 * @return a Spark Stream, belonging to the provided Context, that will collect NATS Messages
+	 * stored as blocks of raw bytes, to be decoded inside the Spark tasks
+	 */
+	public DStream<R> asRawStreamOf(StreamingContext ssc) {
+		return asRawStreamOf(new JavaStreamingContext(ssc)).dstream();
+	}
+	
+	/**
+	 * @param ssc, the (Java based) Spark Streaming Context
+	 * @return a Spark Stream, belonging to the provided Context, 
+	 * that will collect NATS Messages as Key (the NATS Subject) / Value (the NATS Payload), 
+	 * stored as blocks of raw bytes, to be decoded inside the Spark tasks
+	 */
+	public JavaPairDStream<String, R> asRawStreamOfKeyValue(JavaStreamingContext ssc) {
+		return rawStreamOfKeyValue(ssc).mapToPair(tuple -> tuple);
+	}
+	
+	/**
+	 * @param ssc, the (Scala based) Spark Streaming Context
+	 * @return a Spark Stream, belonging to the provided Context, 
+	 * that will collect NATS Messages as Tuples of (the NATS Subject) / (the NATS Payload), 
+	 * stored as blocks of raw bytes, to be decoded inside the Spark tasks
+	 */
+	public DStream<Tuple2<String, R>> asRawStreamOfKeyValue(StreamingContext ssc) {
+		return rawStreamOfKeyValue(new JavaStreamingContext(ssc)).dstream();
+	}
+
+	protected JavaDStream<Tuple2<String, R>> rawStreamOfKeyValue(JavaStreamingContext ssc) {
+		final StandardNatsToKeyValueSparkConnectorImpl<R> connector = this.storedAsKeyValue().storedAsRawBlocks();
+		return connector.decodeRawBlocks(ssc.receiverStream(connector));
+	}
+
 	protected MessageHandler getMessageHandler() {
 		return new MessageHandler() {
 			@Override
 			public void onMessage(Message m) {
-				R s = decodeData(m);
 				if (logger.isTraceEnabled()) {
-					logger.trace("Received by {} on Subject '{}' sharing Queue '{}': {}.", StandardNatsToSparkConnectorImpl.this, m.getSubject(), queue, s);
+					logger.trace("Received by {} on Subject '{}' sharing Queue '{}': {}.", StandardNatsToSparkConnectorImpl.this, m.getSubject(), queue, m);
 				}
-				store(s);
+				receivePayload(m.getSubject(), m.getData());
+				throttle();
 			}
 		};
 	}
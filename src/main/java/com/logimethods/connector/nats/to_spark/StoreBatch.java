@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.nats.to_spark;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import scala.collection.mutable.ArrayBuffer;
+
+/**
+ * Accumulates the decoded records of a receiver, to hand them to Spark as multi-records blocks.
+ * <p>
+ * The records are released as soon as their number reaches the maximum number of records, their (encoded) size the maximum number of bytes,
+ * or when the first of them has been waiting for longer than the maximum delay.
+ * Since the NATS messages could stop flowing, that last check is also periodically done by a (daemon) thread owned by each receiver
+ * (see {@link #newFlusher(String)}), so that a block that is slow to be stored does not hold up the other receivers.
+ * <p>
+ * That class is thread-safe.
+ */
+class StoreBatch<R> {
+
+	protected static final int MAX_INITIAL_CAPACITY = 1024;
+
+	protected final int maxRecords;
+	protected final long maxBytes;
+	protected final long maxDelay;
+
+	protected ArrayBuffer<R> records;
+	protected long bytes = 0;
+	protected long firstRecordTime;
+
+	/**
+	 * @param maxRecords, the maximum number of records of a block
+	 * @param maxBytes, the maximum number of bytes (of encoded records) of a block
+	 * @param maxDelay, the maximum delay (in nanoseconds) a record can wait for its block to be stored
+	 */
+	protected StoreBatch(int maxRecords, long maxBytes, long maxDelay) {
+		this.maxRecords = maxRecords;
+		this.maxBytes = maxBytes;
+		this.maxDelay = maxDelay;
+	}
+
+	/**
+	 * @param record, the decoded record
+	 * @param size, the size of the encoded record
+	 * @return the records to store as a block if one of the limits has been reached, null otherwise
+	 */
+	protected synchronized ArrayBuffer<R> add(R record, int size) {
+		if (records == null) {
+			records = new ArrayBuffer<R>(Math.min(maxRecords, MAX_INITIAL_CAPACITY));
+			firstRecordTime = System.nanoTime();
+		}
+		records.$plus$eq(record);
+		bytes += size;
+		if ((records.size() >= maxRecords) || (bytes >= maxBytes) || (System.nanoTime() - firstRecordTime >= maxDelay)) {
+			return drain();
+		}
+		return null;
+	}
+
+	/**
+	 * @param now, the current time, as provided by System.nanoTime()
+	 * @return the accumulated records if the first of them has been waiting for longer than the maximum delay, null otherwise
+	 */
+	protected synchronized ArrayBuffer<R> drainIfLingering(long now) {
+		return ((records != null) && (now - firstRecordTime >= maxDelay)) ? drain() : null;
+	}
+
+	/**
+	 * @return the accumulated records (null if none)
+	 */
+	protected synchronized ArrayBuffer<R> drain() {
+		final ArrayBuffer<R> drained = records;
+		records = null;
+		bytes = 0;
+		return drained;
+	}
+
+	/**
+	 * @return the number of records waiting to be stored
+	 */
+	protected synchronized int size() {
+		return (records != null) ? records.size() : 0;
+	}
+
+	/**
+	 * @param name, the name of the receiver
+	 * @return a new single (daemon) thread scheduler, to run the periodic tasks of that receiver
+	 */
+	protected static ScheduledExecutorService newFlusher(String name) {
+		return Executors.newSingleThreadScheduledExecutor(runnable -> {
+			final Thread thread = new Thread(runnable, "StoreBatchFlusher-" + name);
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * @param flusher, the scheduler of the receiver
+	 * @param task, the task releasing the lingering records
+	 * @param maxDelay, the maximum delay (in nanoseconds) a record can wait for its block to be stored
+	 * @return the future of that periodic task, to be cancelled when the receiver stops
+	 */
+	protected static ScheduledFuture<?> scheduleFlushing(ScheduledExecutorService flusher, Runnable task, long maxDelay) {
+		return schedulePeriodically(flusher, task, Math.max(TimeUnit.MILLISECONDS.toNanos(1), maxDelay / 2));
+	}
+
+	/**
+	 * @param flusher, the scheduler of the receiver
+	 * @param task, a periodic task of that receiver
+	 * @param period, the period (in nanoseconds) of that task
+	 * @return the future of that periodic task, to be cancelled when the receiver stops
+	 */
+	protected static ScheduledFuture<?> schedulePeriodically(ScheduledExecutorService flusher, Runnable task, long period) {
+		return flusher.scheduleAtFixedRate(task, period, period, TimeUnit.NANOSECONDS);
+	}
+}
@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.nats.to_spark;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Keeps track, per NATS Streaming channel, of the sequence number up to which all the received messages have been stored into Spark
+ * (the low-water mark of the stored messages), to be saved into an {@link OffsetStore}.
+ * <p>
+ * A received message stays pending until it has been stored: as long as a message is pending (such as the messages of a block 
+ * that could not be stored, until their redelivery), the low-water mark of its channel stays below it, whatever the messages stored afterwards.
+ * <p>
+ * That class is thread-safe.
+ */
+class StoredSequences {
+
+	protected final Map<String, TreeSet<Long>> pendingSequences = new HashMap<String, TreeSet<Long>>();
+	protected final Map<String, Long> lastStoredSequences = new HashMap<String, Long>();
+	protected boolean changed = false;
+
+	/**
+	 * @param channel, the NATS Streaming channel of a received message
+	 * @param sequence, the sequence number of that message, which is pending until stored
+	 */
+	protected synchronized void received(String channel, long sequence) {
+		TreeSet<Long> pending = pendingSequences.get(channel);
+		if (pending == null) {
+			pending = new TreeSet<Long>();
+			pendingSequences.put(channel, pending);
+		}
+		pending.add(sequence);
+	}
+
+	/**
+	 * @param channel, the NATS Streaming channel of a stored message
+	 * @param sequence, the sequence number of that message
+	 */
+	protected synchronized void stored(String channel, long sequence) {
+		final TreeSet<Long> pending = pendingSequences.get(channel);
+		if (pending != null) {
+			pending.remove(sequence);
+		}
+		lastStoredSequences.merge(channel, sequence, Math::max);
+		changed = true;
+	}
+
+	/**
+	 * @return the low-water mark of each channel where a message has been stored, 
+	 * or null if nothing has been stored since the last call (or since the last call to {@link #unchanged()})
+	 */
+	protected synchronized Map<String, Long> drainChanges() {
+		if (! changed) {
+			return null;
+		}
+		changed = false;
+		final Map<String, Long> marks = new HashMap<String, Long>();
+		for (Map.Entry<String, Long> entry : lastStoredSequences.entrySet()) {
+			final TreeSet<Long> pending = pendingSequences.get(entry.getKey());
+			final long mark = ((pending == null) || pending.isEmpty()) ? entry.getValue() : Math.min(entry.getValue(), pending.first() - 1);
+			if (mark > 0) {
+				marks.put(entry.getKey(), mark);
+			}
+		}
+		return marks;
+	}
+
+	/**
+	 * Mark the sequences as changed again (typically, when the ones provided by {@link #drainChanges()} could not be saved).
+	 */
+	protected synchronized void unchanged() {
+		changed = true;
+	}
+}
@@ -144,11 +144,45 @@ public class SubOptionBuilder implements Serializable {
     	position = Position.First;
     }
 
+    Integer getMaxInFlight() {
+    	return maxInFlight;
+    }
+
+    boolean isManualAcks() {
+    	return Boolean.TRUE.equals(manualAcks);
+    }
+
+    Long getStartSequence() {
+    	return startSequence;
+    }
+
+    Instant getStartTime() {
+    	return startTime;
+    }
+
+    boolean isDeliverAllAvailable() {
+    	return position == Position.First;
+    }
+
+    boolean isStartWithLastReceived() {
+    	return position == Position.Last;
+    }
+
     /**
      * Build @{link io.nats.stan.SubscriptionOptions} from this.
      * @return
      */
     public SubscriptionOptions build() {
+    	return build(null);
+    }
+
+    /**
+     * Build @{link io.nats.stan.SubscriptionOptions} from this, 
+     * the start position being replaced by the provided sequence number (if any).
+     * @param resumeSequence the sequence number from which to resume receiving messages, could be null
+     * @return
+     */
+    SubscriptionOptions build(Long resumeSequence) {
     	SubscriptionOptions.Builder builder = new SubscriptionOptions.Builder();
     	if (durableName != null) {
     		builder.setDurableName(durableName);
@@ -162,6 +196,9 @@ public class SubOptionBuilder implements Serializable {
     	if (manualAcks != null) {
     		builder.setManualAcks(manualAcks);
     	}
+    	if (resumeSequence != null) {
+    		return builder.startAtSequence(resumeSequence).build();
+    	}
     	if (startSequence != null) {
     		builder.startAtSequence(startSequence);
     	}
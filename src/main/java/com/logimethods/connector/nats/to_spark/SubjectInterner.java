@@ -0,0 +1,54 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.nats.to_spark;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A bounded cache of the NATS Subjects, for all the records received on the same subject to share a single String instance
+ * (instead of one copy per message), which saves memory, but also serialization size 
+ * (since the Java &amp; Kryo serializers only write once the instances that are referenced several times in a block).
+ * <p>
+ * Once the maximum number of subjects is reached, the new subjects are provided as they are.
+ * That class is thread-safe.
+ */
+class SubjectInterner {
+
+	protected final int maxSubjects;
+	protected final ConcurrentHashMap<String, String> subjects = new ConcurrentHashMap<String, String>();
+
+	/**
+	 * @param maxSubjects, the maximum number of cached subjects
+	 */
+	protected SubjectInterner(int maxSubjects) {
+		this.maxSubjects = maxSubjects;
+	}
+
+	/**
+	 * @param subject, a NATS Subject
+	 * @return the cached instance of that subject, or the subject itself if the cache is full
+	 */
+	protected String intern(String subject) {
+		final String interned = subjects.get(subject);
+		if (interned != null) {
+			return interned;
+		}
+		if (subjects.size() >= maxSubjects) {
+			return subject;
+		}
+		final String previous = subjects.putIfAbsent(subject, subject);
+		return (previous != null) ? previous : subject;
+	}
+
+	/**
+	 * @return the number of cached subjects
+	 */
+	protected int size() {
+		return subjects.size();
+	}
+}
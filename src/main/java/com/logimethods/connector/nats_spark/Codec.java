@@ -0,0 +1,55 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.nats_spark;
+
+import java.io.Serializable;
+
+/**
+ * Encodes Objects into NATS Message Payloads, and decodes them back.
+ * <p>
+ * A Codec is resolved once (see {@link Codecs#forType(Class)}) and then applied to each message,
+ * which is why it has to be stateless and thread-safe.
+ * It is Serializable, to be shipped with the Spark connectors to the workers.
+ *
+ * @param <V> the type of the encoded Objects
+ * @see Codecs
+ */
+public interface Codec<V> extends Serializable {
+
+	/**
+	 * @param obj, the Object to encode
+	 * @return the payload encoding that Object
+	 */
+	byte[] encode(V obj);
+
+	/**
+	 * @param bytes, the payload to decode
+	 * @return the decoded Object
+	 * @throws UnsupportedOperationException, raised when that Codec is not able to decode Objects
+	 */
+	V decode(byte[] bytes) throws UnsupportedOperationException;
+
+	/**
+	 * @param obj, the Object to encode
+	 * @return the number of bytes required to encode that Object through {@link #encode(Object, byte[])},
+	 * or -1 if that Codec is not able to encode into a provided buffer
+	 */
+	default int encodedSize(V obj) {
+		return -1;
+	}
+
+	/**
+	 * Encode, without any allocation, the Object into the provided buffer.
+	 * @param obj, the Object to encode
+	 * @param buffer, the buffer to write into, starting at index 0, which has to be at least of {@link #encodedSize(Object)} bytes
+	 * @throws UnsupportedOperationException, raised when that Codec is not able to encode into a provided buffer
+	 */
+	default void encode(V obj, byte[] buffer) throws UnsupportedOperationException {
+		throw new UnsupportedOperationException(this + " is not able to encode into a buffer");
+	}
+}
@@ -0,0 +1,410 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.nats_spark;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * The registry of the {@link Codec}s, keyed by the Class of the Objects they encode.
+ * <p>
+ * The Numbers and the Characters are encoded as a big-endian ByteBuffer would do (without allocating nor using any ByteBuffer),
+ * the Strings through UTF-8, and the arrays of bytes are kept as they are.
+ * Objects of any other (not registered) type are encoded through their String representation, and cannot be decoded.
+ * <p>
+ * Additional Codecs can be registered through {@link #register(Class, Codec)},
+ * which has to be done on the Spark Driver as well as on the Spark Workers.
+ * Otherwise, the Codec can directly be provided to the connectors.
+ */
+public final class Codecs {
+
+	public static final Codec<Double> DOUBLE = new DoubleCodec();
+	public static final Codec<Float> FLOAT = new FloatCodec();
+	public static final Codec<Integer> INTEGER = new IntegerCodec();
+	public static final Codec<Long> LONG = new LongCodec();
+	public static final Codec<Short> SHORT = new ShortCodec();
+	public static final Codec<Byte> BYTE = new ByteCodec();
+	public static final Codec<Character> CHARACTER = new CharacterCodec();
+	public static final Codec<String> STRING = new StringCodec();
+	public static final Codec<byte[]> BYTES = new BytesCodec();
+
+	protected static final ConcurrentHashMap<Class<?>, Codec<?>> registry = new ConcurrentHashMap<Class<?>, Codec<?>>();
+
+	static {
+		register(Double.class, DOUBLE);
+		register(Float.class, FLOAT);
+		register(Integer.class, INTEGER);
+		register(Long.class, LONG);
+		register(Short.class, SHORT);
+		register(Byte.class, BYTE);
+		register(Character.class, CHARACTER);
+		register(String.class, STRING);
+		register(byte[].class, BYTES);
+	}
+
+	private Codecs() {
+	}
+
+	/**
+	 * @param type, the Class of the Objects to encode/decode
+	 * @param codec, the Codec to use for that Class (replacing the previously registered one, if any)
+	 */
+	public static <V> void register(Class<V> type, Codec<V> codec) {
+		registry.put(type, codec);
+	}
+
+	/**
+	 * @param type, the Class (or primitive type) of the Objects to encode/decode
+	 * @return the Codec registered for that Class, or a Codec encoding the String representation of the Objects (and unable to decode them)
+	 */
+	@SuppressWarnings("unchecked")
+	public static <V> Codec<V> forType(Class<V> type) {
+		final Codec<V> codec = (Codec<V>) registry.get(type.isPrimitive() ? wrapperOf(type) : type);
+		return (codec != null) ? codec : new ToStringCodec<V>(type);
+	}
+
+	/**
+	 * @param dataEncoder, the function used to encode the records (null to use the registered Codecs)
+	 * @return a Codec encoding the records through that function,
+	 * or a Codec (which is not thread-safe) resolving the registered Codec from the Class of the records as long as that Class does not change
+	 */
+	public static <V> Codec<V> encoderOf(Function<V, byte[]> dataEncoder) {
+		return (dataEncoder != null) ? new FunctionCodec<V>(dataEncoder) : new ResolvingCodec<V>();
+	}
+
+	protected static Class<?> wrapperOf(Class<?> primitive) {
+		if (primitive == double.class) return Double.class;
+		if (primitive == float.class) return Float.class;
+		if (primitive == int.class) return Integer.class;
+		if (primitive == long.class) return Long.class;
+		if (primitive == short.class) return Short.class;
+		if (primitive == byte.class) return Byte.class;
+		if (primitive == char.class) return Character.class;
+		if (primitive == boolean.class) return Boolean.class;
+		return primitive;
+	}
+
+	/* **************** PRIMITIVES **************** */
+
+	public static void encodeDouble(double value, byte[] buffer, int offset) {
+		encodeLong(Double.doubleToRawLongBits(value), buffer, offset);
+	}
+
+	public static double decodeDouble(byte[] bytes, int offset) {
+		return Double.longBitsToDouble(decodeLong(bytes, offset));
+	}
+
+	public static void encodeFloat(float value, byte[] buffer, int offset) {
+		encodeInt(Float.floatToRawIntBits(value), buffer, offset);
+	}
+
+	public static float decodeFloat(byte[] bytes, int offset) {
+		return Float.intBitsToFloat(decodeInt(bytes, offset));
+	}
+
+	public static void encodeLong(long value, byte[] buffer, int offset) {
+		write(value, buffer, offset, Long.BYTES);
+	}
+
+	public static long decodeLong(byte[] bytes, int offset) {
+		return read(bytes, offset, Long.BYTES);
+	}
+
+	public static void encodeInt(int value, byte[] buffer, int offset) {
+		write(value, buffer, offset, Integer.BYTES);
+	}
+
+	public static int decodeInt(byte[] bytes, int offset) {
+		return (int) read(bytes, offset, Integer.BYTES);
+	}
+
+	protected static void write(long value, byte[] buffer, int offset, int size) {
+		for (int i = offset + size - 1; i >= offset; i--) {
+			buffer[i] = (byte) value;
+			value >>>= 8;
+		}
+	}
+
+	protected static long read(byte[] bytes, int offset, int size) {
+		long value = 0;
+		for (int i = offset; i < offset + size; i++) {
+			value = (value << 8) | (bytes[i] & 0xFF);
+		}
+		return value;
+	}
+
+	/* **************** CODECS **************** */
+
+	@SuppressWarnings("serial")
+	static abstract class FixedSizeCodec<V> implements Codec<V> {
+		final int size;
+
+		FixedSizeCodec(int size) {
+			this.size = size;
+		}
+
+		@Override
+		public byte[] encode(V obj) {
+			final byte[] bytes = new byte[size];
+			encode(obj, bytes);
+			return bytes;
+		}
+
+		@Override
+		public int encodedSize(V obj) {
+			return size;
+		}
+
+		@Override
+		public String toString() {
+			return getClass().getSimpleName();
+		}
+	}
+
+	@SuppressWarnings("serial")
+	static final class DoubleCodec extends FixedSizeCodec<Double> {
+		DoubleCodec() {
+			super(Double.BYTES);
+		}
+
+		@Override
+		public void encode(Double obj, byte[] buffer) {
+			encodeDouble(obj, buffer, 0);
+		}
+
+		@Override
+		public Double decode(byte[] bytes) {
+			return decodeDouble(bytes, 0);
+		}
+	}
+
+	@SuppressWarnings("serial")
+	static final class FloatCodec extends FixedSizeCodec<Float> {
+		FloatCodec() {
+			super(Float.BYTES);
+		}
+
+		@Override
+		public void encode(Float obj, byte[] buffer) {
+			encodeFloat(obj, buffer, 0);
+		}
+
+		@Override
+		public Float decode(byte[] bytes) {
+			return decodeFloat(bytes, 0);
+		}
+	}
+
+	@SuppressWarnings("serial")
+	static final class IntegerCodec extends FixedSizeCodec<Integer> {
+		IntegerCodec() {
+			super(Integer.BYTES);
+		}
+
+		@Override
+		public void encode(Integer obj, byte[] buffer) {
+			encodeInt(obj, buffer, 0);
+		}
+
+		@Override
+		public Integer decode(byte[] bytes) {
+			return decodeInt(bytes, 0);
+		}
+	}
+
+	@SuppressWarnings("serial")
+	static final class LongCodec extends FixedSizeCodec<Long> {
+		LongCodec() {
+			super(Long.BYTES);
+		}
+
+		@Override
+		public void encode(Long obj, byte[] buffer) {
+			encodeLong(obj, buffer, 0);
+		}
+
+		@Override
+		public Long decode(byte[] bytes) {
+			return decodeLong(bytes, 0);
+		}
+	}
+
+	@SuppressWarnings("serial")
+	static final class ShortCodec extends FixedSizeCodec<Short> {
+		ShortCodec() {
+			super(Short.BYTES);
+		}
+
+		@Override
+		public void encode(Short obj, byte[] buffer) {
+			write(obj, buffer, 0, Short.BYTES);
+		}
+
+		@Override
+		public Short decode(byte[] bytes) {
+			return (short) read(bytes, 0, Short.BYTES);
+		}
+	}
+
+	@SuppressWarnings("serial")
+	static final class ByteCodec extends FixedSizeCodec<Byte> {
+		ByteCodec() {
+			super(Byte.BYTES);
+		}
+
+		@Override
+		public void encode(Byte obj, byte[] buffer) {
+			buffer[0] = obj;
+		}
+
+		@Override
+		public Byte decode(byte[] bytes) {
+			return bytes[0];
+		}
+	}
+
+	@SuppressWarnings("serial")
+	static final class CharacterCodec extends FixedSizeCodec<Character> {
+		CharacterCodec() {
+			super(Character.BYTES);
+		}
+
+		@Override
+		public void encode(Character obj, byte[] buffer) {
+			write(obj, buffer, 0, Character.BYTES);
+		}
+
+		@Override
+		public Character decode(byte[] bytes) {
+			return (char) read(bytes, 0, Character.BYTES);
+		}
+	}
+
+	@SuppressWarnings("serial")
+	static final class StringCodec implements Codec<String> {
+		@Override
+		public byte[] encode(String obj) {
+			return obj.getBytes(StandardCharsets.UTF_8);
+		}
+
+		@Override
+		public String decode(byte[] bytes) {
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		@Override
+		public String toString() {
+			return "StringCodec";
+		}
+	}
+
+	@SuppressWarnings("serial")
+	static final class BytesCodec implements Codec<byte[]> {
+		@Override
+		public byte[] encode(byte[] obj) {
+			return obj;
+		}
+
+		@Override
+		public byte[] decode(byte[] bytes) {
+			return bytes;
+		}
+
+		@Override
+		public String toString() {
+			return "BytesCodec";
+		}
+	}
+
+	/**
+	 * Encodes the Objects of a not registered type through their String representation.
+	 */
+	@SuppressWarnings("serial")
+	static final class ToStringCodec<V> implements Codec<V> {
+		final Class<V> type;
+
+		ToStringCodec(Class<V> type) {
+			this.type = type;
+		}
+
+		@Override
+		public byte[] encode(V obj) {
+			return obj.toString().getBytes(StandardCharsets.UTF_8);
+		}
+
+		@Override
+		public V decode(byte[] bytes) throws UnsupportedOperationException {
+			throw new UnsupportedOperationException("It is not possible to extract Data of type " + type);
+		}
+
+		@Override
+		public String toString() {
+			return "ToStringCodec [type=" + type + "]";
+		}
+	}
+
+	@SuppressWarnings("serial")
+	static final class FunctionCodec<V> implements Codec<V> {
+		final Function<V, byte[]> dataEncoder;
+
+		FunctionCodec(Function<V, byte[]> dataEncoder) {
+			this.dataEncoder = dataEncoder;
+		}
+
+		@Override
+		public byte[] encode(V obj) {
+			return dataEncoder.apply(obj);
+		}
+
+		@Override
+		public V decode(byte[] bytes) throws UnsupportedOperationException {
+			throw new UnsupportedOperationException(this + " is only able to encode");
+		}
+	}
+
+	/**
+	 * Resolves the Codec of the records to encode from their Class,
+	 * which is only looked up again when the Class changes from a record to the next one.
+	 */
+	@SuppressWarnings("serial")
+	static final class ResolvingCodec<V> implements Codec<V> {
+		transient Class<?> type;
+		transient Codec<V> codec;
+
+		@SuppressWarnings("unchecked")
+		Codec<V> resolve(V obj) {
+			final Class<?> objType = obj.getClass();
+			if (objType != type) {
+				codec = forType((Class<V>) objType);
+				type = objType;
+			}
+			return codec;
+		}
+
+		@Override
+		public byte[] encode(V obj) {
+			return resolve(obj).encode(obj);
+		}
+
+		@Override
+		public V decode(byte[] bytes) throws UnsupportedOperationException {
+			throw new UnsupportedOperationException(this + " is only able to encode");
+		}
+
+		@Override
+		public int encodedSize(V obj) {
+			return resolve(obj).encodedSize(obj);
+		}
+
+		@Override
+		public void encode(V obj, byte[] buffer) throws UnsupportedOperationException {
+			resolve(obj).encode(obj, buffer);
+		}
+	}
+}
@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.nats_spark;
+
+import java.io.IOException;
+
+import org.xerial.snappy.Snappy;
+
+import net.jpountz.lz4.LZ4Factory;
+
+/**
+ * The algorithms available to compress the NATS Payloads (see {@link PayloadCompressor}).
+ * <p>
+ * Both of them are provided by the Spark Core dependencies.
+ */
+public enum Compression {
+
+	LZ4((byte) 1) {
+		@Override
+		protected int maxCompressedLength(int length) {
+			return LZ4Factory.fastestInstance().fastCompressor().maxCompressedLength(length);
+		}
+
+		/**
+		 * Each additional byte of a match length adds up to 255 bytes to the decompressed data.
+		 */
+		@Override
+		protected long maxDecompressedLength(int compressedLength) {
+			return 255L * compressedLength;
+		}
+
+		@Override
+		protected int compress(byte[] source, byte[] destination, int offset) {
+			return LZ4Factory.fastestInstance().fastCompressor().compress(source, 0, source.length, destination, offset, destination.length - offset);
+		}
+
+		@Override
+		protected void decompress(byte[] source, int offset, byte[] destination) {
+			final int length = LZ4Factory.fastestInstance().safeDecompressor().decompress(source, offset, source.length - offset, destination, 0, destination.length);
+			if (length != destination.length) {
+				throw new IllegalArgumentException("Decompressed " + length + " bytes instead of " + destination.length);
+			}
+		}
+	},
+
+	SNAPPY((byte) 2) {
+		@Override
+		protected int maxCompressedLength(int length) {
+			return Snappy.maxCompressedLength(length);
+		}
+
+		/**
+		 * A copy element, of at least 2 bytes, cannot expand to more than 64 bytes.
+		 */
+		@Override
+		protected long maxDecompressedLength(int compressedLength) {
+			return 32L * compressedLength;
+		}
+
+		@Override
+		protected int compress(byte[] source, byte[] destination, int offset) throws IOException {
+			return Snappy.compress(source, 0, source.length, destination, offset);
+		}
+
+		@Override
+		protected void decompress(byte[] source, int offset, byte[] destination) throws IOException {
+			if (Snappy.uncompressedLength(source, offset, source.length - offset) != destination.length) {
+				throw new IllegalArgumentException("The compressed payload does not contain " + destination.length + " bytes");
+			}
+			Snappy.uncompress(source, offset, source.length - offset, destination, 0);
+		}
+	};
+
+	protected final byte id;
+
+	Compression(byte id) {
+		this.id = id;
+	}
+
+	protected abstract int maxCompressedLength(int length);
+
+	/**
+	 * @return the maximum size of the data that could be decompressed from that number of bytes
+	 */
+	protected abstract long maxDecompressedLength(int compressedLength);
+
+	/**
+	 * @return the length of the compressed data, written into the destination starting at the offset
+	 */
+	protected abstract int compress(byte[] source, byte[] destination, int offset) throws IOException;
+
+	/**
+	 * Decompress the source, starting at the offset, to exactly fill the destination.
+	 */
+	protected abstract void decompress(byte[] source, int offset, byte[] destination) throws IOException;
+
+	protected static Compression of(byte id) {
+		for (Compression compression : values()) {
+			if (compression.id == id) {
+				return compression;
+			}
+		}
+		return null;
+	}
+}
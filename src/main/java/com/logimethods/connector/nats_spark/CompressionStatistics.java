@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.nats_spark;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The statistics of the compression (and decompression) of the NATS Payloads done by the current JVM (ie. by the current Spark Executor or Receiver).
+ * @see PayloadCompressor#getStatistics()
+ */
+public final class CompressionStatistics {
+
+	protected final LongAdder compressedPayloads = new LongAdder();
+	protected final LongAdder rawPayloads = new LongAdder();
+	protected final LongAdder uncompressedBytes = new LongAdder();
+	protected final LongAdder compressedBytes = new LongAdder();
+	protected final LongAdder compressionTime = new LongAdder();
+	protected final LongAdder decompressedPayloads = new LongAdder();
+	protected final LongAdder decompressionTime = new LongAdder();
+
+	CompressionStatistics() {
+	}
+
+	/**
+	 * @return the number of payloads published compressed
+	 */
+	public long getCompressedPayloads() {
+		return compressedPayloads.sum();
+	}
+
+	/**
+	 * @return the number of payloads published raw (too small, or not reduced by the compression)
+	 */
+	public long getRawPayloads() {
+		return rawPayloads.sum();
+	}
+
+	/**
+	 * @return the number of bytes of the compressed payloads, before their compression
+	 */
+	public long getUncompressedBytes() {
+		return uncompressedBytes.sum();
+	}
+
+	/**
+	 * @return the number of bytes of the compressed payloads, after their compression (headers included)
+	 */
+	public long getCompressedBytes() {
+		return compressedBytes.sum();
+	}
+
+	/**
+	 * @return the ratio between the uncompressed and the compressed sizes of the compressed payloads (1 if none)
+	 */
+	public double getCompressionRatio() {
+		final long compressed = getCompressedBytes();
+		return (compressed > 0) ? (double) getUncompressedBytes() / compressed : 1.0;
+	}
+
+	/**
+	 * @return the time (in nanoseconds) spent to compress the payloads (including the attempts that did not reduce their size)
+	 */
+	public long getCompressionTime() {
+		return compressionTime.sum();
+	}
+
+	/**
+	 * @return the number of decompressed payloads
+	 */
+	public long getDecompressedPayloads() {
+		return decompressedPayloads.sum();
+	}
+
+	/**
+	 * @return the time (in nanoseconds) spent to decompress the payloads
+	 */
+	public long getDecompressionTime() {
+		return decompressionTime.sum();
+	}
+
+	/**
+	 * Reset all the statistics.
+	 */
+	public void reset() {
+		compressedPayloads.reset();
+		rawPayloads.reset();
+		uncompressedBytes.reset();
+		compressedBytes.reset();
+		compressionTime.reset();
+		decompressedPayloads.reset();
+		decompressionTime.reset();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "CompressionStatistics [compressedPayloads=" + getCompressedPayloads() + ", rawPayloads=" + getRawPayloads()
+				+ ", compressionRatio=" + getCompressionRatio() + ", compressionTime=" + getCompressionTime()
+				+ ", decompressedPayloads=" + getDecompressedPayloads() + ", decompressionTime=" + getDecompressionTime() + "]";
+	}
+}
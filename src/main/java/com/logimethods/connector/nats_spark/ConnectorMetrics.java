@@ -0,0 +1,201 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.nats_spark;
+
+import java.util.function.Supplier;
+
+import org.apache.spark.SparkEnv;
+import org.apache.spark.metrics.source.Source;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * The metrics of the NATS / Spark connectors of the current JVM (ie. of the current Spark Executor or Receiver),
+ * registered as a Source (named <code>NatsConnector</code>) of the Spark metrics system, to be reported by the configured Spark metrics sinks.
+ * <p>
+ * The messages &amp; bytes are reported as (Dropwizard) meters, providing their rates.
+ * To keep their recording lock-free, the latencies are recorded into {@link LatencyHistogram}s,
+ * reported as the <code>count</code>, <code>mean</code>, <code>p99</code> &amp; <code>max</code> gauges (in nanoseconds) of each of them.
+ * <p>
+ * The metrics are only recorded by the connectors requesting them (through <code>withMetrics()</code>).
+ */
+public final class ConnectorMetrics implements Source {
+
+	public static final String SOURCE_NAME = "NatsConnector";
+
+	static final Logger logger = LoggerFactory.getLogger(ConnectorMetrics.class);
+
+	private static volatile ConnectorMetrics instance;
+
+	protected final MetricRegistry registry = new MetricRegistry();
+	protected final Meter publishedMessages = registry.meter("publish.messages");
+	protected final Meter publishedBytes = registry.meter("publish.bytes");
+	protected final LatencyHistogram publishLatencies = registerLatencies("publish.latency", new LatencyHistogram());
+	protected final LatencyHistogram encodingTimes = registerLatencies("encoding.time", new LatencyHistogram());
+	protected final Meter receivedMessages = registry.meter("receive.messages");
+	protected final Meter receivedBytes = registry.meter("receive.bytes");
+	protected final LatencyHistogram decodingTimes = registerLatencies("decoding.time", new LatencyHistogram());
+	protected final LatencyHistogram transmissionLatencies = registerLatencies("receive.latency", new LatencyHistogram());
+	protected final Counter openConnections = registry.counter("connections.open");
+	protected final Meter reconnections = registry.meter("connections.reconnects");
+
+	ConnectorMetrics() {
+	}
+
+	/**
+	 * @return the metrics of the current JVM, registered into the Spark metrics system (when there is one)
+	 */
+	public static ConnectorMetrics get() {
+		ConnectorMetrics metrics = instance;
+		if (metrics == null) {
+			synchronized (ConnectorMetrics.class) {
+				metrics = instance;
+				if (metrics == null) {
+					metrics = new ConnectorMetrics();
+					final SparkEnv env = SparkEnv.get();
+					if (env != null) {
+						env.metricsSystem().registerSource(metrics);
+						logger.info("The {} metrics have been registered into the Spark metrics system", SOURCE_NAME);
+					}
+					instance = metrics;
+				}
+			}
+		}
+		return metrics;
+	}
+
+	@Override
+	public String sourceName() {
+		return SOURCE_NAME;
+	}
+
+	@Override
+	public MetricRegistry metricRegistry() {
+		return registry;
+	}
+
+	/**
+	 * @param payloadSize, the size of the published payload
+	 * @param latency, the duration (in nanoseconds) of the publish call
+	 */
+	public void published(int payloadSize, long latency) {
+		publishedMessages.mark();
+		publishedBytes.mark(payloadSize);
+		publishLatencies.record(latency);
+	}
+
+	/**
+	 * @param payloadSize, the size of the received payload
+	 */
+	public void received(int payloadSize) {
+		receivedMessages.mark();
+		receivedBytes.mark(payloadSize);
+	}
+
+	/**
+	 * @param duration, the time (in nanoseconds) spent to decode a record
+	 */
+	public void decoded(long duration) {
+		decodingTimes.record(duration);
+	}
+
+	/**
+	 * @param latency, the time (in nanoseconds) elapsed between the publication of an enveloped payload and its reception
+	 * @see PayloadEnvelope
+	 */
+	public void transmitted(long latency) {
+		transmissionLatencies.record(latency);
+	}
+
+	public void connectionOpened() {
+		openConnections.inc();
+	}
+
+	public void connectionClosed() {
+		openConnections.dec();
+	}
+
+	public void reconnected() {
+		reconnections.mark();
+	}
+
+	/**
+	 * @param codec, the Codec to measure
+	 * @return a Codec recording the encoding &amp; decoding times of the provided Codec
+	 */
+	public <V> Codec<V> timing(Codec<V> codec) {
+		return new TimingCodec<V>(codec);
+	}
+
+	/**
+	 * Register a gauge (unless a metric of the same name is already registered).
+	 * @param name, the name of the gauge
+	 * @param value, the provider of the value of the gauge
+	 */
+	public synchronized <V> void registerGauge(String name, Supplier<V> value) {
+		if (! registry.getNames().contains(name)) {
+			registry.register(name, (Gauge<V>) value::get);
+		}
+	}
+
+	/**
+	 * Register the <code>count</code>, <code>mean</code>, <code>p99</code> &amp; <code>max</code> gauges of a histogram.
+	 * @param name, the name of the histogram
+	 * @param histogram, the histogram of latencies (in nanoseconds)
+	 * @return the histogram
+	 */
+	public LatencyHistogram registerLatencies(String name, LatencyHistogram histogram) {
+		registerGauge(name + ".count", histogram::getCount);
+		registerGauge(name + ".mean", histogram::getMean);
+		registerGauge(name + ".p99", () -> histogram.getValueAtPercentile(99));
+		registerGauge(name + ".max", histogram::getMax);
+		return histogram;
+	}
+
+	@SuppressWarnings("serial")
+	static final class TimingCodec<V> implements Codec<V> {
+		final Codec<V> codec;
+
+		TimingCodec(Codec<V> codec) {
+			this.codec = codec;
+		}
+
+		@Override
+		public byte[] encode(V obj) {
+			final long start = System.nanoTime();
+			final byte[] bytes = codec.encode(obj);
+			get().encodingTimes.record(System.nanoTime() - start);
+			return bytes;
+		}
+
+		@Override
+		public V decode(byte[] bytes) throws UnsupportedOperationException {
+			final long start = System.nanoTime();
+			final V obj = codec.decode(bytes);
+			get().decodingTimes.record(System.nanoTime() - start);
+			return obj;
+		}
+
+		@Override
+		public int encodedSize(V obj) {
+			return codec.encodedSize(obj);
+		}
+
+		@Override
+		public void encode(V obj, byte[] buffer) throws UnsupportedOperationException {
+			final long start = System.nanoTime();
+			codec.encode(obj, buffer);
+			get().encodingTimes.record(System.nanoTime() - start);
+		}
+	}
+}
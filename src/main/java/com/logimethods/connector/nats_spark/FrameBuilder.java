@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.nats_spark;
+
+import java.util.Arrays;
+
+/**
+ * Packs encoded records into a single NATS Payload (see {@link Frames} for the format).
+ * <p>
+ * A frame containing only one record is built as that record alone, without any header.
+ * That class is not thread-safe.
+ */
+public class FrameBuilder {
+
+	protected final int maxFrameBytes;
+	protected final byte[] buffer;
+	protected int position = Frames.HEADER_SIZE;
+	protected int count = 0;
+	protected byte[] firstRecord;
+	protected long firstRecordTime;
+
+	/**
+	 * @param maxFrameBytes, the maximum size (header included) of a frame
+	 */
+	public FrameBuilder(int maxFrameBytes) {
+		if (maxFrameBytes < Frames.HEADER_SIZE + Frames.RECORD_HEADER_SIZE) {
+			throw new IllegalArgumentException("The maximum size of a frame should be at least of "
+						+ (Frames.HEADER_SIZE + Frames.RECORD_HEADER_SIZE) + " bytes: " + maxFrameBytes);
+		}
+		this.maxFrameBytes = maxFrameBytes;
+		this.buffer = new byte[maxFrameBytes];
+	}
+
+	/**
+	 * @param record, an encoded record
+	 * @return true if that record can be added to the current frame without exceeding its maximum size
+	 * (a record that is too large is always accepted by an empty frame, which will then be made of that record alone)
+	 */
+	public boolean fits(byte[] record) {
+		if (count == 0) {
+			return true;
+		}
+		// position stays at the header size when the first record was too large to be copied into the buffer
+		return (position > Frames.HEADER_SIZE) && (maxFrameBytes - position >= Frames.RECORD_HEADER_SIZE + record.length);
+	}
+
+	/**
+	 * @param record, the encoded record to add to the current frame (which should fit in it)
+	 */
+	public void add(byte[] record) {
+		if (count == 0) {
+			firstRecord = record;
+			firstRecordTime = System.nanoTime();
+		}
+		if (maxFrameBytes - position >= Frames.RECORD_HEADER_SIZE + record.length) {
+			Codecs.encodeInt(record.length, buffer, position);
+			position += Frames.RECORD_HEADER_SIZE;
+			System.arraycopy(record, 0, buffer, position, record.length);
+			position += record.length;
+		}
+		count++;
+	}
+
+	/**
+	 * @return the frame containing all the added records (or the record itself if there is only one), then clear the builder
+	 */
+	public byte[] build() {
+		final byte[] frame;
+		if (count == 1) {
+			frame = firstRecord;
+		} else {
+			Frames.writeHeader(buffer, count);
+			frame = Arrays.copyOf(buffer, position);
+		}
+		position = Frames.HEADER_SIZE;
+		count = 0;
+		firstRecord = null;
+		return frame;
+	}
+
+	/**
+	 * @return the number of records of the current frame
+	 */
+	public int count() {
+		return count;
+	}
+
+	/**
+	 * @return the time (as provided by System.nanoTime()) when the first record of the current frame has been added
+	 */
+	public long getFirstRecordTime() {
+		return firstRecordTime;
+	}
+}
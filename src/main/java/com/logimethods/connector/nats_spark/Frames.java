@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.nats_spark;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * The format of the NATS Payloads packing several records (see {@link FrameBuilder}).
+ * <p>
+ * A frame starts with a header made of the magic bytes <code>0xF5 'N' 'F'</code>, the version of the format,
+ * and the number of records (as a big-endian int).
+ * Each record is then preceded by its length (as a big-endian int).
+ * <p>
+ * Since <code>0xF5</code> never appears in a UTF-8 text, since a frame packs at least two records (a single record being published alone), 
+ * and since the lengths of the records have to exactly fill the payload,
+ * a payload that has not been produced as a frame is (almost certainly) not considered as such, and is then handled as a single record.
+ * Anyway, the frames are only unpacked by the NATS to Spark connectors defined <code>withFrames()</code>.
+ */
+public final class Frames {
+
+	public static final byte VERSION = 1;
+	public static final int HEADER_SIZE = 8;
+	public static final int RECORD_HEADER_SIZE = Integer.BYTES;
+
+	protected static final byte[] MAGIC = { (byte) 0xF5, 'N', 'F' };
+
+	private Frames() {
+	}
+
+	/**
+	 * @param payload, a NATS Payload
+	 * @return true if that payload is a well-formed frame
+	 */
+	public static boolean isFrame(byte[] payload) {
+		if ((payload == null) || (payload.length < HEADER_SIZE)
+				|| (payload[0] != MAGIC[0]) || (payload[1] != MAGIC[1]) || (payload[2] != MAGIC[2]) || (payload[3] != VERSION)) {
+			return false;
+		}
+		final int count = Codecs.decodeInt(payload, 4);
+		if (count < 2) {
+			return false;
+		}
+		int position = HEADER_SIZE;
+		for (int i = 0; i < count; i++) {
+			if (payload.length - position < RECORD_HEADER_SIZE) {
+				return false;
+			}
+			final int length = Codecs.decodeInt(payload, position);
+			position += RECORD_HEADER_SIZE;
+			if ((length < 0) || (payload.length - position < length)) {
+				return false;
+			}
+			position += length;
+		}
+		return position == payload.length;
+	}
+
+	/**
+	 * @param payload, a NATS Payload
+	 * @param consumer, the consumer of the records carried by that payload
+	 * @return the number of records provided to the consumer (only one if the payload is not a frame)
+	 */
+	public static int unpack(byte[] payload, Consumer<byte[]> consumer) {
+		if (! isFrame(payload)) {
+			consumer.accept(payload);
+			return 1;
+		}
+		final int count = Codecs.decodeInt(payload, 4);
+		int position = HEADER_SIZE;
+		for (int i = 0; i < count; i++) {
+			final int length = Codecs.decodeInt(payload, position);
+			position += RECORD_HEADER_SIZE;
+			consumer.accept(Arrays.copyOfRange(payload, position, position + length));
+			position += length;
+		}
+		return count;
+	}
+
+	protected static void writeHeader(byte[] buffer, int count) {
+		buffer[0] = MAGIC[0];
+		buffer[1] = MAGIC[1];
+		buffer[2] = MAGIC[2];
+		buffer[3] = VERSION;
+		Codecs.encodeInt(count, buffer, 4);
+	}
+}
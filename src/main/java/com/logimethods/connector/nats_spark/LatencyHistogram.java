@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.nats_spark;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread-safe, lock-free and allocation-free histogram of (positive) latencies, expressed in nanoseconds.
+ * <p>
+ * Like an HdrHistogram, the values are recorded into logarithmic buckets, each of them being split in 16 linear sub-buckets,
+ * which provides a relative precision of about 6% on the whole range of longs.
+ *
+ * @see <a href="http://hdrhistogram.org/">HdrHistogram</a>
+ */
+public class LatencyHistogram {
+
+	protected static final int SUB_BUCKET_BITS = 4;
+	protected static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	protected static final int BUCKETS_COUNT = SUB_BUCKET_COUNT + (Long.SIZE - 1 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+	protected final AtomicLongArray counts = new AtomicLongArray(BUCKETS_COUNT);
+	protected final AtomicLong totalCount = new AtomicLong();
+	protected final AtomicLong totalSum = new AtomicLong();
+	protected final AtomicLong maxValue = new AtomicLong();
+
+	/**
+	 * @param value, the latency to record, in nanoseconds (negative values are recorded as 0)
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		counts.incrementAndGet(bucketIndex(value));
+		totalCount.incrementAndGet();
+		totalSum.addAndGet(value);
+		long max;
+		while (value > (max = maxValue.get())) {
+			if (maxValue.compareAndSet(max, value)) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * @param other, the histogram whose values will be added to this one
+	 */
+	public void add(LatencyHistogram other) {
+		for (int i = 0; i < BUCKETS_COUNT; i++) {
+			final long count = other.counts.get(i);
+			if (count > 0) {
+				counts.addAndGet(i, count);
+			}
+		}
+		totalCount.addAndGet(other.getCount());
+		totalSum.addAndGet(other.totalSum.get());
+		final long otherMax = other.getMax();
+		long max;
+		while (otherMax > (max = maxValue.get())) {
+			if (maxValue.compareAndSet(max, otherMax)) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * @return the number of recorded values
+	 */
+	public long getCount() {
+		return totalCount.get();
+	}
+
+	/**
+	 * @return the highest recorded value, in nanoseconds
+	 */
+	public long getMax() {
+		return maxValue.get();
+	}
+
+	/**
+	 * @return the mean of the recorded values, in nanoseconds
+	 */
+	public double getMean() {
+		final long count = getCount();
+		return (count == 0) ? 0 : (double) totalSum.get() / count;
+	}
+
+	/**
+	 * @param percentile, between 0 and 100
+	 * @return the (approximated) value below which the given percentage of the recorded values fall, in nanoseconds
+	 */
+	public long getValueAtPercentile(double percentile) {
+		final long count = getCount();
+		if (count == 0) {
+			return 0;
+		}
+		final long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * count));
+		long cumulated = 0;
+		for (int i = 0; i < BUCKETS_COUNT; i++) {
+			cumulated += counts.get(i);
+			if (cumulated >= rank) {
+				return Math.min(highestValueOfBucket(i), getMax());
+			}
+		}
+		return getMax();
+	}
+
+	/**
+	 * Clear all the recorded values.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS_COUNT; i++) {
+			counts.set(i, 0);
+		}
+		totalCount.set(0);
+		totalSum.set(0);
+		maxValue.set(0);
+	}
+
+	protected static int bucketIndex(long value) {
+		if (value < SUB_BUCKET_COUNT) {
+			return (int) value;
+		}
+		final int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+		final int shift = exponent - SUB_BUCKET_BITS;
+		return SUB_BUCKET_COUNT + shift * SUB_BUCKET_COUNT + (int) ((value >>> shift) - SUB_BUCKET_COUNT);
+	}
+
+	protected static long highestValueOfBucket(int index) {
+		if (index < SUB_BUCKET_COUNT) {
+			return index;
+		}
+		final int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT;
+		final long subBucket = SUB_BUCKET_COUNT + (index - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+		return ((subBucket + 1) << shift) - 1;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "LatencyHistogram [count=" + getCount() + ", mean=" + (long) getMean() + ", p50=" + getValueAtPercentile(50)
+				+ ", p99=" + getValueAtPercentile(99) + ", p99.9=" + getValueAtPercentile(99.9) + ", max=" + getMax() + "]";
+	}
+}
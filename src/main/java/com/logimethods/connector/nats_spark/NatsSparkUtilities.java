@@ -7,7 +7,6 @@
  *******************************************************************************/
 package com.logimethods.connector.nats_spark;
 
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
@@ -58,34 +57,37 @@ public class NatsSparkUtilities {
 	 * @param obj, any kind of Object
 	 * @return an array of bytes encoding that object (only for the number types) 
 	 * or the String representation of it (through the toString() method)
-	 * @see <a href="https://docs.oracle.com/javase/8/docs/api/java/nio/ByteBuffer.html">Class ByteBuffer</a>
+	 * @see Codecs#forType(Class)
 	 */
+	@SuppressWarnings("unchecked")
 	public static byte[] encodeData(Object obj) {
-		if (obj instanceof String) {
-			return ((String) obj).getBytes();
-		}
-		if (obj instanceof Double) {
-			return ByteBuffer.allocate(Double.BYTES).putDouble((Double) obj).array();
-		}
-		if (obj instanceof Float) {
-			return ByteBuffer.allocate(Float.BYTES).putFloat((Float) obj).array();
-		}
-		if (obj instanceof Integer) {
-			return ByteBuffer.allocate(Integer.BYTES).putInt((Integer) obj).array();
-		}
-		if (obj instanceof Long) {
-			return ByteBuffer.allocate(Long.BYTES).putLong((Long) obj).array();
-		}
-		if (obj instanceof Byte) {
-			return ByteBuffer.allocate(Byte.BYTES).put((Byte) obj).array();
-		}
-		if (obj instanceof Character) {
-			return ByteBuffer.allocate(Character.BYTES).putChar((Character) obj).array();
-		}
-		if (obj instanceof Short) {
-			return ByteBuffer.allocate(Short.BYTES).putShort((Short) obj).array();
+		return Codecs.forType((Class<Object>) obj.getClass()).encode(obj);
+	}
+
+	/**
+	 * @param obj, any kind of Object
+	 * @return the number of bytes required to encode that object into a buffer through {@link #encodeData(Object, byte[])}, 
+	 * or -1 if that object is not a Number nor a Character (and therefore has to be encoded through {@link #encodeData(Object)})
+	 */
+	@SuppressWarnings("unchecked")
+	public static int encodedSize(Object obj) {
+		return Codecs.forType((Class<Object>) obj.getClass()).encodedSize(obj);
+	}
+
+	/**
+	 * Encode, without any allocation, a Number or a Character into the provided buffer,
+	 * the same way {@link #encodeData(Object)} does (ie. as a big-endian ByteBuffer would do).
+	 * @param obj, a Number or a Character
+	 * @param buffer, the buffer to write into, starting at index 0, which has to be at least of {@link #encodedSize(Object)} bytes
+	 * @throws UnsupportedOperationException, raised when the object is not a Number nor a Character
+	 */
+	@SuppressWarnings("unchecked")
+	public static void encodeData(Object obj, byte[] buffer) throws UnsupportedOperationException {
+		final Codec<Object> codec = Codecs.forType((Class<Object>) obj.getClass());
+		if (codec.encodedSize(obj) < 0) {
+			throw new UnsupportedOperationException("It is not possible to encode into a buffer Data of type " + obj.getClass());
 		}
-		return obj.toString().getBytes();
+		codec.encode(obj, buffer);
 	}
 	
 	/**
@@ -93,41 +95,9 @@ public class NatsSparkUtilities {
 	 * @param bytes, the content that represent the object to decode
 	 * @return the extracted object
 	 * @throws UnsupportedOperationException, raised when the expected type of the object is not a Number or a String
-	 * @see <a href="https://docs.oracle.com/javase/8/docs/api/java/nio/ByteBuffer.html">Class ByteBuffer</a>
+	 * @see Codecs#forType(Class)
 	 */
-	@SuppressWarnings("unchecked")
 	public static <X> X decodeData(Class<X> type, byte[] bytes) throws UnsupportedOperationException {
-		if (type == String.class) {
-			return (X) new String(bytes);
-		}
-		if ((type == Double.class) || (type == double.class)){
-			final ByteBuffer buffer = ByteBuffer.wrap(bytes);
-			return (X) new Double(buffer.getDouble());
-		}
-		if ((type == Float.class) || (type == float.class)){
-			final ByteBuffer buffer = ByteBuffer.wrap(bytes);
-			return (X) new Float(buffer.getFloat());
-		}
-		if ((type == Integer.class) || (type == int.class)){
-			final ByteBuffer buffer = ByteBuffer.wrap(bytes);
-			return (X) new Integer(buffer.getInt());
-		}
-		if ((type == Long.class) || (type == long.class)){
-			final ByteBuffer buffer = ByteBuffer.wrap(bytes);
-			return (X) new Long(buffer.getLong());
-		}
-		if ((type == Byte.class) || (type == byte.class)){
-			final ByteBuffer buffer = ByteBuffer.wrap(bytes);
-			return (X) new Byte(buffer.get());
-		}
-		if ((type == Character.class) || (type == char.class)){
-			final ByteBuffer buffer = ByteBuffer.wrap(bytes);
-			return (X) new Character(buffer.getChar());
-		}
-		if ((type == Short.class) || (type == short.class)){
-			final ByteBuffer buffer = ByteBuffer.wrap(bytes);
-			return (X) new Short(buffer.getShort());
-		}
-		throw new UnsupportedOperationException("It is not possible to extract Data of type " + type);
+		return Codecs.forType(type).decode(bytes);
 	}
 }
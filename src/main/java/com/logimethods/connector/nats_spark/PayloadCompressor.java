@@ -0,0 +1,200 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.nats_spark;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compresses the NATS Payloads that are large enough.
+ * <p>
+ * A compressed payload starts with a header made of the magic bytes <code>0xF5 'N' 'Z'</code>, the algorithm used to compress it,
+ * and its original size (as a big-endian int).
+ * The other payloads are published raw, which is why streams mixing compressed and raw payloads
+ * (including the ones published by producers that do not compress anything) are correctly decoded through {@link #decompress(byte[], int)}.
+ * <p>
+ * Since the original size is provided by the payload itself, it is checked against a maximum size
+ * (as well as against the maximum expansion of the algorithm) before anything is allocated.
+ * <p>
+ * That class is thread-safe.
+ */
+public class PayloadCompressor implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	public static final int HEADER_SIZE = 8;
+	public static final int DEFAULT_MAX_DECOMPRESSED_SIZE = 64 * 1024 * 1024;
+
+	protected static final byte[] MAGIC = { (byte) 0xF5, 'N', 'Z' };
+	protected static final CompressionStatistics statistics = new CompressionStatistics();
+
+	static final Logger logger = LoggerFactory.getLogger(PayloadCompressor.class);
+
+	protected final Compression compression;
+	protected final int minSize;
+
+	/**
+	 * @param compression, the algorithm used to compress the payloads
+	 * @param minSize, the size (in bytes) below which the payloads are published raw
+	 */
+	public PayloadCompressor(Compression compression, int minSize) {
+		if (compression == null) {
+			throw new IllegalArgumentException("The compression algorithm has to be defined");
+		}
+		this.compression = compression;
+		this.minSize = minSize;
+	}
+
+	/**
+	 * @return the statistics of the compression (and decompression) of the payloads done by the current JVM
+	 */
+	public static CompressionStatistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * @param payload, the payload to publish
+	 * @return the compressed payload, or the payload itself if it is too small or if its compression does not reduce its size
+	 */
+	public byte[] compress(byte[] payload) {
+		if (payload.length < minSize) {
+			statistics.rawPayloads.increment();
+			return payload;
+		}
+		final long start = System.nanoTime();
+		try {
+			final byte[] buffer = new byte[HEADER_SIZE + compression.maxCompressedLength(payload.length)];
+			final int length = HEADER_SIZE + compression.compress(payload, buffer, HEADER_SIZE);
+			if (length >= payload.length) {
+				statistics.rawPayloads.increment();
+				return payload;
+			}
+			buffer[0] = MAGIC[0];
+			buffer[1] = MAGIC[1];
+			buffer[2] = MAGIC[2];
+			buffer[3] = compression.id;
+			Codecs.encodeInt(payload.length, buffer, 4);
+			statistics.compressedPayloads.increment();
+			statistics.uncompressedBytes.add(payload.length);
+			statistics.compressedBytes.add(length);
+			return Arrays.copyOf(buffer, length);
+		} catch (Exception e) {
+			logger.warn("The payload could not be compressed through {}, it will be published raw: {}", compression, e);
+			statistics.rawPayloads.increment();
+			return payload;
+		} finally {
+			statistics.compressionTime.add(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * @param payload, a NATS Payload
+	 * @return true if that payload has been compressed by a PayloadCompressor
+	 */
+	public static boolean isCompressed(byte[] payload) {
+		return (payload != null) && (payload.length > HEADER_SIZE) 
+				&& (payload[0] == MAGIC[0]) && (payload[1] == MAGIC[1]) && (payload[2] == MAGIC[2]) 
+				&& (Compression.of(payload[3]) != null) && (Codecs.decodeInt(payload, 4) >= 0);
+	}
+
+	/**
+	 * @param payload, a NATS Payload
+	 * @return the decompressed payload, or the payload itself if it has not been compressed (or cannot be decompressed)
+	 * @see #DEFAULT_MAX_DECOMPRESSED_SIZE
+	 */
+	public static byte[] decompress(byte[] payload) {
+		return decompress(payload, DEFAULT_MAX_DECOMPRESSED_SIZE);
+	}
+
+	/**
+	 * @param payload, a NATS Payload
+	 * @param maxSize, the maximum size (in bytes) of a decompressed payload
+	 * @return the decompressed payload, or the payload itself if it has not been compressed (or cannot be decompressed)
+	 */
+	public static byte[] decompress(byte[] payload, int maxSize) {
+		if (! isCompressed(payload)) {
+			return payload;
+		}
+		final int size = Codecs.decodeInt(payload, 4);
+		final Compression compression = Compression.of(payload[3]);
+		if ((size > maxSize) || (size > compression.maxDecompressedLength(payload.length - HEADER_SIZE))) {
+			logger.warn("A payload of {} bytes, starting as a compressed one, claims to be of {} bytes once decompressed through {}: "
+							+ "it will be considered as raw", payload.length, size, compression);
+			return payload;
+		}
+		final long start = System.nanoTime();
+		try {
+			final byte[] decompressed = new byte[size];
+			compression.decompress(payload, HEADER_SIZE, decompressed);
+			statistics.decompressedPayloads.increment();
+			return decompressed;
+		} catch (Exception e) {
+			logger.warn("A payload starting as a compressed one could not be decompressed, it will be considered as raw: {}", e.toString());
+			return payload;
+		} finally {
+			statistics.decompressionTime.add(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * @param codec, the Codec to decorate
+	 * @return a Codec compressing the payloads encoded by the provided Codec, and decompressing them before their decoding
+	 */
+	public <V> Codec<V> compressing(Codec<V> codec) {
+		return new CompressingCodec<V>(codec, this);
+	}
+
+	@SuppressWarnings("serial")
+	static final class CompressingCodec<V> implements Codec<V> {
+		final Codec<V> codec;
+		final PayloadCompressor compressor;
+
+		CompressingCodec(Codec<V> codec, PayloadCompressor compressor) {
+			this.codec = codec;
+			this.compressor = compressor;
+		}
+
+		@Override
+		public byte[] encode(V obj) {
+			return compressor.compress(codec.encode(obj));
+		}
+
+		@Override
+		public V decode(byte[] bytes) throws UnsupportedOperationException {
+			return codec.decode(decompress(bytes));
+		}
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * compression.ordinal() + minSize;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof PayloadCompressor)) {
+			return false;
+		}
+		final PayloadCompressor other = (PayloadCompressor) obj;
+		return (compression == other.compression) && (minSize == other.minSize);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "PayloadCompressor [compression=" + compression + ", minSize=" + minSize + "]";
+	}
+}
@@ -0,0 +1,285 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.nats_spark;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.spark.TaskContext;
+
+/**
+ * Stamps the NATS Payloads with their publication time, to trace the latency between their publication by Spark and their reception by Spark.
+ * <p>
+ * An enveloped payload starts with a header made of the magic bytes <code>0xF5 'N' 'E'</code>, a flags byte,
+ * and the publication time (as big-endian epoch nanoseconds), optionally followed by the time of the Spark Streaming batch
+ * (as big-endian epoch milliseconds) and by the index of the Spark partition (as a big-endian int):
+ * the header is then of 12 to 24 bytes.
+ * The envelope wraps the (possibly compressed, and/or framed) payload, and is removed by the NATS to Spark connectors defined 
+ * <code>withEnvelopes()</code> before anything else, which is why streams mixing enveloped and raw payloads are correctly decoded.
+ * <p>
+ * The publication &amp; reception times are provided by a nanosecond resolution clock calibrated, once per JVM, on the system clock:
+ * between hosts, the latencies are then only as accurate as the synchronization of their clocks.
+ * <p>
+ * That class is thread-safe.
+ */
+public class PayloadEnvelope implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	public static final int HEADER_SIZE = 12;
+	public static final int MAX_HEADER_SIZE = HEADER_SIZE + Long.BYTES + Integer.BYTES;
+	/** The Spark local property providing the time of the Spark Streaming batch to the tasks of its output operations. */
+	public static final String BATCH_TIME_PROPERTY = "spark.streaming.internal.batchTime";
+
+	protected static final byte[] MAGIC = { (byte) 0xF5, 'N', 'E' };
+	protected static final byte BATCH_TIME = 1;
+	protected static final byte PARTITION = 2;
+	protected static final long EPOCH_OFFSET = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis()) - System.nanoTime();
+	protected static final LatencyHistogram latencies = new LatencyHistogram();
+
+	protected final boolean withSparkContext;
+
+	/**
+	 * @param withSparkContext, true to also stamp the time of the Spark Streaming batch &amp; the index of the Spark partition (when known)
+	 */
+	public PayloadEnvelope(boolean withSparkContext) {
+		this.withSparkContext = withSparkContext;
+	}
+
+	/**
+	 * @return the current time, as epoch nanoseconds
+	 */
+	public static long currentTimeNanos() {
+		return System.nanoTime() + EPOCH_OFFSET;
+	}
+
+	/**
+	 * @return the latencies (in nanoseconds) between the publication &amp; the reception of the enveloped payloads received by the current JVM
+	 */
+	public static LatencyHistogram getLatencies() {
+		return latencies;
+	}
+
+	/**
+	 * @return the time (as epoch milliseconds) of the Spark Streaming batch being published by the current task, -1 if unknown
+	 */
+	public long batchTime() {
+		final TaskContext context = withSparkContext ? TaskContext.get() : null;
+		final String batchTime = (context != null) ? context.getLocalProperty(BATCH_TIME_PROPERTY) : null;
+		return (batchTime != null) ? Long.parseLong(batchTime) : -1;
+	}
+
+	/**
+	 * @return the index of the Spark partition being published by the current task, -1 if unknown
+	 */
+	public int partition() {
+		final TaskContext context = withSparkContext ? TaskContext.get() : null;
+		return (context != null) ? context.partitionId() : -1;
+	}
+
+	/**
+	 * @param payload, the payload to publish
+	 * @return a new payload, made of the envelope followed by the provided payload
+	 */
+	public byte[] wrap(byte[] payload) {
+		final long batchTime = batchTime();
+		final int partition = partition();
+		final int headerSize = headerSize(batchTime, partition);
+		final byte[] enveloped = new byte[headerSize + payload.length];
+		System.arraycopy(payload, 0, enveloped, headerSize, payload.length);
+		writeHeader(enveloped, currentTimeNanos(), batchTime, partition);
+		return enveloped;
+	}
+
+	/**
+	 * @param batchTime, the time of the Spark Streaming batch (-1 if unknown)
+	 * @param partition, the index of the Spark partition (-1 if unknown)
+	 * @return the size of the corresponding header
+	 */
+	public static int headerSize(long batchTime, int partition) {
+		return headerSize(flags(batchTime, partition));
+	}
+
+	protected static int headerSize(int flags) {
+		return HEADER_SIZE + (((flags & BATCH_TIME) != 0) ? Long.BYTES : 0) + (((flags & PARTITION) != 0) ? Integer.BYTES : 0);
+	}
+
+	protected static byte flags(long batchTime, int partition) {
+		return (byte) (((batchTime >= 0) ? BATCH_TIME : 0) | ((partition >= 0) ? PARTITION : 0));
+	}
+
+	/**
+	 * Write, without any allocation, the header of an envelope at the beginning of the provided buffer.
+	 * @param buffer, the buffer to write into, which has to be at least of {@link #headerSize(long, int)} bytes
+	 * @param publishTime, the time of the publication (as epoch nanoseconds)
+	 * @param batchTime, the time of the Spark Streaming batch (-1 if unknown)
+	 * @param partition, the index of the Spark partition (-1 if unknown)
+	 */
+	public static void writeHeader(byte[] buffer, long publishTime, long batchTime, int partition) {
+		final byte flags = flags(batchTime, partition);
+		buffer[0] = MAGIC[0];
+		buffer[1] = MAGIC[1];
+		buffer[2] = MAGIC[2];
+		buffer[3] = flags;
+		Codecs.encodeLong(publishTime, buffer, 4);
+		int position = HEADER_SIZE;
+		if ((flags & BATCH_TIME) != 0) {
+			Codecs.encodeLong(batchTime, buffer, position);
+			position += Long.BYTES;
+		}
+		if ((flags & PARTITION) != 0) {
+			Codecs.encodeInt(partition, buffer, position);
+		}
+	}
+
+	/**
+	 * @param payload, a NATS Payload
+	 * @return true if that payload has been enveloped by a PayloadEnvelope
+	 */
+	public static boolean isEnveloped(byte[] payload) {
+		return (payload != null) && (payload.length >= HEADER_SIZE)
+				&& (payload[0] == MAGIC[0]) && (payload[1] == MAGIC[1]) && (payload[2] == MAGIC[2])
+				&& ((payload[3] & ~(BATCH_TIME | PARTITION)) == 0) && (payload.length >= headerSize(payload[3]));
+	}
+
+	/**
+	 * @param payload, an enveloped NATS Payload
+	 * @return its publication time, as epoch nanoseconds
+	 */
+	public static long publishTime(byte[] payload) {
+		return Codecs.decodeLong(payload, 4);
+	}
+
+	/**
+	 * @param payload, an enveloped NATS Payload
+	 * @return the time (as epoch milliseconds) of the Spark Streaming batch it has been published by, -1 if unknown
+	 */
+	public static long batchTime(byte[] payload) {
+		return ((payload[3] & BATCH_TIME) != 0) ? Codecs.decodeLong(payload, HEADER_SIZE) : -1;
+	}
+
+	/**
+	 * @param payload, an enveloped NATS Payload
+	 * @return the index of the Spark partition it has been published by, -1 if unknown
+	 */
+	public static int partition(byte[] payload) {
+		if ((payload[3] & PARTITION) == 0) {
+			return -1;
+		}
+		return Codecs.decodeInt(payload, ((payload[3] & BATCH_TIME) != 0) ? HEADER_SIZE + Long.BYTES : HEADER_SIZE);
+	}
+
+	/**
+	 * Record the latency of a received enveloped payload into {@link #getLatencies()}.
+	 * @param payload, an enveloped NATS Payload
+	 * @param receiveTime, the time of its reception (as epoch nanoseconds)
+	 * @return the latency (in nanoseconds) between its publication and its reception
+	 */
+	public static long recordLatency(byte[] payload, long receiveTime) {
+		final long latency = receiveTime - publishTime(payload);
+		latencies.record(latency);
+		return latency;
+	}
+
+	/**
+	 * @param payload, a NATS Payload
+	 * @return the payload carried by the envelope, or the payload itself if it has not been enveloped
+	 */
+	public static byte[] strip(byte[] payload) {
+		if (! isEnveloped(payload)) {
+			return payload;
+		}
+		return Arrays.copyOfRange(payload, headerSize(payload[3]), payload.length);
+	}
+
+	/**
+	 * @param codec, the Codec to decorate
+	 * @return a Codec enveloping the payloads encoded by the provided Codec (in the context of the current Spark task),
+	 * and stripping the envelopes before their decoding
+	 */
+	public <V> Codec<V> enveloping(Codec<V> codec) {
+		return new EnvelopingCodec<V>(codec, batchTime(), partition());
+	}
+
+	@SuppressWarnings("serial")
+	static final class EnvelopingCodec<V> implements Codec<V> {
+		final Codec<V> codec;
+		final long batchTime;
+		final int partition;
+		final int headerSize;
+
+		EnvelopingCodec(Codec<V> codec, long batchTime, int partition) {
+			this.codec = codec;
+			this.batchTime = batchTime;
+			this.partition = partition;
+			this.headerSize = headerSize(batchTime, partition);
+		}
+
+		@Override
+		public byte[] encode(V obj) {
+			final int size = codec.encodedSize(obj);
+			if (size < 0) {
+				final byte[] payload = codec.encode(obj);
+				final byte[] enveloped = new byte[headerSize + payload.length];
+				System.arraycopy(payload, 0, enveloped, headerSize, payload.length);
+				writeHeader(enveloped, currentTimeNanos(), batchTime, partition);
+				return enveloped;
+			}
+			final byte[] enveloped = new byte[headerSize + size];
+			encode(obj, enveloped);
+			return enveloped;
+		}
+
+		@Override
+		public V decode(byte[] bytes) throws UnsupportedOperationException {
+			return codec.decode(strip(bytes));
+		}
+
+		@Override
+		public int encodedSize(V obj) {
+			final int size = codec.encodedSize(obj);
+			return (size < 0) ? -1 : headerSize + size;
+		}
+
+		/**
+		 * Encode the Object at the beginning of the buffer, then shift it to make room for the header, which does not require any allocation.
+		 */
+		@Override
+		public void encode(V obj, byte[] buffer) throws UnsupportedOperationException {
+			final int size = codec.encodedSize(obj);
+			codec.encode(obj, buffer);
+			System.arraycopy(buffer, 0, buffer, headerSize, size);
+			writeHeader(buffer, currentTimeNanos(), batchTime, partition);
+		}
+	}
+
+	@Override
+	public int hashCode() {
+		return withSparkContext ? 1231 : 1237;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof PayloadEnvelope)) {
+			return false;
+		}
+		return withSparkContext == ((PayloadEnvelope) obj).withSparkContext;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "PayloadEnvelope [withSparkContext=" + withSparkContext + "]";
+	}
+}
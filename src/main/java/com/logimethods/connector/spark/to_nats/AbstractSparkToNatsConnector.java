@@ -16,8 +16,13 @@ import java.util.Properties;
 
 import org.slf4j.Logger;
 
+import com.logimethods.connector.nats_spark.Codec;
+import com.logimethods.connector.nats_spark.Compression;
+import com.logimethods.connector.nats_spark.ConnectorMetrics;
 import com.logimethods.connector.nats_spark.IncompleteException;
 import com.logimethods.connector.nats_spark.NatsSparkUtilities;
+import com.logimethods.connector.nats_spark.PayloadCompressor;
+import com.logimethods.connector.nats_spark.PayloadEnvelope;
 
 import static com.logimethods.connector.nats_spark.Constants.*;
 
@@ -25,6 +30,9 @@ import static com.logimethods.connector.nats_spark.Constants.*;
 abstract class AbstractSparkToNatsConnector<T> implements Serializable {
 
 	protected transient Integer connectionSignature;
+	protected PayloadCompressor compressor;
+	protected PayloadEnvelope envelope;
+	protected boolean metricsEnabled = false;
 
 	/**
 	 * 
@@ -127,6 +135,93 @@ abstract class AbstractSparkToNatsConnector<T> implements Serializable {
 		return (T)this;
 	}
 
+	/**
+	 * Compress the NATS Payloads that are large enough.
+	 * The compressed payloads are transparently decompressed by the NATS to Spark connectors defined <code>withCompression()</code>.
+	 * @param compression, the algorithm used to compress the payloads
+	 * @param minSize, the size (in bytes) below which the payloads are published raw
+	 * @return the connector itself
+	 * @see com.logimethods.connector.nats_spark.PayloadCompressor#getStatistics()
+	 */
+	@SuppressWarnings("unchecked")
+	public T withCompression(Compression compression, int minSize) {
+		setCompressor(new PayloadCompressor(compression, minSize));
+		return (T)this;
+	}
+
+	/**
+	 * @param compressor, the compressor of the NATS Payloads (null for no compression)
+	 */
+	protected void setCompressor(PayloadCompressor compressor) {
+		this.compressor = compressor;
+	}
+
+	/**
+	 * @param payload, the encoded record
+	 * @return the payload to publish, compressed if requested
+	 */
+	protected byte[] compress(byte[] payload) {
+		return (compressor != null) ? compressor.compress(payload) : payload;
+	}
+
+	/**
+	 * Stamp the NATS Payloads with their publication time, into a 12 bytes envelope.
+	 * The NATS to Spark connectors defined <code>withEnvelopes()</code> remove those envelopes, recording the latencies between the publication &amp; the reception of the payloads.
+	 * @return the connector itself
+	 * @see com.logimethods.connector.nats_spark.PayloadEnvelope#getLatencies()
+	 */
+	public T withEnvelope() {
+		return withEnvelope(false);
+	}
+
+	/**
+	 * Stamp the NATS Payloads with their publication time, into an envelope.
+	 * The NATS to Spark connectors defined <code>withEnvelopes()</code> remove those envelopes, recording the latencies between the publication &amp; the reception of the payloads.
+	 * @param withSparkContext, true to also stamp the time of the Spark Streaming batch &amp; the index of the Spark partition 
+	 * (which adds up to 12 bytes to the envelope)
+	 * @return the connector itself
+	 * @see com.logimethods.connector.nats_spark.PayloadEnvelope#getLatencies()
+	 */
+	@SuppressWarnings("unchecked")
+	public T withEnvelope(boolean withSparkContext) {
+		setEnvelope(new PayloadEnvelope(withSparkContext));
+		return (T)this;
+	}
+
+	/**
+	 * @param envelope, the envelope of the NATS Payloads (null for no envelope)
+	 */
+	protected void setEnvelope(PayloadEnvelope envelope) {
+		this.envelope = envelope;
+	}
+
+	/**
+	 * Report the throughput, the encoding time &amp; the publish call latency of the connector, its open connections and the health of the pool
+	 * into the Spark metrics system (as the <code>NatsConnector</code> Source of each Executor).
+	 * @return the connector itself
+	 * @see com.logimethods.connector.nats_spark.ConnectorMetrics
+	 */
+	@SuppressWarnings("unchecked")
+	public T withMetrics() {
+		this.metricsEnabled = true;
+		return (T)this;
+	}
+
+	/**
+	 * @return the metrics to record into (null if they have not been requested)
+	 */
+	protected ConnectorMetrics metrics() {
+		return metricsEnabled ? ConnectorMetrics.get() : null;
+	}
+
+	/**
+	 * @param codec, the Codec used to encode the records
+	 * @return that Codec, recording its encoding time if the metrics have been requested
+	 */
+	protected <V> Codec<V> timing(Codec<V> codec) {
+		return metricsEnabled ? ConnectorMetrics.get().timing(codec) : codec;
+	}
+
 	protected Collection<String> getDefinedSubjects() throws IncompleteException {
 		if ((getSubjects() ==  null) || (getSubjects().size() == 0)) {
 			final String subjectsStr = getProperties() != null ? 
@@ -153,6 +248,11 @@ abstract class AbstractSparkToNatsConnector<T> implements Serializable {
 		result = prime * result + ((properties == null) ? 0 : properties.hashCode());
 		result = prime * result + ((subjects == null) ? 0 : subjects.hashCode());
 		result = prime * result + ((connectionTimeout == null) ? 0 : connectionTimeout.hashCode());
+		result = prime * result + ((compressor == null) ? 0 : compressor.hashCode());
+		result = prime * result + ((envelope == null) ? 0 : envelope.hashCode());
+		if (metricsEnabled) {
+			result = prime * result + 1;
+		}
 		return result;
 	}
 	
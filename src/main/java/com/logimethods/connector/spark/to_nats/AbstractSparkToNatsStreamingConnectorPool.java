@@ -7,6 +7,11 @@
  *******************************************************************************/
 package com.logimethods.connector.spark.to_nats;
 
+import java.time.Duration;
+import java.util.Objects;
+
+import com.logimethods.connector.nats_spark.ConnectorMetrics;
+
 import io.nats.stan.ConnectionFactory;
 
 public abstract class AbstractSparkToNatsStreamingConnectorPool<T> extends SparkToNatsConnectorPool<T> {
@@ -18,6 +23,13 @@ public abstract class AbstractSparkToNatsStreamingConnectorPool<T> extends Spark
 	protected String clusterID;
 	// TODO No more static, needs to be checked on a cluster
 	protected ConnectionFactory 	connectionFactory;
+	protected Integer				asyncWindowSize;
+	protected Long					ackTimeout;
+
+	/**
+	 * The default maximum delay to get the acknowledgement of a message published asynchronously.
+	 */
+	public static final Duration DEFAULT_ACK_TIMEOUT = Duration.ofSeconds(30);
 	
 	/**
 	 * 
@@ -27,19 +39,73 @@ public abstract class AbstractSparkToNatsStreamingConnectorPool<T> extends Spark
 		this.clusterID = clusterID;
 	}
 
+	/**
+	 * Publish the messages asynchronously, without waiting for each of them to be acknowledged by the NATS Streaming server
+	 * before sending the next one.
+	 * A Spark partition is only completed once all its messages have been acknowledged,
+	 * the Spark task failing if one of them is rejected or not acknowledged in time.
+	 * @param windowSize, the maximum number of messages waiting for their acknowledgement, per connection
+	 * @return the pool itself
+	 */
+	public T withAsyncPublishing(int windowSize) {
+		return withAsyncPublishing(windowSize, DEFAULT_ACK_TIMEOUT);
+	}
+
+	/**
+	 * Publish the messages asynchronously, without waiting for each of them to be acknowledged by the NATS Streaming server
+	 * before sending the next one.
+	 * A Spark partition is only completed once all its messages have been acknowledged,
+	 * the Spark task failing if one of them is rejected or not acknowledged in time.
+	 * @param windowSize, the maximum number of messages waiting for their acknowledgement, per connection
+	 * @param ackTimeout, the maximum delay to get an acknowledgement
+	 * @return the pool itself
+	 */
+	@SuppressWarnings("unchecked")
+	public T withAsyncPublishing(int windowSize, Duration ackTimeout) {
+		if (windowSize < 1) {
+			throw new IllegalArgumentException("The size of the publishing window should be positive: " + windowSize);
+		}
+		this.asyncWindowSize = windowSize;
+		this.ackTimeout = ackTimeout.toNanos();
+		return (T)this;
+	}
+
+	/**
+	 * @return the statistics of the asynchronous publications done by the current JVM
+	 */
+	public static AsyncPublishingStatistics getAsyncPublishingStatistics() {
+		return SparkToNatsStreamingConnectorImpl.asyncStatistics;
+	}
+
+	@Override
+	protected void registerMetrics(ConnectorMetrics metrics) {
+		super.registerMetrics(metrics);
+		final AsyncPublishingStatistics asyncStatistics = getAsyncPublishingStatistics();
+		metrics.registerGauge("async.inFlight", asyncStatistics::getInFlight);
+		metrics.registerGauge("async.acks", asyncStatistics::getAcks);
+		metrics.registerGauge("async.nacks", asyncStatistics::getNacks);
+		metrics.registerLatencies("async.ack.latency", asyncStatistics.getAckLatencies());
+	}
+
 	/**
 	 * @return
 	 * @throws Exception
 	 */
 	@Override
 	public SparkToNatsStreamingConnectorImpl newSparkToNatsConnector() throws Exception {
-		return new SparkToNatsStreamingConnectorImpl(	clusterID, 
+		final SparkToNatsStreamingConnectorImpl connector = 
+				new SparkToNatsStreamingConnectorImpl(	clusterID, 
 														getNatsURL(), 
 														getProperties(), 
 														getConnectionTimeout(), 
 														getConnectionFactory(), 
 														getDefinedSubjects(),
 														isStoredAsKeyValue());
+		connector.setAsyncPublishing(asyncWindowSize, ackTimeout);
+		connector.setCompressor(compressor);
+		connector.setEnvelope(envelope);
+		connector.metricsEnabled = metricsEnabled;
+		return connector;
 	}
 
 	/**
@@ -58,7 +124,9 @@ public abstract class AbstractSparkToNatsStreamingConnectorPool<T> extends Spark
 
 	@Override
 	protected int computeConnectionSignature() {
-		return sparkToNatsStreamingConnectionSignature(natsURL, properties, subjects, connectionTimeout, clusterID);
+		return 31 * (31 * sparkToNatsStreamingConnectionSignature(natsURL, properties, subjects, connectionTimeout, clusterID)
+						+ Objects.hashCode(asyncWindowSize))
+				+ Objects.hashCode(ackTimeout);
 	}
 
 	/* (non-Javadoc)
@@ -30,12 +30,17 @@ public abstract class AbstractSparkToStandardNatsConnectorPool<T> extends SparkT
 	 * @throws Exception
 	 */
 	protected SparkToStandardNatsConnectorImpl newSparkToNatsConnector() throws Exception {
-		return new SparkToStandardNatsConnectorImpl(	getNatsURL(), 
+		final SparkToStandardNatsConnectorImpl connector = 
+				new SparkToStandardNatsConnectorImpl(	getNatsURL(), 
 														getProperties(), 
 														getConnectionTimeout(), 
 														getConnectionFactory(), 
 														getDefinedSubjects(),
 														isStoredAsKeyValue());
+		connector.setCompressor(compressor);
+		connector.setEnvelope(envelope);
+		connector.metricsEnabled = metricsEnabled;
+		return connector;
 	}
 
 	/**
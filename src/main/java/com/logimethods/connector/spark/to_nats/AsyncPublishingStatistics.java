@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.spark.to_nats;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.logimethods.connector.nats_spark.LatencyHistogram;
+
+/**
+ * The statistics of the asynchronous publications to NATS Streaming done by the current JVM (ie. by the current Spark Executor).
+ *
+ * @see AbstractSparkToNatsStreamingConnectorPool#getAsyncPublishingStatistics()
+ */
+public final class AsyncPublishingStatistics {
+
+	protected final LatencyHistogram ackLatencies = new LatencyHistogram();
+	protected final AtomicInteger inFlight = new AtomicInteger();
+	protected final LongAdder acks = new LongAdder();
+	protected final LongAdder nacks = new LongAdder();
+	protected volatile int windowSize;
+
+	AsyncPublishingStatistics() {
+	}
+
+	/**
+	 * @return the (last defined) maximum number of messages that could be waiting for their acknowledgement, per connection
+	 */
+	public int getWindowSize() {
+		return windowSize;
+	}
+
+	/**
+	 * @return the number of messages currently waiting for their acknowledgement
+	 */
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	/**
+	 * @return the number of messages acknowledged by the NATS Streaming server
+	 */
+	public long getAcks() {
+		return acks.sum();
+	}
+
+	/**
+	 * @return the number of messages rejected by the NATS Streaming server (or whose acknowledgement did time out)
+	 */
+	public long getNacks() {
+		return nacks.sum();
+	}
+
+	/**
+	 * @return the histogram of the delays between the publication of the messages and their acknowledgement, in nanoseconds
+	 */
+	public LatencyHistogram getAckLatencies() {
+		return ackLatencies;
+	}
+
+	/**
+	 * Reset all the counters (but the in-flight gauge).
+	 */
+	public void reset() {
+		ackLatencies.reset();
+		acks.reset();
+		nacks.reset();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "AsyncPublishingStatistics [windowSize=" + getWindowSize() + ", inFlight=" + getInFlight() + ", acks=" + getAcks()
+				+ ", nacks=" + getNacks() + ", ackLatencies=" + ackLatencies + "]";
+	}
+}
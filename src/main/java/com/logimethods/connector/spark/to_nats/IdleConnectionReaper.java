@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.spark.to_nats;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A background sweeper that closes the connections of the SparkToNatsConnector(s) which have been idle
+ * for longer than twice their Connection Timeout (as defined by {@code withConnectionTimeout(Duration)}), 
+ * which is the grace period of the closing timers it replaced.
+ * <p>
+ * The publishers only record a last-use timestamp on their hot path (see {@link SparkToNatsConnector#resetClosingTimeout()}),
+ * while a single (daemon) thread periodically checks all the registered connectors.
+ */
+public final class IdleConnectionReaper {
+
+	static final Logger logger = LoggerFactory.getLogger(IdleConnectionReaper.class);
+
+	/**
+	 * The maximum delay between two sweeps, in nanoseconds.
+	 */
+	protected static final long MAX_SWEEP_PERIOD = TimeUnit.SECONDS.toNanos(1);
+	/**
+	 * The minimum delay between two sweeps, in nanoseconds.
+	 */
+	protected static final long MIN_SWEEP_PERIOD = TimeUnit.MILLISECONDS.toNanos(10);
+
+	protected static final Set<SparkToNatsConnector<?>> connectors = ConcurrentHashMap.newKeySet();
+
+	private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		final Thread thread = new Thread(runnable, "IdleConnectionReaper");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private static ScheduledFuture<?> sweepingFuture;
+	private static long sweepPeriod = Long.MAX_VALUE;
+
+	private static final AtomicLong closedConnectionsCount = new AtomicLong();
+	private static final AtomicLong sweepsCount = new AtomicLong();
+	private static final AtomicLong totalSweepDuration = new AtomicLong();
+	private static volatile long lastSweepDuration = 0;
+
+	private IdleConnectionReaper() {
+	}
+
+	/**
+	 * @param connector, the connector to watch, which will be closed once idle for longer than twice its Connection Timeout
+	 */
+	static void register(SparkToNatsConnector<?> connector) {
+		final Long connectionTimeout = connector.getConnectionTimeout();
+		if (connectionTimeout == null) {
+			return;
+		}
+		connectors.add(connector);
+		logger.debug("{} registered to the IdleConnectionReaper", connector);
+		scheduleSweeping(connectionTimeout / 4);
+	}
+
+	/**
+	 * @param connector, the connector that doesn't need to be watched anymore
+	 */
+	static void unregister(SparkToNatsConnector<?> connector) {
+		connectors.remove(connector);
+	}
+
+	/**
+	 * @param period, the maximum delay between two sweeps, in nanoseconds
+	 */
+	static synchronized void scheduleSweeping(long period) {
+		period = Math.max(MIN_SWEEP_PERIOD, Math.min(MAX_SWEEP_PERIOD, period));
+		if ((sweepingFuture != null) && (period >= sweepPeriod)) {
+			return;
+		}
+		if (sweepingFuture != null) {
+			sweepingFuture.cancel(false);
+		}
+		sweepPeriod = period;
+		sweepingFuture = scheduler.scheduleWithFixedDelay(IdleConnectionReaper::sweep, period, period, TimeUnit.NANOSECONDS);
+		logger.debug("Idle Connections will be swept every {} ns", period);
+	}
+
+	/**
+	 * Close all the registered connections that have been idle for longer than twice their Connection Timeout,
+	 * then evict the connectors that have been idle for too long from the pools.
+	 */
+	static void sweep() {
+		final long start = System.nanoTime();
+		for (SparkToNatsConnector<?> connector : connectors) {
+			if (connector.isIdle(start) && connectors.remove(connector)) {
+				logger.debug("At {}, {} will be closed by the IdleConnectionReaper", start, connector);
+				try {
+					connector.closeConnection();
+					closedConnectionsCount.incrementAndGet();
+				} catch (Exception e) {
+					logger.error("Exception while closing {}: {}", connector, e);
+				}
+			}
+		}
+		try {
+			SparkToNatsConnectorPool.evictIdleConnectors(start);
+		} catch (Exception e) {
+			logger.error("Exception while evicting the idle connectors: {}", e);
+		}
+		final long duration = System.nanoTime() - start;
+		lastSweepDuration = duration;
+		totalSweepDuration.addAndGet(duration);
+		sweepsCount.incrementAndGet();
+	}
+
+	/**
+	 * @return the number of connectors currently watched by the reaper
+	 */
+	public static int getWatchedConnectorsCount() {
+		return connectors.size();
+	}
+
+	/**
+	 * @return the number of connections closed by the reaper since the start of the JVM
+	 */
+	public static long getClosedConnectionsCount() {
+		return closedConnectionsCount.get();
+	}
+
+	/**
+	 * @return the number of sweeps done since the start of the JVM
+	 */
+	public static long getSweepsCount() {
+		return sweepsCount.get();
+	}
+
+	/**
+	 * @return the duration of the last sweep, in nanoseconds
+	 */
+	public static long getLastSweepDuration() {
+		return lastSweepDuration;
+	}
+
+	/**
+	 * @return the cumulated duration of all the sweeps, in nanoseconds
+	 */
+	public static long getTotalSweepDuration() {
+		return totalSweepDuration.get();
+	}
+}
@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.spark.to_nats;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A lock-free, bounded deque of the idle SparkToNatsConnector(s) sharing the same Connection Signature and idle settings.
+ * <p>
+ * The most recently returned connectors are reused first, so that the least recently used ones can be evicted.
+ */
+class IdleConnectorsDeque {
+
+	protected final ConcurrentLinkedDeque<SparkToNatsConnector<?>> connectors = new ConcurrentLinkedDeque<SparkToNatsConnector<?>>();
+	protected final AtomicInteger size = new AtomicInteger();
+	protected volatile int maxIdle;
+	protected volatile int minIdle;
+	protected volatile long idleEviction;
+
+	protected IdleConnectorsDeque(int maxIdle, int minIdle, long idleEviction) {
+		this.maxIdle = maxIdle;
+		this.minIdle = minIdle;
+		this.idleEviction = idleEviction;
+	}
+
+	/**
+	 * @return the most recently returned connector, or null if there is none
+	 */
+	protected SparkToNatsConnector<?> poll() {
+		final SparkToNatsConnector<?> connector = connectors.pollFirst();
+		if (connector != null) {
+			size.decrementAndGet();
+		}
+		return connector;
+	}
+
+	/**
+	 * @param connector, the connector to store for future reuse
+	 * @return false if the deque is already full (the connector being then rejected)
+	 */
+	protected boolean offer(SparkToNatsConnector<?> connector) {
+		if (size.incrementAndGet() > maxIdle) {
+			size.decrementAndGet();
+			return false;
+		}
+		connectors.offerFirst(connector);
+		return true;
+	}
+
+	/**
+	 * @param connector, the connector to remove
+	 * @return true if that connector was part of the deque
+	 */
+	protected boolean remove(SparkToNatsConnector<?> connector) {
+		if (connectors.removeFirstOccurrence(connector)) {
+			size.decrementAndGet();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Remove, starting from the least recently used ones, the connectors that have been idle for longer than the idle eviction delay,
+	 * while keeping at least minIdle connectors.
+	 * @param now, the current time, as provided by System.nanoTime()
+	 * @return the number of connectors that have been evicted
+	 */
+	protected int evictIdleConnectors(long now) {
+		if (idleEviction <= 0) {
+			return 0;
+		}
+		int evicted = 0;
+		final Iterator<SparkToNatsConnector<?>> iterator = connectors.descendingIterator();
+		while (iterator.hasNext() && (size.get() > minIdle)) {
+			final SparkToNatsConnector<?> connector = iterator.next();
+			if ((now - connector.lastUsage > idleEviction) && remove(connector)) {
+				connector.closeConnection();
+				evicted++;
+			}
+		}
+		return evicted;
+	}
+
+	protected int size() {
+		return size.get();
+	}
+
+	protected boolean isEmpty() {
+		return connectors.isEmpty();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return connectors.toString();
+	}
+}
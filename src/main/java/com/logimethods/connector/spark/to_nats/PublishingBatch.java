@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.spark.to_nats;
+
+/**
+ * Accumulates the encoded payloads of a Spark partition, to write them to NATS in bursts.
+ * <p>
+ * A batch is considered as full when it reaches its maximum number of messages, its maximum number of bytes,
+ * or when its first message has been waiting for longer than the maximum linger.
+ * Since that check is done when a payload is added, the last batch of a partition has to be explicitly published.
+ * <p>
+ * Each burst ends with a flush of the connector, so a published batch is on the wire (or acknowledged, for NATS Streaming)
+ * as soon as one of its limits is reached, instead of whenever the NATS Client decides to write its buffer.
+ */
+class PublishingBatch {
+
+	protected final int maxMessages;
+	protected final long maxBytes;
+	protected final long maxLinger;
+
+	protected final String[] postSubjects;
+	protected final byte[][] payloads;
+	protected int size = 0;
+	protected long bytes = 0;
+	protected long firstMessageTime;
+
+	/**
+	 * @param maxMessages, the maximum number of messages of a batch
+	 * @param maxBytes, the maximum number of bytes (of payloads) of a batch
+	 * @param maxLinger, the maximum delay (in nanoseconds) a message can wait for its batch to be published
+	 */
+	protected PublishingBatch(int maxMessages, long maxBytes, long maxLinger) {
+		this.maxMessages = maxMessages;
+		this.maxBytes = maxBytes;
+		this.maxLinger = maxLinger;
+		this.postSubjects = new String[maxMessages];
+		this.payloads = new byte[maxMessages][];
+	}
+
+	/**
+	 * @param postSubject, the subject provided by the Key of a Key/Value record (null otherwise)
+	 * @param payload, the encoded record
+	 * @return true if the batch is full, and therefore needs to be published
+	 */
+	protected boolean add(String postSubject, byte[] payload) {
+		if (size == 0) {
+			firstMessageTime = System.nanoTime();
+		}
+		postSubjects[size] = postSubject;
+		payloads[size] = payload;
+		size++;
+		bytes += payload.length;
+		return (size >= maxMessages) || (bytes >= maxBytes) || (System.nanoTime() - firstMessageTime >= maxLinger);
+	}
+
+	/**
+	 * Publish all the accumulated payloads through the provided connector, flush it, then clear the batch.
+	 * @param connector, the connector used to publish the messages
+	 * @throws Exception is thrown when there is no Connection nor Subject defined, or when the flush did fail.
+	 */
+	protected void publishTo(SparkToNatsConnector<?> connector) throws Exception {
+		for (int i = 0; i < size; i++) {
+			if (postSubjects[i] == null) {
+				connector.publishToNats(payloads[i]);
+			} else {
+				connector.publishToNats(postSubjects[i], payloads[i]);
+			}
+			postSubjects[i] = null;
+			payloads[i] = null;
+		}
+		size = 0;
+		bytes = 0;
+		connector.flush();
+	}
+
+	/**
+	 * @return the number of messages waiting to be published
+	 */
+	protected int size() {
+		return size;
+	}
+}
@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.spark.to_nats;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.logimethods.connector.nats_spark.FrameBuilder;
+
+/**
+ * Packs the encoded records of a Spark partition that are destined to the same subject(s) into frames.
+ * <p>
+ * A frame is published as soon as the next record does not fit in it anymore,
+ * or when its first record has been waiting for longer than the maximum linger.
+ * Since that check is done when a record is added, the remaining frames of a partition have to be explicitly published.
+ * @see com.logimethods.connector.nats_spark.Frames
+ */
+class PublishingFrames {
+
+	/**
+	 * The destination of the frames.
+	 */
+	@FunctionalInterface
+	interface FrameSink {
+		/**
+		 * @param postSubject, the subject provided by the Key of the Key/Value records (null otherwise)
+		 * @param frame, the payload packing the records
+		 * @throws Exception is thrown when there is no Connection nor Subject defined.
+		 */
+		void publish(String postSubject, byte[] frame) throws Exception;
+	}
+
+	protected final int maxFrameBytes;
+	protected final long maxLinger;
+	protected final FrameSink sink;
+
+	protected final HashMap<String, FrameBuilder> builders = new HashMap<String, FrameBuilder>();
+	protected long oldestRecordTime;
+	protected boolean pending = false;
+
+	/**
+	 * @param maxFrameBytes, the maximum size of a frame
+	 * @param maxLinger, the maximum delay (in nanoseconds) a record can wait for its frame to be published
+	 * @param sink, the destination of the frames
+	 */
+	protected PublishingFrames(int maxFrameBytes, long maxLinger, FrameSink sink) {
+		this.maxFrameBytes = maxFrameBytes;
+		this.maxLinger = maxLinger;
+		this.sink = sink;
+	}
+
+	/**
+	 * @param postSubject, the subject provided by the Key of a Key/Value record (null otherwise)
+	 * @param payload, the encoded record
+	 * @throws Exception is thrown when a frame could not be published
+	 */
+	protected void add(String postSubject, byte[] payload) throws Exception {
+		FrameBuilder builder = builders.get(postSubject);
+		if (builder == null) {
+			builder = new FrameBuilder(maxFrameBytes);
+			builders.put(postSubject, builder);
+		}
+		if (! builder.fits(payload)) {
+			sink.publish(postSubject, builder.build());
+		}
+		builder.add(payload);
+		if ((builder.count() == 1) && (! pending)) {
+			oldestRecordTime = builder.getFirstRecordTime();
+			pending = true;
+		}
+		final long now = System.nanoTime();
+		if (now - oldestRecordTime >= maxLinger) {
+			publishLingeringFrames(now);
+		}
+	}
+
+	protected void publishLingeringFrames(long now) throws Exception {
+		pending = false;
+		for (Map.Entry<String, FrameBuilder> entry : builders.entrySet()) {
+			final FrameBuilder builder = entry.getValue();
+			if (builder.count() > 0) {
+				if (now - builder.getFirstRecordTime() >= maxLinger) {
+					sink.publish(entry.getKey(), builder.build());
+				} else {
+					if ((! pending) || (builder.getFirstRecordTime() - oldestRecordTime < 0)) {
+						oldestRecordTime = builder.getFirstRecordTime();
+					}
+					pending = true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Publish all the remaining frames.
+	 * @throws Exception is thrown when a frame could not be published
+	 */
+	protected void publishAll() throws Exception {
+		for (Map.Entry<String, FrameBuilder> entry : builders.entrySet()) {
+			if (entry.getValue().count() > 0) {
+				sink.publish(entry.getKey(), entry.getValue().build());
+			}
+		}
+		pending = false;
+	}
+
+	/**
+	 * @return the number of records waiting to be published
+	 */
+	protected int size() {
+		int size = 0;
+		for (FrameBuilder builder : builders.values()) {
+			size += builder.count();
+		}
+		return size;
+	}
+}
@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.spark.to_nats;
+
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import scala.Tuple2;
+
+/**
+ * A handle on the publication to NATS of the records of a Spark RDD, providing the number of messages published by each partition.
+ *
+ * @see SparkToNatsConnector#publishToNats(org.apache.spark.api.java.JavaRDD)
+ * @see SparkToNatsConnector#publishToNatsAsKeyValue(org.apache.spark.api.java.JavaRDD)
+ */
+public class RDDPublication {
+
+	protected final Future<List<Tuple2<Integer, Long>>> future;
+
+	RDDPublication(Future<List<Tuple2<Integer, Long>>> future) {
+		this.future = future;
+	}
+
+	/**
+	 * @return true if all the partitions of the RDD have been published (or if the publication did fail or has been cancelled)
+	 */
+	public boolean isDone() {
+		return future.isDone();
+	}
+
+	/**
+	 * Cancel the Spark job publishing the RDD.
+	 * @return false if the publication could not be cancelled, typically because it is already completed
+	 */
+	public boolean cancel() {
+		return future.cancel(true);
+	}
+
+	/**
+	 * Wait for the publication to be completed.
+	 * @return the number of records published by each partition, indexed by the partition index
+	 * @throws InterruptedException if the current thread was interrupted while waiting
+	 * @throws ExecutionException if the publication did fail
+	 */
+	public SortedMap<Integer, Long> getPartitionCounts() throws InterruptedException, ExecutionException {
+		return toPartitionCounts(future.get());
+	}
+
+	/**
+	 * Wait, at most for the given time, for the publication to be completed.
+	 * @return the number of records published by each partition, indexed by the partition index
+	 * @throws InterruptedException if the current thread was interrupted while waiting
+	 * @throws ExecutionException if the publication did fail
+	 * @throws TimeoutException if the publication is not completed in time
+	 */
+	public SortedMap<Integer, Long> getPartitionCounts(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		return toPartitionCounts(future.get(timeout, unit));
+	}
+
+	/**
+	 * Wait for the publication to be completed.
+	 * @return the total number of records published
+	 * @throws InterruptedException if the current thread was interrupted while waiting
+	 * @throws ExecutionException if the publication did fail
+	 */
+	public long getTotalCount() throws InterruptedException, ExecutionException {
+		long total = 0;
+		for (Tuple2<Integer, Long> count : future.get()) {
+			total += count._2;
+		}
+		return total;
+	}
+
+	protected static SortedMap<Integer, Long> toPartitionCounts(List<Tuple2<Integer, Long>> counts) {
+		final SortedMap<Integer, Long> partitionCounts = new TreeMap<Integer, Long>();
+		for (Tuple2<Integer, Long> count : counts) {
+			partitionCounts.put(count._1, count._2);
+		}
+		return partitionCounts;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "RDDPublication [done=" + isDone() + "]";
+	}
+}
@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.spark.to_nats;
+
+import java.util.HashMap;
+
+import com.logimethods.connector.nats_spark.Codec;
+import com.logimethods.connector.nats_spark.PayloadEnvelope;
+
+import io.nats.client.Message;
+
+/**
+ * The NATS Messages reused, by a given thread, to publish the records to NATS.
+ * <p>
+ * Since the NATS Connection writes the content of a Message on the wire while publishing it,
+ * that Message can be reused to publish the next record to the same subject:
+ * its subject is only converted into bytes once, and its data buffer is kept as long as the size of the payloads does not change.
+ * Therefore, records encoded into fixed size payloads (such as numbers) are published without any allocation.
+ * <p>
+ * Since the NATS Streaming Connection copies the payloads into its own messages while publishing them, 
+ * a single data buffer is reused the same way to publish the (enveloped) payloads to NATS Streaming.
+ */
+class ReusableMessages {
+
+	protected static final int MAX_CACHED_SUBJECTS = 1024;
+
+	protected static final ThreadLocal<ReusableMessages> messages = new ThreadLocal<ReusableMessages>() {
+		@Override
+		protected ReusableMessages initialValue() {
+			return new ReusableMessages();
+		}
+	};
+
+	protected final HashMap<String, Message> messagesBySubject = new HashMap<String, Message>();
+	protected byte[] data;
+
+	/**
+	 * @return the Messages reused by the current thread
+	 */
+	protected static ReusableMessages get() {
+		return messages.get();
+	}
+
+	/**
+	 * @param subject, the subject of the Message
+	 * @param payload, the data of the Message
+	 * @return a Message (which should not be kept after its publication) containing a copy of the payload
+	 */
+	protected Message message(String subject, byte[] payload) {
+		final Message message = message(subject);
+		final byte[] data = message.getData();
+		if ((data != null) && (data.length == payload.length)) {
+			System.arraycopy(payload, 0, data, 0, payload.length);
+		} else {
+			message.setData(payload);
+		}
+		return message;
+	}
+
+	/**
+	 * @param subject, the subject of the Message
+	 * @param payload, the data of the Message
+	 * @param envelope, the envelope to write before the payload (null for none)
+	 * @return a Message (which should not be kept after its publication) containing the envelope, followed by a copy of the payload
+	 */
+	protected Message message(String subject, byte[] payload, PayloadEnvelope envelope) {
+		if (envelope == null) {
+			return message(subject, payload);
+		}
+		final long batchTime = envelope.batchTime();
+		final int partition = envelope.partition();
+		final int headerSize = PayloadEnvelope.headerSize(batchTime, partition);
+		final Message message = message(subject);
+		byte[] data = message.getData();
+		if ((data == null) || (data.length != headerSize + payload.length)) {
+			message.setData(new byte[headerSize + payload.length]);
+			data = message.getData();
+		}
+		PayloadEnvelope.writeHeader(data, PayloadEnvelope.currentTimeNanos(), batchTime, partition);
+		System.arraycopy(payload, 0, data, headerSize, payload.length);
+		return message;
+	}
+
+	/**
+	 * @param subject, the subject of the Message
+	 * @param record, the record to encode into the data of the Message
+	 * @param codec, the Codec used to encode the record
+	 * @return a Message (which should not be kept after its publication) containing the encoded record
+	 */
+	protected <V> Message message(String subject, V record, Codec<V> codec) {
+		final int size = codec.encodedSize(record);
+		if (size < 0) {
+			return message(subject, codec.encode(record));
+		}
+		final Message message = message(subject);
+		byte[] data = message.getData();
+		if ((data == null) || (data.length != size)) {
+			message.setData(new byte[size]);
+			data = message.getData();
+		}
+		codec.encode(record, data);
+		return message;
+	}
+
+	/**
+	 * @param payload, the (compressed) payload
+	 * @param envelope, the envelope to write before the payload (null for none)
+	 * @return the payload itself if there is no envelope, otherwise a buffer (which should not be kept after its publication) 
+	 * containing the envelope, followed by a copy of the payload
+	 */
+	protected byte[] payload(byte[] payload, PayloadEnvelope envelope) {
+		if (envelope == null) {
+			return payload;
+		}
+		final long batchTime = envelope.batchTime();
+		final int partition = envelope.partition();
+		final int headerSize = PayloadEnvelope.headerSize(batchTime, partition);
+		final byte[] buffer = buffer(headerSize + payload.length);
+		PayloadEnvelope.writeHeader(buffer, PayloadEnvelope.currentTimeNanos(), batchTime, partition);
+		System.arraycopy(payload, 0, buffer, headerSize, payload.length);
+		return buffer;
+	}
+
+	/**
+	 * @param record, the record to encode
+	 * @param codec, the Codec used to encode the record
+	 * @return a buffer (which should not be kept after its publication) containing the encoded record
+	 */
+	protected <V> byte[] payload(V record, Codec<V> codec) {
+		final int size = codec.encodedSize(record);
+		if (size < 0) {
+			return codec.encode(record);
+		}
+		final byte[] buffer = buffer(size);
+		codec.encode(record, buffer);
+		return buffer;
+	}
+
+	protected byte[] buffer(int size) {
+		if ((data == null) || (data.length != size)) {
+			data = new byte[size];
+		}
+		return data;
+	}
+
+	protected Message message(String subject) {
+		Message message = messagesBySubject.get(subject);
+		if (message == null) {
+			if (messagesBySubject.size() >= MAX_CACHED_SUBJECTS) {
+				messagesBySubject.clear();
+			}
+			message = new Message();
+			message.setSubject(subject);
+			messagesBySubject.put(subject, message);
+		}
+		return message;
+	}
+}
@@ -9,22 +9,21 @@ package com.logimethods.connector.spark.to_nats;
 
 import java.io.Serializable;
 import java.util.Collection;
-import java.util.Date;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Properties;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Function;
-import java.util.regex.Pattern;
 
 import org.apache.spark.api.java.JavaRDD;
-import org.apache.spark.api.java.function.VoidFunction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.logimethods.connector.nats_spark.Codec;
+import com.logimethods.connector.nats_spark.Codecs;
+import com.logimethods.connector.nats_spark.IncompleteException;
+
 import static com.logimethods.connector.nats_spark.NatsSparkUtilities.*;
 
 import scala.Tuple2;
@@ -47,21 +46,21 @@ import scala.Tuple2;
  */
 public abstract class SparkToNatsConnector<T> extends AbstractSparkToNatsConnector<T> {
 
-	protected static final String SUBJECT_PATTERN_SEPARATOR = "=>";
-
-	protected static final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+	protected static final String SUBJECT_PATTERN_SEPARATOR = SubjectRouter.SUBJECT_PATTERN_SEPARATOR;
 
 	protected Properties properties;
 
 	protected Collection<String> subjects;
 	protected String natsURL;
 	protected Long connectionTimeout;
-	protected transient ScheduledFuture<?> closingFuture;
+	protected transient volatile long lastUsage;
+	protected transient volatile Integer poolSignature;
+	protected transient volatile boolean publishingPartition;
+	protected transient volatile String[] definedSubjectsArray;
+	protected transient volatile SubjectRouter subjectRouter;
 	protected long internalId = generateUniqueID(this);
 	protected boolean storedAsKeyValue = false;	
 	
-	protected static final Map<String, Tuple2<Pattern, String>> subjectPatternMap = new HashMap<String, Tuple2<Pattern, String>>();
-	
 	/**
 	 * 
 	 */
@@ -179,101 +178,231 @@ public abstract class SparkToNatsConnector<T> extends AbstractSparkToNatsConnect
 	}
 
 	/**
-	 * A method that will publish all the records of the provided Spark RDD into NATS
+	 * A method that will publish all the records of the provided Spark RDD into NATS.
+	 * Each partition is published through a single connection, which is flushed at the end of the partition.
 	 * @param rdd, the RDD to publish to NATS
+	 * @return the (already completed) publication, providing the number of records published by each partition
 	 */
-	@SuppressWarnings({ "unchecked", "rawtypes" })
-	public <V> void publishToNats(final JavaRDD<V> rdd) {
-		((JavaRDD) rdd).foreach((VoidFunction<V> & Serializable) obj -> publishToNats(encodeData(obj)));
+	public <V> RDDPublication publishToNats(final JavaRDD<V> rdd) {
+		return publishPartitionsToNats(rdd, null);
 	}
 
 	/**
-	 * A method that will publish all the records of the provided Spark RDD into NATS
+	 * A method that will publish all the records of the provided Spark RDD into NATS.
+	 * Each partition is published through a single connection, which is flushed at the end of the partition.
 	 * @param rdd, the RDD to publish to NATS
 	 * @param dataEncoder, the function used to encode the records of the RDD to populate the payload of the NATS Messages
+	 * @return the (already completed) publication, providing the number of records published by each partition
 	 */
-	@SuppressWarnings({ "unchecked", "rawtypes" })
-	public <V> void publishToNats(final JavaRDD<V> rdd, final Function<V, byte[]> dataEncoder) {
-		((JavaRDD) rdd).foreach((VoidFunction<V> & Serializable) obj -> publishToNats(dataEncoder.apply(obj)));
+	public <V> RDDPublication publishToNats(final JavaRDD<V> rdd, final Function<V, byte[]> dataEncoder) {
+		return publishPartitionsToNats(rdd, dataEncoder);
+	}
+
+	protected <V> RDDPublication publishPartitionsToNats(final JavaRDD<V> rdd, final Function<V, byte[]> dataEncoder) {
+		final List<Tuple2<Integer, Long>> counts = 
+				rdd.mapPartitionsWithIndex((index, records) -> publishPartition(index, records, dataEncoder), false).collect();
+		return new RDDPublication(CompletableFuture.completedFuture(counts));
 	}
 
 	/**
-	 * A method that will publish all the records of the provided Spark RDD into NATS
+	 * A method that will publish all the records of the provided Spark RDD into NATS.
+	 * Each partition is published through a single connection, which is flushed at the end of the partition.
 	 * @param rdd, the RDD to publish to NATS
 	 * @param dataEncoder, the function used to encode the records of the RDD to populate the payload of the NATS Messages
+	 * @return the (already completed) publication, providing the number of records published by each partition
 	 */
-	@SuppressWarnings({ "unchecked", "rawtypes" })
-	public <V> void publishToNats(final JavaRDD<V> rdd, final scala.Function1<V, byte[]> dataEncoder) {
-		((JavaRDD) rdd).foreach((VoidFunction<V> & Serializable) obj -> publishToNats(dataEncoder.apply(obj)));
+	public <V> RDDPublication publishToNats(final JavaRDD<V> rdd, final scala.Function1<V, byte[]> dataEncoder) {
+		return publishToNats(rdd, (Function<V, byte[]> & Serializable) obj -> dataEncoder.apply(obj));
 	}
 
 	/**
-	 * A method that will publish all the records of the provided Spark RDD, made of Key/Value Tuples, into NATS.
+	 * A method that will asynchronously publish all the records of the provided Spark RDD, made of Key/Value Tuples, into NATS.
 	 * The subjects of the NATS messages will be a combination of the global NATS Subjects with the individual Keys,
 	 * while the NATS message payloads will the the individual Tuples' values.
+	 * Each partition is published through a single connection, which is flushed at the end of the partition.
 	 * @param rdd, the RDD to publish to NATS
+	 * @return the publication, providing the number of records published by each partition once completed
 	 */
-	@SuppressWarnings({ "unchecked", "rawtypes" })
-	public <K,V> void publishToNatsAsKeyValue(final JavaRDD<Tuple2<K,V>> rdd) {
-		setStoredAsKeyValue(true);
-		((JavaRDD) rdd).foreachAsync((VoidFunction<Tuple2<K, V>> & Serializable) tuple -> publishToNats(tuple._1.toString(), encodeData(tuple._2)));
+	public <K,V> RDDPublication publishToNatsAsKeyValue(final JavaRDD<Tuple2<K,V>> rdd) {
+		return publishKeyValuePartitionsToNats(rdd, null);
 	}
 
 	/**
-	 * A method that will publish all the records of the provided Spark RDD, made of Key/Value Tuples, into NATS.
+	 * A method that will asynchronously publish all the records of the provided Spark RDD, made of Key/Value Tuples, into NATS.
 	 * The subjects of the NATS messages will be a combination of the global NATS Subjects with the individual Keys,
 	 * while the NATS message payloads will the the individual Tuples' values.
+	 * Each partition is published through a single connection, which is flushed at the end of the partition.
 	 * @param rdd, the RDD to publish to NATS
 	 * @param dataEncoder, the function used to encode the records of the RDD to populate the payload of the NATS Messages
+	 * @return the publication, providing the number of records published by each partition once completed
 	 */
-	@SuppressWarnings({ "unchecked", "rawtypes" })
-	public <K,V> void publishToNatsAsKeyValue(final JavaRDD<Tuple2<K,V>> rdd, final Function<V, byte[]> dataEncoder) {
+	public <K,V> RDDPublication publishToNatsAsKeyValue(final JavaRDD<Tuple2<K,V>> rdd, final Function<V, byte[]> dataEncoder) {
+		return publishKeyValuePartitionsToNats(rdd, dataEncoder);
+	}
+
+	protected <K,V> RDDPublication publishKeyValuePartitionsToNats(final JavaRDD<Tuple2<K,V>> rdd, final Function<V, byte[]> dataEncoder) {
 		setStoredAsKeyValue(true);
-		((JavaRDD) rdd).foreachAsync((VoidFunction<Tuple2<K, V>> & Serializable) tuple -> publishToNats(tuple._1.toString(), dataEncoder.apply(tuple._2)));
+		return new RDDPublication(
+				rdd.mapPartitionsWithIndex((index, tuples) -> publishKeyValuePartition(index, tuples, dataEncoder), false).collectAsync());
 	}
 
 	/**
-	 * A method that will publish all the records of the provided Spark RDD, made of Key/Value Tuples, into NATS.
+	 * A method that will asynchronously publish all the records of the provided Spark RDD, made of Key/Value Tuples, into NATS.
 	 * The subjects of the NATS messages will be a combination of the global NATS Subjects with the individual Keys,
 	 * while the NATS message payloads will the the individual Tuples' values.
+	 * Each partition is published through a single connection, which is flushed at the end of the partition.
 	 * @param rdd, the RDD to publish to NATS
 	 * @param dataEncoder, the function used to encode the records of the RDD to populate the payload of the NATS Messages
+	 * @return the publication, providing the number of records published by each partition once completed
 	 */
-	@SuppressWarnings({ "unchecked", "rawtypes" })
-	public <K,V> void publishToNatsAsKeyValue(final JavaRDD<Tuple2<K,V>> rdd, final scala.Function1<V, byte[]> dataEncoder) {
-		setStoredAsKeyValue(true);
-		((JavaRDD) rdd).foreachAsync((VoidFunction<Tuple2<K, V>> & Serializable) tuple -> publishToNats(tuple._1.toString(), dataEncoder.apply(tuple._2)));
+	public <K,V> RDDPublication publishToNatsAsKeyValue(final JavaRDD<Tuple2<K,V>> rdd, final scala.Function1<V, byte[]> dataEncoder) {
+		return publishToNatsAsKeyValue(rdd, (Function<V, byte[]> & Serializable) obj -> dataEncoder.apply(obj));
+	}
+
+	/**
+	 * Publish all the records of a Spark partition, then wait for their acknowledgements (if any) and flush the connection.
+	 * @param index, the index of the partition
+	 * @param records, the records of the partition
+	 * @param dataEncoder, the function used to encode the records into the NATS Message Payloads (null to use the default encoding)
+	 * @return the index of the partition, associated with the number of published records
+	 * @throws Exception is thrown when there is no Connection nor Subject defined.
+	 */
+	protected <V> Iterator<Tuple2<Integer, Long>> publishPartition(int index, Iterator<V> records, Function<V, byte[]> dataEncoder) throws Exception {
+		final long count = publishToNats(records, dataEncoder);
+		completePartition(index, count);
+		return Collections.singletonList(new Tuple2<Integer, Long>(index, count)).iterator();
+	}
+
+	/**
+	 * Publish all the Key/Value records of a Spark partition, then wait for their acknowledgements (if any) and flush the connection.
+	 * @param index, the index of the partition
+	 * @param tuples, the Key/Value records of the partition
+	 * @param dataEncoder, the function used to encode the values into the NATS Message Payloads (null to use the default encoding)
+	 * @return the index of the partition, associated with the number of published records
+	 * @throws Exception is thrown when there is no Connection nor Subject defined.
+	 */
+	protected <K, V> Iterator<Tuple2<Integer, Long>> publishKeyValuePartition(int index, Iterator<Tuple2<K, V>> tuples, Function<V, byte[]> dataEncoder) throws Exception {
+		final long count = publishKeyValuesToNats(tuples, dataEncoder);
+		completePartition(index, count);
+		return Collections.singletonList(new Tuple2<Integer, Long>(index, count)).iterator();
+	}
+
+	protected void completePartition(int index, long count) throws Exception {
+		awaitAcks();
+		flush();
+		logger.debug("{} records of the partition {} have been published by {}", count, index, this);
+	}
+
+	/**
+	 * Publish all the provided records through a single connection.
+	 * @param records, the records to publish
+	 * @param dataEncoder, the function used to encode the records into the NATS Message Payloads (null to use the default encoding)
+	 * @return the number of published records
+	 * @throws Exception is thrown when there is no Connection nor Subject defined.
+	 * @see com.logimethods.connector.nats_spark.Codecs#encoderOf(Function)
+	 */
+	protected <V> long publishToNats(Iterator<V> records, Function<V, byte[]> dataEncoder) throws Exception {
+		if (! records.hasNext()) {
+			return 0;
+		}
+		publishingPartition = true;
+		try {
+			return publishRecordsToNats(records, dataEncoder);
+		} finally {
+			publishingPartition = false;
+			resetClosingTimeout();
+		}
+	}
+
+	/**
+	 * Publish all the provided Key/Value records through a single connection.
+	 * @param tuples, the Key/Value records to publish
+	 * @param dataEncoder, the function used to encode the values into the NATS Message Payloads (null to use the default encoding)
+	 * @return the number of published records
+	 * @throws Exception is thrown when there is no Connection nor Subject defined.
+	 * @see com.logimethods.connector.nats_spark.Codecs#encoderOf(Function)
+	 */
+	protected <K, V> long publishKeyValuesToNats(Iterator<Tuple2<K, V>> tuples, Function<V, byte[]> dataEncoder) throws Exception {
+		if (! tuples.hasNext()) {
+			return 0;
+		}
+		publishingPartition = true;
+		try {
+			return publishKeyValueRecordsToNats(tuples, dataEncoder);
+		} finally {
+			publishingPartition = false;
+			resetClosingTimeout();
+		}
+	}
+
+	/**
+	 * @param dataEncoder, the function used to encode the records (null to use the registered Codecs)
+	 * @return the Codec to use to encode the records of a partition (compressing &amp; enveloping them, and recording the encoding time if requested)
+	 */
+	protected <V> Codec<V> encoderOf(Function<V, byte[]> dataEncoder) {
+		final Codec<V> timed = timing(Codecs.encoderOf(dataEncoder));
+		final Codec<V> codec = (compressor != null) ? compressor.compressing(timed) : timed;
+		return (envelope != null) ? envelope.enveloping(codec) : codec;
+	}
+
+	protected abstract <V> long publishRecordsToNats(Iterator<V> records, Function<V, byte[]> dataEncoder) throws Exception;
+
+	protected abstract <K, V> long publishKeyValueRecordsToNats(Iterator<Tuple2<K, V>> tuples, Function<V, byte[]> dataEncoder) throws Exception;
+
+	/**
+	 * @return the defined subjects, as an array (to iterate over them without allocating any Iterator)
+	 * @throws IncompleteException is thrown when there is no Subject defined.
+	 */
+	protected String[] getDefinedSubjectsArray() throws IncompleteException {
+		String[] localSubjects = definedSubjectsArray;
+		if (localSubjects == null) {
+			localSubjects = getDefinedSubjects().toArray(new String[0]);
+			definedSubjectsArray = localSubjects;
+		}
+		return localSubjects;
+	}
+
+	/**
+	 * @param postSubject, the Key of a Key/Value record
+	 * @return the subjects resulting from the combination of the defined subjects with that Key (the array should not be modified)
+	 * @throws IncompleteException is thrown when there is no Subject defined.
+	 */
+	protected String[] resolveSubjects(String postSubject) throws IncompleteException {
+		return getSubjectRouter().route(postSubject);
+	}
+
+	/**
+	 * @return the router of the Keys of the Key/Value records, compiled from the defined subjects
+	 * @throws IncompleteException is thrown when there is no Subject defined.
+	 */
+	protected SubjectRouter getSubjectRouter() throws IncompleteException {
+		SubjectRouter router = subjectRouter;
+		if (router == null) {
+			router = new SubjectRouter(getDefinedSubjectsArray());
+			subjectRouter = router;
+		}
+		return router;
 	}
 
 	protected abstract void publishToNats(byte[] str) throws Exception;
 
 	protected abstract void publishToNats(String subject, byte[] payload) throws Exception;
 
+	/**
+	 * Make sure that all the messages previously published are on the wire.
+	 * @throws Exception is thrown when the flush did fail.
+	 */
+	protected abstract void flush() throws Exception;
+
+	/**
+	 * Wait for all the messages previously published to be acknowledged, when the protocol does support acknowledgements.
+	 * @throws Exception is thrown when a message has not been acknowledged.
+	 */
+	protected void awaitAcks() throws Exception {
+	}
+
 	protected static String combineSubjects(String preSubject, String postSubject) {
-		if (preSubject.contains(SUBJECT_PATTERN_SEPARATOR)) {
-			Pattern pattern;
-			String replacement;
-			if (subjectPatternMap.containsKey(preSubject)) {
-				final Tuple2<Pattern, String> tuple = subjectPatternMap.get(preSubject);
-				pattern = tuple._1;
-				replacement = tuple._2;
-			} else {
-				// http://www.vogella.com/tutorials/JavaRegularExpressions/article.html
-				final int pos = preSubject.indexOf(SUBJECT_PATTERN_SEPARATOR);
-	
-				final String patternStr = preSubject.substring(0, pos).trim().replace(".", "\\.").replace("*", "[^\\.]*");		
-				logger.trace(patternStr);
-				pattern = Pattern.compile(patternStr);
-				
-				replacement = preSubject.substring(pos+SUBJECT_PATTERN_SEPARATOR.length()).trim();
-				logger.trace(replacement);	
-				
-				subjectPatternMap.put(preSubject, new Tuple2<Pattern, String>(pattern, replacement));
-			}
-			return pattern.matcher(postSubject).replaceFirst(replacement);
-		} else {
-			return preSubject + postSubject;
-		}
+		return SubjectRouter.combine(preSubject, postSubject);
 	}
 
 	/**
@@ -281,6 +410,8 @@ public abstract class SparkToNatsConnector<T> extends AbstractSparkToNatsConnect
 	 */
 	protected void setSubjects(Collection<String> subjects) {
 		this.subjects = subjects;
+		this.definedSubjectsArray = null;
+		this.subjectRouter = null;
 	}
 
 	/**
@@ -361,25 +492,33 @@ public abstract class SparkToNatsConnector<T> extends AbstractSparkToNatsConnect
 	}
 
 	/**
-	 * 
+	 * Records the last usage of the connection, which will be closed by the {@link IdleConnectionReaper}
+	 * once idle for longer than twice the Connection Timeout.
 	 */
 	protected void resetClosingTimeout() {
 		if (connectionTimeout != null) {
-			logger.debug("At {}, READY to resetClosingTimeout({})", new Date().getTime(), this);
-			synchronized(scheduler) {
-				logger.debug("At {}, STARTING to resetClosingTimeout({})", new Date().getTime(), this);
-				if ((closingFuture != null) && (closingFuture.getDelay(TimeUnit.NANOSECONDS) < connectionTimeout)) {
-					closingFuture.cancel(false);
-					closingFuture = null;
-				}
-				if (closingFuture == null) {
-					closingFuture = scheduler.schedule(() -> closeConnection(), 2 * connectionTimeout, TimeUnit.NANOSECONDS);
-					logger.debug("Will start at {}, STARTING to resetClosingTimeout({})", new Date().getTime() + closingFuture.getDelay(TimeUnit.MILLISECONDS), this);
-				}
-			}
+			lastUsage = System.nanoTime();
+		}
+	}
+
+	/**
+	 * To be called when a new connection has been created, to let the {@link IdleConnectionReaper} close it once idle.
+	 */
+	protected void watchConnection() {
+		if (connectionTimeout != null) {
+			lastUsage = System.nanoTime();
+			IdleConnectionReaper.register(this);
 		}
 	}
 
+	/**
+	 * @param now, the current time, as provided by System.nanoTime()
+	 * @return true if the connection has not been used for longer than twice the Connection Timeout (and is not publishing a partition)
+	 */
+	protected boolean isIdle(long now) {
+		return (connectionTimeout != null) && !publishingPartition && (now - lastUsage > 2 * connectionTimeout);
+	}
+
 	protected abstract void closeConnection();
 	
 	protected abstract void removeFromPool();
@@ -8,16 +8,13 @@
 package com.logimethods.connector.spark.to_nats;
 
 import static com.logimethods.connector.nats_spark.Constants.PROP_SUBJECTS;
-import static com.logimethods.connector.nats_spark.NatsSparkUtilities.encodeData;
 import static io.nats.client.Constants.PROP_URL;
 
-import java.io.Serializable;
+import java.time.Duration;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 
 import org.apache.spark.api.java.JavaPairRDD;
@@ -28,6 +25,10 @@ import org.apache.spark.streaming.api.java.JavaPairDStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.logimethods.connector.nats_spark.Codec;
+import com.logimethods.connector.nats_spark.Codecs;
+import com.logimethods.connector.nats_spark.ConnectorMetrics;
+import com.logimethods.connector.nats_spark.Frames;
 import com.logimethods.connector.nats_spark.NatsSparkUtilities;
 
 import scala.Tuple2;
@@ -60,7 +61,22 @@ public abstract class SparkToNatsConnectorPool<T> extends AbstractSparkToNatsCon
 	protected String 					natsURL;
 	protected Long 						connectionTimeout;
 	protected boolean 					storedAsKeyValue = false;
-	protected static final HashMap<Integer, LinkedList<SparkToNatsConnector<?>>> connectorsPoolMap = new HashMap<Integer, LinkedList<SparkToNatsConnector<?>>>();
+	protected int 						maxIdleConnectors = DEFAULT_MAX_IDLE_CONNECTORS;
+	protected int 						minIdleConnectors = 0;
+	protected Long 						idleConnectorsEviction;
+	protected Integer 					batchMaxMessages;
+	protected long 						batchMaxBytes;
+	protected long 						batchMaxLinger;
+	protected boolean 					flushAtPartitionEnd = false;
+	protected Integer 					frameMaxBytes;
+	protected long 						frameMaxLinger;
+	protected static final ConcurrentHashMap<Integer, IdleConnectorsDeque> connectorsPoolMap = new ConcurrentHashMap<Integer, IdleConnectorsDeque>();
+	protected static final SparkToNatsConnectorPoolStatistics statistics = new SparkToNatsConnectorPoolStatistics();
+
+	/**
+	 * The default maximum number of idle connectors kept by the pool for a given connection definition.
+	 */
+	public static final int DEFAULT_MAX_IDLE_CONNECTORS = 64;
 
 	static final Logger logger = LoggerFactory.getLogger(SparkToNatsConnectorPool.class);
 	
@@ -93,27 +109,135 @@ public abstract class SparkToNatsConnectorPool<T> extends AbstractSparkToNatsCon
 		logger.debug("CREATE SparkToNatsConnectorPool {} with NATS Subjects '{}'.", this, subjects);
 	}
 
+	/**
+	 * @param maxIdleConnectors, the maximum number of idle connectors kept by the pool (for a given connection definition and idle settings)
+	 * @return the pool itself
+	 */
+	@SuppressWarnings("unchecked")
+	public T withMaxIdleConnectors(int maxIdleConnectors) {
+		this.maxIdleConnectors = maxIdleConnectors;
+		return (T)this;
+	}
+
+	/**
+	 * @param minIdleConnectors, the minimum number of idle connectors that will be preserved from the idle eviction
+	 * @return the pool itself
+	 */
+	@SuppressWarnings("unchecked")
+	public T withMinIdleConnectors(int minIdleConnectors) {
+		this.minIdleConnectors = minIdleConnectors;
+		return (T)this;
+	}
+
+	/**
+	 * @param duration, the delay after which an idle connector will be evicted from the pool (and its connection closed)
+	 * @return the pool itself
+	 */
+	@SuppressWarnings("unchecked")
+	public T withIdleConnectorsEviction(Duration duration) {
+		this.idleConnectorsEviction = duration.toNanos();
+		return (T)this;
+	}
+
+	/**
+	 * Accumulate the encoded records of each Spark partition, to publish them to NATS in bursts.
+	 * A burst is published, then flushed (or acknowledged, for NATS Streaming), as soon as one of the limits is reached.
+	 * @param maxMessages, the maximum number of messages of a burst
+	 * @param maxBytes, the maximum number of bytes (of payloads) of a burst
+	 * @param maxLinger, the maximum delay a record can wait for its burst to be published
+	 * @return the pool itself
+	 */
+	@SuppressWarnings("unchecked")
+	public T withBatching(int maxMessages, long maxBytes, Duration maxLinger) {
+		if (maxMessages < 1) {
+			throw new IllegalArgumentException("The maximum number of messages of a batch should be positive: " + maxMessages);
+		}
+		this.batchMaxMessages = maxMessages;
+		this.batchMaxBytes = maxBytes;
+		this.batchMaxLinger = maxLinger.toNanos();
+		return (T)this;
+	}
+
+	/**
+	 * Pack the encoded records of each Spark partition that are destined to the same subject(s) into frames,
+	 * each of them being published as a single NATS Message.
+	 * The NATS to Spark connectors defined <code>withFrames()</code> unpack those frames into the individual records.
+	 * @param maxFrameBytes, the maximum size of a frame (a larger record is published alone, without any frame)
+	 * @param maxLinger, the maximum delay a record can wait for its frame to be published
+	 * @return the pool itself
+	 * @see com.logimethods.connector.nats_spark.Frames
+	 */
+	@SuppressWarnings("unchecked")
+	public T withFraming(int maxFrameBytes, Duration maxLinger) {
+		if (maxFrameBytes < Frames.HEADER_SIZE + Frames.RECORD_HEADER_SIZE) {
+			throw new IllegalArgumentException("The maximum size of a frame should be at least of "
+						+ (Frames.HEADER_SIZE + Frames.RECORD_HEADER_SIZE) + " bytes: " + maxFrameBytes);
+		}
+		this.frameMaxBytes = maxFrameBytes;
+		this.frameMaxLinger = maxLinger.toNanos();
+		return (T)this;
+	}
+
+	/**
+	 * @param flushAtPartitionEnd, if true, the NATS connection will be flushed at the end of each Spark partition,
+	 * to be sure that all its messages are on the wire before the completion of the Spark task
+	 * @return the pool itself
+	 */
+	@SuppressWarnings("unchecked")
+	public T withFlushAtPartitionEnd(boolean flushAtPartitionEnd) {
+		this.flushAtPartitionEnd = flushAtPartitionEnd;
+		return (T)this;
+	}
+
+	/**
+	 * @return the statistics of all the pools of the current JVM
+	 */
+	public static SparkToNatsConnectorPoolStatistics getStatistics() {
+		return statistics;
+	}
+
 	/**
 	 * @return a SparkToNatsConnector from the Pool of Connectors (if not empty), otherwise create and return a new one.
 	 * @throws Exception is thrown when there is no Connection nor Subject defined.
 	 */
 	protected SparkToNatsConnector<?> getConnector() throws Exception {
+		final long start = System.nanoTime();
 		final int localConnectionSignature = getConnectionSignature();
 		logger.debug("getConnector() for '{}' ConnectionSignature", localConnectionSignature);
-		synchronized(connectorsPoolMap) {
-			final LinkedList<SparkToNatsConnector<?>> connectorsPool = connectorsPoolMap.get(localConnectionSignature);
-			if ((connectorsPool != null) && (connectorsPool.size() > 0)) {
+		final IdleConnectorsDeque connectorsPool = connectorsPoolMap.get(getPoolSignature());
+		if (connectorsPool != null) {
+			final SparkToNatsConnector<?> connector = connectorsPool.poll();
+			if (connector != null) {
 				logger.debug("ConnectorsPool for {} of size {}", localConnectionSignature, connectorsPool.size());
-				final SparkToNatsConnector<?> connector = connectorsPool.pollFirst();
+				statistics.hits.increment();
+				statistics.waitTime.add(System.nanoTime() - start);
 				return connector;
-			} 
-		}			
+			}
+		}
+		statistics.misses.increment();
+		final ConnectorMetrics metrics = metrics();
+		if (metrics != null) {
+			registerMetrics(metrics);
+		}
 		SparkToNatsConnector<?> newConnector = newSparkToNatsConnector();
 		newConnector.setConnectionSignature(localConnectionSignature);
+		statistics.creations.increment();
+		statistics.waitTime.add(System.nanoTime() - start);
 		logger.debug("New SparkToNatsConnector<?> {} created with ConnectionSignature {}", newConnector, localConnectionSignature);
 		return newConnector;
 	}
 
+	/**
+	 * Register the health of the pools of the current JVM into the metrics (if not already done).
+	 * @param metrics, the metrics of the current JVM
+	 */
+	protected void registerMetrics(ConnectorMetrics metrics) {
+		metrics.registerGauge("pool.hits", statistics::getHits);
+		metrics.registerGauge("pool.misses", statistics::getMisses);
+		metrics.registerGauge("pool.creations", statistics::getCreations);
+		metrics.registerGauge("pool.evictions", statistics::getEvictions);
+	}
+
 	/**
 	 * @return
 	 * @throws Exception
@@ -125,28 +249,41 @@ public abstract class SparkToNatsConnectorPool<T> extends AbstractSparkToNatsCon
 	 */
 	protected void returnConnector(SparkToNatsConnector<?> connector) {
 		logger.debug("Returning {} to pool", connector);
-		synchronized(connectorsPoolMap) {
-			final int connectionSignature = connector.getConnectionSignature();
-			LinkedList<SparkToNatsConnector<?>> connectorsPoolList = connectorsPoolMap.get(connectionSignature);
-			if (connectorsPoolList == null) {
-				connectorsPoolList = new LinkedList<SparkToNatsConnector<?>>();
-				connectorsPoolMap.put(connectionSignature, connectorsPoolList);
+		final int poolSignature = getPoolSignature();
+		IdleConnectorsDeque connectorsPool = connectorsPoolMap.get(poolSignature);
+		if (connectorsPool == null) {
+			connectorsPool = connectorsPoolMap.computeIfAbsent(poolSignature, 
+					signature -> new IdleConnectorsDeque(maxIdleConnectors, minIdleConnectors, getIdleConnectorsEviction()));
+			if (idleConnectorsEviction != null) {
+				IdleConnectionReaper.scheduleSweeping(idleConnectorsEviction / 2);
 			}
-			connectorsPoolList.add(connector);
+		}
+		connector.poolSignature = poolSignature;
+		connector.lastUsage = System.nanoTime();
+		statistics.returns.increment();
+		if (! connectorsPool.offer(connector)) {
+			logger.debug("The pool of {} is full: {} will be closed", connector.getConnectionSignature(), connector);
+			statistics.evictions.increment();
+			connector.closeConnection();
 		}
 	}
 
 	protected static void removeConnectorFromPool(SparkToNatsConnector<?> connector) {
 		logger.debug("Removing {} from pool", connector);
-		synchronized(connectorsPoolMap) {
-			final int connectionSignature = connector.getConnectionSignature();
-			LinkedList<SparkToNatsConnector<?>> connectorsPool = connectorsPoolMap.get(connectionSignature);
-			if (connectorsPool != null) {
-				connectorsPool.removeFirst(); // All connectors sharing the same ConnectionSignature are equivalent
-				if (connectorsPool.size() == 0) { // No more connectors sharing that hashCode
-					connectorsPoolMap.remove(connectionSignature);
-				}			
-			}
+		final Integer poolSignature = connector.poolSignature;
+		final IdleConnectorsDeque connectorsPool = (poolSignature != null) ? connectorsPoolMap.get(poolSignature) : null;
+		if (connectorsPool != null) {
+			connectorsPool.remove(connector);
+		}
+	}
+
+	/**
+	 * Evict, from all the pools, the connectors that have been idle for too long.
+	 * @param now, the current time, as provided by System.nanoTime()
+	 */
+	protected static void evictIdleConnectors(long now) {
+		for (IdleConnectorsDeque connectorsPool : connectorsPoolMap.values()) {
+			statistics.evictions.add(connectorsPool.evictIdleConnectors(now));
 		}
 	}
 	
@@ -154,7 +291,7 @@ public abstract class SparkToNatsConnectorPool<T> extends AbstractSparkToNatsCon
 	 * @param stream, the Spark Stream to publish to NATS
 	 */
 	public <V extends Object> void publishToNats(final JavaDStream<V> stream) {
-		publishToNats(stream, (Function<V, byte[]> & Serializable) obj -> encodeData(obj));
+		publishStreamToNats(stream, null);
 	}
 	
 	/**
@@ -162,17 +299,31 @@ public abstract class SparkToNatsConnectorPool<T> extends AbstractSparkToNatsCon
 	 * @param dataEncoder, the function used to encode the Spark Stream Records into the NATS Message Payloads
 	 */
 	public <V extends Object> void publishToNats(final JavaDStream<V> stream, final Function<V, byte[]> dataEncoder) {
+		publishStreamToNats(stream, dataEncoder);
+	}
+
+	/**
+	 * @param stream, the Spark Stream to publish to NATS
+	 * @param dataEncoder, the function used to encode the Spark Stream Records into the NATS Message Payloads (null to use the default encoding)
+	 */
+	protected <V extends Object> void publishStreamToNats(final JavaDStream<V> stream, final Function<V, byte[]> dataEncoder) {
 		logger.trace("publishToNats(JavaDStream<String> stream)");
 		stream.foreachRDD((VoidFunction<JavaRDD<V>>) rdd -> {
 			logger.trace("stream.foreachRDD");
 			rdd.foreachPartitionAsync(objects -> {
 				logger.trace("rdd.foreachPartition");
 				final SparkToNatsConnector<?> connector = getConnector();
-				while(objects.hasNext()) {
-					final V obj = objects.next();
-					logger.trace("Will publish {}", obj);
-					connector.publishToNats(dataEncoder.apply(obj));
+				final PublishingBatch batch = newPublishingBatch();
+				final PublishingFrames frames = newPublishingFrames(connector, batch);
+				if ((batch == null) && (frames == null)) {
+					connector.publishToNats(objects, dataEncoder);
+				} else {
+					final Codec<V> codec = timing(Codecs.encoderOf(dataEncoder));
+					while(objects.hasNext()) {
+						publish(connector, batch, frames, null, codec.encode(objects.next()));
+					}
 				}
+				completePartition(connector, batch, frames);
 				returnConnector(connector);  // return to the pool for future reuse
 			});
 		});
@@ -182,7 +333,7 @@ public abstract class SparkToNatsConnectorPool<T> extends AbstractSparkToNatsCon
 	 * @param stream, the Spark Stream (composed of Key/Value Records) to publish to NATS
 	 */
 	public <K extends Object, V extends Object> void publishToNatsAsKeyValue(final JavaPairDStream<K, V> stream) {
-		publishToNatsAsKeyValue(stream, (Function<V, byte[]> & Serializable) obj -> encodeData(obj));
+		publishKeyValueStreamToNats(stream, null);
 	}
 	
 	/**
@@ -190,6 +341,14 @@ public abstract class SparkToNatsConnectorPool<T> extends AbstractSparkToNatsCon
 	 * @param dataEncoder, the function used to encode the Spark Stream Records into the NATS Message Payloads
 	 */
 	public <K extends Object, V extends Object> void publishToNatsAsKeyValue(final JavaPairDStream<K, V> stream, final Function<V, byte[]> dataEncoder) {
+		publishKeyValueStreamToNats(stream, dataEncoder);
+	}
+
+	/**
+	 * @param stream, the Spark Stream (composed of Key/Value Records) to publish to NATS
+	 * @param dataEncoder, the function used to encode the Spark Stream Records into the NATS Message Payloads (null to use the default encoding)
+	 */
+	protected <K extends Object, V extends Object> void publishKeyValueStreamToNats(final JavaPairDStream<K, V> stream, final Function<V, byte[]> dataEncoder) {
 		logger.trace("publishToNats(JavaPairDStream<String, String> stream)");
 		setStoredAsKeyValue(true);
 		
@@ -198,24 +357,112 @@ public abstract class SparkToNatsConnectorPool<T> extends AbstractSparkToNatsCon
 			rdd.foreachPartitionAsync((VoidFunction<Iterator<Tuple2<K,V>>>) tuples -> {
 				logger.trace("rdd.foreachPartition");
 				final SparkToNatsConnector<?> connector = getConnector();
-				while(tuples.hasNext()) {
-					final Tuple2<K,V> tuple = tuples.next();
-					logger.trace("Will publish {}", tuple);
-					connector.publishToNats(tuple._1.toString(), dataEncoder.apply(tuple._2));
+				final PublishingBatch batch = newPublishingBatch();
+				final PublishingFrames frames = newPublishingFrames(connector, batch);
+				if ((batch == null) && (frames == null)) {
+					connector.publishKeyValuesToNats(tuples, dataEncoder);
+				} else {
+					final Codec<V> codec = timing(Codecs.encoderOf(dataEncoder));
+					while(tuples.hasNext()) {
+						final Tuple2<K,V> tuple = tuples.next();
+						publish(connector, batch, frames, tuple._1.toString(), codec.encode(tuple._2));
+					}
 				}
+				completePartition(connector, batch, frames);
 				returnConnector(connector);  // return to the pool for future reuse
 			});
 		});
 	}
 
+	/**
+	 * @return a new batch to accumulate the records of a Spark partition, or null if batching is not enabled
+	 */
+	protected PublishingBatch newPublishingBatch() {
+		return (batchMaxMessages != null) ? new PublishingBatch(batchMaxMessages, batchMaxBytes, batchMaxLinger) : null;
+	}
+
+	/**
+	 * @param connector, the connector used to publish the records of the partition
+	 * @param batch, the batch accumulating the records of the partition (could be null)
+	 * @return new frames to pack the records of a Spark partition, or null if framing is not enabled
+	 */
+	protected PublishingFrames newPublishingFrames(SparkToNatsConnector<?> connector, PublishingBatch batch) {
+		return (frameMaxBytes != null) 
+				? new PublishingFrames(frameMaxBytes, frameMaxLinger, (postSubject, frame) -> publish(connector, batch, null, postSubject, frame)) 
+				: null;
+	}
+
+	/**
+	 * Publish an encoded record through the frames, then the batch, if they are defined.
+	 * @param connector, the connector used to publish the records of the partition
+	 * @param batch, the current batch (could be null)
+	 * @param frames, the current frames (could be null)
+	 * @param postSubject, the subject provided by the Key of a Key/Value record (null otherwise)
+	 * @param payload, the encoded record
+	 * @throws Exception is thrown when there is no Connection nor Subject defined.
+	 */
+	protected void publish(SparkToNatsConnector<?> connector, PublishingBatch batch, PublishingFrames frames, String postSubject, byte[] payload) throws Exception {
+		if (frames != null) {
+			frames.add(postSubject, payload);
+		} else if (batch != null) {
+			if (batch.add(postSubject, payload)) {
+				batch.publishTo(connector);
+			}
+		} else if (postSubject == null) {
+			connector.publishToNats(payload);
+		} else {
+			connector.publishToNats(postSubject, payload);
+		}
+	}
+
+	/**
+	 * Publish the remaining records of the partition, wait for their acknowledgements (if any),
+	 * then flush the connection if requested.
+	 * @param connector, the connector used to publish the records of the partition
+	 * @param batch, the current batch (could be null)
+	 * @param frames, the current frames (could be null)
+	 * @throws Exception is thrown when there is no Connection nor Subject defined.
+	 */
+	protected void completePartition(SparkToNatsConnector<?> connector, PublishingBatch batch, PublishingFrames frames) throws Exception {
+		if (frames != null) {
+			frames.publishAll();
+		}
+		if ((batch != null) && (batch.size() > 0)) {
+			batch.publishTo(connector);
+		}
+		connector.awaitAcks();
+		if (flushAtPartitionEnd) {
+			connector.flush();
+		}
+	}
+
 	protected static long poolSize() {
 		int size = 0;
-		for (List<SparkToNatsConnector<?>> poolList: connectorsPoolMap.values()){
-			size += poolList.size();
+		for (IdleConnectorsDeque connectorsPool: connectorsPoolMap.values()){
+			size += connectorsPool.size();
 		}
 		return size;
 	}
 
+	/**
+	 * @return the key of the idle connectors of that pool, made of its Connection Signature and of its idle settings 
+	 * (so that pools configured differently don't share their idle connectors)
+	 */
+	protected int getPoolSignature() {
+		int result = getConnectionSignature();
+		result = 31 * result + maxIdleConnectors;
+		result = 31 * result + minIdleConnectors;
+		result = 31 * result + Long.hashCode(getIdleConnectorsEviction());
+		return result;
+	}
+
+	/**
+	 * @return the idle connectors eviction delay, in nanoseconds (0 if there is no eviction)
+	 */
+	protected long getIdleConnectorsEviction() {
+		return (idleConnectorsEviction != null) ? idleConnectorsEviction : 0;
+	}
+
 	/**
 	 * @return the properties
 	 */
@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.spark.to_nats;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The statistics of the SparkToNatsConnector(s) Pools of the current JVM (ie. of the current Spark Executor).
+ *
+ * @see SparkToNatsConnectorPool#getStatistics()
+ */
+public final class SparkToNatsConnectorPoolStatistics {
+
+	protected final LongAdder hits = new LongAdder();
+	protected final LongAdder misses = new LongAdder();
+	protected final LongAdder creations = new LongAdder();
+	protected final LongAdder returns = new LongAdder();
+	protected final LongAdder evictions = new LongAdder();
+	protected final LongAdder waitTime = new LongAdder();
+
+	SparkToNatsConnectorPoolStatistics() {
+	}
+
+	/**
+	 * @return the number of connectors obtained from the pool without having to create a new one
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return the number of times the pool had no idle connector to provide
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return the number of connectors created by the pools
+	 */
+	public long getCreations() {
+		return creations.sum();
+	}
+
+	/**
+	 * @return the number of connectors returned to the pools
+	 */
+	public long getReturns() {
+		return returns.sum();
+	}
+
+	/**
+	 * @return the number of connectors evicted from the pools (because the pool was full or because they were idle for too long)
+	 */
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	/**
+	 * @return the total time spent to obtain connectors from the pools, in nanoseconds
+	 */
+	public long getWaitTime() {
+		return waitTime.sum();
+	}
+
+	/**
+	 * Reset all the counters.
+	 */
+	public void reset() {
+		hits.reset();
+		misses.reset();
+		creations.reset();
+		returns.reset();
+		evictions.reset();
+		waitTime.reset();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "SparkToNatsConnectorPoolStatistics [hits=" + getHits() + ", misses=" + getMisses() + ", creations=" + getCreations()
+				+ ", returns=" + getReturns() + ", evictions=" + getEvictions() + ", waitTime=" + getWaitTime() + "]";
+	}
+}
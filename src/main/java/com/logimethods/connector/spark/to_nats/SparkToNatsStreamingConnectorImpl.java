@@ -12,17 +12,27 @@ import static io.nats.client.Constants.PROP_URL;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.Date;
+import java.util.Iterator;
+import java.util.Objects;
 import java.util.Properties;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.logimethods.connector.nats_spark.Codec;
+import com.logimethods.connector.nats_spark.ConnectorMetrics;
 import com.logimethods.connector.nats_spark.NatsSparkUtilities;
 
 import io.nats.stan.Connection;
 import io.nats.stan.ConnectionFactory;
 
+import scala.Tuple2;
+
 class SparkToNatsStreamingConnectorImpl extends SparkToNatsConnector<SparkToNatsStreamingConnectorImpl> {
 
 	/**
@@ -35,6 +45,11 @@ class SparkToNatsStreamingConnectorImpl extends SparkToNatsConnector<SparkToNats
 	protected transient String clientID;
 	protected transient ConnectionFactory connectionFactory;
 	protected transient Connection connection;
+	protected Integer asyncWindowSize;
+	protected Long ackTimeout;
+	protected transient Semaphore inFlightPermits;
+	protected final AtomicReference<Exception> ackFailure = new AtomicReference<Exception>();
+	protected static final AsyncPublishingStatistics asyncStatistics = new AsyncPublishingStatistics();
 
 	/**
 	 * 
@@ -80,35 +95,173 @@ class SparkToNatsStreamingConnectorImpl extends SparkToNatsConnector<SparkToNats
 	}
 
 	@Override
-	protected void publishToNats(byte[] payload) throws Exception {
+	protected void publishToNats(byte[] record) throws Exception {
 		resetClosingTimeout();
+		final byte[] payload = ReusableMessages.get().payload(compress(record), envelope);
 				
 		final Connection localConnection = getConnection();
-		for (String subject : getDefinedSubjects()) {
-			localConnection.publish(subject, payload);
+		for (String subject : getDefinedSubjectsArray()) {
+			publish(localConnection, subject, payload);
 	
 			logger.trace("Publish '{}' from Spark to NATS STREAMING ({})", payload, subject);
 		}
 	}
 
 	@Override
-	protected void publishToNats(String postSubject, byte[] payload) throws Exception {
+	protected void publishToNats(String postSubject, byte[] record) throws Exception {
 		resetClosingTimeout();
+		final byte[] payload = ReusableMessages.get().payload(compress(record), envelope);
 		
 		logger.debug("Received '{}' from Spark with '{}' Subject", payload, postSubject);
 		
 		final Connection localConnection = getConnection();
-		for (String preSubject : getDefinedSubjects()) {
-			final String subject = combineSubjects(preSubject, postSubject);
-			localConnection.publish(subject, payload);
+		for (String subject : resolveSubjects(postSubject)) {
+			publish(localConnection, subject, payload);
 	
 			logger.trace("Publish '{}' from Spark to NATS STREAMING ({})", payload, subject);
 		}
 	}
 
+	@Override
+	protected <V> long publishRecordsToNats(Iterator<V> records, Function<V, byte[]> dataEncoder) throws Exception {
+		final Connection localConnection = getConnection();
+		final String[] localSubjects = getDefinedSubjectsArray();
+		final Codec<V> codec = encoderOf(dataEncoder);
+		final ReusableMessages messages = ReusableMessages.get();
+		long count = 0;
+		while (records.hasNext()) {
+			final byte[] payload = messages.payload(records.next(), codec);
+			for (String subject : localSubjects) {
+				publish(localConnection, subject, payload);
+			}
+			count++;
+		}
+		return count;
+	}
+
+	@Override
+	protected <K, V> long publishKeyValueRecordsToNats(Iterator<Tuple2<K, V>> tuples, Function<V, byte[]> dataEncoder) throws Exception {
+		final Connection localConnection = getConnection();
+		final Codec<V> codec = encoderOf(dataEncoder);
+		final ReusableMessages messages = ReusableMessages.get();
+		long count = 0;
+		while (tuples.hasNext()) {
+			final Tuple2<K, V> tuple = tuples.next();
+			final byte[] payload = messages.payload(tuple._2, codec);
+			for (String subject : resolveSubjects(tuple._1.toString())) {
+				publish(localConnection, subject, payload);
+			}
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Publish the payload, synchronously by default, or asynchronously if a publishing window has been defined.
+	 * In that later case, this call only blocks when the window is full, until the oldest messages get acknowledged.
+	 */
+	protected void publish(Connection localConnection, String subject, byte[] payload) throws Exception {
+		final ConnectorMetrics metrics = metrics();
+		if (metrics == null) {
+			publishPayload(localConnection, subject, payload);
+			return;
+		}
+		final long start = System.nanoTime();
+		publishPayload(localConnection, subject, payload);
+		metrics.published(payload.length, System.nanoTime() - start);
+	}
+
+	protected void publishPayload(Connection localConnection, String subject, byte[] payload) throws Exception {
+		if (asyncWindowSize == null) {
+			localConnection.publish(subject, payload);
+			return;
+		}
+
+		checkAckFailure();
+		final Semaphore permits = getInFlightPermits();
+		if (! permits.tryAcquire(ackTimeout, TimeUnit.NANOSECONDS)) {
+			throw new TimeoutException("No NATS Streaming acknowledgement received by " + this + " for " + ackTimeout + " ns");
+		}
+		asyncStatistics.inFlight.incrementAndGet();
+		final long start = System.nanoTime();
+		try {
+			localConnection.publish(subject, payload, (guid, exception) -> onAck(permits, start, exception));
+		} catch (Exception e) {
+			asyncStatistics.inFlight.decrementAndGet();
+			permits.release();
+			throw e;
+		}
+	}
+
+	protected void onAck(Semaphore permits, long start, Exception exception) {
+		asyncStatistics.ackLatencies.record(System.nanoTime() - start);
+		if (exception == null) {
+			asyncStatistics.acks.increment();
+		} else {
+			asyncStatistics.nacks.increment();
+			ackFailure.compareAndSet(null, exception);
+			logger.warn("A message published by {} has not been acknowledged: {}", this, exception.toString());
+		}
+		asyncStatistics.inFlight.decrementAndGet();
+		permits.release();
+	}
+
+	/**
+	 * Wait for all the messages published asynchronously to be acknowledged by the NATS Streaming server.
+	 * @throws Exception is thrown when a message has been rejected, or when the acknowledgements did time out.
+	 */
+	@Override
+	protected void awaitAcks() throws Exception {
+		final Semaphore permits = inFlightPermits;
+		if (permits == null) {
+			return;
+		}
+		if (! permits.tryAcquire(asyncWindowSize, ackTimeout, TimeUnit.NANOSECONDS)) {
+			throw new TimeoutException((asyncWindowSize - permits.availablePermits()) 
+					+ " NATS Streaming acknowledgement(s) still pending by " + this + " after " + ackTimeout + " ns");
+		}
+		permits.release(asyncWindowSize);
+		checkAckFailure();
+	}
+
+	protected void checkAckFailure() throws IOException {
+		final Exception exception = ackFailure.getAndSet(null);
+		if (exception != null) {
+			throw new IOException("A message has not been acknowledged by the NATS Streaming server", exception);
+		}
+	}
+
+	protected synchronized Semaphore getInFlightPermits() {
+		if (inFlightPermits == null) {
+			inFlightPermits = new Semaphore(asyncWindowSize);
+		}
+		return inFlightPermits;
+	}
+
+	/**
+	 * The messages published synchronously having already been acknowledged, only the asynchronous ones need to be waited for.
+	 */
+	@Override
+	protected void flush() throws Exception {
+		awaitAcks();
+	}
+
+	/**
+	 * @param windowSize, the maximum number of messages waiting for their acknowledgement (null for synchronous publishing)
+	 * @param ackTimeout, the maximum delay to get an acknowledgement, in nanoseconds
+	 */
+	protected void setAsyncPublishing(Integer windowSize, Long ackTimeout) {
+		this.asyncWindowSize = windowSize;
+		this.ackTimeout = ackTimeout;
+		if (windowSize != null) {
+			asyncStatistics.windowSize = windowSize;
+		}
+	}
+
 	protected synchronized Connection getConnection() throws Exception {
 		if (connection == null) {
 			connection = createConnection();
+			watchConnection();
 		}
 		return connection;
 	}
@@ -117,6 +270,10 @@ class SparkToNatsStreamingConnectorImpl extends SparkToNatsConnector<SparkToNats
 		if (connectionFactory == null) {
 			connectionFactory = new ConnectionFactory(clusterID, getClientID());
 			connectionFactory.setNatsUrl(getNatsURL());
+			if (asyncWindowSize != null) {
+				connectionFactory.setMaxPubAcksInFlight(asyncWindowSize);
+				connectionFactory.setAckTimeout(ackTimeout, TimeUnit.NANOSECONDS);
+			}
 		}		
 		return connectionFactory;
 	}
@@ -124,6 +281,9 @@ class SparkToNatsStreamingConnectorImpl extends SparkToNatsConnector<SparkToNats
 	protected Connection createConnection() throws IOException, TimeoutException, Exception {
 		final Connection newConnection = getConnectionFactory().createConnection();
 		logger.debug("A NATS Connection {} has been created for {}", newConnection, this);
+		if (metricsEnabled) {
+			ConnectorMetrics.get().connectionOpened();
+		}
 		
 		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable(){
 			@Override
@@ -144,6 +304,7 @@ class SparkToNatsStreamingConnectorImpl extends SparkToNatsConnector<SparkToNats
 	@Override
 	protected synchronized void closeConnection() {
 		logger.debug("At {}, ready to close '{}' by {}", new Date().getTime(), connection, super.toString());
+		IdleConnectionReaper.unregister(this);
 		removeFromPool();
 
 		if (connection != null) {
@@ -155,6 +316,9 @@ class SparkToNatsStreamingConnectorImpl extends SparkToNatsConnector<SparkToNats
 					logger.error("Exception while closing the connection: {} by {}", e, this);
 				}
 			}
+			if (metricsEnabled) {
+				ConnectorMetrics.get().connectionClosed();
+			}
 			connection = null;
 		}
 	}
@@ -170,7 +334,9 @@ class SparkToNatsStreamingConnectorImpl extends SparkToNatsConnector<SparkToNats
 
 	@Override
 	protected int computeConnectionSignature() {
-		return sparkToNatsStreamingConnectionSignature(natsURL, properties, subjects, connectionTimeout, clusterID);
+		return 31 * (31 * sparkToNatsStreamingConnectionSignature(natsURL, properties, subjects, connectionTimeout, clusterID)
+						+ Objects.hashCode(asyncWindowSize))
+				+ Objects.hashCode(ackTimeout);
 	}
 
 	/* (non-Javadoc)
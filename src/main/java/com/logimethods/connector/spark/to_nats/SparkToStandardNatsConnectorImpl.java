@@ -12,16 +12,23 @@ import static io.nats.client.Constants.PROP_URL;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.Properties;
 import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.logimethods.connector.nats_spark.Codec;
+import com.logimethods.connector.nats_spark.ConnectorMetrics;
+
 import io.nats.client.Connection;
 import io.nats.client.ConnectionFactory;
 import io.nats.client.Message;
 
+import scala.Tuple2;
+
 class SparkToStandardNatsConnectorImpl extends SparkToNatsConnector<SparkToStandardNatsConnectorImpl> {
 
 	/**
@@ -71,17 +78,14 @@ class SparkToStandardNatsConnectorImpl extends SparkToNatsConnector<SparkToStand
 	 * @throws Exception is thrown when there is no Connection nor Subject defined.
 	 */
 	@Override
-	protected void publishToNats(byte[] payload) throws Exception {
+	protected void publishToNats(byte[] record) throws Exception {
 		resetClosingTimeout();
+		final byte[] payload = compress(record);
 		
-		final Message natsMessage = new Message();
-	
-		natsMessage.setData(payload, 0, payload.length);
-	
 		final Connection localConnection = getConnection();
-		for (String subject : getDefinedSubjects()) {
-			natsMessage.setSubject(subject);
-			localConnection.publish(natsMessage);
+		final ReusableMessages messages = ReusableMessages.get();
+		for (String subject : getDefinedSubjectsArray()) {
+			publish(localConnection, messages.message(subject, payload, envelope));
 	
 			logger.trace("Send '{}' from Spark to NATS ({})", payload, subject);
 		}
@@ -94,25 +98,85 @@ class SparkToStandardNatsConnectorImpl extends SparkToNatsConnector<SparkToStand
 	 * @throws Exception is thrown when there is no Connection nor Subject defined.
 	 */
 	@Override
-	protected void publishToNats(String postSubject, byte[] payload) throws Exception {
+	protected void publishToNats(String postSubject, byte[] record) throws Exception {
 		resetClosingTimeout();
+		final byte[] payload = compress(record);
 
-		final Message natsMessage = new Message();		
-		natsMessage.setData(payload, 0, payload.length);
-	
 		final Connection localConnection = getConnection();
-		for (String preSubject : getDefinedSubjects()) {
-			final String subject = combineSubjects(preSubject, postSubject);
-			natsMessage.setSubject(subject);
-			localConnection.publish(natsMessage);
+		final ReusableMessages messages = ReusableMessages.get();
+		for (String subject : resolveSubjects(postSubject)) {
+			publish(localConnection, messages.message(subject, payload, envelope));
 	
 			logger.trace("Send '{}' from Spark to NATS ({})", payload, subject);
 		}
 	}
 
+	@Override
+	protected <V> long publishRecordsToNats(Iterator<V> records, Function<V, byte[]> dataEncoder) throws Exception {
+		final Connection localConnection = getConnection();
+		final String[] localSubjects = getDefinedSubjectsArray();
+		final ReusableMessages messages = ReusableMessages.get();
+		final Codec<V> codec = encoderOf(dataEncoder);
+		long count = 0;
+		while (records.hasNext()) {
+			final V record = records.next();
+			for (String subject : localSubjects) {
+				publish(localConnection, messages.message(subject, record, codec));
+			}
+			count++;
+		}
+		return count;
+	}
+
+	@Override
+	protected <K, V> long publishKeyValueRecordsToNats(Iterator<Tuple2<K, V>> tuples, Function<V, byte[]> dataEncoder) throws Exception {
+		final Connection localConnection = getConnection();
+		final ReusableMessages messages = ReusableMessages.get();
+		final Codec<V> codec = encoderOf(dataEncoder);
+		long count = 0;
+		while (tuples.hasNext()) {
+			final Tuple2<K, V> tuple = tuples.next();
+			for (String subject : resolveSubjects(tuple._1.toString())) {
+				publish(localConnection, messages.message(subject, tuple._2, codec));
+			}
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * @param localConnection, the NATS Connection to publish to
+	 * @param message, the (reused) message to publish
+	 * @throws IOException is thrown when the message could not be published.
+	 */
+	protected void publish(Connection localConnection, Message message) throws IOException {
+		final ConnectorMetrics metrics = metrics();
+		if (metrics == null) {
+			localConnection.publish(message);
+			return;
+		}
+		final long start = System.nanoTime();
+		localConnection.publish(message);
+		metrics.published(message.getData().length, System.nanoTime() - start);
+	}
+
+	/**
+	 * Flush the NATS connection (if any), which requires a round trip to the NATS server.
+	 * @throws Exception is thrown when the flush did fail.
+	 */
+	@Override
+	protected void flush() throws Exception {
+		final Connection localConnection = connection;
+		if (localConnection != null) {
+			localConnection.flush();
+			logger.trace("{} has been flushed", localConnection);
+		}
+	}
+
 	protected synchronized Connection getConnection() throws Exception {
 		if (connection == null) {
 			connection = createConnection();
+			watchConnection();
 		}
 		return connection;
 	}
@@ -131,8 +195,15 @@ class SparkToStandardNatsConnectorImpl extends SparkToNatsConnector<SparkToStand
 	}
 	
 	protected Connection createConnection() throws IOException, TimeoutException, Exception {
+		final ConnectorMetrics metrics = metrics();
+		if ((metrics != null) && (getConnectionFactory().getReconnectedCallback() == null)) {
+			getConnectionFactory().setReconnectedCallback(event -> metrics.reconnected());
+		}
 		final Connection newConnection = getConnectionFactory().createConnection();
 		logger.debug("A NATS Connection {} has been created for {}", newConnection, this);
+		if (metrics != null) {
+			metrics.connectionOpened();
+		}
 		
 		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable(){
 			@Override
@@ -147,11 +218,15 @@ class SparkToStandardNatsConnectorImpl extends SparkToNatsConnector<SparkToStand
 	@Override
 	protected synchronized void closeConnection() {
 		logger.debug("At {}, ready to close '{}' by {}", new Date().getTime(), connection, super.toString());
+		IdleConnectionReaper.unregister(this);
 		removeFromPool();
 
 		if (connection != null) {
 			connection.close();
 			logger.debug("{} has been CLOSED by {}", connection, super.toString());
+			if (metricsEnabled) {
+				ConnectorMetrics.get().connectionClosed();
+			}
 			connection = null;
 		}
 	}
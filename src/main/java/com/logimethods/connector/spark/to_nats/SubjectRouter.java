@@ -0,0 +1,337 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.spark.to_nats;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves the Keys of Key/Value records into the NATS Subjects they have to be published to.
+ * <p>
+ * Each Global Subject is either a simple prefix of the Keys, or a substitution rule such as <code>"*.C => A.B"</code>,
+ * where the first sequence of tokens of the Key matching the left part of the rule is replaced by its right part:
+ * <ul>
+ * <li><code>*</code> matches any single token,</li>
+ * <li><code>&gt;</code> (only as the last token) matches all the remaining tokens,</li>
+ * <li>a trailing <code>.</code> consumes the separator following the matched tokens,</li>
+ * <li>a leading <code>^</code> only matches the first tokens of the Key.</li>
+ * </ul>
+ * Keys not matching the rule are kept unchanged.
+ * <p>
+ * The rules are compiled once into a trie over the NATS Subject tokens, and the resolved Subjects of the most recently used Keys
+ * are kept in a (segmented) LRU cache.
+ * That class is thread-safe.
+ */
+class SubjectRouter {
+
+	protected static final String SUBJECT_PATTERN_SEPARATOR = "=>";
+	protected static final int DEFAULT_CACHE_SIZE = 4096;
+	protected static final int SEGMENTS_COUNT = 16;
+
+	protected static final ConcurrentHashMap<String, SubjectRouter> singleRuleRouters = new ConcurrentHashMap<String, SubjectRouter>();
+
+	protected final String[] preSubjects;
+	protected final Rule[] rules;
+	protected final Node root = new Node();
+	protected final boolean hasRules;
+	protected final Segment[] segments;
+
+	/**
+	 * A compiled substitution rule.
+	 */
+	static final class Rule {
+		final int index;
+		final String[] tokens;
+		final boolean anchored;
+		final boolean separatorConsumed;
+		final boolean fullWildcard;
+		final String replacement;
+
+		Rule(int index, String preSubject) {
+			this.index = index;
+			final int pos = preSubject.indexOf(SUBJECT_PATTERN_SEPARATOR);
+			String pattern = preSubject.substring(0, pos).trim();
+			replacement = preSubject.substring(pos + SUBJECT_PATTERN_SEPARATOR.length()).trim();
+
+			anchored = pattern.startsWith("^");
+			if (anchored) {
+				pattern = pattern.substring(1);
+			}
+			separatorConsumed = pattern.endsWith(".");
+			if (separatorConsumed) {
+				pattern = pattern.substring(0, pattern.length() - 1);
+			}
+			if (pattern.isEmpty()) {
+				tokens = new String[0];
+			} else {
+				final Tokens patternTokens = new Tokens(pattern);
+				tokens = new String[patternTokens.count];
+				for (int i = 0; i < tokens.length; i++) {
+					tokens[i] = patternTokens.token(i);
+				}
+			}
+			fullWildcard = (tokens.length > 0) && ">".equals(tokens[tokens.length - 1]);
+			for (int i = 0; i < tokens.length - 1; i++) {
+				if (">".equals(tokens[i])) {
+					throw new IllegalArgumentException("'>' has to be the last token of the Subject Pattern: " + preSubject);
+				}
+			}
+			if (fullWildcard && separatorConsumed) {
+				throw new IllegalArgumentException("'>' cannot be followed by a separator in the Subject Pattern: " + preSubject);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return (anchored ? "^" : "") + String.join(".", tokens) + (separatorConsumed ? "." : "") + SUBJECT_PATTERN_SEPARATOR + replacement;
+		}
+	}
+
+	/**
+	 * A node of the trie, reached after having matched a sequence of tokens.
+	 */
+	static final class Node {
+		final HashMap<String, Node> literals = new HashMap<String, Node>();
+		Node wildcard;
+		final List<Rule> completedRules = new ArrayList<Rule>();
+		final List<Rule> fullWildcardRules = new ArrayList<Rule>();
+	}
+
+	/**
+	 * A Key split into tokens.
+	 */
+	static final class Tokens {
+		final String key;
+		final int[] starts;
+		final int[] ends;
+		final int count;
+
+		Tokens(String key) {
+			this.key = key;
+			int separators = 0;
+			for (int i = 0; i < key.length(); i++) {
+				if (key.charAt(i) == '.') {
+					separators++;
+				}
+			}
+			count = separators + 1;
+			starts = new int[count];
+			ends = new int[count];
+			int token = 0;
+			for (int i = 0; i < key.length(); i++) {
+				if (key.charAt(i) == '.') {
+					ends[token++] = i;
+					starts[token] = i + 1;
+				}
+			}
+			ends[token] = key.length();
+		}
+
+		String token(int i) {
+			return key.substring(starts[i], ends[i]);
+		}
+	}
+
+	@SuppressWarnings("serial")
+	static final class Segment extends LinkedHashMap<String, String[]> {
+		final int capacity;
+
+		Segment(int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, String[]> eldest) {
+			return size() > capacity;
+		}
+	}
+
+	/**
+	 * @param preSubjects, the Global Subjects (either prefixes or substitution rules)
+	 */
+	protected SubjectRouter(String... preSubjects) {
+		this(DEFAULT_CACHE_SIZE, preSubjects);
+	}
+
+	/**
+	 * @param cacheSize, the maximum number of Keys whose resolved Subjects are cached (0 for no cache)
+	 * @param preSubjects, the Global Subjects (either prefixes or substitution rules)
+	 */
+	protected SubjectRouter(int cacheSize, String... preSubjects) {
+		this.preSubjects = preSubjects.clone();
+		this.rules = new Rule[preSubjects.length];
+		boolean withRules = false;
+		for (int i = 0; i < preSubjects.length; i++) {
+			if (preSubjects[i].contains(SUBJECT_PATTERN_SEPARATOR)) {
+				rules[i] = new Rule(i, preSubjects[i]);
+				addToTrie(rules[i]);
+				withRules = true;
+			}
+		}
+		this.hasRules = withRules;
+		if (cacheSize > 0) {
+			segments = new Segment[SEGMENTS_COUNT];
+			for (int i = 0; i < SEGMENTS_COUNT; i++) {
+				segments[i] = new Segment(Math.max(1, cacheSize / SEGMENTS_COUNT));
+			}
+		} else {
+			segments = null;
+		}
+	}
+
+	/**
+	 * @param preSubject, a Global Subject (either a prefix or a substitution rule)
+	 * @param postSubject, the Key of a Key/Value record
+	 * @return the resulting NATS Subject
+	 */
+	protected static String combine(String preSubject, String postSubject) {
+		if (! preSubject.contains(SUBJECT_PATTERN_SEPARATOR)) {
+			return preSubject + postSubject;
+		}
+		return singleRuleRouters.computeIfAbsent(preSubject, subject -> new SubjectRouter(0, subject)).resolve(postSubject)[0];
+	}
+
+	/**
+	 * @param postSubject, the Key of a Key/Value record
+	 * @return the NATS Subjects resulting from the combination of each Global Subject with that Key (the array should not be modified)
+	 */
+	protected String[] route(String postSubject) {
+		if (segments == null) {
+			return resolve(postSubject);
+		}
+		final int hash = postSubject.hashCode();
+		final Segment segment = segments[(hash ^ (hash >>> 16)) & (SEGMENTS_COUNT - 1)];
+		String[] subjects;
+		synchronized (segment) {
+			subjects = segment.get(postSubject);
+		}
+		if (subjects == null) {
+			subjects = resolve(postSubject);
+			synchronized (segment) {
+				segment.put(postSubject, subjects);
+			}
+		}
+		return subjects;
+	}
+
+	/**
+	 * @return the number of Keys whose resolved Subjects are currently cached
+	 */
+	protected int cacheSize() {
+		int size = 0;
+		if (segments != null) {
+			for (Segment segment : segments) {
+				synchronized (segment) {
+					size += segment.size();
+				}
+			}
+		}
+		return size;
+	}
+
+	protected String[] resolve(String postSubject) {
+		final String[] subjects = new String[preSubjects.length];
+		int[] matchStarts = null;
+		int[] matchEnds = null;
+		if (hasRules) {
+			matchStarts = new int[preSubjects.length];
+			matchEnds = new int[preSubjects.length];
+			Arrays.fill(matchStarts, -1);
+			match(new Tokens(postSubject), matchStarts, matchEnds);
+		}
+		for (int i = 0; i < preSubjects.length; i++) {
+			final Rule rule = rules[i];
+			if (rule == null) {
+				subjects[i] = preSubjects[i] + postSubject;
+			} else if (matchStarts[i] < 0) {
+				subjects[i] = postSubject;
+			} else {
+				subjects[i] = postSubject.substring(0, matchStarts[i]) + rule.replacement + postSubject.substring(matchEnds[i]);
+			}
+		}
+		return subjects;
+	}
+
+	protected void addToTrie(Rule rule) {
+		Node node = root;
+		final int length = rule.fullWildcard ? rule.tokens.length - 1 : rule.tokens.length;
+		for (int i = 0; i < length; i++) {
+			final String token = rule.tokens[i];
+			if ("*".equals(token)) {
+				if (node.wildcard == null) {
+					node.wildcard = new Node();
+				}
+				node = node.wildcard;
+			} else {
+				node = node.literals.computeIfAbsent(token, t -> new Node());
+			}
+		}
+		if (rule.fullWildcard) {
+			node.fullWildcardRules.add(rule);
+		} else {
+			node.completedRules.add(rule);
+		}
+	}
+
+	/**
+	 * Find, for each rule, its leftmost match in the Key.
+	 */
+	protected void match(Tokens tokens, int[] matchStarts, int[] matchEnds) {
+		for (int start = 0; start < tokens.count; start++) {
+			walk(root, tokens, start, start, matchStarts, matchEnds);
+		}
+	}
+
+	protected void walk(Node node, Tokens tokens, int start, int next, int[] matchStarts, int[] matchEnds) {
+		for (Rule rule : node.completedRules) {
+			if ((matchStarts[rule.index] < 0) && (! rule.anchored || (start == 0))) {
+				int end = (next > start) ? tokens.ends[next - 1] : tokens.starts[start];
+				if (rule.separatorConsumed) {
+					if (next >= tokens.count) {
+						continue;
+					}
+					end++;
+				}
+				matchStarts[rule.index] = tokens.starts[start];
+				matchEnds[rule.index] = end;
+			}
+		}
+		if (next >= tokens.count) {
+			return;
+		}
+		for (Rule rule : node.fullWildcardRules) {
+			if ((matchStarts[rule.index] < 0) && (! rule.anchored || (start == 0))) {
+				matchStarts[rule.index] = tokens.starts[start];
+				matchEnds[rule.index] = tokens.key.length();
+			}
+		}
+		if (! node.literals.isEmpty()) {
+			final Node literal = node.literals.get(tokens.token(next));
+			if (literal != null) {
+				walk(literal, tokens, start, next + 1, matchStarts, matchEnds);
+			}
+		}
+		if (node.wildcard != null) {
+			walk(node.wildcard, tokens, start, next + 1, matchStarts, matchEnds);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "SubjectRouter [preSubjects=" + Arrays.toString(preSubjects) + ", cacheSize=" + cacheSize() + "]";
+	}
+}
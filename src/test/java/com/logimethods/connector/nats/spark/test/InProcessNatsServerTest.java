@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.nats.spark.test;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.nats.client.Connection;
+import io.nats.client.ConnectionFactory;
+import io.nats.client.Message;
+import io.nats.client.SyncSubscription;
+
+public class InProcessNatsServerTest {
+
+	protected InProcessNatsServer server;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new InProcessNatsServer();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		server.close();
+	}
+
+	@Test(timeout=10000)
+	public void testPublishSubscribe() throws Exception {
+		try (Connection connection = new ConnectionFactory(server.getURL()).createConnection()) {
+			final SyncSubscription literal = connection.subscribeSync("foo.bar");
+			final SyncSubscription wildcard = connection.subscribeSync("foo.*");
+			final SyncSubscription fullWildcard = connection.subscribeSync(">");
+			final SyncSubscription other = connection.subscribeSync("foo.baz");
+			connection.flush();
+			assertEquals(4, server.getSubscriptionsCount());
+
+			connection.publish("foo.bar", "reply", "Hello".getBytes());
+			connection.flush();
+
+			for (SyncSubscription sub : new SyncSubscription[] {literal, wildcard, fullWildcard}) {
+				final Message message = sub.nextMessage(1000);
+				assertEquals("foo.bar", message.getSubject());
+				assertEquals("reply", message.getReplyTo());
+				assertEquals("Hello", new String(message.getData()));
+			}
+			assertEquals(0, other.getQueuedMessageCount());
+			assertEquals(1, server.getInMsgs());
+			assertEquals(3, server.getOutMsgs());
+			assertEquals(15, server.getOutBytes());
+		}
+	}
+
+	@Test(timeout=10000)
+	public void testQueueGroup() throws Exception {
+		final int count = 100;
+		try (Connection connection = new ConnectionFactory(server.getURL()).createConnection()) {
+			final SyncSubscription plain = connection.subscribeSync("queue.subject");
+			final SyncSubscription member1 = connection.subscribeSync("queue.subject", "group");
+			final SyncSubscription member2 = connection.subscribeSync("queue.subject", "group");
+			final SyncSubscription limited = connection.subscribeSync("queue.subject");
+			limited.autoUnsubscribe(5);
+			connection.flush();
+
+			for (int i = 0; i < count; i++) {
+				connection.publish("queue.subject", new byte[] {(byte) i});
+			}
+			connection.flush();
+
+			assertEquals(count, plain.getQueuedMessageCount());
+			assertEquals(count, member1.getQueuedMessageCount() + member2.getQueuedMessageCount());
+			assertTrue(member1.getQueuedMessageCount() > 0);
+			assertTrue(member2.getQueuedMessageCount() > 0);
+			assertEquals(5, limited.getQueuedMessageCount());
+			assertEquals(3, server.getSubscriptionsCount());
+		}
+		// The server notices asynchronously that the connection has been closed
+		for (int i = 0; (i < 100) && (server.getConnectionsCount() > 0); i++) {
+			Thread.sleep(20);
+		}
+		assertEquals(0, server.getConnectionsCount());
+		assertEquals(0, server.getSubscriptionsCount());
+	}
+
+	@Test(timeout=30000)
+	public void testThroughput() throws Exception {
+		final int count = 50000;
+		final byte[] payload = new byte[128];
+		final CountDownLatch latch = new CountDownLatch(count);
+		final AtomicInteger bytes = new AtomicInteger();
+		try (Connection subscriber = new ConnectionFactory(server.getURL()).createConnection();
+			 Connection publisher = new ConnectionFactory(server.getURL()).createConnection()) {
+			subscriber.subscribe("throughput", message -> {
+				bytes.addAndGet(message.getData().length);
+				latch.countDown();
+			});
+			subscriber.flush();
+
+			final long start = System.nanoTime();
+			for (int i = 0; i < count; i++) {
+				publisher.publish("throughput", payload);
+			}
+			publisher.flush();
+			assertTrue(latch.await(20, TimeUnit.SECONDS));
+			final long duration = System.nanoTime() - start;
+
+			assertEquals(count * payload.length, bytes.get());
+			assertEquals(count, server.getInMsgs());
+			assertEquals(count, server.getOutMsgs());
+			assertEquals(2, server.getTotalConnections());
+			System.out.println(count * TimeUnit.SECONDS.toNanos(1) / duration + " msgs/s through " + server);
+		}
+	}
+}
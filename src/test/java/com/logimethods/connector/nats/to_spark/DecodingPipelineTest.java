@@ -0,0 +1,73 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.nats.to_spark;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.spark.storage.StorageLevel;
+import org.junit.Test;
+
+import com.logimethods.connector.nats_spark.NatsSparkUtilities;
+
+public class DecodingPipelineTest {
+
+	protected List<String> fillAndDrain(OverflowPolicy policy) throws InterruptedException {
+		final List<String> decoded = Collections.synchronizedList(new ArrayList<String>());
+		final DecodingPipeline pipeline = new DecodingPipeline(3, 1, policy, (subject, payload) -> decoded.add(subject), "Test");
+		for (int i = 0; i < 5; i++) {
+			assertEquals((i < 3) || (policy == OverflowPolicy.DROP_OLDEST), pipeline.offer("SUB" + i, new byte[0]));
+		}
+		assertEquals(3, pipeline.statistics.getQueueDepth());
+		assertEquals(2, pipeline.statistics.getDropped());
+
+		pipeline.start();
+		pipeline.stop(1000);
+		assertEquals(3, pipeline.statistics.getDecoded());
+		assertEquals(0, pipeline.statistics.getQueueDepth());
+		return decoded;
+	}
+
+	@Test(timeout=5000)
+	public void testDropNewest() throws InterruptedException {
+		assertEquals("[SUB0, SUB1, SUB2]", fillAndDrain(OverflowPolicy.DROP_NEWEST).toString());
+	}
+
+	@Test(timeout=5000)
+	public void testDropOldest() throws InterruptedException {
+		assertEquals("[SUB2, SUB3, SUB4]", fillAndDrain(OverflowPolicy.DROP_OLDEST).toString());
+	}
+
+	@Test(timeout=5000)
+	public void testDecodingPool() throws InterruptedException {
+		final List<Integer> stored = Collections.synchronizedList(new ArrayList<Integer>());
+		@SuppressWarnings("serial")
+		final StandardNatsToSparkConnectorImpl<Integer> connector = 
+				new StandardNatsToSparkConnectorImpl<Integer>(Integer.class, StorageLevel.MEMORY_ONLY()) {
+					@Override
+					public void store(Integer record) {
+						stored.add(record);
+					}
+				}.withDecodingPool(2, 3, OverflowPolicy.BLOCK);
+		connector.startDecodingPool();
+		for (int i = 0; i < 100; i++) {
+			connector.receivePayload("SUB", NatsSparkUtilities.encodeData(i));
+		}
+		final DecodingStatistics statistics = connector.getDecodingStatistics();
+		connector.stopDecodingPool();
+
+		assertEquals(100, stored.size());
+		Collections.sort(stored);
+		assertEquals(Integer.valueOf(99), stored.get(99));
+		assertEquals(0, statistics.getDropped());
+		assertEquals(100, statistics.getDecodingLatencies().getCount());
+	}
+}
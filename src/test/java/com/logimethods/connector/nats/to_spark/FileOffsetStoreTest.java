@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.nats.to_spark;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.spark.storage.StorageLevel;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.nats.stan.SubscriptionOptions;
+
+public class FileOffsetStoreTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testStoreAndReload() throws IOException {
+		final String path = new File(folder.getRoot(), "offsets.properties").getPath();
+		final FileOffsetStore store = new FileOffsetStore(path);
+		assertNull(store.getLastSequence("CHANNEL_A"));
+
+		final Map<String, Long> sequences = new HashMap<String, Long>();
+		sequences.put("CHANNEL_A", 10L);
+		sequences.put("CHANNEL_B", 3L);
+		store.storeLastSequences(sequences);
+
+		sequences.clear();
+		sequences.put("CHANNEL_A", 7L);
+		sequences.put("CHANNEL_C", 1L);
+		store.storeLastSequences(sequences);
+
+		final FileOffsetStore reloaded = new FileOffsetStore(path);
+		assertEquals(Long.valueOf(10), reloaded.getLastSequence("CHANNEL_A"));
+		assertEquals(Long.valueOf(3), reloaded.getLastSequence("CHANNEL_B"));
+		assertEquals(Long.valueOf(1), reloaded.getLastSequence("CHANNEL_C"));
+		assertEquals(1, folder.getRoot().list().length);
+	}
+
+	@Test
+	public void testResumedSubscription() throws IOException {
+		final String path = new File(folder.getRoot(), "offsets.properties").getPath();
+		final Map<String, Long> sequences = new HashMap<String, Long>();
+		sequences.put("CHANNEL_A", 41L);
+		new FileOffsetStore(path).storeLastSequences(sequences);
+
+		final NatsStreamingToSparkConnectorImpl<String> connector = 
+				NatsToSparkConnector
+					.receiveFromNatsStreaming(String.class, StorageLevel.MEMORY_ONLY(), "CLUSTER")
+					.withOffsetStore(new FileOffsetStore(path));
+		connector.startAtTime(Instant.now());
+
+		final SubscriptionOptions resumed = connector.getSubscriptionOptions("CHANNEL_A");
+		assertEquals(42, resumed.getStartSequence());
+		assertNull(resumed.getStartTime());
+
+		final SubscriptionOptions started = connector.getSubscriptionOptions("CHANNEL_B");
+		assertNotNull(started.getStartTime());
+	}
+
+	@Test
+	public void testOffsetTrackingRequirements() throws IOException {
+		final String path = new File(folder.getRoot(), "offsets.properties").getPath();
+		final NatsStreamingToSparkConnectorImpl<String> connector = 
+				NatsToSparkConnector
+					.receiveFromNatsStreaming(String.class, StorageLevel.MEMORY_ONLY(), "CLUSTER")
+					.withOffsetStore(new FileOffsetStore(path));
+		try {
+			connector.checkOffsetTracking();
+			fail("The messages should not be tracked unless the acks are reliable");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+
+		connector.withDecodingPool(100, 2, OverflowPolicy.BLOCK);
+		connector.withReliableAcks(100, Duration.ofSeconds(1));
+		connector.checkOffsetTracking();
+		connector.storedAsKeyValue().checkOffsetTracking();
+
+		final NatsStreamingToSparkConnectorImpl<String> batching = 
+				NatsToSparkConnector
+					.receiveFromNatsStreaming(String.class, StorageLevel.MEMORY_ONLY(), "CLUSTER")
+					.withStoreBatching(100, 1024, Duration.ofMillis(100))
+					.withOffsetStore(new FileOffsetStore(path));
+		try {
+			batching.storedAsKeyValue().checkOffsetTracking();
+			fail("The messages should not be tracked unless the acks are reliable");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testParallelReceiversRejected() throws IOException {
+		final String path = new File(folder.getRoot(), "offsets.properties").getPath();
+		final NatsStreamingToSparkConnectorImpl<String> connector = 
+				NatsToSparkConnector
+					.receiveFromNatsStreaming(String.class, StorageLevel.MEMORY_ONLY(), "CLUSTER")
+					.withReliableAcks(100, Duration.ofSeconds(1));
+		assertNotNull(connector.replicate(1));
+
+		connector.withOffsetStore(new FileOffsetStore(path));
+		try {
+			connector.replicate(1);
+			fail("An offset store should not be shared by parallel receivers");
+		} catch (IllegalStateException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("parallel receivers"));
+		}
+	}
+}
@@ -1,6 +1,10 @@
 package com.logimethods.connector.nats.to_spark;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -10,6 +14,13 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
 import org.apache.spark.storage.StorageLevel;
@@ -17,9 +28,17 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import com.logimethods.connector.nats_spark.Codecs;
+import com.logimethods.connector.nats_spark.Compression;
+import com.logimethods.connector.nats_spark.FrameBuilder;
 import com.logimethods.connector.nats_spark.NatsSparkUtilities;
+import com.logimethods.connector.nats_spark.PayloadCompressor;
+import com.logimethods.connector.nats_spark.PayloadEnvelope;
 import com.logimethods.connector.spark.to_nats.SparkToNatsConnector;
 
+import scala.collection.JavaConverters;
+import scala.collection.mutable.ArrayBuffer;
+
 public class NatsToSparkConnectorTest implements Serializable {
     @Rule
     public ExpectedException thrown= ExpectedException.none();
@@ -46,6 +65,244 @@ public class NatsToSparkConnectorTest implements Serializable {
 		assertEquals(f, connector.decodeData(bytes));
 	}
 
+	@Test
+	public void testStoreFramedPayload() {
+		final List<Integer> stored = new ArrayList<Integer>();
+		@SuppressWarnings("serial")
+		final StandardNatsToSparkConnectorImpl<Integer> connector = 
+				new StandardNatsToSparkConnectorImpl<Integer>(Integer.class, StorageLevel.MEMORY_ONLY()) {
+					@Override
+					public void store(Integer record) {
+						stored.add(record);
+					}
+				};
+
+		final FrameBuilder builder = new FrameBuilder(1024);
+		for (int i = 0; i < 3; i++) {
+			builder.add(NatsSparkUtilities.encodeData(i));
+		}
+		final byte[] frame = builder.build();
+		// Without withFrames(), the payloads are decoded as they are
+		connector.storePayload("SUB", frame);
+		assertEquals(1, stored.size());
+		stored.clear();
+
+		connector.withFrames();
+		connector.storePayload("SUB", frame);
+		connector.storePayload("SUB", NatsSparkUtilities.encodeData(10));
+		assertEquals("[0, 1, 2, 10]", stored.toString());
+	}
+
+	@Test
+	public void testStoreFrameLikePayload() {
+		final List<Long> stored = new ArrayList<Long>();
+		@SuppressWarnings("serial")
+		final StandardNatsToSparkConnectorImpl<Long> connector = 
+				new StandardNatsToSparkConnectorImpl<Long>(Long.class, StorageLevel.MEMORY_ONLY()) {
+					@Override
+					public void store(Long record) {
+						stored.add(record);
+					}
+				};
+		// Starts with the magic bytes & the version of a frame, followed by a count of 0
+		final long value = 0xF54E460100000000L;
+		connector.storePayload("SUB", NatsSparkUtilities.encodeData(value));
+		connector.withFrames();
+		connector.storePayload("SUB", NatsSparkUtilities.encodeData(value));
+		assertEquals(Arrays.asList(value, value), stored);
+	}
+
+	@Test
+	public void testStoreCompressedPayload() {
+		final List<String> stored = new ArrayList<String>();
+		@SuppressWarnings("serial")
+		final StandardNatsToSparkConnectorImpl<String> connector = 
+				new StandardNatsToSparkConnectorImpl<String>(String.class, StorageLevel.MEMORY_ONLY()) {
+					@Override
+					public void store(String record) {
+						stored.add(record);
+					}
+				};
+		final String text = "A piece of Text, repeated. A piece of Text, repeated. A piece of Text, repeated.";
+		final byte[] compressed = new PayloadCompressor(Compression.LZ4, 0).compress(NatsSparkUtilities.encodeData(text));
+
+		// Without withCompression(), the payloads are decoded as they are
+		connector.storePayload("SUB", compressed);
+		assertNotEquals(text, stored.get(0));
+
+		connector.withCompression(1024);
+		connector.storePayload("SUB", compressed);
+		connector.storePayload("SUB", NatsSparkUtilities.encodeData("raw"));
+		assertEquals(text, stored.get(1));
+		assertEquals("raw", stored.get(2));
+
+		connector.withCompression(text.length() - 1);
+		connector.storePayload("SUB", compressed);
+		assertNotEquals(text, stored.get(3));
+	}
+
+	@Test
+	public void testStoreEnvelopedPayload() {
+		final List<Object> stored = new ArrayList<Object>();
+		@SuppressWarnings("serial")
+		final StandardNatsToSparkConnectorImpl<Integer> connector = 
+				new StandardNatsToSparkConnectorImpl<Integer>(Integer.class, StorageLevel.MEMORY_ONLY()) {
+					@Override
+					public void store(Integer record) {
+						stored.add(record);
+					}
+				};
+		final byte[] partition = new byte[PayloadEnvelope.headerSize(-1, 5) + Integer.BYTES];
+		PayloadEnvelope.writeHeader(partition, PayloadEnvelope.currentTimeNanos(), -1, 5);
+		Codecs.encodeInt(12, partition, PayloadEnvelope.headerSize(-1, 5));
+
+		final long latencies = PayloadEnvelope.getLatencies().getCount();
+		// Without withEnvelopes(), the payloads are decoded as they are
+		connector.storePayload("SUB", partition);
+		assertNotEquals(12, stored.get(0));
+		assertEquals(latencies, PayloadEnvelope.getLatencies().getCount());
+		stored.clear();
+
+		connector.withEnvelopes();
+		connector.storePayload("SUB", new PayloadEnvelope(false).wrap(NatsSparkUtilities.encodeData(11)));
+		connector.storePayload("SUB", partition);
+		connector.storePayload("SUB", NatsSparkUtilities.encodeData(13));
+		assertEquals("[11, 12, 13]", stored.toString());
+		assertEquals(latencies + 2, PayloadEnvelope.getLatencies().getCount());
+
+		@SuppressWarnings("serial")
+		final StandardNatsToEnvelopedSparkConnectorImpl<Integer> enveloped = 
+				new StandardNatsToEnvelopedSparkConnectorImpl<Integer>(Integer.class, StorageLevel.MEMORY_ONLY(), null, null, null, null, null, null) {
+					@Override
+					public void store(EnvelopedRecord<Integer> record) {
+						stored.add(record);
+					}
+				};
+		stored.clear();
+		enveloped.storePayload("SUB", partition);
+		enveloped.storePayload("SUB", NatsSparkUtilities.encodeData(13));
+		final EnvelopedRecord<?> record = (EnvelopedRecord<?>) stored.get(0);
+		assertEquals(12, record.getValue());
+		assertEquals(5, record.getPartition());
+		assertEquals(-1, record.getBatchTime());
+		assertEquals(PayloadEnvelope.publishTime(partition), record.getPublishTime());
+		assertTrue(record.getLatency() >= 0);
+		assertEquals(13, ((EnvelopedRecord<?>) stored.get(1)).getValue());
+		assertEquals(-1, ((EnvelopedRecord<?>) stored.get(1)).getLatency());
+	}
+
+	@Test
+	public void testReplicas() throws Exception {
+		final NatsStreamingToSparkConnectorImpl<Integer> connector = 
+				NatsToSparkConnector
+					.receiveFromNatsStreaming(Integer.class, StorageLevel.MEMORY_ONLY(), "CLUSTER")
+					.withSubjects("SUB")
+					.withPreferredLocations("host1", "host2");
+		connector.queue = "QUEUE";
+		assertEquals("host1", connector.preferredLocation().get());
+
+		final List<String> clientIDs = new ArrayList<String>();
+		for (int i = 0; i < 3; i++) {
+			final NatsStreamingToSparkConnectorImpl<Integer> replica = (NatsStreamingToSparkConnectorImpl<Integer>) connector.replicate(i);
+			assertEquals("QUEUE", replica.queue);
+			assertEquals(connector.getSubjects(), replica.getSubjects());
+			assertEquals((i % 2 == 0) ? "host1" : "host2", replica.preferredLocation().get());
+			assertNotEquals(connector.clientID, replica.clientID);
+			clientIDs.add(replica.clientID);
+		}
+		assertEquals(3, new HashSet<String>(clientIDs).size());
+
+		final StandardNatsToSparkConnectorImpl<Integer> standard = 
+				NatsToSparkConnector.receiveFromNats(Integer.class, StorageLevel.MEMORY_ONLY());
+		assertEquals(scala.Option.empty(), standard.replicate(1).preferredLocation());
+	}
+
+	@Test
+	public void testStoreBatching() {
+		final List<Integer> stored = new ArrayList<Integer>();
+		final List<Integer> blocks = new ArrayList<Integer>();
+		@SuppressWarnings("serial")
+		final StandardNatsToSparkConnectorImpl<Integer> connector = 
+				new StandardNatsToSparkConnectorImpl<Integer>(Integer.class, StorageLevel.MEMORY_ONLY()) {
+					@Override
+					public void store(Integer record) {
+						fail("The records should be stored as blocks");
+					}
+					@Override
+					public void store(ArrayBuffer<Integer> records) {
+						blocks.add(records.size());
+						stored.addAll(JavaConverters.seqAsJavaListConverter(records).asJava());
+					}
+				}.withStoreBatching(3, Long.MAX_VALUE, Duration.ofHours(1));
+		connector.startStoreBatching();
+		try {
+			for (int i = 0; i < 7; i++) {
+				connector.storePayload("SUB", NatsSparkUtilities.encodeData(i));
+			}
+			assertEquals("[3, 3]", blocks.toString());
+		} finally {
+			connector.stopStoreBatching();
+		}
+		assertEquals("[3, 3, 1]", blocks.toString());
+		assertEquals("[0, 1, 2, 3, 4, 5, 6]", stored.toString());
+	}
+
+	@Test(timeout=10000)
+	public void testIndependentFlushers() throws Exception {
+		final CountDownLatch slowStoreStarted = new CountDownLatch(1);
+		final CountDownLatch slowStoreReleased = new CountDownLatch(1);
+		final CountDownLatch fastStored = new CountDownLatch(1);
+		@SuppressWarnings("serial")
+		final StandardNatsToSparkConnectorImpl<Integer> slow = 
+				new StandardNatsToSparkConnectorImpl<Integer>(Integer.class, StorageLevel.MEMORY_ONLY()) {
+					@Override
+					public void store(ArrayBuffer<Integer> records) {
+						slowStoreStarted.countDown();
+						try {
+							slowStoreReleased.await();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+					}
+				}.withStoreBatching(100, Long.MAX_VALUE, Duration.ofMillis(20));
+		@SuppressWarnings("serial")
+		final StandardNatsToSparkConnectorImpl<Integer> fast = 
+				new StandardNatsToSparkConnectorImpl<Integer>(Integer.class, StorageLevel.MEMORY_ONLY()) {
+					@Override
+					public void store(ArrayBuffer<Integer> records) {
+						fastStored.countDown();
+					}
+				}.withStoreBatching(100, Long.MAX_VALUE, Duration.ofMillis(20));
+		slow.startStoreBatching();
+		fast.startStoreBatching();
+		try {
+			slow.storePayload("SUB", NatsSparkUtilities.encodeData(1));
+			assertTrue(slowStoreStarted.await(5, TimeUnit.SECONDS));
+			// The lingering records of a receiver are stored even when another receiver is blocked by Spark
+			fast.storePayload("SUB", NatsSparkUtilities.encodeData(2));
+			assertTrue(fastStored.await(5, TimeUnit.SECONDS));
+		} finally {
+			slowStoreReleased.countDown();
+			slow.stopStoreBatching();
+			slow.stopFlusher();
+			fast.stopStoreBatching();
+			fast.stopFlusher();
+		}
+	}
+
+	@Test
+	public void testStoreBatchLimits() {
+		final StoreBatch<String> batch = new StoreBatch<String>(100, 10, Duration.ofMillis(50).toNanos());
+		assertNull(batch.add("a", 4));
+		assertNull(batch.drainIfLingering(System.nanoTime()));
+		assertEquals(2, batch.add("b", 6).size());
+		assertEquals(0, batch.size());
+
+		assertNull(batch.add("c", 1));
+		assertEquals(1, batch.drainIfLingering(System.nanoTime() + Duration.ofMillis(50).toNanos()).size());
+		assertNull(batch.drain());
+	}
+
 	@Test
 	public void testPublicExtractDataByteArray_Float() {
 		Float f = 1234324234.34f;
@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.nats.to_spark;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.spark.storage.StorageLevel;
+import org.junit.Test;
+
+public class RateControllerTest {
+
+	@Test
+	public void testPacing() throws InterruptedException {
+		final RateController controller = new RateController(() -> 100L, TimeUnit.SECONDS.toNanos(10));
+		final long start = System.nanoTime();
+		for (int i = 0; i < 21; i++) {
+			controller.acquire();
+		}
+		final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		assertTrue("Too fast: " + elapsed + " ms", elapsed >= 190);
+		assertEquals(100, controller.getRateLimit());
+	}
+
+	@Test
+	public void testUnlimited() throws InterruptedException {
+		final RateController controller = new RateController(() -> Long.MAX_VALUE, 0);
+		final long start = System.nanoTime();
+		for (int i = 0; i < 100000; i++) {
+			controller.acquire();
+		}
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+	}
+
+	@Test
+	public void testListeners() throws InterruptedException {
+		final AtomicLong limit = new AtomicLong(Long.MAX_VALUE);
+		final List<Long> notified = new ArrayList<Long>();
+		final RateController controller = new RateController(limit::get, 0);
+		controller.addListener(notified::add);
+		controller.acquire();
+		limit.set(1000);
+		controller.acquire();
+		controller.acquire();
+		limit.set(-1);
+		controller.acquire();
+		assertEquals("[1000, 9223372036854775807]", notified.toString());
+	}
+
+	@Test
+	public void testInFlightWindow() {
+		final StandardNatsToSparkConnectorImpl<Integer> connector = 
+				NatsToSparkConnector
+					.receiveFromNats(Integer.class, StorageLevel.MEMORY_ONLY())
+					.withAdaptiveRate(10, 1000);
+		assertEquals(1000, connector.inFlightWindow(Long.MAX_VALUE));
+		assertEquals(10, connector.inFlightWindow(4));
+		assertEquals(500, connector.inFlightWindow(1000));
+		assertEquals(1000, connector.inFlightWindow(Integer.MAX_VALUE + 1L));
+		assertEquals(0, connector.getRateLimit());
+	}
+}
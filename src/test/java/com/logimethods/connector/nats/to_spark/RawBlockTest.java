@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.nats.to_spark;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.spark.SparkConf;
+import org.apache.spark.serializer.JavaSerializer;
+import org.apache.spark.serializer.SerializerInstance;
+import org.apache.spark.storage.StorageLevel;
+import org.junit.Test;
+
+import com.logimethods.connector.nats_spark.FrameBuilder;
+import com.logimethods.connector.nats_spark.NatsSparkUtilities;
+
+import scala.Tuple2;
+import scala.collection.JavaConverters;
+
+public class RawBlockTest {
+
+	protected static final SerializerInstance serializer = new JavaSerializer(new SparkConf()).newInstance();
+
+	@SuppressWarnings("serial")
+	static class RawKeyValueConnector extends StandardNatsToKeyValueSparkConnectorImpl<Integer> {
+		final List<ByteBuffer> blocks = new ArrayList<ByteBuffer>();
+
+		RawKeyValueConnector() {
+			super(Integer.class, StorageLevel.MEMORY_ONLY(), Collections.singletonList("SUB"), null, null, null, null, null);
+		}
+
+		@Override
+		public void store(Tuple2<String, Integer> record) {
+			fail("The records should be stored as raw blocks");
+		}
+
+		@Override
+		public void store(ByteBuffer bytes) {
+			blocks.add(bytes);
+		}
+
+		@Override
+		protected SerializerInstance rawBlockSerializer() {
+			return serializer;
+		}
+	}
+
+	@Test
+	public void testRawBlockBatch() {
+		final RawBlockBatch batch = new RawBlockBatch(3, Long.MAX_VALUE, Duration.ofHours(1).toNanos(), true);
+		assertNull(batch.add("A", new byte[] { 1 }));
+		assertNull(batch.add("B", new byte[0]));
+		final RawBlock block = batch.add("A", new byte[] { 2, 3 });
+		assertEquals(3, block.count());
+		assertEquals(0, batch.size());
+
+		final List<String> messages = new ArrayList<String>();
+		block.forEach((subject, payload) -> messages.add(subject + payload.length));
+		assertEquals("[A1, B0, A2]", messages.toString());
+		assertEquals(2, block.subjects.length);
+
+		assertNull(new RawBlockBatch(10, 10, 10, false).drain());
+	}
+
+	@Test
+	public void testStoredAsRawBlocks() {
+		final RawKeyValueConnector connector = new RawKeyValueConnector();
+		connector.withStoreBatching(4, Long.MAX_VALUE, Duration.ofHours(1)).withFrames().storedAsRawBlocks();
+		connector.startStoreBatching();
+		try {
+			final FrameBuilder frame = new FrameBuilder(1024);
+			frame.add(NatsSparkUtilities.encodeData(1));
+			frame.add(NatsSparkUtilities.encodeData(2));
+			connector.storePayload("SUB.A", frame.build());
+			for (int i = 3; i < 6; i++) {
+				connector.storePayload("SUB.B", NatsSparkUtilities.encodeData(i));
+			}
+			assertEquals(1, connector.blocks.size());
+			connector.storePayload("SUB.C", NatsSparkUtilities.encodeData(6));
+		} finally {
+			connector.stopStoreBatching();
+		}
+		assertEquals(2, connector.blocks.size());
+
+		final List<Tuple2<String, Integer>> records = new ArrayList<Tuple2<String, Integer>>();
+		for (ByteBuffer bytes : connector.blocks) {
+			// As the Spark Block Manager would read the stored bytes
+			final Iterator<Object> blocks = 
+					JavaConverters.asJavaIteratorConverter(serializer.deserializeStream(new ByteArrayInputStream(bytes.array(), bytes.position(), bytes.remaining())).asIterator()).asJava();
+			while (blocks.hasNext()) {
+				connector.decodeRawBlock((RawBlock) blocks.next()).forEachRemaining(records::add);
+			}
+		}
+		assertEquals("[(SUB.A,1), (SUB.A,2), (SUB.B,3), (SUB.B,4), (SUB.B,5), (SUB.C,6)]", records.toString());
+	}
+}
@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.nats.to_spark;
+
+import static org.junit.Assert.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.spark.storage.StorageLevel;
+import org.junit.Test;
+
+import io.nats.stan.Message;
+import scala.collection.mutable.ArrayBuffer;
+
+public class ReliableBatchTest {
+
+	@Test
+	public void testBlocks() {
+		final ReliableBatch<Integer> batch = new ReliableBatch<Integer>(3, TimeUnit.SECONDS.toNanos(10));
+		assertNull(batch.add(null, Arrays.asList(1, 2)));
+		assertNull(batch.add(null, Collections.<Integer>emptyList()));
+		assertEquals(2, batch.size());
+		final ReliableBatch.Block<Integer> block = batch.add(null, Arrays.asList(3));
+		assertEquals(3, block.messages.size());
+		assertEquals(3, block.records.size());
+		assertEquals(0, batch.size());
+		assertNull(batch.drain());
+
+		batch.add(null, Arrays.asList(4));
+		assertNull(batch.drainIfLingering(System.nanoTime()));
+		assertEquals(1, batch.drainIfLingering(System.nanoTime() + TimeUnit.SECONDS.toNanos(11)).records.size());
+	}
+
+	@Test
+	public void testAcknowledgeOnceStored() {
+		final List<Integer> stored = new ArrayList<Integer>();
+		final List<Message> acked = new ArrayList<Message>();
+		@SuppressWarnings("serial")
+		final NatsStreamingToSparkConnectorImpl<Integer> connector = 
+				new NatsStreamingToSparkConnectorImpl<Integer>(Integer.class, StorageLevel.MEMORY_ONLY(), "CLUSTER", "CLIENT") {
+					@Override
+					public void store(ArrayBuffer<Integer> records) {
+						if (records.isEmpty()) {
+							throw new IllegalStateException("Not stored");
+						}
+						stored.addAll(scala.collection.JavaConverters.seqAsJavaListConverter(records).asJava());
+					}
+					@Override
+					protected void ack(Message message) {
+						acked.add(message);
+					}
+				}.withReliableAcks(2, Duration.ofSeconds(10));
+
+		final ReliableBatch<Integer> batch = new ReliableBatch<Integer>(connector.reliableMaxMessages, connector.reliableMaxDelay);
+		batch.add(null, Arrays.asList(1, 2));
+		connector.storeAndAcknowledge(batch.add(null, Arrays.asList(3)));
+		assertEquals("[1, 2, 3]", stored.toString());
+		assertEquals(2, acked.size());
+
+		batch.add(null, Collections.<Integer>emptyList());
+		connector.storeAndAcknowledge(batch.drain());
+		assertEquals(2, acked.size());
+	}
+}
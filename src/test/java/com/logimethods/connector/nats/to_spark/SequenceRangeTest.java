@@ -0,0 +1,213 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.nats.to_spark;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.spark.storage.StorageLevel;
+import org.junit.Test;
+
+import com.google.protobuf.ByteString;
+import com.logimethods.connector.nats_spark.NatsSparkUtilities;
+
+import io.nats.stan.Connection;
+import io.nats.stan.Message;
+import io.nats.stan.MessageHandler;
+import io.nats.stan.Subscription;
+import io.nats.stan.SubscriptionOptions;
+import io.nats.stan.protobuf.MsgProto;
+import io.nats.stan.protobuf.StartPosition;
+
+public class SequenceRangeTest {
+
+	static Message message(String channel, long sequence) throws Exception {
+		return message(channel, sequence, Instant.EPOCH);
+	}
+
+	static Message message(String channel, long sequence, Instant time) throws Exception {
+		final Constructor<Message> constructor = Message.class.getDeclaredConstructor(MsgProto.class);
+		constructor.setAccessible(true);
+		return constructor.newInstance(MsgProto.newBuilder().setSubject(channel).setSequence(sequence)
+												.setTimestamp(time.getEpochSecond() * 1000000000L + time.getNano())
+												.setData(ByteString.copyFrom(NatsSparkUtilities.encodeData("M" + sequence))).build());
+	}
+
+	/**
+	 * @return a connector whose (fake) channel delivers its last message to the <code>startWithLastReceived()</code> probes, 
+	 * and the provided first message (if any) to the <code>startAtTime(...)</code> ones
+	 */
+	@SuppressWarnings("serial")
+	static NatsStreamingToSparkConnectorImpl<String> probedConnector(final Message last, final Message first) {
+		return new NatsStreamingToSparkConnectorImpl<String>(String.class, StorageLevel.MEMORY_ONLY(), "CLUSTER", "CLIENT") {
+			@Override
+			protected Connection createConnection(String clientID) {
+				return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class },
+						(proxy, method, args) -> {
+							if ("subscribe".equals(method.getName())) {
+								final StartPosition position = ((SubscriptionOptions) args[2]).getStartAt();
+								final Message message = (position == StartPosition.LastReceived) ? last : 
+														(position == StartPosition.TimeDeltaStart) ? first : null;
+								if (message != null) {
+									((MessageHandler) args[1]).onMessage(message);
+								}
+								return Proxy.newProxyInstance(Subscription.class.getClassLoader(), new Class<?>[] { Subscription.class }, 
+																(p, m, a) -> null);
+							}
+							return null;
+						});
+			}
+		};
+	}
+
+	/**
+	 * @return a connector reading from a (fake) channel retaining the messages between two sequence numbers (inclusive)
+	 */
+	@SuppressWarnings("serial")
+	static NatsStreamingToSparkConnectorImpl<String> connector(final long first, final long last) {
+		return new NatsStreamingToSparkConnectorImpl<String>(String.class, StorageLevel.MEMORY_ONLY(), "CLUSTER", "CLIENT") {
+			@Override
+			protected Connection createConnection(String clientID) {
+				return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class },
+						(proxy, method, args) -> {
+							if ("subscribe".equals(method.getName())) {
+								final MessageHandler handler = (MessageHandler) args[1];
+								final long start = Math.max(first, ((SubscriptionOptions) args[2]).getStartSequence());
+								new Thread(() -> {
+									try {
+										for (long sequence = start; sequence <= last; sequence++) {
+											handler.onMessage(message((String) args[0], sequence));
+										}
+									} catch (Exception e) {
+										throw new IllegalStateException(e);
+									}
+								}).start();
+							}
+							return null;
+						});
+			}
+		};
+	}
+
+	static List<String> read(NatsStreamingToSparkConnectorImpl<String> connector, SequenceRange range) {
+		final List<String> records = new ArrayList<String>();
+		try (SequenceRangeReader<String> reader = new SequenceRangeReader<String>(connector, range, 200)) {
+			reader.forEachRemaining(records::add);
+		}
+		return records;
+	}
+
+	@Test(timeout=10000)
+	public void testReadRange() {
+		assertEquals("[M3, M4]", read(connector(1, 10), new SequenceRange("CHANNEL", 3, 5)).toString());
+		// The messages discarded by the server are skipped
+		assertEquals("[M5, M6, M7]", read(connector(5, 10), new SequenceRange("CHANNEL", 2, 8)).toString());
+		assertEquals("[]", read(connector(5, 10), new SequenceRange("CHANNEL", 2, 4)).toString());
+	}
+
+	@Test(timeout=10000)
+	public void testMissingMessages() {
+		try {
+			read(connector(1, 5), new SequenceRange("CHANNEL", 3, 8));
+			fail("A range should not be silently truncated");
+		} catch (IllegalStateException e) {
+			assertTrue(e.getCause() instanceof TimeoutException);
+		}
+	}
+
+	@Test
+	public void testSplit() {
+		final List<SequenceRange> ranges = new SequenceRange("CHANNEL", 10, 20).split(3);
+		assertEquals("[CHANNEL[10, 13), CHANNEL[13, 16), CHANNEL[16, 20)]", ranges.toString());
+
+		assertEquals("[CHANNEL[1, 2), CHANNEL[2, 3)]", new SequenceRange("CHANNEL", 1, 3).split(8).toString());
+		assertEquals("[CHANNEL[5, 5)]", new SequenceRange("CHANNEL", 5, 5).split(4).toString());
+		assertEquals(new SequenceRange("CHANNEL", 10, 13), ranges.get(0));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testInvalidRange() {
+		new SequenceRange("CHANNEL", 10, 9);
+	}
+
+	@Test
+	public void testStartSequence() throws Exception {
+		final NatsStreamingToSparkConnectorImpl<String> connector = 
+				NatsToSparkConnector.receiveFromNatsStreaming(String.class, StorageLevel.MEMORY_ONLY(), "CLUSTER");
+		final Message last = message("CHANNEL", 42);
+		assertEquals(Long.valueOf(43), connector.getStartSequence(null, "CHANNEL", last));
+
+		// Without any last message, the start position of the new messages can't be resolved
+		assertNull(connector.getStartSequence(null, "CHANNEL", null));
+
+		connector.startWithLastReceived();
+		assertEquals(Long.valueOf(42), connector.getStartSequence(null, "CHANNEL", last));
+		assertNull(connector.getStartSequence(null, "CHANNEL", null));
+
+		connector.startAtSequence(7);
+		assertEquals(Long.valueOf(7), connector.storedAsKeyValue().getStartSequence(null, "CHANNEL", last));
+		assertEquals(Long.valueOf(7), connector.getStartSequence(null, "CHANNEL", null));
+
+		connector.deliverAllAvailable();
+		assertEquals(Long.valueOf(1), connector.getStartSequence(null, "CHANNEL", last));
+		assertEquals(Long.valueOf(1), connector.getStartSequence(null, "CHANNEL", null));
+	}
+
+	@Test(timeout=10000)
+	public void testProbes() throws Exception {
+		final Instant time = Instant.parse("2016-11-01T10:00:00Z");
+		final Message last = message("CHANNEL", 42, time.plusSeconds(60));
+
+		final NatsStreamingToSparkConnectorImpl<String> connector = probedConnector(last, message("CHANNEL", 30, time));
+		connector.startAtTime(time);
+		try (Connection connection = connector.createConnection("PROBE")) {
+			assertEquals(Long.valueOf(30), connector.getStartSequence(connection, "CHANNEL", last));
+		}
+
+		// No message is stored after the start time: nothing to wait for
+		connector.startAtTime(time.plusSeconds(120));
+		assertEquals(Long.valueOf(43), connector.getStartSequence(null, "CHANNEL", last));
+		assertNull(connector.getStartSequence(null, "CHANNEL", null));
+	}
+
+	@Test(timeout=10000)
+	public void testProbeTimeout() throws Exception {
+		final Instant time = Instant.parse("2016-11-01T10:00:00Z");
+		final NatsStreamingToSparkConnectorImpl<String> connector = 
+				probedConnector(message("CHANNEL", 42, time.plusSeconds(60)), null).withSubjects("CHANNEL").withProbeTimeout(Duration.ofMillis(100));
+		assertEquals(100, connector.storedAsKeyValue().probeTimeout);
+		// A first message is stored after that time, but not delivered by the probe
+		try {
+			connector.createRDD(null, 4, 0, 0, time, null);
+			fail("A probe timeout should not be taken for an empty channel");
+		} catch (TimeoutException e) {
+			assertTrue(e.getMessage().contains("CHANNEL"));
+		}
+		// The last message is not delivered by the probe
+		try {
+			probedConnector(null, null).withSubjects("CHANNEL").withProbeTimeout(Duration.ofMillis(100)).createRDD(null, 4, 1, 100, null, null);
+			fail("A probe timeout should not be taken for an empty channel");
+		} catch (TimeoutException e) {
+			assertTrue(e.getMessage().contains("CHANNEL"));
+		}
+		connector.startAtTime(time);
+		try (Connection connection = connector.createConnection("PROBE")) {
+			connector.getStartSequence(connection, "CHANNEL", message("CHANNEL", 42, time.plusSeconds(60)));
+			fail("A probe timeout should not be taken for an empty channel");
+		} catch (TimeoutException e) {
+			assertTrue(e.getMessage().contains("CHANNEL"));
+		}
+	}
+}
@@ -0,0 +1,58 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.nats.to_spark;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+public class StoredSequencesTest {
+
+	@Test
+	public void testFailedBlockHoldsBack() {
+		final StoredSequences sequences = new StoredSequences();
+		assertNull(sequences.drainChanges());
+
+		// A first block (1, 2) fails to be stored, while the next one (3, 4) is stored
+		for (long seq = 1; seq <= 4; seq++) {
+			sequences.received("CHANNEL_A", seq);
+		}
+		sequences.received("CHANNEL_B", 7);
+		sequences.stored("CHANNEL_A", 3);
+		sequences.stored("CHANNEL_A", 4);
+		sequences.stored("CHANNEL_B", 7);
+		Map<String, Long> marks = sequences.drainChanges();
+		assertFalse(marks.containsKey("CHANNEL_A"));
+		assertEquals(Long.valueOf(7), marks.get("CHANNEL_B"));
+		assertNull(sequences.drainChanges());
+
+		// The first block is redelivered, then stored
+		sequences.received("CHANNEL_A", 1);
+		sequences.received("CHANNEL_A", 2);
+		sequences.stored("CHANNEL_A", 1);
+		marks = sequences.drainChanges();
+		assertEquals(Long.valueOf(1), marks.get("CHANNEL_A"));
+		sequences.stored("CHANNEL_A", 2);
+		marks = sequences.drainChanges();
+		assertEquals(Long.valueOf(4), marks.get("CHANNEL_A"));
+		assertEquals(Long.valueOf(7), marks.get("CHANNEL_B"));
+	}
+
+	@Test
+	public void testUnchanged() {
+		final StoredSequences sequences = new StoredSequences();
+		sequences.received("CHANNEL_A", 5);
+		sequences.stored("CHANNEL_A", 5);
+		assertEquals(Long.valueOf(5), sequences.drainChanges().get("CHANNEL_A"));
+		assertNull(sequences.drainChanges());
+		sequences.unchanged();
+		assertEquals(Long.valueOf(5), sequences.drainChanges().get("CHANNEL_A"));
+	}
+}
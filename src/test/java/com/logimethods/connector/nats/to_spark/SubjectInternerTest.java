@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.nats.to_spark;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.spark.storage.StorageLevel;
+import org.junit.Test;
+
+import com.logimethods.connector.nats_spark.NatsSparkUtilities;
+
+import io.nats.client.Message;
+import scala.Tuple2;
+
+public class SubjectInternerTest {
+
+	@Test
+	public void testBound() {
+		final SubjectInterner interner = new SubjectInterner(2);
+		final String a = interner.intern(new String("A.1"));
+		assertSame(a, interner.intern(new String("A.1")));
+		interner.intern("A.2");
+		final String c = new String("A.3");
+		assertSame(c, interner.intern(c));
+		assertNotSame(c, interner.intern(new String("A.3")));
+		assertEquals(2, interner.size());
+	}
+
+	@Test
+	public void testKeyValueRecords() throws IOException {
+		final NatsStreamingToKeyValueSparkConnectorImpl<Integer> connector = 
+				NatsToSparkConnector
+					.receiveFromNatsStreaming(Integer.class, StorageLevel.MEMORY_ONLY(), "CLUSTER")
+					.storedAsKeyValue();
+		final byte[] payload = NatsSparkUtilities.encodeData(1);
+		final List<Tuple2<String, Integer>> records = new ArrayList<Tuple2<String, Integer>>();
+		for (int i = 0; i < 100; i++) {
+			records.add(connector.decodeRecord(new String("SUBJECT.WITH.A.RATHER.LONG.NAME"), payload));
+		}
+		assertSame(records.get(0)._1, records.get(99)._1);
+		final int internedSize = serializedSize(records);
+
+		final NatsStreamingToKeyValueSparkConnectorImpl<Integer> notInterning = 
+				NatsToSparkConnector
+					.receiveFromNatsStreaming(Integer.class, StorageLevel.MEMORY_ONLY(), "CLUSTER")
+					.withInternedSubjects(0)
+					.storedAsKeyValue();
+		records.clear();
+		for (int i = 0; i < 100; i++) {
+			records.add(notInterning.decodeRecord(new String("SUBJECT.WITH.A.RATHER.LONG.NAME"), payload));
+		}
+		assertNotSame(records.get(0)._1, records.get(99)._1);
+		assertTrue(internedSize < serializedSize(records));
+	}
+
+	@Test
+	@SuppressWarnings("deprecation")
+	public void testDecodeTuple() {
+		final NatsStreamingToKeyValueSparkConnectorImpl<Integer> connector = 
+				NatsToSparkConnector
+					.receiveFromNatsStreaming(Integer.class, StorageLevel.MEMORY_ONLY(), "CLUSTER")
+					.storedAsKeyValue();
+		final byte[] payload = NatsSparkUtilities.encodeData(1);
+		final Tuple2<String, Integer> first = connector.decodeTuple(new Message(new String("SUBJECT"), null, payload));
+		final Tuple2<String, Integer> second = connector.decodeTuple(new Message(new String("SUBJECT"), null, payload));
+		assertEquals("SUBJECT", first._1);
+		assertEquals(Integer.valueOf(1), first._2);
+		assertSame(first._1, second._1);
+	}
+
+	protected static int serializedSize(Object object) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(object);
+		}
+		return bytes.size();
+	}
+}
@@ -7,12 +7,14 @@
  *******************************************************************************/
 package com.logimethods.connector.nats.to_spark.api;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
 import java.io.IOException;
 import java.util.concurrent.TimeoutException;
 
 import org.apache.log4j.Level;
+import org.apache.spark.api.java.JavaRDD;
 import org.apache.spark.storage.StorageLevel;
 import org.apache.spark.streaming.Duration;
 import org.apache.spark.streaming.api.java.JavaPairDStream;
@@ -100,6 +102,31 @@ public class NatsStreamingToSparkTest extends AbstractNatsToSparkTest {
 		validateTheReceptionOfMessages(ssc, messages);
 	}
 
+	@Test(timeout = 20000)
+	public void testBatchReplay() throws Exception {
+		final int nbOfMessages = 20;
+		final ConnectionFactory cf = new ConnectionFactory(CLUSTER_ID, getUniqueClientName());
+		cf.setNatsUrl(STAN_URL);
+		try (Connection connection = cf.createConnection()) {
+			for (int i = 0; i < nbOfMessages; i++) {
+				connection.publish(DEFAULT_SUBJECT, NatsSparkUtilities.encodeData(i));
+			}
+		}
+
+		final NatsStreamingToSparkConnectorImpl<Integer> connector = 
+				NatsToSparkConnector
+						.receiveFromNatsStreaming(Integer.class, StorageLevel.MEMORY_ONLY(), CLUSTER_ID)
+						.withNatsURL(STAN_URL)
+						.withSubjects(DEFAULT_SUBJECT);
+
+		final JavaRDD<Integer> all = connector.asRDDOf(sc, 3, 1, Long.MAX_VALUE);
+		assertEquals(3, all.getNumPartitions());
+		assertEquals(nbOfMessages, all.count());
+
+		// Sequence numbers start at 1, the 5th message (ie. 4) being then the sequence 5
+		assertEquals(Integer.valueOf(4 + 5 + 6), connector.asRDDOf(sc, 2, 5, 8).reduce((a, b) -> a + b));
+	}
+
     @Test(timeout = 5000)
     public void testBasicSubscription() {
         // Run a STAN server
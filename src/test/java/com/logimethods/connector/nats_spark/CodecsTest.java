@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.nats_spark;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class CodecsTest {
+
+	@Test
+	public void testPrimitiveCodecs() {
+		assertSame(Codecs.DOUBLE, Codecs.forType(double.class));
+		assertSame(Codecs.INTEGER, Codecs.forType(Integer.class));
+
+		assertEquals(Double.valueOf(-12.34e56), Codecs.DOUBLE.decode(ByteBuffer.allocate(Double.BYTES).putDouble(-12.34e56).array()));
+		assertEquals(Float.valueOf(3.14f), Codecs.FLOAT.decode(ByteBuffer.allocate(Float.BYTES).putFloat(3.14f).array()));
+		assertEquals(Integer.valueOf(-123456789), Codecs.INTEGER.decode(ByteBuffer.allocate(Integer.BYTES).putInt(-123456789).array()));
+		assertEquals(Long.valueOf(Long.MIN_VALUE + 12345), Codecs.LONG.decode(ByteBuffer.allocate(Long.BYTES).putLong(Long.MIN_VALUE + 12345).array()));
+		assertEquals(Short.valueOf((short) -2), Codecs.SHORT.decode(ByteBuffer.allocate(Short.BYTES).putShort((short) -2).array()));
+		assertEquals(Byte.valueOf((byte) -3), Codecs.BYTE.decode(new byte[] { -3 }));
+		assertEquals(Character.valueOf('é'), Codecs.CHARACTER.decode(ByteBuffer.allocate(Character.BYTES).putChar('é').array()));
+
+		final byte[] buffer = new byte[12];
+		Codecs.encodeLong(-42L, buffer, 4);
+		assertEquals(-42L, Codecs.decodeLong(buffer, 4));
+		Codecs.encodeFloat(-1.5f, buffer, 0);
+		assertEquals(-1.5f, Codecs.decodeFloat(buffer, 0), 0);
+	}
+
+	@Test
+	public void testStringCodec() {
+		final String text = "Température: 12°C";
+		assertArrayEquals(text.getBytes(StandardCharsets.UTF_8), Codecs.forType(String.class).encode(text));
+		assertEquals(text, Codecs.STRING.decode(text.getBytes(StandardCharsets.UTF_8)));
+		assertEquals(-1, Codecs.STRING.encodedSize(text));
+	}
+
+	@Test(expected=UnsupportedOperationException.class)
+	public void testNotRegisteredType() {
+		final Codec<CodecsTest> codec = Codecs.forType(CodecsTest.class);
+		assertArrayEquals(toString().getBytes(StandardCharsets.UTF_8), codec.encode(this));
+		codec.decode(new byte[0]);
+	}
+
+	@Test
+	public void testRegistration() {
+		Codecs.register(Boolean.class, new Codec<Boolean>() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public byte[] encode(Boolean obj) {
+				return new byte[] { (byte) (obj ? 1 : 0) };
+			}
+
+			@Override
+			public Boolean decode(byte[] bytes) {
+				return bytes[0] != 0;
+			}
+		});
+		assertTrue(Codecs.forType(boolean.class).decode(Codecs.forType(Boolean.class).encode(true)));
+	}
+
+	@Test
+	public void testEncoderOf() {
+		final Codec<Object> codec = Codecs.encoderOf(null);
+		assertEquals(Long.BYTES, codec.encodedSize(1L));
+		assertEquals(Integer.BYTES, codec.encodedSize(1));
+		assertEquals(-1, codec.encodedSize("1"));
+		assertArrayEquals("1".getBytes(StandardCharsets.UTF_8), codec.encode("1"));
+
+		final Codec<Integer> encoder = Codecs.encoderOf(i -> new byte[i]);
+		assertEquals(-1, encoder.encodedSize(3));
+		assertEquals(3, encoder.encode(3).length);
+	}
+
+	@Test
+	public void testSerialization() throws Exception {
+		final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bos)) {
+			out.writeObject(Codecs.LONG);
+		}
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray()))) {
+			@SuppressWarnings("unchecked")
+			final Codec<Long> codec = (Codec<Long>) in.readObject();
+			assertEquals(Long.valueOf(7L), codec.decode(Codecs.LONG.encode(7L)));
+		}
+	}
+}
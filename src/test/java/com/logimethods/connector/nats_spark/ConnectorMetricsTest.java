@@ -0,0 +1,65 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.nats_spark;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.codahale.metrics.Gauge;
+
+public class ConnectorMetricsTest {
+
+	@Test
+	public void testPublished() {
+		final ConnectorMetrics metrics = new ConnectorMetrics();
+		metrics.published(100, 2000);
+		metrics.published(50, 4000);
+		metrics.received(10);
+		assertEquals(2, metrics.metricRegistry().meter("publish.messages").getCount());
+		assertEquals(150, metrics.metricRegistry().meter("publish.bytes").getCount());
+		assertEquals(1, metrics.metricRegistry().meter("receive.messages").getCount());
+		assertEquals(2L, metrics.metricRegistry().getGauges().get("publish.latency.count").getValue());
+		assertEquals(4000L, metrics.metricRegistry().getGauges().get("publish.latency.max").getValue());
+
+		metrics.connectionOpened();
+		metrics.connectionOpened();
+		metrics.connectionClosed();
+		assertEquals(1, metrics.metricRegistry().counter("connections.open").getCount());
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Test
+	public void testRegisterGauge() {
+		final ConnectorMetrics metrics = new ConnectorMetrics();
+		final AtomicLong value = new AtomicLong(42);
+		metrics.registerGauge("test.value", value::get);
+		metrics.registerGauge("test.value", () -> -1L);
+		final Gauge gauge = metrics.metricRegistry().getGauges().get("test.value");
+		assertEquals(42L, gauge.getValue());
+		value.set(7);
+		assertEquals(7L, gauge.getValue());
+	}
+
+	@Test
+	public void testTimingCodec() {
+		final ConnectorMetrics metrics = ConnectorMetrics.get();
+		assertSame(metrics, ConnectorMetrics.get());
+		assertEquals(ConnectorMetrics.SOURCE_NAME, metrics.sourceName());
+
+		final long encodings = metrics.encodingTimes.getCount();
+		final long decodings = metrics.decodingTimes.getCount();
+		final Codec<String> codec = metrics.timing(Codecs.STRING);
+		final String str = "A test string";
+		assertEquals(str, codec.decode(codec.encode(str)));
+		assertEquals(encodings + 1, metrics.encodingTimes.getCount());
+		assertEquals(decodings + 1, metrics.decodingTimes.getCount());
+	}
+}
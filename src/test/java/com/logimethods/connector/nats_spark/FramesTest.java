@@ -0,0 +1,69 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.nats_spark;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class FramesTest {
+
+	protected static List<String> unpack(byte[] payload) {
+		final List<String> records = new ArrayList<String>();
+		Frames.unpack(payload, record -> records.add(new String(record)));
+		return records;
+	}
+
+	@Test
+	public void testPackAndUnpack() {
+		final FrameBuilder builder = new FrameBuilder(Frames.HEADER_SIZE + 3 * (Frames.RECORD_HEADER_SIZE + 2));
+		for (String record : new String[] { "AB", "CD", "" }) {
+			assertTrue(builder.fits(record.getBytes()));
+			builder.add(record.getBytes());
+		}
+		assertFalse(builder.fits("EF".getBytes()));
+		assertEquals(3, builder.count());
+
+		final byte[] frame = builder.build();
+		assertEquals(0, builder.count());
+		assertTrue(Frames.isFrame(frame));
+		assertEquals("[AB, CD, ]", unpack(frame).toString());
+	}
+
+	@Test
+	public void testSingleRecord() {
+		final FrameBuilder builder = new FrameBuilder(16);
+		final byte[] record = "A single record".getBytes();
+		builder.add(record);
+		assertFalse(builder.fits("X".getBytes()));
+		assertSame(record, builder.build());
+	}
+
+	@Test
+	public void testUnframedPayloads() {
+		assertEquals("[A text]", unpack("A text".getBytes()).toString());
+		assertEquals(1, Frames.unpack(Codecs.LONG.encode(-1L), record -> {}));
+		assertEquals(1, Frames.unpack(new byte[0], record -> {}));
+		// The header of a frame of 0 or 1 record is a plain payload
+		assertFalse(Frames.isFrame(Codecs.LONG.encode(0xF54E460100000000L)));
+		final byte[] single = { (byte) 0xF5, 'N', 'F', Frames.VERSION, 0, 0, 0, 1, 0, 0, 0, 0 };
+		assertFalse(Frames.isFrame(single));
+		assertEquals(1, Frames.unpack(single, record -> {}));
+
+		final FrameBuilder builder = new FrameBuilder(64);
+		builder.add("AB".getBytes());
+		builder.add("CD".getBytes());
+		final byte[] frame = builder.build();
+		frame[frame.length - 2 - 1]++; // Corrupt the (lowest byte of the) length of the last record
+		assertFalse(Frames.isFrame(frame));
+		assertEquals(1, unpack(frame).size());
+	}
+}
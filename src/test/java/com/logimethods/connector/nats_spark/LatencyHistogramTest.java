@@ -0,0 +1,50 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.nats_spark;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void testBuckets() {
+		for (long value : new long[] {0, 1, 15, 16, 17, 1000, 123456789, Long.MAX_VALUE}) {
+			final int index = LatencyHistogram.bucketIndex(value);
+			assertTrue(index < LatencyHistogram.BUCKETS_COUNT);
+			assertTrue(LatencyHistogram.highestValueOfBucket(index) >= value);
+			assertTrue(LatencyHistogram.highestValueOfBucket(index) - value <= value / LatencyHistogram.SUB_BUCKET_COUNT);
+			if (index > 0) {
+				assertTrue(LatencyHistogram.highestValueOfBucket(index - 1) < value);
+			}
+		}
+	}
+
+	@Test
+	public void testPercentiles() {
+		final LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(i * 1000);
+		}
+		assertEquals(1000, histogram.getCount());
+		assertEquals(1000000, histogram.getMax());
+		assertEquals(500500, histogram.getMean(), 0.1);
+		assertEquals(500000, histogram.getValueAtPercentile(50), 500000 / 16);
+		assertEquals(990000, histogram.getValueAtPercentile(99), 990000 / 16);
+		assertEquals(1000000, histogram.getValueAtPercentile(100));
+
+		final LatencyHistogram other = new LatencyHistogram();
+		other.add(histogram);
+		assertEquals(histogram.toString(), other.toString());
+
+		histogram.reset();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getValueAtPercentile(99));
+	}
+}
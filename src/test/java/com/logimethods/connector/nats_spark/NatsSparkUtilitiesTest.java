@@ -0,0 +1,46 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.nats_spark;
+
+import static com.logimethods.connector.nats_spark.NatsSparkUtilities.*;
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class NatsSparkUtilitiesTest {
+
+	@Test
+	public void testEncodeIntoBuffer() {
+		assertArrayEquals(ByteBuffer.allocate(Double.BYTES).putDouble(-12.34e56).array(), encodeData(-12.34e56));
+		assertArrayEquals(ByteBuffer.allocate(Float.BYTES).putFloat(3.14f).array(), encodeData(3.14f));
+		assertArrayEquals(ByteBuffer.allocate(Integer.BYTES).putInt(-123456789).array(), encodeData(-123456789));
+		assertArrayEquals(ByteBuffer.allocate(Long.BYTES).putLong(Long.MIN_VALUE + 12345).array(), encodeData(Long.MIN_VALUE + 12345));
+		assertArrayEquals(ByteBuffer.allocate(Byte.BYTES).put((byte) -3).array(), encodeData((byte) -3));
+		assertArrayEquals(ByteBuffer.allocate(Character.BYTES).putChar('é').array(), encodeData('é'));
+		assertArrayEquals(ByteBuffer.allocate(Short.BYTES).putShort((short) -2).array(), encodeData((short) -2));
+		assertArrayEquals("text".getBytes(), encodeData("text"));
+
+		final byte[] buffer = new byte[Long.BYTES];
+		encodeData(42L, buffer);
+		assertEquals(Long.valueOf(42L), decodeData(Long.class, buffer));
+	}
+
+	@Test
+	public void testEncodedSize() {
+		assertEquals(Double.BYTES, encodedSize(1.0));
+		assertEquals(Short.BYTES, encodedSize((short) 1));
+		assertEquals(-1, encodedSize("1"));
+	}
+
+	@Test(expected=UnsupportedOperationException.class)
+	public void testEncodeStringIntoBuffer() {
+		encodeData("text", new byte[10]);
+	}
+}
@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.nats_spark;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class PayloadCompressorTest {
+
+	protected static byte[] document() {
+		final StringBuilder json = new StringBuilder("[");
+		for (int i = 0; i < 100; i++) {
+			json.append("{\"sensor\":\"temperature\",\"location\":\"room-").append(i % 7).append("\",\"value\":").append(20 + i % 5).append("},");
+		}
+		return json.append("{}]").toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Before
+	public void resetStatistics() {
+		PayloadCompressor.getStatistics().reset();
+	}
+
+	@Test
+	public void testRoundTrip() {
+		final byte[] document = document();
+		final CompressionStatistics statistics = PayloadCompressor.getStatistics();
+		final long compressedPayloads = statistics.getCompressedPayloads();
+		final long decompressedPayloads = statistics.getDecompressedPayloads();
+		final long uncompressedBytes = statistics.getUncompressedBytes();
+		for (Compression compression : Compression.values()) {
+			final byte[] compressed = new PayloadCompressor(compression, 512).compress(document);
+			assertTrue(compression + " should reduce the size of the document", compressed.length < document.length / 4);
+			assertTrue(PayloadCompressor.isCompressed(compressed));
+			assertArrayEquals(document, PayloadCompressor.decompress(compressed));
+		}
+		assertEquals(compressedPayloads + 2, statistics.getCompressedPayloads());
+		assertEquals(decompressedPayloads + 2, statistics.getDecompressedPayloads());
+		assertEquals(uncompressedBytes + 2L * document.length, statistics.getUncompressedBytes());
+		assertTrue(statistics.getCompressionRatio() > 4);
+	}
+
+	@Test
+	public void testRawPayloads() {
+		final PayloadCompressor compressor = new PayloadCompressor(Compression.LZ4, 512);
+		final long rawPayloads = PayloadCompressor.getStatistics().getRawPayloads();
+		final long compressedPayloads = PayloadCompressor.getStatistics().getCompressedPayloads();
+		final byte[] small = "A small text".getBytes();
+		assertSame(small, compressor.compress(small));
+
+		final byte[] random = new byte[1024];
+		new Random(42).nextBytes(random);
+		assertSame(random, compressor.compress(random));
+
+		assertEquals(rawPayloads + 2, PayloadCompressor.getStatistics().getRawPayloads());
+		assertEquals(compressedPayloads, PayloadCompressor.getStatistics().getCompressedPayloads());
+		assertSame(small, PayloadCompressor.decompress(small));
+	}
+
+	@Test
+	public void testCompressingCodec() {
+		final Codec<String> codec = new PayloadCompressor(Compression.SNAPPY, 64).compressing(Codecs.STRING);
+		final String document = new String(document(), StandardCharsets.UTF_8);
+		final byte[] encoded = codec.encode(document);
+		assertTrue(PayloadCompressor.isCompressed(encoded));
+		assertEquals(document, codec.decode(encoded));
+		assertEquals("raw", codec.decode(Codecs.STRING.encode("raw")));
+	}
+
+	@Test
+	public void testCorruptedPayload() {
+		final byte[] compressed = new PayloadCompressor(Compression.LZ4, 0).compress(document());
+		Codecs.encodeInt(10, compressed, 4); // Wrong original size
+		assertSame(compressed, PayloadCompressor.decompress(compressed));
+	}
+
+	@Test
+	public void testOversizedPayload() {
+		// A header claiming about 2 GB, which should not be allocated
+		final byte[] forged = { (byte) 0xF5, 'N', 'Z', 1, 0x7F, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0 };
+		assertTrue(PayloadCompressor.isCompressed(forged));
+		assertSame(forged, PayloadCompressor.decompress(forged));
+
+		final byte[] document = document();
+		final byte[] compressed = new PayloadCompressor(Compression.SNAPPY, 0).compress(document);
+		final long decompressedPayloads = PayloadCompressor.getStatistics().getDecompressedPayloads();
+		assertSame(compressed, PayloadCompressor.decompress(compressed, document.length - 1));
+		assertArrayEquals(document, PayloadCompressor.decompress(compressed, document.length));
+		assertEquals(decompressedPayloads + 1, PayloadCompressor.getStatistics().getDecompressedPayloads());
+	}
+}
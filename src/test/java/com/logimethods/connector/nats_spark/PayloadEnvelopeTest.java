@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.nats_spark;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class PayloadEnvelopeTest {
+
+	@Test
+	public void testWrap() {
+		final byte[] payload = "Hello".getBytes();
+		final long before = PayloadEnvelope.currentTimeNanos();
+		final byte[] enveloped = new PayloadEnvelope(true).wrap(payload);
+		final long after = PayloadEnvelope.currentTimeNanos();
+
+		// Outside of a Spark task, there is neither a batch time nor a partition to stamp
+		assertEquals(PayloadEnvelope.HEADER_SIZE + payload.length, enveloped.length);
+		assertTrue(PayloadEnvelope.isEnveloped(enveloped));
+		final long publishTime = PayloadEnvelope.publishTime(enveloped);
+		assertTrue((before <= publishTime) && (publishTime <= after));
+		assertEquals(-1, PayloadEnvelope.batchTime(enveloped));
+		assertEquals(-1, PayloadEnvelope.partition(enveloped));
+		assertArrayEquals(payload, PayloadEnvelope.strip(enveloped));
+	}
+
+	@Test
+	public void testSparkContext() {
+		final byte[] payload = "Hello".getBytes();
+		final long publishTime = PayloadEnvelope.currentTimeNanos();
+		final byte[] enveloped = new byte[PayloadEnvelope.MAX_HEADER_SIZE + payload.length];
+		assertEquals(PayloadEnvelope.MAX_HEADER_SIZE, PayloadEnvelope.headerSize(1476000000000L, 7));
+		PayloadEnvelope.writeHeader(enveloped, publishTime, 1476000000000L, 7);
+		System.arraycopy(payload, 0, enveloped, PayloadEnvelope.MAX_HEADER_SIZE, payload.length);
+
+		assertTrue(PayloadEnvelope.isEnveloped(enveloped));
+		assertEquals(publishTime, PayloadEnvelope.publishTime(enveloped));
+		assertEquals(1476000000000L, PayloadEnvelope.batchTime(enveloped));
+		assertEquals(7, PayloadEnvelope.partition(enveloped));
+		assertArrayEquals(payload, PayloadEnvelope.strip(enveloped));
+
+		final byte[] partitionOnly = new byte[PayloadEnvelope.headerSize(-1, 3)];
+		assertEquals(PayloadEnvelope.HEADER_SIZE + Integer.BYTES, partitionOnly.length);
+		PayloadEnvelope.writeHeader(partitionOnly, publishTime, -1, 3);
+		assertEquals(-1, PayloadEnvelope.batchTime(partitionOnly));
+		assertEquals(3, PayloadEnvelope.partition(partitionOnly));
+		assertEquals(0, PayloadEnvelope.strip(partitionOnly).length);
+	}
+
+	@Test
+	public void testEnvelopingCodec() {
+		final Codec<Long> codec = new PayloadEnvelope(false).enveloping(Codecs.LONG);
+		assertEquals(PayloadEnvelope.HEADER_SIZE + Long.BYTES, codec.encodedSize(42L));
+		final byte[] buffer = new byte[codec.encodedSize(42L)];
+		codec.encode(42L, buffer);
+		assertTrue(PayloadEnvelope.isEnveloped(buffer));
+		assertArrayEquals(Codecs.LONG.encode(42L), PayloadEnvelope.strip(buffer));
+		assertEquals(Long.valueOf(42L), codec.decode(buffer));
+		assertEquals(buffer.length, codec.encode(42L).length);
+
+		final Codec<String> strings = new PayloadEnvelope(false).enveloping(Codecs.STRING);
+		final byte[] encoded = strings.encode("A small piece of Text!");
+		assertTrue(PayloadEnvelope.isEnveloped(encoded));
+		assertEquals("A small piece of Text!", strings.decode(encoded));
+		assertEquals("raw", strings.decode(Codecs.STRING.encode("raw")));
+	}
+
+	@Test
+	public void testRawPayloads() {
+		final byte[] text = "Hello".getBytes();
+		assertFalse(PayloadEnvelope.isEnveloped(text));
+		assertSame(text, PayloadEnvelope.strip(text));
+		assertFalse(PayloadEnvelope.isEnveloped(null));
+
+		final byte[] compressed = new PayloadCompressor(Compression.LZ4, 0).compress(new byte[1024]);
+		assertFalse(PayloadEnvelope.isEnveloped(compressed));
+
+		final byte[] enveloped = new PayloadEnvelope(false).wrap(text);
+		enveloped[3] = 0x10; // Unknown flag
+		assertFalse(PayloadEnvelope.isEnveloped(enveloped));
+		enveloped[3] = 3; // Too short for the batch time & the partition
+		assertFalse(PayloadEnvelope.isEnveloped(enveloped));
+	}
+
+	@Test
+	public void testRecordLatency() {
+		final byte[] enveloped = new PayloadEnvelope(false).wrap("Hello".getBytes());
+		final long count = PayloadEnvelope.getLatencies().getCount();
+		final long receiveTime = PayloadEnvelope.publishTime(enveloped) + TimeUnit.MILLISECONDS.toNanos(3);
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(3), PayloadEnvelope.recordLatency(enveloped, receiveTime));
+		assertEquals(count + 1, PayloadEnvelope.getLatencies().getCount());
+	}
+}
@@ -0,0 +1,191 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.spark.to_nats;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.logimethods.connector.nats_spark.PayloadEnvelope;
+
+import io.nats.client.Connection;
+import io.nats.client.Message;
+import scala.Tuple2;
+
+/**
+ * Measures, through the ThreadMXBean, the memory allocated while publishing records to (a fake) NATS.
+ */
+public class AllocationFreePublishingTest {
+
+	protected static final int RECORDS = 100000;
+	protected static final long MAX_ALLOCATED_BYTES = 16 * 1024;
+
+	@SuppressWarnings("serial")
+	static class CountingConnector extends SparkToStandardNatsConnectorImpl {
+		long publishedBytes = 0;
+		final List<String> subjects = new ArrayList<String>();
+
+		CountingConnector(String... subjects) {
+			super(null, null, null, null, subjects);
+			connection = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class },
+					(proxy, method, args) -> null);
+		}
+
+		@Override
+		protected void publish(Connection localConnection, Message message) {
+			publishedBytes += message.getData().length;
+			if (subjects.size() < 4) {
+				subjects.add(message.getSubject());
+			}
+		}
+	}
+
+	@SuppressWarnings("serial")
+	static class CountingStreamingConnector extends SparkToNatsStreamingConnectorImpl {
+		long publishedBytes = 0;
+
+		CountingStreamingConnector(String... subjects) {
+			super("CLUSTER", null, null, null, null, subjects);
+			connection = (io.nats.stan.Connection) Proxy.newProxyInstance(io.nats.stan.Connection.class.getClassLoader(), 
+					new Class<?>[] { io.nats.stan.Connection.class }, (proxy, method, args) -> null);
+		}
+
+		@Override
+		protected void publish(io.nats.stan.Connection localConnection, String subject, byte[] payload) {
+			publishedBytes += payload.length;
+		}
+	}
+
+	protected com.sun.management.ThreadMXBean threadMXBean;
+
+	@Before
+	public void setUp() {
+		assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+		threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		assumeTrue(threadMXBean.isThreadAllocatedMemorySupported());
+		threadMXBean.setThreadAllocatedMemoryEnabled(true);
+	}
+
+	protected long allocatedBytes() {
+		return threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	@Test
+	public void testNumbersPublishing() throws Exception {
+		final List<Long> records = new ArrayList<Long>(RECORDS);
+		for (long i = 0; i < RECORDS; i++) {
+			records.add(i * 1000);
+		}
+		final CountingConnector connector = new CountingConnector("SUB1", "SUB2");
+		// Warm up
+		connector.publishToNats(records.iterator(), null);
+		connector.publishedBytes = 0;
+
+		final long start = allocatedBytes();
+		assertEquals(RECORDS, connector.publishToNats(records.iterator(), null));
+		final long allocated = allocatedBytes() - start;
+
+		assertEquals(2 * RECORDS * Long.BYTES, connector.publishedBytes);
+		assertEquals("[SUB1, SUB2, SUB1, SUB2]", connector.subjects.toString());
+		assertTrue(allocated + " bytes allocated to publish " + RECORDS + " records", allocated < MAX_ALLOCATED_BYTES);
+	}
+
+	@Test
+	public void testEnvelopedNumbersPublishing() throws Exception {
+		final List<Long> records = new ArrayList<Long>(RECORDS);
+		for (long i = 0; i < RECORDS; i++) {
+			records.add(i * 1000);
+		}
+		final CountingConnector connector = new CountingConnector("SUB");
+		connector.withEnvelope(true);
+		// Warm up
+		connector.publishToNats(records.iterator(), null);
+		connector.publishedBytes = 0;
+
+		final long start = allocatedBytes();
+		assertEquals(RECORDS, connector.publishToNats(records.iterator(), null));
+		final long allocated = allocatedBytes() - start;
+
+		assertEquals(RECORDS * (PayloadEnvelope.HEADER_SIZE + Long.BYTES), connector.publishedBytes);
+		assertTrue(allocated + " bytes allocated to publish " + RECORDS + " records", allocated < MAX_ALLOCATED_BYTES);
+	}
+
+	@Test
+	public void testEnvelopedStreamingPublishing() throws Exception {
+		final List<Long> records = new ArrayList<Long>(RECORDS);
+		for (long i = 0; i < RECORDS; i++) {
+			records.add(i * 1000);
+		}
+		final byte[] record = new byte[100];
+		final CountingStreamingConnector connector = new CountingStreamingConnector("SUB");
+		connector.withEnvelope(true);
+		// Warm up
+		connector.publishToNats(records.iterator(), null);
+		connector.publishToNats(record);
+		connector.publishedBytes = 0;
+
+		long start = allocatedBytes();
+		assertEquals(RECORDS, connector.publishToNats(records.iterator(), null));
+		long allocated = allocatedBytes() - start;
+		assertEquals(RECORDS * (PayloadEnvelope.HEADER_SIZE + Long.BYTES), connector.publishedBytes);
+		assertTrue(allocated + " bytes allocated to publish " + RECORDS + " records", allocated < MAX_ALLOCATED_BYTES);
+
+		connector.publishedBytes = 0;
+		start = allocatedBytes();
+		for (int i = 0; i < RECORDS; i++) {
+			connector.publishToNats(record);
+		}
+		allocated = allocatedBytes() - start;
+		assertEquals(RECORDS * (PayloadEnvelope.HEADER_SIZE + record.length), connector.publishedBytes);
+		assertTrue(allocated + " bytes allocated to publish " + RECORDS + " payloads", allocated < MAX_ALLOCATED_BYTES);
+	}
+
+	@Test
+	public void testKeyValuesPublishing() throws Exception {
+		final List<Tuple2<String, Integer>> tuples = new ArrayList<Tuple2<String, Integer>>(RECORDS);
+		for (int i = 0; i < RECORDS; i++) {
+			tuples.add(new Tuple2<String, Integer>("KEY" + (i % 10), i));
+		}
+		final CountingConnector connector = new CountingConnector("ROOT.");
+		// Warm up
+		connector.publishKeyValuesToNats(tuples.iterator(), null);
+		connector.publishedBytes = 0;
+
+		final long start = allocatedBytes();
+		assertEquals(RECORDS, connector.publishKeyValuesToNats(tuples.iterator(), null));
+		final long allocated = allocatedBytes() - start;
+
+		assertEquals(RECORDS * Integer.BYTES, connector.publishedBytes);
+		assertEquals("[ROOT.KEY0, ROOT.KEY1, ROOT.KEY2, ROOT.KEY3]", connector.subjects.toString());
+		assertTrue(allocated + " bytes allocated to publish " + RECORDS + " records", allocated < MAX_ALLOCATED_BYTES);
+	}
+
+	@Test
+	public void testFixedSizePayloadsPublishing() throws Exception {
+		final byte[][] payloads = { "ABCD".getBytes(), "EFGH".getBytes() };
+		final List<Integer> records = new ArrayList<Integer>(RECORDS);
+		for (int i = 0; i < RECORDS; i++) {
+			records.add(i % 2);
+		}
+		final CountingConnector connector = new CountingConnector("SUB");
+		connector.publishToNats(records.iterator(), index -> payloads[index]);
+
+		final long start = allocatedBytes();
+		connector.publishToNats(records.iterator(), index -> payloads[index]);
+		final long allocated = allocatedBytes() - start;
+
+		assertTrue(allocated + " bytes allocated to publish " + RECORDS + " records", allocated < MAX_ALLOCATED_BYTES);
+	}
+}
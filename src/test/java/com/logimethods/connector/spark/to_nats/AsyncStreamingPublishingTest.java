@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.spark.to_nats;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+import io.nats.stan.AckHandler;
+import io.nats.stan.Connection;
+
+public class AsyncStreamingPublishingTest {
+
+	/**
+	 * @return a NATS Streaming Connection which keeps the AckHandlers of the asynchronous publications, without calling them.
+	 */
+	static Connection pendingAcksConnection(final List<AckHandler> handlers) {
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class },
+				(proxy, method, args) -> {
+					if ("publish".equals(method.getName()) && (args.length == 3)) {
+						handlers.add((AckHandler) args[2]);
+						return "guid" + handlers.size();
+					}
+					return null;
+				});
+	}
+
+	static SparkToNatsStreamingConnectorImpl newConnector(List<AckHandler> handlers, int windowSize, long ackTimeoutMillis) {
+		final SparkToNatsStreamingConnectorImpl connector =
+				new SparkToNatsStreamingConnectorImpl("clusterID", "nats://localhost:4222", null, null, null, "SUB");
+		connector.setAsyncPublishing(windowSize, TimeUnit.MILLISECONDS.toNanos(ackTimeoutMillis));
+		connector.connection = pendingAcksConnection(handlers);
+		return connector;
+	}
+
+	@Test(timeout=5000)
+	public void testWindow() throws Exception {
+		final List<AckHandler> handlers = new ArrayList<AckHandler>();
+		final SparkToNatsStreamingConnectorImpl connector = newConnector(handlers, 2, 50);
+		final int inFlight = SparkToNatsStreamingConnectorPool.getAsyncPublishingStatistics().getInFlight();
+
+		connector.publishToNats("A".getBytes());
+		connector.publishToNats("B".getBytes());
+		assertEquals(2, handlers.size());
+		assertEquals(inFlight + 2, SparkToNatsStreamingConnectorPool.getAsyncPublishingStatistics().getInFlight());
+		try {
+			connector.publishToNats("C".getBytes());
+			fail("The publishing window should be full");
+		} catch (TimeoutException e) {}
+
+		handlers.get(0).onAck("guid1", null);
+		connector.publishToNats("C".getBytes());
+		try {
+			connector.awaitAcks();
+			fail("Some acknowledgements should still be pending");
+		} catch (TimeoutException e) {}
+
+		handlers.get(1).onAck("guid2", null);
+		handlers.get(2).onAck("guid3", null);
+		connector.awaitAcks();
+		assertEquals(inFlight, SparkToNatsStreamingConnectorPool.getAsyncPublishingStatistics().getInFlight());
+		assertTrue(SparkToNatsStreamingConnectorPool.getAsyncPublishingStatistics().getAckLatencies().getCount() >= 3);
+	}
+
+	@Test(timeout=5000)
+	public void testNack() throws Exception {
+		final List<AckHandler> handlers = new ArrayList<AckHandler>();
+		final SparkToNatsStreamingConnectorImpl connector = newConnector(handlers, 10, 1000);
+		final long nacks = SparkToNatsStreamingConnectorPool.getAsyncPublishingStatistics().getNacks();
+
+		connector.publishToNats("A".getBytes());
+		connector.publishToNats("B".getBytes());
+		handlers.get(0).onAck("guid1", null);
+		handlers.get(1).onAck("guid2", new TimeoutException("Ack timeout"));
+
+		try {
+			connector.awaitAcks();
+			fail("The Nack should have been reported");
+		} catch (IOException e) {
+			assertTrue(e.getCause() instanceof TimeoutException);
+		}
+		assertEquals(nacks + 1, SparkToNatsStreamingConnectorPool.getAsyncPublishingStatistics().getNacks());
+		// The failure is only reported once
+		connector.awaitAcks();
+	}
+
+	@Test
+	public void testAckTimeoutSignature() throws Exception {
+		final SparkToNatsStreamingConnectorPool pool1 = SparkToNatsConnectorPool.newStreamingPool("clusterID")
+				.withNatsURL("nats://localhost:4222").withSubjects("SUB").withAsyncPublishing(10, Duration.ofSeconds(1));
+		final SparkToNatsStreamingConnectorPool pool2 = SparkToNatsConnectorPool.newStreamingPool("clusterID")
+				.withNatsURL("nats://localhost:4222").withSubjects("SUB").withAsyncPublishing(10, Duration.ofSeconds(2));
+		// The pools differing by their acknowledgement timeout should not share their connectors
+		assertNotEquals(pool1.getConnectionSignature(), pool2.getConnectionSignature());
+		assertEquals(pool1.getConnectionSignature(), pool1.newSparkToNatsConnector().getConnectionSignature());
+		assertEquals(pool2.getConnectionSignature(), pool2.newSparkToNatsConnector().getConnectionSignature());
+	}
+}
@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.spark.to_nats;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class IdleConnectionReaperTest {
+
+	private static final String URL = "nats://localhost:4333";
+
+	@Test(timeout=5000)
+	public void testIdleConnectionIsClosed() throws Exception {
+		final SparkToStandardNatsConnectorImpl connector =
+				new SparkToStandardNatsConnectorImpl(URL, null, TimeUnit.MILLISECONDS.toNanos(50), null, "SUB");
+		final long closedConnections = IdleConnectionReaper.getClosedConnectionsCount();
+
+		connector.watchConnection();
+		assertTrue(IdleConnectionReaper.connectors.contains(connector));
+
+		while (IdleConnectionReaper.connectors.contains(connector)) {
+			TimeUnit.MILLISECONDS.sleep(10);
+		}
+		assertTrue(IdleConnectionReaper.getClosedConnectionsCount() > closedConnections);
+		assertTrue(IdleConnectionReaper.getSweepsCount() > 0);
+	}
+
+	@Test(timeout=5000)
+	public void testUsedConnectionIsKept() throws Exception {
+		final SparkToStandardNatsConnectorImpl connector =
+				new SparkToStandardNatsConnectorImpl(URL, null, TimeUnit.MILLISECONDS.toNanos(200), null, "SUB");
+
+		connector.watchConnection();
+		for (int i = 0; i < 40; i++) {
+			connector.resetClosingTimeout();
+			TimeUnit.MILLISECONDS.sleep(10);
+		}
+		assertTrue(IdleConnectionReaper.connectors.contains(connector));
+
+		connector.closeConnection();
+		assertFalse(IdleConnectionReaper.connectors.contains(connector));
+	}
+
+	@Test
+	public void testIdleBoundary() throws Exception {
+		final long timeout = TimeUnit.SECONDS.toNanos(10);
+		final SparkToStandardNatsConnectorImpl connector =
+				new SparkToStandardNatsConnectorImpl(URL, null, timeout, null, "SUB");
+
+		connector.watchConnection();
+		final long lastUsage = connector.lastUsage;
+		assertFalse(connector.isIdle(lastUsage + timeout + 1));
+		assertFalse(connector.isIdle(lastUsage + 2 * timeout));
+		assertTrue(connector.isIdle(lastUsage + 2 * timeout + 1));
+
+		connector.lastUsage = System.nanoTime() - timeout - timeout / 2;
+		IdleConnectionReaper.sweep();
+		assertTrue(IdleConnectionReaper.connectors.contains(connector));
+
+		connector.lastUsage = System.nanoTime() - 2 * timeout - 1;
+		IdleConnectionReaper.sweep();
+		assertFalse(IdleConnectionReaper.connectors.contains(connector));
+	}
+
+	@Test
+	public void testConnectionWithoutTimeoutIsNotWatched() throws Exception {
+		final SparkToStandardNatsConnectorImpl connector =
+				new SparkToStandardNatsConnectorImpl(URL, null, null, null, "SUB");
+
+		connector.watchConnection();
+		assertFalse(IdleConnectionReaper.connectors.contains(connector));
+		assertFalse(connector.isIdle(System.nanoTime()));
+	}
+}
@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.spark.to_nats;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.spark.SparkConf;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.junit.Test;
+
+import io.nats.stan.Connection;
+import scala.Tuple2;
+
+public class PartitionPublishingTest {
+
+	/**
+	 * @return a NATS Streaming Connection which records the subjects & payloads of the synchronous publications.
+	 */
+	static Connection recordingConnection(final List<String> published) {
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class },
+				(proxy, method, args) -> {
+					if ("publish".equals(method.getName()) && (args.length == 2)) {
+						published.add(args[0] + ":" + new String((byte[]) args[1]));
+					}
+					return null;
+				});
+	}
+
+	@Test
+	public void testPartitionPublishing() throws Exception {
+		final List<String> published = new ArrayList<String>();
+		final SparkToNatsStreamingConnectorImpl connector =
+				new SparkToNatsStreamingConnectorImpl("clusterID", "nats://localhost:4222", null, null, null, "SUB1", "SUB2");
+		connector.connection = recordingConnection(published);
+
+		final Iterator<Tuple2<Integer, Long>> result =
+				connector.publishPartition(3, Arrays.asList(1, 2).iterator(), i -> String.valueOf(i).getBytes());
+		assertEquals(new Tuple2<Integer, Long>(3, 2L), result.next());
+		assertFalse(result.hasNext());
+		assertEquals("[SUB1:1, SUB2:1, SUB1:2, SUB2:2]", published.toString());
+	}
+
+	@Test
+	public void testKeyValuePartitionPublishing() throws Exception {
+		final List<String> published = new ArrayList<String>();
+		final SparkToNatsStreamingConnectorImpl connector =
+				new SparkToNatsStreamingConnectorImpl("clusterID", "nats://localhost:4222", null, null, null, "ROOT.");
+		connector.connection = recordingConnection(published);
+
+		final Iterator<Tuple2<Integer, Long>> result =
+				connector.publishKeyValuePartition(0, Arrays.asList(new Tuple2<String, String>("A", "a"), new Tuple2<String, String>("B", "b")).iterator(),
+						str -> str.getBytes());
+		assertEquals(new Tuple2<Integer, Long>(0, 2L), result.next());
+		assertEquals("[ROOT.A:a, ROOT.B:b]", published.toString());
+	}
+
+	@Test
+	public void testEmptyPartition() throws Exception {
+		// No subject, nor connection, are required to publish an empty partition
+		final SparkToNatsStreamingConnectorImpl connector =
+				new SparkToNatsStreamingConnectorImpl("clusterID", "nats://localhost:4222", null, null, null);
+
+		final Iterator<Tuple2<Integer, Long>> result =
+				connector.publishPartition(1, Collections.<Integer>emptyIterator(), i -> String.valueOf(i).getBytes());
+		assertEquals(new Tuple2<Integer, Long>(1, 0L), result.next());
+		assertNull(connector.connection);
+	}
+
+	@Test
+	public void testPublicationCounts() throws Exception {
+		final List<Tuple2<Integer, Long>> counts =
+				Arrays.asList(new Tuple2<Integer, Long>(1, 5L), new Tuple2<Integer, Long>(0, 3L));
+		final RDDPublication publication = new RDDPublication(CompletableFuture.completedFuture(counts));
+
+		assertTrue(publication.isDone());
+		assertEquals("{0=3, 1=5}", publication.getPartitionCounts().toString());
+		assertEquals(8, publication.getTotalCount());
+	}
+
+	@Test(timeout=60000)
+	public void testEmptyRDDPublication() throws Exception {
+		final JavaSparkContext sc = new JavaSparkContext(new SparkConf().setAppName("PartitionPublishingTest").setMaster("local[2]"));
+		try {
+			final RDDPublication publication = 
+					SparkToNatsConnector
+						.newConnection()
+						.withNatsURL("nats://localhost:4222")
+						.withSubjects("SUB")
+						.publishToNats(sc.parallelize(Collections.<Integer>emptyList(), 2));
+			assertEquals("{0=0, 1=0}", publication.getPartitionCounts().toString());
+		} finally {
+			sc.stop();
+		}
+	}
+}
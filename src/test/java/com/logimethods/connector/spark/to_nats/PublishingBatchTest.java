@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.spark.to_nats;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.logimethods.connector.nats.spark.test.InProcessNatsServer;
+
+public class PublishingBatchTest {
+
+	@SuppressWarnings("serial")
+	static class RecordingConnector extends SparkToStandardNatsConnectorImpl {
+		final List<String> published = new ArrayList<String>();
+
+		RecordingConnector() {
+			super(null, null, null, null, "SUB");
+		}
+
+		@Override
+		protected void publishToNats(byte[] payload) throws Exception {
+			published.add(new String(payload));
+		}
+
+		@Override
+		protected void publishToNats(String postSubject, byte[] payload) throws Exception {
+			published.add(postSubject + ":" + new String(payload));
+		}
+
+		@Override
+		protected void flush() throws Exception {
+			published.add("FLUSH");
+		}
+	}
+
+	@Test
+	public void testMaxMessages() throws Exception {
+		final PublishingBatch batch = new PublishingBatch(3, Long.MAX_VALUE, Long.MAX_VALUE);
+		final RecordingConnector connector = new RecordingConnector();
+
+		assertFalse(batch.add(null, "A".getBytes()));
+		assertFalse(batch.add("key", "B".getBytes()));
+		assertTrue(batch.add(null, "C".getBytes()));
+		assertTrue(connector.published.isEmpty());
+
+		batch.publishTo(connector);
+		assertEquals(0, batch.size());
+		assertEquals("[A, key:B, C, FLUSH]", connector.published.toString());
+	}
+
+	@Test
+	public void testMaxBytes() throws Exception {
+		final PublishingBatch batch = new PublishingBatch(100, 5, Long.MAX_VALUE);
+
+		assertFalse(batch.add(null, "AB".getBytes()));
+		assertTrue(batch.add(null, "CDE".getBytes()));
+		batch.publishTo(new RecordingConnector());
+		assertFalse(batch.add(null, "AB".getBytes()));
+	}
+
+	@Test
+	public void testMaxLinger() throws Exception {
+		final PublishingBatch batch = new PublishingBatch(100, Long.MAX_VALUE, TimeUnit.MILLISECONDS.toNanos(20));
+
+		assertFalse(batch.add(null, "A".getBytes()));
+		TimeUnit.MILLISECONDS.sleep(30);
+		assertTrue(batch.add(null, "B".getBytes()));
+	}
+
+	@Test(timeout=10000)
+	public void testBurstIsOnTheWire() throws Exception {
+		try (InProcessNatsServer server = new InProcessNatsServer()) {
+			final SparkToStandardNatsConnectorImpl connector = new SparkToStandardNatsConnectorImpl(server.getURL(), null, null, null, "SUB");
+			try {
+				final PublishingBatch batch = new PublishingBatch(3, Long.MAX_VALUE, Long.MAX_VALUE);
+				assertFalse(batch.add(null, "A".getBytes()));
+				assertFalse(batch.add(null, "B".getBytes()));
+				TimeUnit.MILLISECONDS.sleep(100);
+				// The batch is not full yet: nothing has been written
+				assertEquals(0, server.getInMsgs());
+
+				assertTrue(batch.add(null, "C".getBytes()));
+				batch.publishTo(connector);
+				// The burst has been flushed, so the server already got all its messages
+				assertEquals(3, server.getInMsgs());
+			} finally {
+				connector.closeConnection();
+			}
+		}
+	}
+}
@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.spark.to_nats;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.logimethods.connector.nats_spark.Frames;
+
+public class PublishingFramesTest {
+
+	final List<String> published = new ArrayList<String>();
+
+	protected void publish(String postSubject, byte[] frame) {
+		final List<String> records = new ArrayList<String>();
+		Frames.unpack(frame, record -> records.add(new String(record)));
+		published.add(postSubject + ":" + records);
+	}
+
+	@Test
+	public void testFramesBySubject() throws Exception {
+		final PublishingFrames frames = new PublishingFrames(Frames.HEADER_SIZE + 2 * (Frames.RECORD_HEADER_SIZE + 1), Long.MAX_VALUE, this::publish);
+
+		frames.add("A", "1".getBytes());
+		frames.add("B", "2".getBytes());
+		frames.add("A", "3".getBytes());
+		assertTrue(published.isEmpty());
+		assertEquals(3, frames.size());
+
+		frames.add("A", "4".getBytes());
+		assertEquals("[A:[1, 3]]", published.toString());
+
+		frames.publishAll();
+		assertEquals(0, frames.size());
+		assertTrue(published.contains("B:[2]"));
+		assertTrue(published.contains("A:[4]"));
+	}
+
+	@Test
+	public void testMaxLinger() throws Exception {
+		final PublishingFrames frames = new PublishingFrames(1024, TimeUnit.MILLISECONDS.toNanos(20), this::publish);
+
+		frames.add(null, "1".getBytes());
+		frames.add("B", "2".getBytes());
+		TimeUnit.MILLISECONDS.sleep(30);
+		frames.add("B", "3".getBytes());
+
+		assertTrue(published.contains("null:[1]"));
+		assertTrue(published.contains("B:[2, 3]"));
+		assertEquals(0, frames.size());
+	}
+
+	@Test
+	public void testPoolWithFraming() throws Exception {
+		final SparkToStandardNatsConnectorPool pool = SparkToNatsConnectorPool.newPool().withFraming(64, java.time.Duration.ofSeconds(1));
+		final PublishingBatchTest.RecordingConnector connector = new PublishingBatchTest.RecordingConnector();
+		final PublishingFrames frames = pool.newPublishingFrames(connector, null);
+		for (String record : new String[] { "X", "Y" }) {
+			pool.publish(connector, null, frames, "key", record.getBytes());
+		}
+		pool.completePartition(connector, null, frames);
+		assertEquals(1, connector.published.size());
+		assertTrue(connector.published.get(0).startsWith("key:"));
+	}
+}
@@ -9,7 +9,11 @@ package com.logimethods.connector.spark.to_nats;
 
 import static org.junit.Assert.*;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.After;
 import org.junit.AfterClass;
@@ -75,4 +79,92 @@ public class SparkToNatsConnectorPoolTest {
 		assertEquals(3, connector.getSubjects().size());
     }
 
+
+    @Test
+    public void testConnectorsReuse() throws Exception {
+		final SparkToStandardNatsConnectorPool pool = SparkToNatsConnectorPool.newPool().withNatsURL("nats://localhost:4334").withSubjects("SUB");
+		final SparkToNatsConnectorPoolStatistics statistics = SparkToNatsConnectorPool.getStatistics();
+		final long hits = statistics.getHits();
+		final long creations = statistics.getCreations();
+
+		final SparkToNatsConnector<?> connector = pool.getConnector();
+		assertEquals(creations + 1, statistics.getCreations());
+		pool.returnConnector(connector);
+		assertSame(connector, pool.getConnector());
+		assertEquals(hits + 1, statistics.getHits());
+		assertEquals(creations + 1, statistics.getCreations());
+    }
+
+    @Test
+    public void testMaxIdleConnectors() throws Exception {
+		final SparkToStandardNatsConnectorPool pool = 
+				SparkToNatsConnectorPool.newPool().withNatsURL("nats://localhost:4335").withSubjects("SUB").withMaxIdleConnectors(2);
+		final long poolSize = SparkToNatsConnectorPool.poolSize();
+		final long evictions = SparkToNatsConnectorPool.getStatistics().getEvictions();
+
+		final SparkToNatsConnector<?> connector1 = pool.getConnector();
+		final SparkToNatsConnector<?> connector2 = pool.getConnector();
+		final SparkToNatsConnector<?> connector3 = pool.getConnector();
+		pool.returnConnector(connector1);
+		pool.returnConnector(connector2);
+		pool.returnConnector(connector3);
+
+		assertEquals(poolSize + 2, SparkToNatsConnectorPool.poolSize());
+		assertEquals(evictions + 1, SparkToNatsConnectorPool.getStatistics().getEvictions());
+		assertSame(connector2, pool.getConnector());
+		assertSame(connector1, pool.getConnector());
+    }
+
+    @Test
+    public void testDifferentlyConfiguredPools() throws Exception {
+		final SparkToStandardNatsConnectorPool pool1 = 
+				SparkToNatsConnectorPool.newPool().withNatsURL("nats://localhost:4337").withSubjects("SUB").withMaxIdleConnectors(1);
+		final SparkToStandardNatsConnectorPool pool2 = 
+				SparkToNatsConnectorPool.newPool().withNatsURL("nats://localhost:4337").withSubjects("SUB").withMaxIdleConnectors(3)
+					.withIdleConnectorsEviction(Duration.ofMinutes(1));
+		assertEquals(pool1.getConnectionSignature(), pool2.getConnectionSignature());
+		final long poolSize = SparkToNatsConnectorPool.poolSize();
+
+		final SparkToNatsConnector<?> connector1 = pool1.getConnector();
+		final SparkToNatsConnector<?> connector2 = pool1.getConnector();
+		pool1.returnConnector(connector1);
+		pool1.returnConnector(connector2);
+		assertEquals(poolSize + 1, SparkToNatsConnectorPool.poolSize());
+
+		final List<SparkToNatsConnector<?>> connectors = new ArrayList<SparkToNatsConnector<?>>();
+		for (int i = 0; i < 3; i++) {
+			connectors.add(pool2.getConnector());
+		}
+		assertFalse(connectors.contains(connector1));
+		for (SparkToNatsConnector<?> connector : connectors) {
+			pool2.returnConnector(connector);
+		}
+		assertEquals(poolSize + 4, SparkToNatsConnectorPool.poolSize());
+
+		final IdleConnectorsDeque connectorsPool2 = SparkToNatsConnectorPool.connectorsPoolMap.get(pool2.getPoolSignature());
+		assertEquals(3, connectorsPool2.maxIdle);
+		assertEquals(Duration.ofMinutes(1).toNanos(), connectorsPool2.idleEviction);
+		assertSame(connector1, pool1.getConnector());
+    }
+
+    @Test(timeout=5000)
+    public void testIdleConnectorsEviction() throws Exception {
+		final SparkToStandardNatsConnectorPool pool = 
+				SparkToNatsConnectorPool.newPool().withNatsURL("nats://localhost:4336").withSubjects("SUB")
+					.withMinIdleConnectors(1).withIdleConnectorsEviction(Duration.ofMillis(50));
+
+		final SparkToNatsConnector<?> connector1 = pool.getConnector();
+		final SparkToNatsConnector<?> connector2 = pool.getConnector();
+		pool.returnConnector(connector1);
+		pool.returnConnector(connector2);
+		final IdleConnectorsDeque connectorsPool = SparkToNatsConnectorPool.connectorsPoolMap.get(pool.getPoolSignature());
+		assertEquals(2, connectorsPool.size());
+
+		while (connectorsPool.size() > 1) {
+			TimeUnit.MILLISECONDS.sleep(10);
+		}
+		TimeUnit.MILLISECONDS.sleep(200);
+		assertEquals(1, connectorsPool.size());
+		assertSame(connector2, pool.getConnector());
+    }
 }
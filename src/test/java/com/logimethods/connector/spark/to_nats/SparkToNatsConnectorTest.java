@@ -3,8 +3,18 @@ package com.logimethods.connector.spark.to_nats;
 import static org.junit.Assert.*;
 import static com.logimethods.connector.spark.to_nats.SparkToNatsConnector.combineSubjects;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import org.junit.Test;
 
+import com.logimethods.connector.nats_spark.Compression;
+import com.logimethods.connector.nats_spark.PayloadCompressor;
+
+import io.nats.client.Connection;
+import io.nats.client.Message;
+
 public class SparkToNatsConnectorTest {
 
 	@Test
@@ -23,11 +33,34 @@ public class SparkToNatsConnectorTest {
 		assertEquals("B.C.D", combineSubjects("X.=>A.", "B.C.D"));
 		assertEquals("A.D", combineSubjects("*.*.=>A.", "B.C.D"));
 		assertEquals("A.B.D", combineSubjects("*.C=>A.B", "B.C.D"));
-		assertTrue(SparkToNatsConnector.subjectPatternMap.toString(), SparkToNatsConnector.subjectPatternMap.containsKey("*.C=>A.B"));
+		assertTrue(SubjectRouter.singleRuleRouters.toString(), SubjectRouter.singleRuleRouters.containsKey("*.C=>A.B"));
 		assertEquals("B.C.D", combineSubjects("*.X.*=>A.B", "B.C.D"));
 		assertEquals("A.b.C.D", combineSubjects("B=>b", "A.B.C.D"));
 		assertEquals("A.B.C.D", combineSubjects("^B=>b", "A.B.C.D"));
 		assertEquals("A.b.B.D", combineSubjects("B=>b", "A.B.B.D"));
 	}
 
+	@Test
+	public void testCompressedPublishing() throws Exception {
+		final List<byte[]> payloads = new ArrayList<byte[]>();
+		@SuppressWarnings("serial")
+		final SparkToStandardNatsConnectorImpl connector = new AllocationFreePublishingTest.CountingConnector("SUB") {
+			@Override
+			protected void publish(Connection localConnection, Message message) {
+				payloads.add(message.getData().clone());
+			}
+		}.withCompression(Compression.LZ4, 100);
+
+		final char[] chars = new char[1000];
+		Arrays.fill(chars, 'x');
+		final String large = new String(chars);
+		connector.publishToNats(Arrays.asList(large, "small").iterator(), null);
+		connector.publishToNats("small".getBytes());
+
+		assertEquals(3, payloads.size());
+		assertTrue(PayloadCompressor.isCompressed(payloads.get(0)));
+		assertEquals(large, new String(PayloadCompressor.decompress(payloads.get(0))));
+		assertEquals("small", new String(payloads.get(1)));
+		assertEquals("small", new String(payloads.get(2)));
+	}
 }
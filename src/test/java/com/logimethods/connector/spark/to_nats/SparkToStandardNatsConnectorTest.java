@@ -10,11 +10,13 @@ package com.logimethods.connector.spark.to_nats;
 import static com.logimethods.connector.nats.spark.test.UnitTestUtilities.NATS_SERVER_URL;
 import static com.logimethods.connector.nats_spark.Constants.PROP_SUBJECTS;
 import static io.nats.client.Constants.PROP_URL;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
 import java.util.Arrays;
 import java.util.List;
 import java.util.Properties;
+import java.util.SortedMap;
 
 import org.apache.log4j.Level;
 import org.apache.spark.SparkConf;
@@ -218,4 +220,28 @@ public class SparkToStandardNatsConnectorTest {
 		// wait for the subscribers to complete.
 		ns1.waitForCompletion();
 	}
+
+	@Test(timeout=4000)
+	public void testStaticSparkToNatsPartitionCounts() throws Exception {   
+		final List<Integer> data = UnitTestUtilities.getData();
+
+		StandardNatsSubscriber ns1 = UnitTestUtilities.getStandardNatsSubscriber(data, DEFAULT_SUBJECT, NATS_SERVER_URL);
+
+		JavaRDD<Integer> rdd = sc.parallelize(data, 3);
+
+		final RDDPublication publication = 
+				SparkToNatsConnector
+					.newConnection()
+					.withNatsURL(NATS_SERVER_URL)
+					.withSubjects(DEFAULT_SUBJECT)
+					.publishToNats(rdd);
+
+		assertEquals(true, publication.isDone());
+		final SortedMap<Integer, Long> counts = publication.getPartitionCounts();
+		assertEquals(3, counts.size());
+		assertEquals(data.size(), publication.getTotalCount());
+
+		// wait for the subscribers to complete.
+		ns1.waitForCompletion();
+	}
 }
@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Logimethods
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License (MIT)
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *******************************************************************************/
+package com.logimethods.connector.spark.to_nats;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class SubjectRouterTest {
+
+	@Test
+	public void testMultipleRules() {
+		final SubjectRouter router = new SubjectRouter("ROOT.", "*. =>A.", "*.C=>A.B", "^C=>c", "C=>c", "X.>=>Y");
+
+		assertEquals("[ROOT.B.C.D, A.C.D, A.B.D, B.C.D, B.c.D, B.C.D]", Arrays.toString(router.route("B.C.D")));
+		assertEquals("[ROOT.C.X.C, A.X.C, C.A.B, c.X.C, c.X.C, C.Y]", Arrays.toString(router.route("C.X.C")));
+		assertEquals("[ROOT.C, C, C, c, c, C]", Arrays.toString(router.route("C")));
+	}
+
+	@Test
+	public void testFullWildcard() {
+		assertEquals("A.Z", SubjectRouter.combine("B.>=>Z", "A.B.C.D"));
+		assertEquals("Z", SubjectRouter.combine(">=>Z", "A.B"));
+		assertEquals("A.B", SubjectRouter.combine("A.B.>=>Z", "A.B"));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testInvalidFullWildcard() {
+		new SubjectRouter("A.>.B=>Z");
+	}
+
+	@Test
+	public void testCache() {
+		final SubjectRouter router = new SubjectRouter(SubjectRouter.SEGMENTS_COUNT, "*.=>A.");
+
+		final String[] subjects = router.route("B.C");
+		assertSame(subjects, router.route("B.C"));
+		for (int i = 0; i < 1000; i++) {
+			router.route("B.C" + i);
+		}
+		assertTrue(router.cacheSize() <= SubjectRouter.SEGMENTS_COUNT);
+		assertEquals("[A.C]", Arrays.toString(router.route("B.C")));
+	}
+
+	@Test(timeout=10000)
+	public void testConcurrentRouting() throws Exception {
+		final SubjectRouter router = new SubjectRouter(64, "*.=>A.", "P.");
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 4; t++) {
+			final Thread thread = new Thread(() -> {
+				try {
+					for (int i = 0; i < 20000; i++) {
+						final String key = "K.V" + (i % 200);
+						final String[] subjects = router.route(key);
+						if (! subjects[0].equals("A.V" + (i % 200)) || ! subjects[1].equals("P." + key)) {
+							throw new AssertionError(Arrays.toString(subjects) + " for " + key);
+						}
+					}
+				} catch (Throwable e) {
+					failure.compareAndSet(null, e);
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertNull(String.valueOf(failure.get()), failure.get());
+	}
+}